@@ -0,0 +1,197 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy;
+
+import org.apache.log4j.Logger;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Base {@link Cache} implementation, providing the get-or-compute operations on top of
+ * a {@link SingleFlight} and the bulk operations as a sequence of single key
+ * operations, the counters as a compare-and-swap loop. Implementations override them
+ * when the underlying cache system can do better, e.g. fetch many keys in a single
+ * round trip.
+ *
+ * @param <K>
+ * @param <V>
+ */
+public abstract class AbstractCache<K, V> implements Cache<K, V> {
+
+	private static final Logger log = Logger.getLogger(AbstractCache.class);
+
+	private final SingleFlight<K, V> loads = new SingleFlight<K, V>();
+
+	@Override
+	public V get(K key, Callable<? extends V> loader) throws CacheException {
+		return get(key, loader, getTtl());
+	}
+
+	@Override
+	public V get(final K key, final Callable<? extends V> loader, final int ttl) throws CacheException {
+		final V value = get(key);
+		if (value != null) {
+			return value;
+		}
+		return loads.execute(key, new Callable<V>() {
+			@Override
+			public V call() throws Exception {
+				final V value = loader.call();
+				if (value != null) {
+					try {
+						put(key, value, ttl);
+					} catch (CacheException e) {
+						// the value is computed anyway, only the next callers miss it
+						log.warn("Unable to store the loaded entry for key [" + key + "]", e);
+					}
+				}
+				return value;
+			}
+		});
+	}
+
+	@Override
+	public boolean putIfAbsent(K key, V value) throws CacheException {
+		return putIfAbsent(key, value, getTtl());
+	}
+
+	@Override
+	public boolean replace(K key, V expected, V value) throws CacheException {
+		return replace(key, expected, value, getTtl());
+	}
+
+	@Override
+	public boolean cas(K key, long version, V value) throws CacheException {
+		return cas(key, version, value, getTtl());
+	}
+
+	@Override
+	public long increment(K key, long delta, long initial) throws CacheException {
+		return increment(key, delta, initial, getTtl());
+	}
+
+	@Override
+	public long increment(K key, long delta, long initial, int ttl) throws CacheException {
+		checkCounter(delta, initial);
+		return addToCounter(key, delta, initial, ttl);
+	}
+
+	@Override
+	public long decrement(K key, long delta, long initial) throws CacheException {
+		return decrement(key, delta, initial, getTtl());
+	}
+
+	@Override
+	public long decrement(K key, long delta, long initial, int ttl) throws CacheException {
+		checkCounter(delta, initial);
+		return addToCounter(key, -delta, initial, ttl);
+	}
+
+	/*
+	 * Counter stored as a Long value and updated with a compare-and-swap loop
+	 */
+	@SuppressWarnings("unchecked")
+	private long addToCounter(K key, long delta, long initial, int ttl) throws CacheException {
+		while (true) {
+			final VersionedValue<V> current = gets(key);
+			if (current == null) {
+				if (putIfAbsent(key, (V) Long.valueOf(initial), ttl)) {
+					return initial;
+				}
+				continue;
+			}
+			final long value = Math.max(0, counterValue(key, current.getValue()) + delta);
+			if (casCounter(key, current.getVersion(), (V) Long.valueOf(value))) {
+				return value;
+			}
+		}
+	}
+
+	/**
+	 * Update a counter if its entry is still at the given version, keeping its expiration.
+	 * The default implementation goes through {@link #cas(Object, long, Object, int)} and
+	 * resets the time-to-live to the default one: override it when the underlying cache
+	 * system can write an entry with its current expiration.
+	 *
+	 * @param key     the key of the counter
+	 * @param version the version read with {@link #gets(Object)}
+	 * @param value   the new value of the counter, a {@link Long}
+	 * @return {@code true} if the counter was updated
+	 * @throws CacheException if there is a problem accessing the underlying cache system
+	 */
+	protected boolean casCounter(K key, long version, V value) throws CacheException {
+		return cas(key, version, value, getTtl());
+	}
+
+	/**
+	 * @param key   the key of the entry
+	 * @param value the cached value
+	 * @return the value of the counter
+	 * @throws CacheException if the value is not a counter
+	 */
+	protected static long counterValue(Object key, Object value) throws CacheException {
+		if (!(value instanceof Long)) {
+			throw new CacheException("Entry for key [" + key + "] is not a counter");
+		}
+		return (Long) value;
+	}
+
+	protected static void checkCounter(long delta, long initial) {
+		if (delta < 0 || initial < 0) {
+			throw new IllegalArgumentException("Negative counter delta " + delta + " or initial value " + initial);
+		}
+	}
+
+	@Override
+	public Map<K, V> getAll(Collection<? extends K> keys) throws CacheException {
+		final Map<K, V> values = new HashMap<K, V>();
+		for (K key : keys) {
+			final V value = get(key);
+			if (value != null) {
+				values.put(key, value);
+			}
+		}
+		return values;
+	}
+
+	@Override
+	public void putAll(Map<? extends K, ? extends V> entries) throws CacheException {
+		putAll(entries, getTtl());
+	}
+
+	@Override
+	public void putAll(Map<? extends K, ? extends V> entries, int ttl) throws CacheException {
+		for (Map.Entry<? extends K, ? extends V> entry : entries.entrySet()) {
+			put(entry.getKey(), entry.getValue(), ttl);
+		}
+	}
+
+	@Override
+	public void removeAll(Collection<? extends K> keys) throws CacheException {
+		for (K key : keys) {
+			remove(key);
+		}
+	}
+
+	/**
+	 * @return default time-to-live of the entries
+	 */
+	public abstract int getTtl();
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Non-blocking view of a {@link Cache}: the operations return as soon as they are
+ * issued and their results are delivered through a {@link CacheFuture}, so callers
+ * such as event loops don't need a thread per outstanding request. Failures of the
+ * underlying cache system are reported by the future rather than thrown.
+ * <p/>
+ * Implemented by the memcached caches on top of the client completion callbacks and,
+ * for uniformity, by the on heap caches, whose futures are already completed.
+ *
+ * @param <K>
+ * @param <V>
+ */
+public interface AsyncCache<K, V> {
+
+	/**
+	 * Returns the Cached value stored under the specified {@code key}
+	 *
+	 * @param key the key that the value was previous added with
+	 * @return future of the cached object, completed with {@code null} if there is no Cache entry
+	 */
+	public CacheFuture<V> getAsync(K key);
+
+	/**
+	 * Returns the Cached value stored under the specified {@code key} and
+	 * resets its time-to-live
+	 *
+	 * @param key the key that the value was previous added with
+	 * @param ttl new time-to-live of the entry
+	 * @return future of the cached object, completed with {@code null} if there is no Cache entry
+	 */
+	public CacheFuture<V> getAndTouchAsync(K key, int ttl);
+
+	/**
+	 * Returns the Cached values stored under the specified {@code keys}
+	 *
+	 * @param keys the keys that the values were previous added with
+	 * @return future of the cached objects by key, keys without a Cache entry are not in the map
+	 */
+	public CacheFuture<Map<K, V>> getAllAsync(Collection<? extends K> keys);
+
+	/**
+	 * Adds a Cache entry.
+	 *
+	 * @param key   the key used to identify the object being stored.
+	 * @param value the value to be stored in the cache.
+	 * @return future completed with {@code true} once the entry is stored
+	 */
+	public CacheFuture<Boolean> putAsync(K key, V value);
+
+	/**
+	 * Adds a Cache entry.
+	 *
+	 * @param key   the key used to identify the object being stored.
+	 * @param value the value to be stored in the cache.
+	 * @param ttl   time-to-live for the entry
+	 * @return future completed with {@code true} once the entry is stored
+	 */
+	public CacheFuture<Boolean> putAsync(K key, V value, int ttl);
+
+	/**
+	 * Remove the cache entry corresponding to the specified key.
+	 *
+	 * @param key the key of the entry to be removed.
+	 * @return future completed with {@code true} if there was an entry for the key
+	 */
+	public CacheFuture<Boolean> removeAsync(K key);
+
+}
@@ -18,6 +18,10 @@ package com.googlecode.memcachefy;
 
 import com.googlecode.memcachefy.stats.CacheStatistics;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
 /**
  * A Cache efficiently stores temporary objects primarily to improve an application's performance.
  *
@@ -49,6 +53,35 @@ public interface Cache<K, V> {
 	 */
 	public V getAndTouch(K key, int ttl) throws CacheException;
 
+	/**
+	 * Returns the Cached value stored under the specified {@code key}, computing and
+	 * storing it with the default time-to-live if there is no Cache entry. Concurrent
+	 * misses for the same {@code key} within the JVM are coalesced: a single caller
+	 * runs the {@code loader} and the others wait for its result.
+	 *
+	 * @param key    the key of the entry
+	 * @param loader computes the value, which is not stored if {@code null}
+	 * @return the cached or computed object
+	 * @throws com.googlecode.memcachefy.CacheException
+	 *          if there is a problem accessing the underlying cache system or the
+	 *          {@code loader} failed, its exception being the cause
+	 */
+	public V get(K key, Callable<? extends V> loader) throws CacheException;
+
+	/**
+	 * Returns the Cached value stored under the specified {@code key}, computing and
+	 * storing it if there is no Cache entry. See {@link #get(Object, Callable)}.
+	 *
+	 * @param key    the key of the entry
+	 * @param loader computes the value, which is not stored if {@code null}
+	 * @param ttl    time-to-live for the computed entry
+	 * @return the cached or computed object
+	 * @throws com.googlecode.memcachefy.CacheException
+	 *          if there is a problem accessing the underlying cache system or the
+	 *          {@code loader} failed, its exception being the cause
+	 */
+	public V get(K key, Callable<? extends V> loader, int ttl) throws CacheException;
+
 	/**
 	 * Adds a Cache entry and return the previous value.
 	 *
@@ -95,6 +128,155 @@ public interface Cache<K, V> {
 	 */
 	public void put(K key, V value, int ttl) throws CacheException;
 
+	/**
+	 * Adds a Cache entry unless there is already one for the key.
+	 *
+	 * @param key   the key used to identify the object being stored.
+	 * @param value the value to be stored in the cache.
+	 * @return {@code true} if the entry was added
+	 * @throws com.googlecode.memcachefy.CacheException
+	 *          if there is a problem accessing the underlying cache system
+	 */
+	public boolean putIfAbsent(K key, V value) throws CacheException;
+
+	/**
+	 * Adds a Cache entry unless there is already one for the key.
+	 *
+	 * @param key   the key used to identify the object being stored.
+	 * @param value the value to be stored in the cache.
+	 * @param ttl   time-to-live for the entry
+	 * @return {@code true} if the entry was added
+	 * @throws com.googlecode.memcachefy.CacheException
+	 *          if there is a problem accessing the underlying cache system
+	 */
+	public boolean putIfAbsent(K key, V value, int ttl) throws CacheException;
+
+	/**
+	 * Replaces the value of a Cache entry only if it currently equals {@code expected}.
+	 *
+	 * @param key      the key of the entry.
+	 * @param expected the value the entry is expected to hold.
+	 * @param value    the new value to be stored in the cache.
+	 * @return {@code true} if the value was replaced
+	 * @throws com.googlecode.memcachefy.CacheException
+	 *          if there is a problem accessing the underlying cache system
+	 */
+	public boolean replace(K key, V expected, V value) throws CacheException;
+
+	/**
+	 * Replaces the value of a Cache entry only if it currently equals {@code expected}.
+	 *
+	 * @param key      the key of the entry.
+	 * @param expected the value the entry is expected to hold.
+	 * @param value    the new value to be stored in the cache.
+	 * @param ttl      time-to-live for the entry
+	 * @return {@code true} if the value was replaced
+	 * @throws com.googlecode.memcachefy.CacheException
+	 *          if there is a problem accessing the underlying cache system
+	 */
+	public boolean replace(K key, V expected, V value, int ttl) throws CacheException;
+
+	/**
+	 * Returns the Cached value stored under the specified {@code key} along with the
+	 * version of the entry, to be updated with {@link #cas(Object, long, Object)}.
+	 *
+	 * @param key the key that the value was previous added with
+	 * @return the versioned value or {@code null} if there is no entry for the specified {@code key}
+	 * @throws com.googlecode.memcachefy.CacheException
+	 *          if there is a problem accessing the underlying cache system
+	 */
+	public VersionedValue<V> gets(K key) throws CacheException;
+
+	/**
+	 * Replaces the value of a Cache entry only if it is still at the given version.
+	 *
+	 * @param key     the key of the entry.
+	 * @param version the version returned by {@link #gets(Object)}.
+	 * @param value   the new value to be stored in the cache.
+	 * @return {@code true} if the value was replaced, {@code false} if the entry was
+	 *         written or removed since it was read
+	 * @throws com.googlecode.memcachefy.CacheException
+	 *          if there is a problem accessing the underlying cache system
+	 */
+	public boolean cas(K key, long version, V value) throws CacheException;
+
+	/**
+	 * Replaces the value of a Cache entry only if it is still at the given version.
+	 *
+	 * @param key     the key of the entry.
+	 * @param version the version returned by {@link #gets(Object)}.
+	 * @param value   the new value to be stored in the cache.
+	 * @param ttl     time-to-live for the entry
+	 * @return {@code true} if the value was replaced, {@code false} if the entry was
+	 *         written or removed since it was read
+	 * @throws com.googlecode.memcachefy.CacheException
+	 *          if there is a problem accessing the underlying cache system
+	 */
+	public boolean cas(K key, long version, V value, int ttl) throws CacheException;
+
+	/**
+	 * Atomically adds {@code delta} to the counter stored under the specified {@code key},
+	 * creating it with the {@code initial} value if there is no Cache entry. Counters hold
+	 * a {@code long} regardless of the value type of the cache and are meant to be read
+	 * and updated only through {@code increment} and {@code decrement}: use a
+	 * {@code delta} of zero to read one.
+	 *
+	 * @param key     the key of the counter
+	 * @param delta   non-negative amount to be added
+	 * @param initial non-negative value of a new counter, returned as is
+	 * @return the value of the counter after the increment
+	 * @throws com.googlecode.memcachefy.CacheException
+	 *          if there is a problem accessing the underlying cache system or
+	 *          the entry is not a counter
+	 */
+	public long increment(K key, long delta, long initial) throws CacheException;
+
+	/**
+	 * Atomically adds {@code delta} to the counter stored under the specified {@code key}.
+	 * See {@link #increment(Object, long, long)}.
+	 *
+	 * @param key     the key of the counter
+	 * @param delta   non-negative amount to be added
+	 * @param initial non-negative value of a new counter, returned as is
+	 * @param ttl     time-to-live for a new counter
+	 * @return the value of the counter after the increment
+	 * @throws com.googlecode.memcachefy.CacheException
+	 *          if there is a problem accessing the underlying cache system or
+	 *          the entry is not a counter
+	 */
+	public long increment(K key, long delta, long initial, int ttl) throws CacheException;
+
+	/**
+	 * Atomically subtracts {@code delta} from the counter stored under the specified
+	 * {@code key}, creating it with the {@code initial} value if there is no Cache entry.
+	 * As in memcached, a counter never goes below zero.
+	 * See {@link #increment(Object, long, long)}.
+	 *
+	 * @param key     the key of the counter
+	 * @param delta   non-negative amount to be subtracted
+	 * @param initial non-negative value of a new counter, returned as is
+	 * @return the value of the counter after the decrement
+	 * @throws com.googlecode.memcachefy.CacheException
+	 *          if there is a problem accessing the underlying cache system or
+	 *          the entry is not a counter
+	 */
+	public long decrement(K key, long delta, long initial) throws CacheException;
+
+	/**
+	 * Atomically subtracts {@code delta} from the counter stored under the specified
+	 * {@code key}. See {@link #decrement(Object, long, long)}.
+	 *
+	 * @param key     the key of the counter
+	 * @param delta   non-negative amount to be subtracted
+	 * @param initial non-negative value of a new counter, returned as is
+	 * @param ttl     time-to-live for a new counter
+	 * @return the value of the counter after the decrement
+	 * @throws com.googlecode.memcachefy.CacheException
+	 *          if there is a problem accessing the underlying cache system or
+	 *          the entry is not a counter
+	 */
+	public long decrement(K key, long delta, long initial, int ttl) throws CacheException;
+
 	/**
 	 * Remove the cache entry corresponding to the specified key.
 	 *
@@ -105,6 +287,45 @@ public interface Cache<K, V> {
 	 */
 	public V remove(K key) throws CacheException;
 
+	/**
+	 * Returns the Cached values stored under the specified {@code keys}, fetched
+	 * in as few round trips to the underlying cache system as possible.
+	 *
+	 * @param keys the keys that the values were previous added with
+	 * @return the cached objects by key, keys without a Cache entry are not in the map
+	 * @throws com.googlecode.memcachefy.CacheException
+	 *          if there is a problem accessing the underlying cache system
+	 */
+	public Map<K, V> getAll(Collection<? extends K> keys) throws CacheException;
+
+	/**
+	 * Adds all the Cache entries.
+	 *
+	 * @param entries the values to be stored in the cache by key.
+	 * @throws com.googlecode.memcachefy.CacheException
+	 *          if there is a problem accessing the underlying cache system
+	 */
+	public void putAll(Map<? extends K, ? extends V> entries) throws CacheException;
+
+	/**
+	 * Adds all the Cache entries.
+	 *
+	 * @param entries the values to be stored in the cache by key.
+	 * @param ttl     time-to-live for the entries
+	 * @throws com.googlecode.memcachefy.CacheException
+	 *          if there is a problem accessing the underlying cache system
+	 */
+	public void putAll(Map<? extends K, ? extends V> entries, int ttl) throws CacheException;
+
+	/**
+	 * Remove the cache entries corresponding to the specified keys.
+	 *
+	 * @param keys the keys of the entries to be removed.
+	 * @throws com.googlecode.memcachefy.CacheException
+	 *          if there is a problem accessing the underlying cache system
+	 */
+	public void removeAll(Collection<? extends K> keys) throws CacheException;
+
 	/**
 	 * Clear all entries from the cache.
 	 *
@@ -16,9 +16,15 @@
 package com.googlecode.memcachefy;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.googlecode.memcachefy.disk.DiskCacheManager;
 import com.googlecode.memcachefy.inmemory.InMemoryCacheManager;
 import com.googlecode.memcachefy.memcached.CacheWrapper;
+import com.googlecode.memcachefy.memcached.ChunkManifest;
+import com.googlecode.memcachefy.memcached.Memcached;
+import com.googlecode.memcachefy.memcached.MemcachedClientPool;
 import com.googlecode.memcachefy.memcached.MemcachedManager;
+import com.googlecode.memcachefy.near.NearCacheManager;
+import com.googlecode.memcachefy.offheap.OffHeapCacheManager;
 import org.apache.log4j.Logger;
 
 import javax.xml.bind.JAXBContext;
@@ -41,6 +47,12 @@ public class CacheFactory {
 	private static final int DEFAULT_ENTRY_TTL = 600;
 	private static final int INITIAL_MAX_ENTRIES = 5000;
 	private static final CacheType DEFAULT_CACHE_TYPE = CacheType.ONHEAP;
+	private static final EvictionPolicy DEFAULT_EVICTION_POLICY = EvictionPolicy.LRU;
+	private static final int DEFAULT_SNAPSHOT_INTERVAL = 300;
+	private static final int DEFAULT_WRITE_BEHIND_BATCH_SIZE = 100;
+	private static final long DEFAULT_WRITE_BEHIND_INTERVAL = 100;
+	private static final int DEFAULT_NEAR_MAX_ENTRIES = 1000;
+	private static final int DEFAULT_NEAR_TTL = 5;
 
 	public static final String DEFAULT_PROPERTIES = "memcachefy.properties";
 	public static final String DEFAULT_PROPERTIES_XML = "memcachefy-properties.xml";
@@ -91,6 +103,26 @@ public class CacheFactory {
 		return cacheManager.getCache(name);
 	}
 
+	/**
+	 * Retrieve a cache with primitive {@code long} keys using the parameters present in
+	 * the default configuration file. Only available for {@code CacheType.ONHEAP} caches.
+	 *
+	 * @param name Cache name
+	 * @param <V>  Value type
+	 * @return A LongKeyCache object
+	 * @throws Exception
+	 */
+	public static <V> LongKeyCache<V> getLongKeyCache(String name) throws Exception {
+		if (cacheManager == null) {
+			loadDefaultProperties();
+			cacheManager = getCacheManager(properties);
+		}
+		if (!(cacheManager instanceof InMemoryCacheManager)) {
+			throw new CacheException("Long keyed caches are only available for the ONHEAP cache type");
+		}
+		return ((InMemoryCacheManager) cacheManager).getLongKeyCache(name);
+	}
+
 	private static synchronized void loadDefaultProperties() throws IOException {
 
 		properties.clear();
@@ -128,6 +160,93 @@ public class CacheFactory {
 			log.error("Error reading maxEntries", e);
 		}
 
+		// 0 keeps the default budget of the off-heap and disk caches and bounds the
+		// on heap caches by number of entries
+		long maxBytes = 0;
+		try {
+			maxBytes = Long.parseLong(properties.getProperty("cache.maxBytes", "0"));
+		} catch (Exception e) {
+			log.error("Error reading maxBytes", e);
+		}
+
+		Weigher<Object, Object> weigher = Weighers.deepSize();
+		final String weigherName = properties.getProperty("cache.weigher", "DEEP");
+		if ("SERIALIZED".equalsIgnoreCase(weigherName)) {
+			weigher = Weighers.serializedSize();
+		} else if ("SHALLOW".equalsIgnoreCase(weigherName)) {
+			weigher = Weighers.shallowSize();
+		} else if (!"DEEP".equalsIgnoreCase(weigherName)) {
+			log.error("Unknown weigher " + weigherName);
+		}
+
+		final String directory = properties.getProperty("cache.directory",
+				System.getProperty("java.io.tmpdir") + File.separator + "memcachefy");
+
+		// 0 lets the entries expire, see CacheLoader
+		int refreshAfterWrite = 0;
+		try {
+			refreshAfterWrite = Integer.parseInt(properties.getProperty("cache.refreshAfterWrite", "0"));
+		} catch (Exception e) {
+			log.error("Error reading refreshAfterWrite", e);
+		}
+
+		// snapshots of the on heap caches are disabled unless a directory is set
+		final String snapshotDirectory = properties.getProperty("cache.snapshot.directory");
+		int snapshotInterval = DEFAULT_SNAPSHOT_INTERVAL;
+		try {
+			snapshotInterval = Integer.parseInt(properties.getProperty("cache.snapshot.interval", "300"));
+		} catch (Exception e) {
+			log.error("Error reading snapshot interval", e);
+		}
+		int snapshotMaxEntries = 0;
+		try {
+			snapshotMaxEntries = Integer.parseInt(properties.getProperty("cache.snapshot.maxEntries", "0"));
+		} catch (Exception e) {
+			log.error("Error reading snapshot maxEntries", e);
+		}
+
+		// write-behind of the memcached puts is disabled unless a capacity is set
+		int writeBehindCapacity = 0;
+		int writeBehindBatchSize = DEFAULT_WRITE_BEHIND_BATCH_SIZE;
+		long writeBehindInterval = DEFAULT_WRITE_BEHIND_INTERVAL;
+		try {
+			writeBehindCapacity = Integer.parseInt(properties.getProperty("memcached.writeBehind.capacity", "0"));
+			writeBehindBatchSize = Integer.parseInt(properties.getProperty("memcached.writeBehind.batchSize", "100"));
+			writeBehindInterval = Long.parseLong(properties.getProperty("memcached.writeBehind.interval", "100"));
+		} catch (Exception e) {
+			log.error("Error reading write-behind settings", e);
+		}
+
+		// values larger than a memcached item are split into chunks
+		int chunkSize = Memcached.DEFAULT_CHUNK_SIZE;
+		try {
+			chunkSize = Integer.parseInt(properties.getProperty("memcached.chunkSize",
+					String.valueOf(Memcached.DEFAULT_CHUNK_SIZE)));
+		} catch (Exception e) {
+			log.error("Error reading chunk size", e);
+		}
+
+		// memcached clients shared by the caches
+		int poolSize = 1;
+		MemcachedClientPool.Selection poolSelection = MemcachedClientPool.Selection.ROUND_ROBIN;
+		try {
+			poolSize = Integer.parseInt(properties.getProperty("memcached.pool.size", "1"));
+			poolSelection = MemcachedClientPool.Selection.valueOf(
+					properties.getProperty("memcached.pool.selection", "ROUND_ROBIN"));
+		} catch (Exception e) {
+			log.error("Error reading client pool settings", e);
+		}
+
+		// entries kept in memory by the near caches
+		int nearMaxEntries = DEFAULT_NEAR_MAX_ENTRIES;
+		int nearTtl = DEFAULT_NEAR_TTL;
+		try {
+			nearMaxEntries = Integer.parseInt(properties.getProperty("near.maxEntries", "1000"));
+			nearTtl = Integer.parseInt(properties.getProperty("near.ttl", "5"));
+		} catch (Exception e) {
+			log.error("Error reading near cache settings", e);
+		}
+
 		CacheType type = DEFAULT_CACHE_TYPE;
 		try {
 			type = CacheType.valueOf(properties.getProperty("cache.type", "ONHEAP"));
@@ -135,7 +254,14 @@ public class CacheFactory {
 			log.error("Error reading cache type", e);
 		}
 
-		CacheTranscoder transcoder = CacheType.MEMCACHED.equals(type) ?
+		EvictionPolicy evictionPolicy = DEFAULT_EVICTION_POLICY;
+		try {
+			evictionPolicy = EvictionPolicy.valueOf(properties.getProperty("cache.evictionPolicy", "LRU"));
+		} catch (Exception e) {
+			log.error("Error reading eviction policy", e);
+		}
+
+		CacheTranscoder transcoder = CacheType.MEMCACHED.equals(type) || CacheType.NEAR.equals(type) ?
 				CacheTranscoder.KRYO : CacheTranscoder.NONE;
 		try {
 			transcoder = CacheTranscoder.valueOf(properties.getProperty("memcached.transcoder", "KRYO"));
@@ -143,14 +269,21 @@ public class CacheFactory {
 			log.error("Error reading transcoder", e);
 		}
 
-		if (CacheType.MEMCACHED.equals(type)) {
+		if (CacheType.MEMCACHED.equals(type) || CacheType.NEAR.equals(type)) {
 			final MemcachedManager mcache = new MemcachedManager();
 			mcache.setCacheTranscoder(transcoder);
 			mcache.setDefaultTtl(ttl);
+			mcache.setRefreshAfterWrite(refreshAfterWrite);
+			mcache.setWriteBehindCapacity(writeBehindCapacity);
+			mcache.setWriteBehindBatchSize(writeBehindBatchSize);
+			mcache.setWriteBehindInterval(writeBehindInterval);
+			mcache.setChunkSize(chunkSize);
+			mcache.setPoolSize(poolSize);
+			mcache.setPoolSelection(poolSelection);
 			mcache.setHosts(properties.getProperty("memcached.hosts", ""));
 
 			if (CacheTranscoder.JAXB.equals(transcoder)) {
-				Class[] jaxbClasses = new Class[]{CacheWrapper.class};
+				Class[] jaxbClasses = new Class[]{CacheWrapper.class, ChunkManifest.class};
 				try {
 					mcache.setContext(JAXBContext.newInstance(jaxbClasses));
 				} catch (JAXBException e) {
@@ -159,11 +292,40 @@ public class CacheFactory {
 			} else if (CacheTranscoder.KRYO.equals(transcoder)) {
 				mcache.setKryo(new Kryo());
 			}
-			manager = mcache;
+			if (CacheType.NEAR.equals(type)) {
+				final NearCacheManager ncache = new NearCacheManager(mcache);
+				ncache.setMaxEntries(nearMaxEntries);
+				ncache.setLocalTtl(nearTtl);
+				manager = ncache;
+			} else {
+				manager = mcache;
+			}
+		} else if (CacheType.OFFHEAP.equals(type)) {
+			OffHeapCacheManager ocache = new OffHeapCacheManager();
+			if (maxBytes > 0) {
+				ocache.setMaxBytes(maxBytes);
+			}
+			ocache.setTtl(ttl);
+			manager = ocache;
+		} else if (CacheType.DISK.equals(type)) {
+			DiskCacheManager dcache = new DiskCacheManager();
+			dcache.setDirectory(directory);
+			if (maxBytes > 0) {
+				dcache.setMaxBytes(maxBytes);
+			}
+			dcache.setTtl(ttl);
+			manager = dcache;
 		} else {
 			InMemoryCacheManager icache = new InMemoryCacheManager();
 			icache.setMaxEntries(maxEntries);
 			icache.setTtl(ttl);
+			icache.setEvictionPolicy(evictionPolicy);
+			icache.setMaxBytes(maxBytes);
+			icache.setWeigher(weigher);
+			icache.setRefreshAfterWrite(refreshAfterWrite);
+			icache.setSnapshotDirectory(snapshotDirectory);
+			icache.setSnapshotInterval(snapshotInterval);
+			icache.setSnapshotMaxEntries(snapshotMaxEntries);
 			manager = icache;
 		}
 
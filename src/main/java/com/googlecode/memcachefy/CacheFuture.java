@@ -0,0 +1,187 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Result of an {@link AsyncCache} operation. Besides the blocking {@link Future}
+ * methods, {@link CacheFutureListener}s can be registered to be called back on
+ * completion.
+ *
+ * @param <V>
+ */
+public class CacheFuture<V> implements Future<V> {
+
+	private static final Logger log = Logger.getLogger(CacheFuture.class);
+
+	private final Future<?> source;
+	private final CountDownLatch latch = new CountDownLatch(1);
+	// guarded by this, null once completed
+	private List<CacheFutureListener<V>> listeners = new ArrayList<CacheFutureListener<V>>(2);
+	private volatile V value;
+	private volatile Throwable failure;
+	private volatile boolean cancelled;
+
+	/**
+	 * @param source the operation this future is completed by, cancelled along with it
+	 */
+	public CacheFuture(Future<?> source) {
+		this.source = source;
+	}
+
+	public CacheFuture() {
+		this(null);
+	}
+
+	/**
+	 * @return a future already completed with the value
+	 */
+	public static <V> CacheFuture<V> completed(V value) {
+		final CacheFuture<V> future = new CacheFuture<V>();
+		future.set(value);
+		return future;
+	}
+
+	/**
+	 * @return a future already failed with the throwable
+	 */
+	public static <V> CacheFuture<V> failed(Throwable failure) {
+		final CacheFuture<V> future = new CacheFuture<V>();
+		future.setException(failure);
+		return future;
+	}
+
+	/**
+	 * Complete the future with the value
+	 *
+	 * @return {@code false} if the future was already done
+	 */
+	public boolean set(V value) {
+		return complete(value, null, false);
+	}
+
+	/**
+	 * Complete the future with a failure, rethrown by {@link #get()} as the cause of
+	 * an {@link ExecutionException}
+	 *
+	 * @return {@code false} if the future was already done
+	 */
+	public boolean setException(Throwable failure) {
+		if (failure == null) {
+			throw new IllegalArgumentException("Failure cannot be null.");
+		}
+		return complete(null, failure, false);
+	}
+
+	/**
+	 * Register a callback, invoked right away if the future is already done
+	 *
+	 * @return this future
+	 */
+	public CacheFuture<V> addListener(CacheFutureListener<V> listener) {
+		synchronized (this) {
+			if (listeners != null) {
+				listeners.add(listener);
+				return this;
+			}
+		}
+		notifyListener(listener);
+		return this;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		if (!complete(null, null, true)) {
+			return false;
+		}
+		if (source != null) {
+			source.cancel(mayInterruptIfRunning);
+		}
+		return true;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	@Override
+	public boolean isDone() {
+		return latch.getCount() == 0;
+	}
+
+	@Override
+	public V get() throws InterruptedException, ExecutionException {
+		latch.await();
+		return result();
+	}
+
+	@Override
+	public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!latch.await(timeout, unit)) {
+			throw new TimeoutException("Cache operation timed out after " + timeout + " " + unit);
+		}
+		return result();
+	}
+
+	private V result() throws ExecutionException {
+		if (cancelled) {
+			throw new CancellationException();
+		}
+		if (failure != null) {
+			throw new ExecutionException(failure);
+		}
+		return value;
+	}
+
+	private boolean complete(V value, Throwable failure, boolean cancelled) {
+		final List<CacheFutureListener<V>> completed;
+		synchronized (this) {
+			if (listeners == null) {
+				return false;
+			}
+			this.value = value;
+			this.failure = failure;
+			this.cancelled = cancelled;
+			completed = listeners;
+			listeners = null;
+		}
+		latch.countDown();
+		for (CacheFutureListener<V> listener : completed) {
+			notifyListener(listener);
+		}
+		return true;
+	}
+
+	private void notifyListener(CacheFutureListener<V> listener) {
+		try {
+			listener.onComplete(this);
+		} catch (RuntimeException e) {
+			log.error("Error notifying cache future listener " + listener, e);
+		}
+	}
+
+}
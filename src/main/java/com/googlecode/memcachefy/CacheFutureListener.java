@@ -0,0 +1,34 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy;
+
+/**
+ * Callback notified when a {@link CacheFuture} completes
+ *
+ * @param <V>
+ */
+public interface CacheFutureListener<V> {
+
+	/**
+	 * Invoked once the future is done, {@link CacheFuture#get()} then returns without
+	 * blocking. Listeners run on the thread completing the future, or on the thread
+	 * adding them if it is already done, so they should not block either.
+	 *
+	 * @param future the completed future
+	 */
+	void onComplete(CacheFuture<V> future);
+
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy;
+
+/**
+ * Computes the value of a cache entry. Caches given a loader refresh their entries
+ * ahead of time: once an entry is older than the cache {@code refreshAfterWrite}
+ * setting, the next read still returns the current value but also reloads it in the
+ * background, and the reloaded value replaces it atomically.
+ *
+ * @param <K>
+ * @param <V>
+ */
+public interface CacheLoader<K, V> {
+
+	/**
+	 * Compute the value stored under the key
+	 *
+	 * @param key the key of the entry
+	 * @return the value, or {@code null} if the entry should be removed from the cache
+	 * @throws Exception if the value could not be computed, the current value is then kept
+	 */
+	V load(K key) throws Exception;
+
+}
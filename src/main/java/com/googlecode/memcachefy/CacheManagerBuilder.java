@@ -16,13 +16,20 @@
 package com.googlecode.memcachefy;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.googlecode.memcachefy.disk.DiskCacheManager;
 import com.googlecode.memcachefy.inmemory.InMemoryCacheManager;
 import com.googlecode.memcachefy.memcached.CacheWrapper;
+import com.googlecode.memcachefy.memcached.ChunkManifest;
+import com.googlecode.memcachefy.memcached.Memcached;
+import com.googlecode.memcachefy.memcached.MemcachedClientPool;
 import com.googlecode.memcachefy.memcached.MemcachedManager;
+import com.googlecode.memcachefy.near.NearCacheManager;
+import com.googlecode.memcachefy.offheap.OffHeapCacheManager;
 import org.apache.log4j.Logger;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
+import java.io.File;
 
 /**
  * Builder for creating new instances of {@link CacheManager}
@@ -42,14 +49,36 @@ public class CacheManagerBuilder {
 		private static final int INITIAL_MAX_ENTRIES = 5000;
 		private static final CacheType DEFAULT_CACHE_TYPE = CacheType.ONHEAP;
 		private static final CacheTranscoder DEFAULT_TRANSCODER = CacheTranscoder.KRYO;
+		private static final EvictionPolicy DEFAULT_EVICTION_POLICY = EvictionPolicy.LRU;
+		private static final int DEFAULT_SNAPSHOT_INTERVAL = 300;
+		private static final int DEFAULT_WRITE_BEHIND_BATCH_SIZE = 100;
+		private static final long DEFAULT_WRITE_BEHIND_INTERVAL = 100;
+		private static final int DEFAULT_NEAR_MAX_ENTRIES = 1000;
+		private static final int DEFAULT_NEAR_TTL = 5;
 
 		private String memcachedHosts;
 		private JAXBContext jaxbContext;
 		private Kryo kryo;
 		private int defaultTtl = DEFAULT_ENTRY_TTL;
+		private int refreshAfterWrite;
+		private int writeBehindCapacity;
+		private int writeBehindBatchSize = DEFAULT_WRITE_BEHIND_BATCH_SIZE;
+		private long writeBehindInterval = DEFAULT_WRITE_BEHIND_INTERVAL;
+		private int chunkSize = Memcached.DEFAULT_CHUNK_SIZE;
+		private int poolSize = 1;
+		private MemcachedClientPool.Selection poolSelection = MemcachedClientPool.Selection.ROUND_ROBIN;
+		private int nearMaxEntries = DEFAULT_NEAR_MAX_ENTRIES;
+		private int nearTtl = DEFAULT_NEAR_TTL;
 		private CacheTranscoder cacheTranscoder = DEFAULT_TRANSCODER;
 		private int maxEntries = INITIAL_MAX_ENTRIES;
+		private long maxBytes;
+		private Weigher<Object, Object> weigher = Weighers.deepSize();
+		private String directory = System.getProperty("java.io.tmpdir") + File.separator + "memcachefy";
+		private String snapshotDirectory;
+		private int snapshotInterval = DEFAULT_SNAPSHOT_INTERVAL;
+		private int snapshotMaxEntries;
 		private CacheType cacheType = DEFAULT_CACHE_TYPE;
+		private EvictionPolicy evictionPolicy = DEFAULT_EVICTION_POLICY;
 
 		/**
 		 * Memcached host or list of hosts
@@ -94,6 +123,75 @@ public class CacheManagerBuilder {
 			return this;
 		}
 
+		/**
+		 * Age in seconds after which the entries of the caches given a
+		 * {@link CacheLoader} are reloaded in the background (Only applicable for
+		 * {@code com.googlecode.memcachefy.CacheType.ONHEAP} and {@code com.googlecode.memcachefy.CacheType.MEMCACHED})
+		 *
+		 * @param refreshAfterWrite
+		 * @return
+		 */
+		public Builder setRefreshAfterWrite(int refreshAfterWrite) {
+			this.refreshAfterWrite = refreshAfterWrite;
+			return this;
+		}
+
+		/**
+		 * Queue the puts of the memcached caches and send them in background batches
+		 * (Only applicable for {@code com.googlecode.memcachefy.CacheType.MEMCACHED})
+		 *
+		 * @param capacity      maximum number of keys with a pending write, 0 sends the puts right away
+		 * @param batchSize     number of writes sent in a batch
+		 * @param flushInterval maximum time in milliseconds a write stays pending
+		 * @return
+		 */
+		public Builder setWriteBehind(int capacity, int batchSize, long flushInterval) {
+			this.writeBehindCapacity = capacity;
+			this.writeBehindBatchSize = batchSize;
+			this.writeBehindInterval = flushInterval;
+			return this;
+		}
+
+		/**
+		 * Values larger than the chunk size once encoded are split into chunks stored under their own keys
+		 * (Only applicable for {@code com.googlecode.memcachefy.CacheType.MEMCACHED})
+		 *
+		 * @param chunkSize maximum size in bytes of a memcached item, 0 stores the values as a single item
+		 * @return
+		 */
+		public Builder setChunkSize(int chunkSize) {
+			this.chunkSize = chunkSize;
+			return this;
+		}
+
+		/**
+		 * Memcached clients shared by all the caches, each with its own IO thread and connections
+		 * (Only applicable for {@code com.googlecode.memcachefy.CacheType.MEMCACHED})
+		 *
+		 * @param size      number of clients
+		 * @param selection how the client of an operation is picked
+		 * @return
+		 */
+		public Builder setClientPool(int size, MemcachedClientPool.Selection selection) {
+			this.poolSize = size;
+			this.poolSelection = selection;
+			return this;
+		}
+
+		/**
+		 * Entries kept in memory in front of memcached
+		 * (Only applicable for {@code com.googlecode.memcachefy.CacheType.NEAR})
+		 *
+		 * @param maxEntries maximum number of entries each cache keeps in memory
+		 * @param localTtl   time-to-live in seconds of the entries kept in memory
+		 * @return
+		 */
+		public Builder setNearCache(int maxEntries, int localTtl) {
+			this.nearMaxEntries = maxEntries;
+			this.nearTtl = localTtl;
+			return this;
+		}
+
 		/**
 		 * The transcoder used in this instance. In case all cached objects
 		 * are implementing {@link java.io.Serializable} you don't need
@@ -119,6 +217,90 @@ public class CacheManagerBuilder {
 			return this;
 		}
 
+		/**
+		 * Memory or disk budget in bytes of each cache (Not applicable for
+		 * {@code com.googlecode.memcachefy.CacheType.MEMCACHED}). On heap caches
+		 * are then bounded by the total weight of their entries instead of maxEntries
+		 *
+		 * @param maxBytes max number of bytes
+		 * @return
+		 */
+		public Builder setMaxBytes(long maxBytes) {
+			this.maxBytes = maxBytes;
+			return this;
+		}
+
+		/**
+		 * Weigher measuring the size of the entries of on heap caches bounded
+		 * by maxBytes, defaults to {@link Weighers#deepSize()}
+		 *
+		 * @param weigher
+		 * @return
+		 */
+		public Builder setWeigher(Weigher<Object, Object> weigher) {
+			this.weigher = weigher;
+			return this;
+		}
+
+		/**
+		 * Base directory where the caches are stored (Only applicable for
+		 * {@code com.googlecode.memcachefy.CacheType.DISK})
+		 *
+		 * @param directory
+		 * @return
+		 */
+		public Builder setDirectory(String directory) {
+			this.directory = directory;
+			return this;
+		}
+
+		/**
+		 * Directory where the on heap caches periodically save their hottest entries,
+		 * to be loaded back when they are created again after a restart (Only applicable for
+		 * {@code com.googlecode.memcachefy.CacheType.ONHEAP}). Snapshots are disabled by default.
+		 *
+		 * @param snapshotDirectory
+		 * @return
+		 */
+		public Builder setSnapshotDirectory(String snapshotDirectory) {
+			this.snapshotDirectory = snapshotDirectory;
+			return this;
+		}
+
+		/**
+		 * Seconds between two snapshots of an on heap cache
+		 *
+		 * @param snapshotInterval
+		 * @return
+		 */
+		public Builder setSnapshotInterval(int snapshotInterval) {
+			this.snapshotInterval = snapshotInterval;
+			return this;
+		}
+
+		/**
+		 * Number of hottest entries saved in each snapshot, 0 for all of them
+		 *
+		 * @param snapshotMaxEntries
+		 * @return
+		 */
+		public Builder setSnapshotMaxEntries(int snapshotMaxEntries) {
+			this.snapshotMaxEntries = snapshotMaxEntries;
+			return this;
+		}
+
+		/**
+		 * Eviction policy used when the cache reaches its max entries (Not applicable for
+		 * {@code com.googlecode.memcachefy.CacheType.MEMCACHED})
+		 *
+		 * @param evictionPolicy
+		 * @return
+		 */
+		public Builder setEvictionPolicy(EvictionPolicy evictionPolicy) {
+			this.evictionPolicy = evictionPolicy;
+			return this;
+		}
+
 		/**
 		 * Cache type
 		 *
@@ -136,14 +318,21 @@ public class CacheManagerBuilder {
 		 */
 		public CacheManager build() {
 			CacheManager manager;
-			if (CacheType.MEMCACHED.equals(cacheType)) {
+			if (CacheType.MEMCACHED.equals(cacheType) || CacheType.NEAR.equals(cacheType)) {
 				final MemcachedManager mcache = new MemcachedManager();
 				mcache.setCacheTranscoder(cacheTranscoder);
 				mcache.setDefaultTtl(defaultTtl);
+				mcache.setRefreshAfterWrite(refreshAfterWrite);
+				mcache.setWriteBehindCapacity(writeBehindCapacity);
+				mcache.setWriteBehindBatchSize(writeBehindBatchSize);
+				mcache.setWriteBehindInterval(writeBehindInterval);
+				mcache.setChunkSize(chunkSize);
+				mcache.setPoolSize(poolSize);
+				mcache.setPoolSelection(poolSelection);
 				mcache.setHosts(memcachedHosts);
 
 				if (CacheTranscoder.JAXB.equals(cacheTranscoder)) {
-					Class[] jaxbClasses = new Class[]{CacheWrapper.class};
+					Class[] jaxbClasses = new Class[]{CacheWrapper.class, ChunkManifest.class};
 					try {
 						mcache.setContext(JAXBContext.newInstance(jaxbClasses));
 					} catch (JAXBException e) {
@@ -152,11 +341,40 @@ public class CacheManagerBuilder {
 				} else if (CacheTranscoder.KRYO.equals(cacheTranscoder)) {
 					mcache.setKryo(new Kryo());
 				}
-				manager = mcache;
+				if (CacheType.NEAR.equals(cacheType)) {
+					final NearCacheManager ncache = new NearCacheManager(mcache);
+					ncache.setMaxEntries(nearMaxEntries);
+					ncache.setLocalTtl(nearTtl);
+					manager = ncache;
+				} else {
+					manager = mcache;
+				}
+			} else if (CacheType.OFFHEAP.equals(cacheType)) {
+				OffHeapCacheManager ocache = new OffHeapCacheManager();
+				if (maxBytes > 0) {
+					ocache.setMaxBytes(maxBytes);
+				}
+				ocache.setTtl(defaultTtl);
+				manager = ocache;
+			} else if (CacheType.DISK.equals(cacheType)) {
+				DiskCacheManager dcache = new DiskCacheManager();
+				dcache.setDirectory(directory);
+				if (maxBytes > 0) {
+					dcache.setMaxBytes(maxBytes);
+				}
+				dcache.setTtl(defaultTtl);
+				manager = dcache;
 			} else {
 				InMemoryCacheManager icache = new InMemoryCacheManager();
 				icache.setMaxEntries(maxEntries);
 				icache.setTtl(defaultTtl);
+				icache.setEvictionPolicy(evictionPolicy);
+				icache.setMaxBytes(maxBytes);
+				icache.setWeigher(weigher);
+				icache.setRefreshAfterWrite(refreshAfterWrite);
+				icache.setSnapshotDirectory(snapshotDirectory);
+				icache.setSnapshotInterval(snapshotInterval);
+				icache.setSnapshotMaxEntries(snapshotMaxEntries);
 				manager = icache;
 			}
 			return manager;
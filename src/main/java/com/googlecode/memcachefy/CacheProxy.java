@@ -59,7 +59,7 @@ public class CacheProxy extends CacheInterceptor implements InvocationHandler {
 	 * @return
 	 */
 	public static Object newInstance(Object obj) {
-		return newInstance(obj, null, null);
+		return newInstance(obj, null, (Cache<String, Object>) null);
 	}
 
 	/**
@@ -74,7 +74,36 @@ public class CacheProxy extends CacheInterceptor implements InvocationHandler {
 	}
 
 	public static Object newInstance(Object obj, Map<String, CacheInfo> cacheInfo) {
-		return newInstance(obj, cacheInfo, null);
+		return newInstance(obj, cacheInfo, (Cache<String, Object>) null);
+	}
+
+	/**
+	 * Create a new instance of the proxied class caching the results in a
+	 * cache with primitive long keys
+	 *
+	 * @param obj          The proxied object
+	 * @param cacheInfo    Cache information of the methods
+	 * @param longKeyCache A long keyed cache instance
+	 * @return
+	 */
+	public static Object newInstance(Object obj, Map<String, CacheInfo> cacheInfo, LongKeyCache<Object> longKeyCache) {
+		final CacheProxy proxy = new CacheProxy(obj, cacheInfo, null);
+		proxy.setLongKeyCache(longKeyCache);
+		return java.lang.reflect.Proxy.newProxyInstance(
+				obj.getClass().getClassLoader(),
+				obj.getClass().getInterfaces(),
+				proxy);
+	}
+
+	/**
+	 * Create a new instance for the proxied class
+	 *
+	 * @param obj
+	 * @param longKeyCache
+	 * @return
+	 */
+	public static Object newInstance(Object obj, LongKeyCache<Object> longKeyCache) {
+		return newInstance(obj, null, longKeyCache);
 	}
 
 	private CacheProxy(Object obj, Map<String, CacheInfo> cacheInfo, Cache<String, Object> cache) {
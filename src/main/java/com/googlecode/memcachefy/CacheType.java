@@ -32,6 +32,24 @@ public enum CacheType {
 	 * serialization (transcoding) API if you are caching java
 	 * non-serializable (not implementing {@link java.io.Serializable}) objects
 	 */
-	MEMCACHED
+	MEMCACHED,
+
+	/**
+	 * Off heap caching in direct memory, bounded by a byte budget. Objects are
+	 * serialized using Kryo, so they don't need to implement {@link java.io.Serializable}
+	 */
+	OFFHEAP,
+
+	/**
+	 * Persistent caching in memory-mapped files, bounded by a byte budget. Cached objects
+	 * survive restarts and are serialized using Kryo
+	 */
+	DISK,
+
+	/**
+	 * Memcached with the hottest entries also kept in memory for a short time-to-live,
+	 * see {@link com.googlecode.memcachefy.near.NearCache}
+	 */
+	NEAR
 
 }
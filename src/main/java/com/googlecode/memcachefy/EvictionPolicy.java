@@ -0,0 +1,43 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy;
+
+/**
+ * Eviction policy used by the bounded on heap caches when they reach
+ * their maximum capacity (Not applicable for {@code CacheType.MEMCACHED})
+ */
+public enum EvictionPolicy {
+
+	/**
+	 * Least recently used entries are evicted first
+	 */
+	LRU,
+
+	/**
+	 * Least frequently used entries are evicted first, ties are
+	 * broken by recency
+	 */
+	LFU,
+
+	/**
+	 * Window TinyLFU: new entries go through a small LRU admission window and
+	 * are only admitted into the main segmented LRU when they are estimated
+	 * (by a count-min frequency sketch) to be more popular than the entry they
+	 * would replace. Best suited for skewed and scan-heavy workloads
+	 */
+	TINY_LFU
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy;
+
+
+import com.googlecode.memcachefy.stats.CacheStatistics;
+
+import java.util.concurrent.Callable;
+
+/**
+ * A Cache specialized for primitive {@code long} keys, such as the hash keys generated
+ * by the interceptors. Keys are never boxed, so looking up an entry doesn't allocate.
+ *
+ * @param <V> value type
+ * @author bhlangonijr
+ */
+public interface LongKeyCache<V> {
+
+	/**
+	 * Returns the Cached value stored under the specified {@code key} or
+	 * {@code null} if there is no Cache entry for that {@code key}.
+	 *
+	 * @param key the key that the value was previous added with
+	 * @return the cached object or {@code null} if there is no entry for the specified {@code key}
+	 * @throws com.googlecode.memcachefy.CacheException
+	 *          if there is a problem accessing the underlying cache system
+	 */
+	public V get(long key) throws CacheException;
+
+	/**
+	 * Returns the Cached value stored under the specified {@code key} or
+	 * {@code null} if there is no Cache entry for that {@code key}, resetting its time-to-live.
+	 *
+	 * @param key the key that the value was previous added with
+	 * @param ttl time to live
+	 * @return the cached object or {@code null} if there is no entry for the specified {@code key}
+	 * @throws com.googlecode.memcachefy.CacheException
+	 *
+	 */
+	public V getAndTouch(long key, int ttl) throws CacheException;
+
+	/**
+	 * Returns the Cached value stored under the specified {@code key}, computing and
+	 * storing it with the default time-to-live if there is no Cache entry. Concurrent
+	 * misses for the same {@code key} within the JVM are coalesced: a single caller
+	 * runs the {@code loader} and the others wait for its result.
+	 *
+	 * @param key    the key of the entry
+	 * @param loader computes the value, which is not stored if {@code null}
+	 * @return the cached or computed object
+	 * @throws com.googlecode.memcachefy.CacheException
+	 *          if there is a problem accessing the underlying cache system or the
+	 *          {@code loader} failed, its exception being the cause
+	 */
+	public V get(long key, Callable<? extends V> loader) throws CacheException;
+
+	/**
+	 * Returns the Cached value stored under the specified {@code key}, computing and
+	 * storing it if there is no Cache entry. See {@link #get(long, Callable)}.
+	 *
+	 * @param key    the key of the entry
+	 * @param loader computes the value, which is not stored if {@code null}
+	 * @param ttl    time-to-live for the computed entry
+	 * @return the cached or computed object
+	 * @throws com.googlecode.memcachefy.CacheException
+	 *          if there is a problem accessing the underlying cache system or the
+	 *          {@code loader} failed, its exception being the cause
+	 */
+	public V get(long key, Callable<? extends V> loader, int ttl) throws CacheException;
+
+	/**
+	 * Adds a Cache entry.
+	 *
+	 * @param key   the key used to identify the object being stored.
+	 * @param value the value to be stored in the cache.
+	 * @throws com.googlecode.memcachefy.CacheException
+	 *          if there is a problem accessing the underlying cache system
+	 */
+	public void put(long key, V value) throws CacheException;
+
+	/**
+	 * Adds a Cache entry.
+	 *
+	 * @param key   the key used to identify the object being stored.
+	 * @param value the value to be stored in the cache.
+	 * @param ttl   time-to-live for the entry
+	 * @throws com.googlecode.memcachefy.CacheException
+	 *          if there is a problem accessing the underlying cache system
+	 */
+	public void put(long key, V value, int ttl) throws CacheException;
+
+	/**
+	 * Remove the cache entry corresponding to the specified key.
+	 *
+	 * @param key the key of the entry to be removed.
+	 * @return the previous value associated with the given {@code key} or {@code null} if there was previous value
+	 * @throws com.googlecode.memcachefy.CacheException
+	 *          if there is a problem accessing the underlying cache system
+	 */
+	public V remove(long key) throws CacheException;
+
+	/**
+	 * Clear all entries from the cache.
+	 *
+	 * @throws com.googlecode.memcachefy.CacheException
+	 *          if there is a problem accessing the underlying cache system
+	 */
+	public void clear() throws CacheException;
+
+	/**
+	 * Returns the number of entries in the cache.
+	 *
+	 * @return the number of entries in the cache.
+	 * @throws com.googlecode.memcachefy.CacheException
+	 *
+	 */
+	public int size() throws CacheException;
+
+	/**
+	 * Cache statistics
+	 * @return cache statistics over the cache
+	 */
+	public CacheStatistics getCacheStatistics();
+
+	/**
+	 * Close and release de resources for current cache instance
+	 */
+	public void close();
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Coalesces concurrent calls for the same key: the first caller runs the call while
+ * the others wait for its result instead of running their own. Used by the caches
+ * for their get-or-compute operations, so that an entry missing under load is
+ * computed once rather than by every concurrent caller.
+ * <p/>
+ * Calls are only coalesced while in flight, a call for a key completed just before
+ * runs again. A call must not reenter the same key, it would wait for itself.
+ *
+ * @param <K>
+ * @param <V>
+ */
+public final class SingleFlight<K, V> {
+
+	private final ConcurrentMap<K, CacheFuture<V>> calls = new ConcurrentHashMap<K, CacheFuture<V>>();
+
+	/**
+	 * Run the call, or wait for the result of the one in flight for the key
+	 *
+	 * @param key  the key of the call
+	 * @param call computes the result
+	 * @return the result of the call
+	 * @throws CacheException wrapping the exception thrown by the call, the callers
+	 *                        waiting on it get the same cause
+	 */
+	public V execute(K key, Callable<? extends V> call) throws CacheException {
+		final CacheFuture<V> future = new CacheFuture<V>();
+		final CacheFuture<V> inFlight = calls.putIfAbsent(key, future);
+		if (inFlight != null) {
+			return await(inFlight);
+		}
+		try {
+			final V value = call.call();
+			future.set(value);
+			return value;
+		} catch (Throwable t) {
+			future.setException(t);
+			throw new CacheException(t);
+		} finally {
+			calls.remove(key, future);
+		}
+	}
+
+	/**
+	 * @return number of keys with a call in flight
+	 */
+	public int size() {
+		return calls.size();
+	}
+
+	private static <V> V await(CacheFuture<V> future) throws CacheException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			throw new CacheException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CacheException(e);
+		}
+	}
+
+}
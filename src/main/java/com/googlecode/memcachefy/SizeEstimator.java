@@ -0,0 +1,195 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reflective estimation of the heap size of objects, assuming a 64-bit JVM with
+ * compressed references. The field layout of each class is computed once and cached.
+ * Classes whose fields can't be accessed are measured by their shallow size, and
+ * walked through their elements when they are collections or maps.
+ */
+final class SizeEstimator {
+
+	private static final int OBJECT_HEADER = 12;
+	private static final int ARRAY_HEADER = 16;
+	private static final int REFERENCE = 4;
+	private static final int ALIGNMENT = 8;
+	private static final int MAP_ENTRY = 32;
+
+	private static final Map<Class<?>, Layout> layouts = new ConcurrentHashMap<Class<?>, Layout>();
+
+	/**
+	 * @return estimated size of the object itself, or of the array and its primitive elements
+	 */
+	static long shallowSize(Object object) {
+		if (object == null) {
+			return 0;
+		}
+		final Class<?> type = object.getClass();
+		if (type.isArray()) {
+			final Class<?> component = type.getComponentType();
+			final int elementSize = component.isPrimitive() ? primitiveSize(component) : REFERENCE;
+			return align(ARRAY_HEADER + (long) Array.getLength(object) * elementSize);
+		}
+		if (object instanceof String) {
+			return layoutOf(type).size + align(ARRAY_HEADER + 2L * ((String) object).length());
+		}
+		return layoutOf(type).size;
+	}
+
+	/**
+	 * @return estimated size of the whole object graph reachable from the roots,
+	 *         counting shared objects once
+	 */
+	static long deepSize(Object... roots) {
+		final IdentityHashMap<Object, Object> visited = new IdentityHashMap<Object, Object>();
+		final LinkedList<Object> pending = new LinkedList<Object>();
+		for (Object root : roots) {
+			if (root != null) {
+				pending.add(root);
+			}
+		}
+		long size = 0;
+		while (!pending.isEmpty()) {
+			final Object object = pending.removeLast();
+			if (visited.put(object, object) != null || isShared(object)) {
+				continue;
+			}
+			size += shallowSize(object);
+			final Class<?> type = object.getClass();
+			if (type.isArray()) {
+				if (!type.getComponentType().isPrimitive()) {
+					final int length = Array.getLength(object);
+					for (int i = 0; i < length; i++) {
+						push(pending, Array.get(object, i));
+					}
+				}
+				continue;
+			}
+			final Layout layout = layoutOf(type);
+			if (layout.references != null) {
+				for (Field field : layout.references) {
+					try {
+						push(pending, field.get(object));
+					} catch (IllegalAccessException e) {
+						// counted as a reference only
+					}
+				}
+			} else if (object instanceof Collection) {
+				for (Object element : (Collection<?>) object) {
+					push(pending, element);
+				}
+			} else if (object instanceof Map) {
+				for (Map.Entry<?, ?> entry : ((Map<?, ?>) object).entrySet()) {
+					size += MAP_ENTRY;
+					push(pending, entry.getKey());
+					push(pending, entry.getValue());
+				}
+			}
+		}
+		return size;
+	}
+
+	private static void push(LinkedList<Object> pending, Object object) {
+		if (object != null) {
+			pending.add(object);
+		}
+	}
+
+	/*
+	 * Classes and enum constants are shared by the whole application
+	 */
+	private static boolean isShared(Object object) {
+		return object instanceof Class || object instanceof Enum;
+	}
+
+	private static Layout layoutOf(Class<?> type) {
+		Layout layout = layouts.get(type);
+		if (layout == null) {
+			layout = new Layout(type);
+			layouts.put(type, layout);
+		}
+		return layout;
+	}
+
+	private static int primitiveSize(Class<?> type) {
+		if (type == long.class || type == double.class) {
+			return 8;
+		} else if (type == int.class || type == float.class) {
+			return 4;
+		} else if (type == short.class || type == char.class) {
+			return 2;
+		}
+		return 1;
+	}
+
+	private static long align(long size) {
+		return (size + ALIGNMENT - 1) & ~(ALIGNMENT - 1);
+	}
+
+	/**
+	 * Instance size of a class and its reference fields, {@code null} when they
+	 * can't be read or the class is measured as a whole (strings)
+	 */
+	private static final class Layout {
+
+		final long size;
+		final Field[] references;
+
+		Layout(Class<?> type) {
+			long fieldsSize = 0;
+			List<Field> fields = new ArrayList<Field>();
+			for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+				for (Field field : c.getDeclaredFields()) {
+					if (Modifier.isStatic(field.getModifiers())) {
+						continue;
+					}
+					if (field.getType().isPrimitive()) {
+						fieldsSize += primitiveSize(field.getType());
+					} else {
+						fieldsSize += REFERENCE;
+						if (fields != null) {
+							try {
+								field.setAccessible(true);
+								fields.add(field);
+							} catch (RuntimeException e) {
+								fields = null;
+							}
+						}
+					}
+				}
+			}
+			size = align(OBJECT_HEADER + fieldsSize);
+			references = fields == null || type == String.class ? null : fields.toArray(new Field[fields.size()]);
+		}
+	}
+
+	private SizeEstimator() {
+
+	}
+
+}
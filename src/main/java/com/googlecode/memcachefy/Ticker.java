@@ -0,0 +1,30 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy;
+
+/**
+ * Time source of the caches, used for the expiration and refresh of the entries.
+ * See {@link Tickers} for the built-in implementations; tests can provide their own
+ * to control the time.
+ */
+public interface Ticker {
+
+	/**
+	 * @return current time in milliseconds since the epoch
+	 */
+	long read();
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy;
+
+/**
+ * Built-in {@link Ticker} implementations
+ *
+ * @author bhlangonijr
+ */
+public final class Tickers {
+
+	private static final Ticker SYSTEM = new Ticker() {
+		@Override
+		public long read() {
+			return System.currentTimeMillis();
+		}
+	};
+
+	/*
+	 * The clock thread is only started when the coarse ticker is first used
+	 */
+	private static final class CoarseTicker implements Ticker {
+
+		static final long RESOLUTION = 10;
+		static final CoarseTicker INSTANCE = new CoarseTicker();
+
+		private volatile long time = System.currentTimeMillis();
+
+		private CoarseTicker() {
+			final Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					while (true) {
+						try {
+							Thread.sleep(RESOLUTION);
+						} catch (InterruptedException e) {
+							return;
+						}
+						time = System.currentTimeMillis();
+					}
+				}
+			}, "memcachefy-clock");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		@Override
+		public long read() {
+			return time;
+		}
+	}
+
+	/**
+	 * Reads the system clock on every call
+	 */
+	public static Ticker system() {
+		return SYSTEM;
+	}
+
+	/**
+	 * Reads a time updated by a background thread every 10 ms, so reading it is just a
+	 * volatile read. Entries may expire up to 10 ms late, which is negligible next to
+	 * their time-to-live in seconds. Default ticker of the caches.
+	 */
+	public static Ticker coarse() {
+		return CoarseTicker.INSTANCE;
+	}
+
+	private Tickers() {
+
+	}
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy;
+
+/**
+ * A cached value along with the version of its entry, as returned by
+ * {@link Cache#gets(Object)}. The version changes on every write of the entry, so
+ * passing it back to {@link Cache#cas(Object, long, Object)} only updates the entry
+ * if nobody wrote it in the meantime.
+ *
+ * @param <V>
+ */
+public final class VersionedValue<V> {
+
+	private final V value;
+	private final long version;
+
+	public VersionedValue(V value, long version) {
+		this.value = value;
+		this.version = version;
+	}
+
+	public V getValue() {
+		return value;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	@Override
+	public String toString() {
+		return "VersionedValue{value=" + value + ", version=" + version + "}";
+	}
+
+}
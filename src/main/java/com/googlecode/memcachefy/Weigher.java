@@ -0,0 +1,37 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy;
+
+/**
+ * Calculates the weight of the cache entries, so that the on heap caches can be
+ * bounded by their total weight (e.g. bytes) instead of their number of entries.
+ * See {@link Weighers} for the built-in implementations.
+ *
+ * @param <K>
+ * @param <V>
+ */
+public interface Weigher<K, V> {
+
+	/**
+	 * Weight of the entry, computed once when the entry is stored
+	 *
+	 * @param key   the key of the entry
+	 * @param value the value of the entry
+	 * @return a non-negative weight
+	 */
+	int weigh(K key, V value);
+
+}
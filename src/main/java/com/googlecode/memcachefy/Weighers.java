@@ -0,0 +1,114 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.googlecode.memcachefy.memcached.KryoSerializer;
+
+/**
+ * Built-in {@link Weigher} implementations
+ *
+ * @author bhlangonijr
+ */
+public final class Weighers {
+
+	private static final Weigher<Object, Object> SINGLETON = new Weigher<Object, Object>() {
+		@Override
+		public int weigh(Object key, Object value) {
+			return 1;
+		}
+	};
+
+	private static final Weigher<Object, Object> SERIALIZED = new Weigher<Object, Object>() {
+		@Override
+		public int weigh(Object key, Object value) {
+			final KryoSerializer<Object> kryoSerializer = serializer.get();
+			return saturate((long) length(kryoSerializer.encodeBytes(key)) +
+					length(kryoSerializer.encodeBytes(value)));
+		}
+	};
+
+	private static final Weigher<Object, Object> SHALLOW = new Weigher<Object, Object>() {
+		@Override
+		public int weigh(Object key, Object value) {
+			return saturate(SizeEstimator.shallowSize(key) + SizeEstimator.shallowSize(value));
+		}
+	};
+
+	private static final Weigher<Object, Object> DEEP = new Weigher<Object, Object>() {
+		@Override
+		public int weigh(Object key, Object value) {
+			return saturate(SizeEstimator.deepSize(key, value));
+		}
+	};
+
+	private static final ThreadLocal<KryoSerializer<Object>> serializer =
+			new ThreadLocal<KryoSerializer<Object>>() {
+				@Override
+				protected KryoSerializer<Object> initialValue() {
+					return new KryoSerializer<Object>(new Kryo());
+				}
+			};
+
+	/**
+	 * Every entry weighs one, the cache is bounded by its number of entries
+	 */
+	@SuppressWarnings("unchecked")
+	public static <K, V> Weigher<K, V> singleton() {
+		return (Weigher<K, V>) SINGLETON;
+	}
+
+	/**
+	 * Entries weigh the number of bytes of their key and value serialized with Kryo.
+	 * This is the most accurate measure of what the entry would take in memcached, but
+	 * the most expensive one: the value is serialized on every put
+	 */
+	@SuppressWarnings("unchecked")
+	public static <K, V> Weigher<K, V> serializedSize() {
+		return (Weigher<K, V>) SERIALIZED;
+	}
+
+	/**
+	 * Entries weigh the estimated heap size of the key and value objects themselves,
+	 * not including the objects they reference
+	 */
+	@SuppressWarnings("unchecked")
+	public static <K, V> Weigher<K, V> shallowSize() {
+		return (Weigher<K, V>) SHALLOW;
+	}
+
+	/**
+	 * Entries weigh the estimated heap size of the whole object graph reachable from
+	 * the key and value, walked by reflection
+	 */
+	@SuppressWarnings("unchecked")
+	public static <K, V> Weigher<K, V> deepSize() {
+		return (Weigher<K, V>) DEEP;
+	}
+
+	private static int length(byte[] data) {
+		return data == null ? 0 : data.length;
+	}
+
+	private static int saturate(long weight) {
+		return (int) Math.min(weight, Integer.MAX_VALUE);
+	}
+
+	private Weighers() {
+
+	}
+
+}
@@ -0,0 +1,712 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy.disk;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.googlecode.memcachefy.AbstractCache;
+import com.googlecode.memcachefy.CacheException;
+import com.googlecode.memcachefy.Ticker;
+import com.googlecode.memcachefy.Tickers;
+import com.googlecode.memcachefy.VersionedValue;
+import com.googlecode.memcachefy.memcached.KryoTranscoder;
+import com.googlecode.memcachefy.stats.CacheStatistics;
+import com.googlecode.memcachefy.stats.CacheStatisticsImpl;
+import net.spy.memcached.CachedData;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Persistent cache implementation backed by memory-mapped files, so the cached
+ * entries survive process restarts. Values are transcoded with {@link KryoTranscoder}
+ * and appended to a log of fixed size files; an in-memory index points each key
+ * to its latest record and is rebuilt by scanning the logs when the cache is opened.
+ * Reads decode the values straight from the mapped pages.
+ * <p/>
+ * Overwritten and removed records are reclaimed by a background compaction, which
+ * copies the live records of mostly dead files to the end of the log. Once the files
+ * exceed the byte budget the oldest one is dropped, evicting its entries.
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class DiskCache<K, V> extends AbstractCache<K, V> {
+
+	private static final Logger log = Logger.getLogger(DiskCache.class);
+
+	private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+	private static final int DEFAULT_FILE_SIZE = 16 * 1024 * 1024;
+	private static final int MIN_FILE_SIZE = 64 * 1024;
+	private static final int MIN_FILES = 2;
+	private static final int COMPACTION_INTERVAL = 10000;
+	private static final double COMPACTION_THRESHOLD = 0.5;
+	private static final String LOG_SUFFIX = ".log";
+	private static final int DEFAULT_TTL = 0;
+
+	private final File directory;
+	private final long maxBytes;
+	private final int fileSize;
+	private int ttl = DEFAULT_TTL;
+	private volatile Ticker ticker = Tickers.coarse();
+
+	private final ConcurrentHashMap<DiskKey, Location> index = new ConcurrentHashMap<DiskKey, Location>();
+	private final ReentrantLock writeLock = new ReentrantLock();
+	// guarded by the write lock, ordered from the oldest to the newest file
+	private final LinkedList<DiskLog> logs = new LinkedList<DiskLog>();
+	private DiskLog active;
+	private long nextId;
+
+	private final ScheduledFuture<?> compactionTask;
+	private final CacheStatisticsImpl cacheStatistics;
+
+	private static final ScheduledExecutorService compaction =
+			Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					final Thread thread = new Thread(r, "memcachefy-compaction");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	private static final ThreadLocal<KryoTranscoder<Object>> transcoder =
+			new ThreadLocal<KryoTranscoder<Object>>() {
+				@Override
+				protected KryoTranscoder<Object> initialValue() {
+					return new KryoTranscoder<Object>(new Kryo());
+				}
+			};
+
+	/**
+	 * Open the cache stored in the directory, creating it if needed
+	 *
+	 * @param directory directory of the log files, exclusive to this cache
+	 * @param maxBytes  disk budget of the log files
+	 * @param fileSize  size of each log file, also the maximum size of a serialized entry
+	 * @throws CacheException if the directory can't be created or the logs can't be mapped
+	 */
+	public DiskCache(File directory, long maxBytes, int fileSize) throws CacheException {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		this.fileSize = fileSize;
+		this.cacheStatistics = new CacheStatisticsImpl();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new CacheException("Unable to create cache directory " + directory);
+		}
+		writeLock.lock();
+		try {
+			recover();
+		} catch (IOException e) {
+			throw new CacheException("Unable to open disk cache at " + directory, e);
+		} finally {
+			writeLock.unlock();
+		}
+		compactionTask = compaction.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					compact();
+				} catch (Exception e) {
+					log.error("Error compacting disk cache " + DiskCache.this.directory, e);
+				}
+			}
+		}, COMPACTION_INTERVAL, COMPACTION_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	public DiskCache(File directory, long maxBytes) throws CacheException {
+		this(directory, maxBytes, (int) Math.min(DEFAULT_FILE_SIZE, Math.max(maxBytes / 8, MIN_FILE_SIZE)));
+	}
+
+	public DiskCache(File directory) throws CacheException {
+		this(directory, DEFAULT_MAX_BYTES);
+	}
+
+	@Override
+	public V get(K key) throws CacheException {
+		return read(key, -1L);
+	}
+
+	@Override
+	public V getAndTouch(K key, int ttl) throws CacheException {
+		return read(key, ttl > 0 ? expireAt(ticker.read(), ttl) : -1L);
+	}
+
+	@Override
+	public V putAndGet(K key, V value) throws CacheException {
+		return putAndGet(key, value, getTtl());
+	}
+
+	@Override
+	public V putAndGet(K key, V value, int ttl) throws CacheException {
+		return write(key, value, ttl, true);
+	}
+
+	@Override
+	public void put(K key, V value) throws CacheException {
+		put(key, value, getTtl());
+	}
+
+	@Override
+	public void put(K key, V value, int ttl) throws CacheException {
+		write(key, value, ttl, false);
+	}
+
+	@Override
+	public boolean putIfAbsent(K key, V value, int ttl) throws CacheException {
+		final byte[] keyBytes = encodeKey(key);
+		writeLock.lock();
+		try {
+			if (live(new DiskKey(keyBytes)) != null) {
+				return false;
+			}
+			write(key, keyBytes, value, ttl, false);
+			return true;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public boolean replace(K key, V expected, V value, int ttl) throws CacheException {
+		final byte[] keyBytes = encodeKey(key);
+		writeLock.lock();
+		try {
+			final Location current = live(new DiskKey(keyBytes));
+			if (current == null || !decode(current).equals(expected)) {
+				return false;
+			}
+			write(key, keyBytes, value, ttl, false);
+			return true;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public VersionedValue<V> gets(K key) throws CacheException {
+		final Location location = live(new DiskKey(encodeKey(key)));
+		if (location == null) {
+			cacheStatistics.cacheMissesInc();
+			return null;
+		}
+		cacheStatistics.cacheHitsInc();
+		return new VersionedValue<V>(decode(location), version(location));
+	}
+
+	@Override
+	public boolean cas(K key, long version, V value, int ttl) throws CacheException {
+		final byte[] keyBytes = encodeKey(key);
+		writeLock.lock();
+		try {
+			final Location current = live(new DiskKey(keyBytes));
+			if (current == null || version(current) != version) {
+				return false;
+			}
+			write(key, keyBytes, value, ttl, false);
+			return true;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	protected boolean casCounter(K key, long version, V value) throws CacheException {
+		final byte[] keyBytes = encodeKey(key);
+		writeLock.lock();
+		try {
+			final Location current = live(new DiskKey(keyBytes));
+			if (current == null || version(current) != version) {
+				return false;
+			}
+			writeUntil(key, keyBytes, value, current.expireAt, false);
+			return true;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public V remove(K key) throws CacheException {
+		final byte[] keyBytes = encodeKey(key);
+		final DiskKey diskKey = new DiskKey(keyBytes);
+		writeLock.lock();
+		try {
+			final Location previous = index.remove(diskKey);
+			if (previous == null) {
+				return null;
+			}
+			final V value = previous.isExpired(ticker.read()) ? null : decode(previous);
+			// the tombstone keeps older records from being recovered after a restart
+			final Location tombstone = append(DiskLog.TOMBSTONE, 0L, 0, keyBytes, new byte[0]);
+			tombstone.log.deadBytes.addAndGet(tombstone.length);
+			previous.log.deadBytes.addAndGet(previous.length);
+			return value;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public void clear() throws CacheException {
+		writeLock.lock();
+		try {
+			index.clear();
+			for (DiskLog diskLog : logs) {
+				diskLog.delete();
+			}
+			logs.clear();
+			active = null;
+			roll();
+		} catch (IOException e) {
+			throw new CacheException("Unable to clear disk cache at " + directory, e);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public int size() throws CacheException {
+		return index.size();
+	}
+
+	@Override
+	public CacheStatistics getCacheStatistics() {
+		return cacheStatistics;
+	}
+
+	/**
+	 * Flush and close the log files, the entries are kept on disk
+	 */
+	@Override
+	public void close() {
+		compactionTask.cancel(false);
+		writeLock.lock();
+		try {
+			for (DiskLog diskLog : logs) {
+				diskLog.close();
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Reclaim the space of overwritten and removed records and flush the active
+	 * log to disk. This is done periodically in background.
+	 */
+	public void compact() {
+		final long start = System.currentTimeMillis();
+		int compacted = 0;
+		writeLock.lock();
+		try {
+			for (DiskLog diskLog : new ArrayList<DiskLog>(logs)) {
+				if (diskLog != active && logs.contains(diskLog) &&
+						diskLog.deadBytes.get() >= COMPACTION_THRESHOLD * (diskLog.position() - DiskLog.FILE_HEADER)) {
+					compact(diskLog);
+					compacted++;
+				}
+			}
+			active.force();
+		} catch (IOException e) {
+			log.error("Error compacting disk cache " + directory, e);
+		} finally {
+			writeLock.unlock();
+		}
+		if (compacted > 0 && log.isDebugEnabled()) {
+			log.debug("Compacted " + compacted + " files of " + directory + " in " +
+					(System.currentTimeMillis() - start) + " ms.");
+		}
+	}
+
+	/**
+	 * @return number of bytes of the log files
+	 */
+	public long getDiskBytes() {
+		writeLock.lock();
+		try {
+			long bytes = 0;
+			for (DiskLog diskLog : logs) {
+				bytes += diskLog.capacity();
+			}
+			return bytes;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public int getTtl() {
+		return ttl;
+	}
+
+	public void setTtl(int ttl) {
+		this.ttl = ttl;
+	}
+
+	public Ticker getTicker() {
+		return ticker;
+	}
+
+	/**
+	 * @param ticker time source of the expiration of the entries, defaults to {@link Tickers#coarse()}
+	 */
+	public void setTicker(Ticker ticker) {
+		this.ticker = ticker;
+	}
+
+	private V read(K key, long expireAt) throws CacheException {
+		final DiskKey diskKey = new DiskKey(encodeKey(key));
+		final Location location = index.get(diskKey);
+		if (location == null || location.isExpired(ticker.read())) {
+			if (location != null && index.remove(diskKey, location)) {
+				location.log.deadBytes.addAndGet(location.length);
+			}
+			cacheStatistics.cacheMissesInc();
+			return null;
+		}
+		if (expireAt >= 0) {
+			touch(diskKey, location, expireAt);
+		}
+		cacheStatistics.cacheHitsInc();
+		return decode(location);
+	}
+
+	/*
+	 * Location of the live record of the key, or null
+	 */
+	private Location live(DiskKey diskKey) {
+		final Location location = index.get(diskKey);
+		return location == null || location.isExpired(ticker.read()) ? null : location;
+	}
+
+	/*
+	 * Records are only appended and file ids never reused, so the position of the
+	 * record identifies a write. A compaction moving the record changes the version
+	 * as well, which only makes a cas fail spuriously.
+	 */
+	private static long version(Location location) {
+		return location.log.id << 32 | location.offset & 0xffffffffL;
+	}
+
+	private void touch(DiskKey diskKey, Location location, long expireAt) {
+		writeLock.lock();
+		try {
+			if (index.replace(diskKey, location, new Location(location.log, location.offset, location.length, expireAt))) {
+				location.log.touch(location.offset, expireAt);
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	private V write(K key, V value, int ttl, boolean returnPrevious) throws CacheException {
+		return write(key, encodeKey(key), value, ttl, returnPrevious);
+	}
+
+	private V write(K key, byte[] keyBytes, V value, int ttl, boolean returnPrevious) throws CacheException {
+		return writeUntil(key, keyBytes, value, expireAt(ticker.read(), ttl), returnPrevious);
+	}
+
+	private V writeUntil(K key, byte[] keyBytes, V value, long expireAt, boolean returnPrevious)
+			throws CacheException {
+		final CachedData data = transcoder.get().encode(value);
+		if (data == null) {
+			throw new CacheException("Failed to serialize value for key [" + key + "]");
+		}
+		final DiskKey diskKey = new DiskKey(keyBytes);
+		final long now = ticker.read();
+		if (DiskLog.FILE_HEADER + DiskLog.RECORD_HEADER + keyBytes.length + data.getData().length > fileSize) {
+			log.warn("Entry for key [" + key + "] is larger than the log file size (" + fileSize +
+					" bytes) and won't be cached.");
+			final V previous = remove(key);
+			return returnPrevious ? previous : null;
+		}
+		writeLock.lock();
+		try {
+			final Location previous = index.get(diskKey);
+			final V previousValue = returnPrevious && previous != null && !previous.isExpired(now) ?
+					decode(previous) : null;
+			index.put(diskKey, append(DiskLog.PUT, expireAt, data.getFlags(), keyBytes, data.getData()));
+			if (previous != null) {
+				previous.log.deadBytes.addAndGet(previous.length);
+			}
+			return previousValue;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * Append a record to the active log, rolling to a new file when it is full
+	 */
+	private Location append(byte type, long expireAt, int flags, byte[] key, byte[] value) throws CacheException {
+		final int length = DiskLog.RECORD_HEADER + key.length + value.length;
+		try {
+			if (!active.fits(length)) {
+				roll();
+			}
+		} catch (IOException e) {
+			throw new CacheException("Unable to create a log file at " + directory, e);
+		}
+		return new Location(active, active.append(type, expireAt, flags, key, value), length, expireAt);
+	}
+
+	/*
+	 * Start a new active log and drop the oldest ones beyond the disk budget
+	 */
+	private void roll() throws IOException {
+		if (active != null) {
+			active.force();
+		}
+		final long id = nextId++;
+		active = DiskLog.create(new File(directory, fileName(id)), id, fileSize);
+		logs.addLast(active);
+		while (logs.size() > MIN_FILES && (long) logs.size() * fileSize > maxBytes) {
+			evict(logs.removeFirst());
+		}
+	}
+
+	/*
+	 * Drop the index entries still pointing to the log and delete it
+	 */
+	private void evict(DiskLog diskLog) {
+		for (int offset = diskLog.first(); diskLog.hasRecord(offset); offset += diskLog.length(offset)) {
+			if (diskLog.type(offset) == DiskLog.PUT) {
+				final DiskKey diskKey = new DiskKey(diskLog.key(offset));
+				final Location location = index.get(diskKey);
+				if (location != null && location.log == diskLog && location.offset == offset) {
+					index.remove(diskKey, location);
+				}
+			}
+		}
+		diskLog.delete();
+	}
+
+	/*
+	 * Copy the live records of the log to the active one and delete it. Tombstones
+	 * are only kept while there are older files that may hold the removed key.
+	 */
+	private void compact(DiskLog diskLog) throws IOException {
+		final boolean oldest = logs.getFirst() == diskLog;
+		final long now = ticker.read();
+		for (int offset = diskLog.first(); diskLog.hasRecord(offset); offset += diskLog.length(offset)) {
+			final DiskKey diskKey = new DiskKey(diskLog.key(offset));
+			final int length = diskLog.length(offset);
+			if (diskLog.type(offset) == DiskLog.PUT) {
+				final Location location = index.get(diskKey);
+				if (location == null || location.log != diskLog || location.offset != offset) {
+					continue;
+				}
+				if (location.isExpired(now)) {
+					index.remove(diskKey, location);
+					continue;
+				}
+				if (!active.fits(length)) {
+					roll();
+				}
+				index.replace(diskKey, location,
+						new Location(active, active.append(diskLog, offset), length, location.expireAt));
+			} else if (!oldest && !index.containsKey(diskKey)) {
+				if (!active.fits(length)) {
+					roll();
+				}
+				active.append(diskLog, offset);
+				active.deadBytes.addAndGet(length);
+			}
+		}
+		if (logs.remove(diskLog)) {
+			diskLog.delete();
+		}
+	}
+
+	/*
+	 * Rebuild the index from the log files, replaying them from the oldest to the newest
+	 */
+	private void recover() throws IOException {
+		final File[] files = directory.listFiles();
+		final List<File> logFiles = new ArrayList<File>();
+		if (files != null) {
+			for (File file : files) {
+				if (file.isFile() && file.getName().matches("\\d+\\" + LOG_SUFFIX)) {
+					logFiles.add(file);
+				}
+			}
+		}
+		Collections.sort(logFiles, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				final long id1 = fileId(f1);
+				final long id2 = fileId(f2);
+				return id1 < id2 ? -1 : (id1 == id2 ? 0 : 1);
+			}
+		});
+
+		final long now = ticker.read();
+		for (File file : logFiles) {
+			final long id = fileId(file);
+			final DiskLog diskLog = DiskLog.open(file, id);
+			nextId = id + 1;
+			if (diskLog == null) {
+				log.warn("Ignoring invalid log file " + file);
+				continue;
+			}
+			logs.addLast(diskLog);
+			for (int offset = diskLog.first(); diskLog.hasRecord(offset); offset += diskLog.length(offset)) {
+				final DiskKey diskKey = new DiskKey(diskLog.key(offset));
+				final int length = diskLog.length(offset);
+				final Location previous;
+				if (diskLog.type(offset) == DiskLog.PUT) {
+					final Location location = new Location(diskLog, offset, length, diskLog.expireAt(offset));
+					if (location.isExpired(now)) {
+						previous = index.remove(diskKey);
+						diskLog.deadBytes.addAndGet(length);
+					} else {
+						previous = index.put(diskKey, location);
+					}
+				} else {
+					previous = index.remove(diskKey);
+					diskLog.deadBytes.addAndGet(length);
+				}
+				if (previous != null) {
+					previous.log.deadBytes.addAndGet(previous.length);
+				}
+			}
+		}
+		if (logs.isEmpty() || !logs.getLast().fits(DiskLog.RECORD_HEADER + 1)) {
+			roll();
+		} else {
+			active = logs.getLast();
+			while (logs.size() > MIN_FILES && (long) logs.size() * fileSize > maxBytes) {
+				evict(logs.removeFirst());
+			}
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Recovered " + index.size() + " entries from " + logs.size() + " files at " + directory);
+		}
+	}
+
+	private byte[] encodeKey(K key) throws CacheException {
+		if (key == null) {
+			throw new IllegalArgumentException("Key argument cannot be null.");
+		}
+		final byte[] bytes = transcoder.get().encodeBytes(key);
+		if (bytes == null) {
+			throw new CacheException("Failed to serialize key [" + key + "]");
+		}
+		return bytes;
+	}
+
+	/*
+	 * Decode the value straight from the mapped file
+	 */
+	@SuppressWarnings("unchecked")
+	private V decode(Location location) throws CacheException {
+		final int flags = location.log.flags(location.offset);
+		InputStream input = new BufferInputStream(location.log.value(location.offset));
+		if ((flags & KryoTranscoder.COMPRESSED) != 0) {
+			try {
+				input = new GZIPInputStream(input);
+			} catch (IOException e) {
+				throw new CacheException("Failed to decompress value at " + location.log, e);
+			}
+		}
+		return (V) transcoder.get().decodeStream(input);
+	}
+
+	private static long expireAt(long now, int ttl) {
+		return ttl > 0 ? now + ttl * 1000L : 0L;
+	}
+
+	private static String fileName(long id) {
+		return String.format("%016d", id) + LOG_SUFFIX;
+	}
+
+	private static long fileId(File file) {
+		final String name = file.getName();
+		return Long.parseLong(name.substring(0, name.length() - LOG_SUFFIX.length()));
+	}
+
+	/**
+	 * Serialized key, compared by content
+	 */
+	private static final class DiskKey {
+
+		private final byte[] bytes;
+		private final int hash;
+
+		DiskKey(byte[] bytes) {
+			this.bytes = bytes;
+			this.hash = Arrays.hashCode(bytes);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof DiskKey && Arrays.equals(bytes, ((DiskKey) o).bytes);
+		}
+	}
+
+	/**
+	 * Position of the latest record of a key, immutable so that readers always see
+	 * a consistent location
+	 */
+	private static final class Location {
+
+		final DiskLog log;
+		final int offset;
+		final int length;
+		final long expireAt;
+
+		Location(DiskLog log, int offset, int length, long expireAt) {
+			this.log = log;
+			this.offset = offset;
+			this.length = length;
+			this.expireAt = expireAt;
+		}
+
+		boolean isExpired(long now) {
+			return expireAt > 0 && now - expireAt >= 0;
+		}
+	}
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy.disk;
+
+import com.googlecode.memcachefy.Cache;
+import com.googlecode.memcachefy.CacheException;
+import com.googlecode.memcachefy.CacheManager;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Disk cache manager. Each named cache is stored in its own sub-directory of
+ * {@code directory} with a disk budget of {@code maxBytes}, and is reopened
+ * with its previous entries after a restart.
+ */
+public class DiskCacheManager implements CacheManager {
+
+	private static final Logger log = Logger.getLogger(DiskCacheManager.class);
+	private static final int DEFAULT_TTL = 600;
+	private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+	private static final String DEFAULT_DIRECTORY =
+			System.getProperty("java.io.tmpdir") + File.separator + "memcachefy";
+
+	@SuppressWarnings("rawtypes")
+	private final Map<String, DiskCache> cacheMap =
+			new ConcurrentHashMap<String, DiskCache>();
+
+	private String directory = DEFAULT_DIRECTORY;
+	private long maxBytes = DEFAULT_MAX_BYTES;
+	private int ttl = DEFAULT_TTL;
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <K, V> Cache<K, V> getCache(String name) throws CacheException {
+		DiskCache<K, V> cache = cacheMap.get(name);
+		if (cache == null) {
+			synchronized (cacheMap) {
+				cache = cacheMap.get(name);
+				if (cache == null) {
+					final File cacheDirectory = new File(getDirectory(), name.replaceAll("[^\\w.-]", "_"));
+					if (log.isDebugEnabled()) {
+						log.debug("Opening disk cache [" + name + "] at " + cacheDirectory);
+					}
+					cache = new DiskCache<K, V>(cacheDirectory, getMaxBytes());
+					cache.setTtl(getTtl());
+					cacheMap.put(name, cache);
+				}
+			}
+		}
+		return cache;
+	}
+
+	@SuppressWarnings("rawtypes")
+	public void destroy() {
+		for (DiskCache cache : cacheMap.values()) {
+			try {
+				cache.close();
+			} catch (Exception e) {
+				log.error("Error while trying to close cache instance: ", e);
+			}
+		}
+		cacheMap.clear();
+	}
+
+	public String getDirectory() {
+		return directory;
+	}
+
+	public void setDirectory(String directory) {
+		this.directory = directory;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	public int getTtl() {
+		return ttl;
+	}
+
+	public void setTtl(int ttl) {
+		this.ttl = ttl;
+	}
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy.disk;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An append-only log file of the disk cache, memory-mapped as a whole. Records are
+ * only appended by the cache writer, while readers access them concurrently through
+ * absolute reads and duplicated views of the mapped buffer.
+ * <p/>
+ * File layout: {@code [int magic][int version][record]...}
+ * <br/>
+ * Record layout: {@code [int length][byte type][long expireAt][int flags][int keyLength][key][value]}
+ * <br/>
+ * The length is written last, so a record torn by a crash reads as the end of the log.
+ */
+final class DiskLog {
+
+	private static final Logger log = Logger.getLogger(DiskLog.class);
+
+	static final int FILE_HEADER = 8;
+	static final int RECORD_HEADER = 21;
+
+	static final byte PUT = 1;
+	static final byte TOMBSTONE = 2;
+
+	private static final int MAGIC = 0x4d434659;
+	private static final int VERSION = 1;
+
+	private static final int LENGTH_OFFSET = 0;
+	private static final int TYPE_OFFSET = 4;
+	private static final int EXPIRE_OFFSET = 5;
+	private static final int FLAGS_OFFSET = 13;
+	private static final int KEY_LENGTH_OFFSET = 17;
+
+	final long id;
+	private final File file;
+	private final RandomAccessFile raf;
+	private final MappedByteBuffer buffer;
+	private final int capacity;
+
+	// guarded by the cache write lock
+	private int position;
+	private boolean closed;
+
+	final AtomicLong deadBytes = new AtomicLong();
+
+	private DiskLog(long id, File file, RandomAccessFile raf, int capacity) throws IOException {
+		this.id = id;
+		this.file = file;
+		this.raf = raf;
+		this.capacity = capacity;
+		this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+	}
+
+	/**
+	 * Create a new empty log file
+	 */
+	static DiskLog create(File file, long id, int capacity) throws IOException {
+		final DiskLog diskLog = new DiskLog(id, file, new RandomAccessFile(file, "rw"), capacity);
+		diskLog.buffer.putInt(0, MAGIC);
+		diskLog.buffer.putInt(4, VERSION);
+		diskLog.position = FILE_HEADER;
+		return diskLog;
+	}
+
+	/**
+	 * Map an existing log file, the write position is set after the last complete record
+	 *
+	 * @return the log or {@code null} if the file is not a valid log
+	 */
+	static DiskLog open(File file, long id) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		final long length = raf.length();
+		if (length < FILE_HEADER || length > Integer.MAX_VALUE) {
+			raf.close();
+			return null;
+		}
+		final DiskLog diskLog = new DiskLog(id, file, raf, (int) length);
+		if (diskLog.buffer.getInt(0) != MAGIC || diskLog.buffer.getInt(4) != VERSION) {
+			diskLog.close();
+			return null;
+		}
+		int offset = FILE_HEADER;
+		while (diskLog.hasRecord(offset)) {
+			offset += diskLog.length(offset);
+		}
+		diskLog.position = offset;
+		return diskLog;
+	}
+
+	/**
+	 * @return whether a complete record starts at the offset
+	 */
+	boolean hasRecord(int offset) {
+		if (offset < FILE_HEADER || offset + RECORD_HEADER > capacity) {
+			return false;
+		}
+		final int length = buffer.getInt(offset + LENGTH_OFFSET);
+		return length >= RECORD_HEADER && offset + length <= capacity && offset + length > offset;
+	}
+
+	/**
+	 * @return the offset of the first record
+	 */
+	int first() {
+		return FILE_HEADER;
+	}
+
+	int length(int offset) {
+		return buffer.getInt(offset + LENGTH_OFFSET);
+	}
+
+	byte type(int offset) {
+		return buffer.get(offset + TYPE_OFFSET);
+	}
+
+	long expireAt(int offset) {
+		return buffer.getLong(offset + EXPIRE_OFFSET);
+	}
+
+	int flags(int offset) {
+		return buffer.getInt(offset + FLAGS_OFFSET);
+	}
+
+	byte[] key(int offset) {
+		final byte[] key = new byte[buffer.getInt(offset + KEY_LENGTH_OFFSET)];
+		final ByteBuffer view = buffer.duplicate();
+		view.position(offset + RECORD_HEADER);
+		view.get(key);
+		return key;
+	}
+
+	/**
+	 * @return a read-only view of the value bytes, backed by the mapped file
+	 */
+	ByteBuffer value(int offset) {
+		final int valueStart = offset + RECORD_HEADER + buffer.getInt(offset + KEY_LENGTH_OFFSET);
+		final ByteBuffer view = buffer.asReadOnlyBuffer();
+		view.limit(offset + length(offset));
+		view.position(valueStart);
+		return view.slice();
+	}
+
+	/**
+	 * Update the expiration time of a record in place
+	 */
+	void touch(int offset, long expireAt) {
+		buffer.putLong(offset + EXPIRE_OFFSET, expireAt);
+	}
+
+	/**
+	 * @return whether a record with the given length still fits in this log
+	 */
+	boolean fits(int length) {
+		return capacity - position >= length;
+	}
+
+	/**
+	 * Append a record
+	 *
+	 * @return the record offset
+	 */
+	int append(byte type, long expireAt, int flags, byte[] key, byte[] value) {
+		final int offset = position;
+		final int length = RECORD_HEADER + key.length + value.length;
+		buffer.put(offset + TYPE_OFFSET, type);
+		buffer.putLong(offset + EXPIRE_OFFSET, expireAt);
+		buffer.putInt(offset + FLAGS_OFFSET, flags);
+		buffer.putInt(offset + KEY_LENGTH_OFFSET, key.length);
+		final ByteBuffer view = buffer.duplicate();
+		view.position(offset + RECORD_HEADER);
+		view.put(key);
+		view.put(value);
+		buffer.putInt(offset + LENGTH_OFFSET, length);
+		position += length;
+		return offset;
+	}
+
+	/**
+	 * Append a copy of a record of another log
+	 *
+	 * @return the record offset
+	 */
+	int append(DiskLog source, int sourceOffset) {
+		final int offset = position;
+		final int length = source.length(sourceOffset);
+		final ByteBuffer record = source.buffer.duplicate();
+		record.limit(sourceOffset + length);
+		record.position(sourceOffset + TYPE_OFFSET);
+		final ByteBuffer view = buffer.duplicate();
+		view.position(offset + TYPE_OFFSET);
+		view.put(record);
+		buffer.putInt(offset + LENGTH_OFFSET, length);
+		position += length;
+		return offset;
+	}
+
+	/**
+	 * @return number of bytes appended so far, including the file header
+	 */
+	int position() {
+		return position;
+	}
+
+	int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Flush the mapped pages to the file
+	 */
+	void force() {
+		if (!closed) {
+			buffer.force();
+		}
+	}
+
+	/**
+	 * Flush and close the file. The mapping itself stays valid for readers that still
+	 * hold a reference to it, until it is garbage collected.
+	 */
+	void close() {
+		if (!closed) {
+			closed = true;
+			buffer.force();
+			try {
+				raf.close();
+			} catch (IOException e) {
+				log.warn("Unable to close " + file, e);
+			}
+		}
+	}
+
+	/**
+	 * Close and delete the file
+	 */
+	void delete() {
+		close();
+		if (file.exists() && !file.delete()) {
+			log.warn("Unable to delete " + file);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return file.getPath();
+	}
+
+}
@@ -17,7 +17,22 @@ package com.googlecode.memcachefy.hashkey;
 
 import org.apache.commons.lang.builder.HashCodeBuilder;
 
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Hash key generator
@@ -28,6 +43,29 @@ public class HashKeyGenerator {
 
 	private static final int NULL_PARAM_KEY = 53;
 
+	private static final ConcurrentMap<Class<?>, Field[]> FIELDS =
+			new ConcurrentHashMap<Class<?>, Field[]>();
+	private static final Field[] NOT_ACCESSIBLE = new Field[0];
+	private static final ConcurrentMap<Method, Long> SEEDS = new ConcurrentHashMap<Method, Long>();
+
+	// the buffer is kept, so that hashing the parameters of a hit doesn't allocate it
+	private static final ThreadLocal<KeyFingerprint> LONG_KEYS = new ThreadLocal<KeyFingerprint>() {
+		@Override
+		protected KeyFingerprint initialValue() {
+			return new KeyFingerprint();
+		}
+	};
+
+	private static final Comparator<long[]> HASH_ORDER = new Comparator<long[]>() {
+		@Override
+		public int compare(long[] a, long[] b) {
+			if (a[0] != b[0]) {
+				return a[0] < b[0] ? -1 : 1;
+			}
+			return a[1] < b[1] ? -1 : a[1] == b[1] ? 0 : 1;
+		}
+	};
+
 	/**
 	 *  Generates a hashkey using reflection
 	 *
@@ -86,4 +124,269 @@ public class HashKeyGenerator {
 
 		return hashCode;
 	}
+
+	/**
+	 * Generates a primitive 64-bit hashkey using reflection, without boxing it. The key is
+	 * the first half of the fingerprint of {@link #reflectionFingerprintKey(Method, Object[])},
+	 * since the long key caches don't keep the parameters to tell colliding keys apart
+	 *
+	 * @param method
+	 * @param parameters
+	 * @return
+	 */
+	public static long reflectionLongHashKey(Method method, Object[] parameters) {
+		return longKey(method, parameters, true);
+	}
+
+	/**
+	 * Generates a primitive 64-bit hashkey without boxing it. The key is the first half of
+	 * the fingerprint of {@link #defaultFingerprintKey(Method, Object[])}, since the long key
+	 * caches don't keep the parameters to tell colliding keys apart
+	 *
+	 * @param method
+	 * @param parameters
+	 * @return
+	 */
+	public static long defaultLongHashKey(Method method, Object[] parameters) {
+		return longKey(method, parameters, false);
+	}
+
+	/**
+	 * Generates a 128-bit fingerprint key using reflection, encoded in base-64. Parameters
+	 * are fingerprinted as with {@link #defaultFingerprintKey(Method, Object[])}, except the
+	 * objects of application classes: their non-static, non-transient fields are fingerprinted
+	 * recursively, so that distinct but field-equal objects share the key
+	 *
+	 * @param method
+	 * @param parameters
+	 * @return
+	 */
+	public static String reflectionFingerprintKey(Method method, Object[] parameters) {
+		return fingerprint(method, parameters, true).toBase64();
+	}
+
+	/**
+	 * Generates a 128-bit fingerprint key, encoded in base-64. Strings, numbers, dates, enums,
+	 * arrays, collections and maps are fingerprinted by their content, other parameters by
+	 * their class, hashCode and toString functions
+	 *
+	 * @param method
+	 * @param parameters
+	 * @return
+	 */
+	public static String defaultFingerprintKey(Method method, Object[] parameters) {
+		return fingerprint(method, parameters, false).toBase64();
+	}
+
+	/**
+	 * Fingerprint a single cache key using reflection, as a parameter of
+	 * {@link #reflectionFingerprintKey(Method, Object[])}
+	 *
+	 * @param fingerprint destination of the key content
+	 * @param key
+	 */
+	public static void fingerprintKey(KeyFingerprint fingerprint, Object key) {
+		putValue(fingerprint, key, true, null);
+	}
+
+	private static KeyFingerprint fingerprint(Method method, Object[] parameters, boolean reflection) {
+		final KeyFingerprint fingerprint = putSignature(new KeyFingerprint(), method);
+		if (parameters != null) {
+			for (Object object : parameters) {
+				putValue(fingerprint, object, reflection, null);
+			}
+		}
+		return fingerprint;
+	}
+
+	/*
+	 * Overloads of the method, or the method of another class, must not share keys
+	 */
+	private static KeyFingerprint putSignature(KeyFingerprint fingerprint, Method method) {
+		fingerprint.putString(method.getDeclaringClass().getName());
+		fingerprint.putString(method.getName());
+		final Class<?>[] types = method.getParameterTypes();
+		fingerprint.putInt(types.length);
+		for (Class<?> type : types) {
+			fingerprint.putString(type.getName());
+		}
+		return fingerprint;
+	}
+
+	private static long longKey(Method method, Object[] parameters, boolean reflection) {
+		final KeyFingerprint fingerprint = LONG_KEYS.get().reset();
+		fingerprint.putLong(methodSeed(method));
+		if (parameters != null) {
+			for (Object object : parameters) {
+				putValue(fingerprint, object, reflection, null);
+			}
+		}
+		return fingerprint.hash64();
+	}
+
+	private static long methodSeed(Method method) {
+		Long seed = SEEDS.get(method);
+		if (seed == null) {
+			seed = putSignature(new KeyFingerprint(), method).hash64();
+			SEEDS.put(method, seed);
+		}
+		return seed;
+	}
+
+	/*
+	 * The path holds the objects whose fields are being fingerprinted, created on the
+	 * first one, so that a cycle back to one of them ends the walk
+	 */
+	private static void putValue(KeyFingerprint fingerprint, Object value, boolean reflection,
+								 IdentityHashMap<Object, Boolean> path) {
+		if (putSimpleValue(fingerprint, value)) {
+			return;
+		}
+		if (value instanceof List || value instanceof Object[]) {
+			final List<?> list = value instanceof List ? (List<?>) value : Arrays.asList((Object[]) value);
+			fingerprint.putByte(8).putInt(list.size());
+			for (Object element : list) {
+				putValue(fingerprint, element, reflection, path);
+			}
+		} else if (value.getClass().isArray()) {
+			final int length = Array.getLength(value);
+			fingerprint.putByte(8).putInt(length);
+			for (int i = 0; i < length; i++) {
+				putValue(fingerprint, Array.get(value, i), reflection, path);
+			}
+		} else if (value instanceof Set) {
+			// equal sets may iterate in different orders
+			final List<long[]> hashes = new ArrayList<long[]>();
+			for (Object element : (Set<?>) value) {
+				final KeyFingerprint single = new KeyFingerprint();
+				putValue(single, element, reflection, path);
+				hashes.add(single.hash128());
+			}
+			putUnordered(fingerprint.putByte(10), hashes);
+		} else if (value instanceof Map) {
+			final List<long[]> hashes = new ArrayList<long[]>();
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				final KeyFingerprint single = new KeyFingerprint();
+				putValue(single, entry.getKey(), reflection, path);
+				putValue(single, entry.getValue(), reflection, path);
+				hashes.add(single.hash128());
+			}
+			putUnordered(fingerprint.putByte(11), hashes);
+		} else if (value instanceof Collection) {
+			final Collection<?> collection = (Collection<?>) value;
+			fingerprint.putByte(8).putInt(collection.size());
+			for (Object element : collection) {
+				putValue(fingerprint, element, reflection, path);
+			}
+		} else {
+			final Field[] fields = reflection ? fields(value.getClass()) : null;
+			if (fields == null) {
+				// the default toString only holds the hash code, a custom one may leave fields out
+				fingerprint.putByte(9).putString(value.getClass().getName())
+						.putInt(value.hashCode()).putString(String.valueOf(value));
+				return;
+			}
+			if (path == null) {
+				path = new IdentityHashMap<Object, Boolean>();
+			}
+			if (path.put(value, Boolean.TRUE) != null) {
+				fingerprint.putByte(14).putInt(path.size());
+				return;
+			}
+			fingerprint.putByte(15).putString(value.getClass().getName()).putInt(fields.length);
+			try {
+				for (Field field : fields) {
+					putValue(fingerprint, field.get(value), true, path);
+				}
+			} catch (IllegalAccessException e) {
+				throw new IllegalStateException(e);
+			} finally {
+				path.remove(value);
+			}
+		}
+	}
+
+	/*
+	 * The non-static, non-transient fields of an application class and its superclasses,
+	 * or null for the JDK classes and the classes whose fields aren't accessible: those are
+	 * fingerprinted by their own hashCode and toString
+	 */
+	private static Field[] fields(Class<?> type) {
+		Field[] fields = FIELDS.get(type);
+		if (fields == null) {
+			fields = declaredFields(type);
+			FIELDS.put(type, fields);
+		}
+		return fields == NOT_ACCESSIBLE ? null : fields;
+	}
+
+	private static Field[] declaredFields(Class<?> type) {
+		final String name = type.getName();
+		if (name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.")) {
+			return NOT_ACCESSIBLE;
+		}
+		final List<Field> list = new ArrayList<Field>();
+		for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+			for (Field field : c.getDeclaredFields()) {
+				final int modifiers = field.getModifiers();
+				if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+					continue;
+				}
+				try {
+					field.setAccessible(true);
+				} catch (RuntimeException e) {
+					return NOT_ACCESSIBLE;
+				}
+				list.add(field);
+			}
+		}
+		return list.toArray(new Field[list.size()]);
+	}
+
+	/*
+	 * Write the fingerprints of the elements sorted, so that their order doesn't matter
+	 */
+	private static void putUnordered(KeyFingerprint fingerprint, List<long[]> hashes) {
+		Collections.sort(hashes, HASH_ORDER);
+		fingerprint.putInt(hashes.size());
+		for (long[] hash : hashes) {
+			fingerprint.putLong(hash[0]).putLong(hash[1]);
+		}
+	}
+
+	/*
+	 * Write values that can be fingerprinted by their content, each one tagged by its kind
+	 */
+	private static boolean putSimpleValue(KeyFingerprint fingerprint, Object value) {
+		if (value == null) {
+			fingerprint.putByte(0);
+		} else if (value instanceof String) {
+			fingerprint.putByte(1).putString((String) value);
+		} else if (value instanceof Long || value instanceof Integer ||
+				value instanceof Short || value instanceof Byte) {
+			fingerprint.putByte(2).putLong(((Number) value).longValue());
+		} else if (value instanceof Double || value instanceof Float) {
+			fingerprint.putByte(3).putLong(Double.doubleToLongBits(((Number) value).doubleValue()));
+		} else if (value instanceof Boolean) {
+			fingerprint.putByte(4).putByte((Boolean) value ? 1 : 0);
+		} else if (value instanceof Character) {
+			fingerprint.putByte(5).putInt((Character) value);
+		} else if (value instanceof Enum) {
+			final Enum<?> constant = (Enum<?>) value;
+			fingerprint.putByte(6).putString(constant.getDeclaringClass().getName())
+					.putString(constant.name());
+		} else if (value instanceof byte[]) {
+			fingerprint.putByte(7).putBytes((byte[]) value);
+		} else if (value instanceof CharSequence) {
+			fingerprint.putByte(1).putString((CharSequence) value);
+		} else if (value instanceof Date) {
+			fingerprint.putByte(12).putString(value.getClass().getName()).putLong(((Date) value).getTime());
+		} else if (value instanceof Number) {
+			// e.g. BigDecimal, BigInteger or AtomicLong
+			fingerprint.putByte(13).putString(value.getClass().getName()).putString(value.toString());
+		} else {
+			return false;
+		}
+		return true;
+	}
 }
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy.hashkey;
+
+/**
+ * Fingerprints the content of a cache key to 64 or 128 bits, using the x64 128-bit variant
+ * of MurmurHash3. The key is first written into a growable buffer, e.g.
+ * <pre>
+ * String key = new KeyFingerprint().putString(name).putLong(id).toBase64();
+ * </pre>
+ * Unlike the 32-bit hash codes, the fingerprints of distinct keys practically never collide:
+ * with 128 bits, a collision is expected after about 2^64 keys.
+ *
+ * @author bhlangonijr
+ */
+public final class KeyFingerprint {
+
+	/**
+	 * Length of the base-64 encoding of a 128-bit fingerprint
+	 */
+	public static final int ENCODED_LENGTH = 22;
+
+	private static final char[] BASE64 =
+			"ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+	private static final long C1 = 0x87c37b91114253d5L;
+	private static final long C2 = 0x4cf5ad432745937fL;
+
+	private byte[] buffer;
+	private int length;
+
+	public KeyFingerprint() {
+		this(64);
+	}
+
+	/**
+	 * @param capacity initial capacity of the buffer in bytes
+	 */
+	public KeyFingerprint(int capacity) {
+		this.buffer = new byte[Math.max(16, capacity)];
+	}
+
+	public KeyFingerprint putByte(int value) {
+		ensureCapacity(1);
+		buffer[length++] = (byte) value;
+		return this;
+	}
+
+	public KeyFingerprint putInt(int value) {
+		ensureCapacity(4);
+		for (int i = 0; i < 4; i++) {
+			buffer[length++] = (byte) (value >>> (i << 3));
+		}
+		return this;
+	}
+
+	public KeyFingerprint putLong(long value) {
+		ensureCapacity(8);
+		for (int i = 0; i < 8; i++) {
+			buffer[length++] = (byte) (value >>> (i << 3));
+		}
+		return this;
+	}
+
+	/**
+	 * Write the characters of the string, prefixed by its length so that consecutive
+	 * strings can't be confused, e.g. "ab", "c" and "a", "bc"
+	 */
+	public KeyFingerprint putString(CharSequence value) {
+		final int chars = value.length();
+		putInt(chars);
+		ensureCapacity(chars << 1);
+		for (int i = 0; i < chars; i++) {
+			final char c = value.charAt(i);
+			buffer[length++] = (byte) c;
+			buffer[length++] = (byte) (c >>> 8);
+		}
+		return this;
+	}
+
+	/**
+	 * Write the bytes, prefixed by their length
+	 */
+	public KeyFingerprint putBytes(byte[] value) {
+		putInt(value.length);
+		ensureCapacity(value.length);
+		System.arraycopy(value, 0, buffer, length, value.length);
+		length += value.length;
+		return this;
+	}
+
+	/**
+	 * Discard the written content, keeping the buffer
+	 */
+	public KeyFingerprint reset() {
+		length = 0;
+		return this;
+	}
+
+	/**
+	 * @return the first 64 bits of the fingerprint
+	 */
+	public long hash64() {
+		final long[] hash = new long[2];
+		murmur3(buffer, length, hash);
+		return hash[0];
+	}
+
+	/**
+	 * @return the 128-bit fingerprint as two longs
+	 */
+	public long[] hash128() {
+		final long[] hash = new long[2];
+		murmur3(buffer, length, hash);
+		return hash;
+	}
+
+	/**
+	 * @return the 128-bit fingerprint encoded in {@link #ENCODED_LENGTH} url-safe base-64
+	 *         characters, valid in a memcached key
+	 */
+	public String toBase64() {
+		final long[] hash = hash128();
+		final char[] encoded = new char[ENCODED_LENGTH];
+		encode(hash[0], hash[1], encoded, 0);
+		return new String(encoded);
+	}
+
+	/**
+	 * Encode a 128-bit value in {@link #ENCODED_LENGTH} url-safe base-64 characters
+	 *
+	 * @param high   first 64 bits
+	 * @param low    last 64 bits
+	 * @param out    destination of the characters
+	 * @param offset index of the first character
+	 */
+	public static void encode(long high, long low, char[] out, int offset) {
+		// 21 groups of 6 bits, the last character holds the 2 remaining bits
+		for (int i = 0; i < ENCODED_LENGTH - 1; i++) {
+			out[offset + i] = BASE64[(int) (high >>> 58)];
+			high = (high << 6) | (low >>> 58);
+			low <<= 6;
+		}
+		out[offset + ENCODED_LENGTH - 1] = BASE64[(int) (high >>> 62)];
+	}
+
+	private void ensureCapacity(int bytes) {
+		if (length + bytes > buffer.length) {
+			final byte[] grown = new byte[Math.max(buffer.length << 1, length + bytes)];
+			System.arraycopy(buffer, 0, grown, 0, length);
+			buffer = grown;
+		}
+	}
+
+	/*
+	 * MurmurHash3 x64 128-bit with a zero seed
+	 */
+	static void murmur3(byte[] data, int length, long[] out) {
+		long h1 = 0;
+		long h2 = 0;
+		final int blocks = length >>> 4;
+		for (int i = 0; i < blocks; i++) {
+			long k1 = getLong(data, i << 4);
+			long k2 = getLong(data, (i << 4) + 8);
+
+			k1 *= C1;
+			k1 = Long.rotateLeft(k1, 31);
+			k1 *= C2;
+			h1 ^= k1;
+			h1 = Long.rotateLeft(h1, 27);
+			h1 += h2;
+			h1 = h1 * 5 + 0x52dce729;
+
+			k2 *= C2;
+			k2 = Long.rotateLeft(k2, 33);
+			k2 *= C1;
+			h2 ^= k2;
+			h2 = Long.rotateLeft(h2, 31);
+			h2 += h1;
+			h2 = h2 * 5 + 0x38495ab5;
+		}
+
+		final int tail = blocks << 4;
+		final int remaining = length & 15;
+		long k1 = 0;
+		long k2 = 0;
+		for (int i = remaining - 1; i >= 8; i--) {
+			k2 ^= (data[tail + i] & 0xffL) << ((i - 8) << 3);
+		}
+		if (remaining > 8) {
+			k2 *= C2;
+			k2 = Long.rotateLeft(k2, 33);
+			k2 *= C1;
+			h2 ^= k2;
+		}
+		for (int i = Math.min(remaining, 8) - 1; i >= 0; i--) {
+			k1 ^= (data[tail + i] & 0xffL) << (i << 3);
+		}
+		if (remaining > 0) {
+			k1 *= C1;
+			k1 = Long.rotateLeft(k1, 31);
+			k1 *= C2;
+			h1 ^= k1;
+		}
+
+		h1 ^= length;
+		h2 ^= length;
+		h1 += h2;
+		h2 += h1;
+		h1 = fmix(h1);
+		h2 = fmix(h2);
+		h1 += h2;
+		h2 += h1;
+		out[0] = h1;
+		out[1] = h2;
+	}
+
+	private static long getLong(byte[] data, int offset) {
+		long value = 0;
+		for (int i = 7; i >= 0; i--) {
+			value = (value << 8) | (data[offset + i] & 0xffL);
+		}
+		return value;
+	}
+
+	private static long fmix(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy.inmemory;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A single in-memory cache entry. It holds the cached value together with its
+ * timestamps and time-to-live, and is linked directly into the expiration
+ * {@link TimerWheel} and into the eviction {@link Policy} queues.
+ *
+ * @param <K>
+ * @param <V>
+ */
+final class CacheEntry<K, V> extends TimerWheel.Node {
+
+	final K key;
+	final V value;
+	final int weight;
+	final long writeTime;
+	final long version;
+	volatile long accessTime;
+	volatile int ttl;
+	private volatile int refreshing;
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicIntegerFieldUpdater<CacheEntry> REFRESHING =
+			AtomicIntegerFieldUpdater.newUpdater(CacheEntry.class, "refreshing");
+
+	// guarded by the cache eviction lock
+	CacheEntry<K, V> previousInPolicy;
+	CacheEntry<K, V> nextInPolicy;
+	int queue;
+	int frequency;
+	boolean retired;
+
+	CacheEntry(K key, V value, int weight, int ttl, long now, long version) {
+		this.key = key;
+		this.value = value;
+		this.weight = weight;
+		this.ttl = ttl;
+		this.version = version;
+		this.writeTime = now;
+		this.accessTime = now;
+		this.expireAt = expireAt(now, ttl);
+	}
+
+	/**
+	 * @return whether this entry has a time-to-live
+	 */
+	boolean isExpirable() {
+		return ttl > 0;
+	}
+
+	/**
+	 * @param now current time in milliseconds
+	 * @return whether this entry has expired at the given time
+	 */
+	boolean isExpired(long now) {
+		return ttl > 0 && now - expireAt >= 0;
+	}
+
+	/**
+	 * @param now              current time in milliseconds
+	 * @param refreshAfterWrite refresh threshold in seconds
+	 * @return whether this entry is due for a refresh and no other reload of it is running,
+	 *         the caller is then responsible for reloading it
+	 */
+	boolean startRefresh(long now, int refreshAfterWrite) {
+		return refreshAfterWrite > 0 && now - writeTime >= refreshAfterWrite * 1000L &&
+				REFRESHING.compareAndSet(this, 0, 1);
+	}
+
+	/**
+	 * Allow a new reload of this entry, after a failed one
+	 */
+	void endRefresh() {
+		refreshing = 0;
+	}
+
+	/**
+	 * @return whether this entry is currently linked into a policy queue
+	 */
+	boolean isLinkedInPolicy() {
+		return nextInPolicy != null;
+	}
+
+	static long expireAt(long now, int ttl) {
+		return ttl > 0 ? now + ttl * 1000L : Long.MAX_VALUE;
+	}
+
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy.inmemory;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.googlecode.memcachefy.memcached.KryoSerializer;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Snapshot files of an {@link InMemoryCache}. The entries are spread round-robin over
+ * a few shard files, so that they can be loaded in parallel, and each shard lists its
+ * entries from the coldest to the hottest: the hottest ones are loaded last and end up
+ * as the most recently used ones.
+ * <p/>
+ * Shard layout: {@code [int magic][int version][long writeTime][record]...}
+ * <br/>
+ * Record layout: {@code [int ttl][long remaining][int length][kryo key][kryo value]}
+ * <br/>
+ * Keys and values are serialized record by record, so an entry whose class can't be
+ * read anymore, e.g. after a deployment changed it, is skipped without losing the others.
+ */
+final class CacheSnapshot {
+
+	private static final Logger log = Logger.getLogger(CacheSnapshot.class);
+
+	private static final int MAGIC = 0x4d435348;
+	private static final int VERSION = 1;
+	private static final String PREFIX = "snapshot-";
+	private static final String SUFFIX = ".bin";
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Entry read from a snapshot
+	 */
+	static final class Record {
+		final Object key;
+		final Object value;
+		final int ttl;
+		final long remaining;
+
+		Record(Object key, Object value, int ttl, long remaining) {
+			this.key = key;
+			this.value = value;
+			this.ttl = ttl;
+			this.remaining = remaining;
+		}
+	}
+
+	/**
+	 * Replace the snapshot stored in the directory
+	 *
+	 * @param directory snapshot directory
+	 * @param entries   entries to be written, hottest first
+	 * @param shards    number of shard files
+	 * @param now       current time in milliseconds
+	 * @return number of entries written
+	 */
+	static <K, V> int write(File directory, List<CacheEntry<K, V>> entries, int shards, long now)
+			throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Unable to create snapshot directory " + directory);
+		}
+		shards = Math.max(1, Math.min(shards, entries.size()));
+		final Kryo kryo = new Kryo();
+		final Output output = new Output(BUFFER_SIZE, -1);
+		int written = 0;
+		for (int shard = 0; shard < shards; shard++) {
+			final File temporary = new File(directory, PREFIX + shard + SUFFIX + ".tmp");
+			final DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(temporary), BUFFER_SIZE));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(now);
+				// coldest first, so that the hottest entries are loaded last
+				final int last = entries.size() - 1;
+				for (int i = last - (last - shard) % shards; i >= 0; i -= shards) {
+					if (writeRecord(out, output, kryo, entries.get(i), now)) {
+						written++;
+					}
+				}
+			} finally {
+				KryoSerializer.close(out);
+			}
+			final File file = shardFile(directory, shard);
+			if (file.exists() && !file.delete() || !temporary.renameTo(file)) {
+				throw new IOException("Unable to replace snapshot file " + file);
+			}
+		}
+		// shards left by a previous snapshot written with more files
+		for (File file : list(directory)) {
+			if (shardIndex(file) >= shards && !file.delete()) {
+				log.warn("Unable to delete stale snapshot file " + file);
+			}
+		}
+		return written;
+	}
+
+	/**
+	 * @return the shard files of the snapshot stored in the directory
+	 */
+	static File[] list(File directory) {
+		final File[] files = directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+			}
+		});
+		return files == null ? new File[0] : files;
+	}
+
+	/**
+	 * Read the live entries of a shard file, in the order they were written
+	 *
+	 * @param file shard file
+	 * @param now  current time in milliseconds
+	 * @return the entries whose time-to-live has not elapsed since the snapshot
+	 */
+	static List<Record> read(File file, long now) throws IOException {
+		final List<Record> records = new ArrayList<Record>();
+		final DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				log.warn("Ignoring invalid snapshot file " + file);
+				return records;
+			}
+			final long elapsed = Math.max(0L, now - in.readLong());
+			final Kryo kryo = new Kryo();
+			byte[] buffer = new byte[BUFFER_SIZE];
+			while (true) {
+				final int ttl;
+				final long remaining;
+				final int length;
+				try {
+					ttl = in.readInt();
+					remaining = in.readLong() - elapsed;
+					length = in.readInt();
+				} catch (EOFException e) {
+					break;
+				}
+				if (length > buffer.length) {
+					buffer = new byte[length];
+				}
+				in.readFully(buffer, 0, length);
+				if (ttl > 0 && remaining <= 0) {
+					continue;
+				}
+				try {
+					final Input input = new Input(buffer, 0, length);
+					final Object key = kryo.readClassAndObject(input);
+					final Object value = kryo.readClassAndObject(input);
+					records.add(new Record(key, value, ttl, remaining));
+				} catch (Exception e) {
+					if (log.isDebugEnabled()) {
+						log.debug("Skipping unreadable snapshot entry in " + file, e);
+					}
+				}
+			}
+		} finally {
+			KryoSerializer.close(in);
+		}
+		return records;
+	}
+
+	private static <K, V> boolean writeRecord(DataOutputStream out, Output output, Kryo kryo,
+											  CacheEntry<K, V> entry, long now) throws IOException {
+		final long remaining = entry.isExpirable() ? entry.expireAt - now : 0L;
+		if (entry.isExpirable() && remaining <= 0) {
+			return false;
+		}
+		output.clear();
+		try {
+			kryo.writeClassAndObject(output, entry.key);
+			kryo.writeClassAndObject(output, entry.value);
+		} catch (Exception e) {
+			if (log.isDebugEnabled()) {
+				log.debug("Skipping entry [" + entry.key + "] that can't be serialized", e);
+			}
+			return false;
+		}
+		out.writeInt(entry.ttl);
+		out.writeLong(remaining);
+		out.writeInt(output.position());
+		out.write(output.getBuffer(), 0, output.position());
+		return true;
+	}
+
+	private static File shardFile(File directory, int shard) {
+		return new File(directory, PREFIX + shard + SUFFIX);
+	}
+
+	private static int shardIndex(File file) {
+		final String name = file.getName();
+		try {
+			return Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return Integer.MAX_VALUE;
+		}
+	}
+
+	private CacheSnapshot() {
+
+	}
+
+}
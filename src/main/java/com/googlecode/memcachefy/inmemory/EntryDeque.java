@@ -0,0 +1,135 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy.inmemory;
+
+import java.util.List;
+
+/**
+ * Intrusive doubly-linked queue of cache entries, ordered from the least
+ * to the most recently linked entry. An entry belongs to at most one queue.
+ *
+ * @param <K>
+ * @param <V>
+ */
+final class EntryDeque<K, V> {
+
+	private final CacheEntry<K, V> sentinel;
+	private long size;
+	private long weight;
+
+	EntryDeque() {
+		sentinel = new CacheEntry<K, V>(null, null, 0, 0, 0L, 0L);
+		sentinel.previousInPolicy = sentinel;
+		sentinel.nextInPolicy = sentinel;
+	}
+
+	void linkLast(CacheEntry<K, V> entry) {
+		entry.previousInPolicy = sentinel.previousInPolicy;
+		entry.nextInPolicy = sentinel;
+		sentinel.previousInPolicy.nextInPolicy = entry;
+		sentinel.previousInPolicy = entry;
+		size++;
+		weight += entry.weight;
+	}
+
+	void unlink(CacheEntry<K, V> entry) {
+		entry.previousInPolicy.nextInPolicy = entry.nextInPolicy;
+		entry.nextInPolicy.previousInPolicy = entry.previousInPolicy;
+		entry.previousInPolicy = null;
+		entry.nextInPolicy = null;
+		size--;
+		weight -= entry.weight;
+	}
+
+	void moveToLast(CacheEntry<K, V> entry) {
+		if (sentinel.previousInPolicy != entry) {
+			unlink(entry);
+			linkLast(entry);
+		}
+	}
+
+	/**
+	 * @return the least recently linked entry or {@code null} if the queue is empty
+	 */
+	CacheEntry<K, V> peekFirst() {
+		return sentinel.nextInPolicy == sentinel ? null : sentinel.nextInPolicy;
+	}
+
+	/**
+	 * @return the entry linked after the given one or {@code null} at the end of the queue
+	 */
+	CacheEntry<K, V> next(CacheEntry<K, V> entry) {
+		return entry.nextInPolicy == sentinel ? null : entry.nextInPolicy;
+	}
+
+	/**
+	 * @return the most recently linked entry or {@code null} if the queue is empty
+	 */
+	CacheEntry<K, V> peekLast() {
+		return sentinel.previousInPolicy == sentinel ? null : sentinel.previousInPolicy;
+	}
+
+	/**
+	 * @return the entry linked before the given one or {@code null} at the beginning of the queue
+	 */
+	CacheEntry<K, V> previous(CacheEntry<K, V> entry) {
+		return entry.previousInPolicy == sentinel ? null : entry.previousInPolicy;
+	}
+
+	/**
+	 * Add the entries to the list from the most recently linked one, until the list reaches the limit
+	 */
+	void collectFromLast(List<CacheEntry<K, V>> entries, int limit) {
+		CacheEntry<K, V> entry = peekLast();
+		while (entry != null && entries.size() < limit) {
+			entries.add(entry);
+			entry = previous(entry);
+		}
+	}
+
+	boolean isEmpty() {
+		return sentinel.nextInPolicy == sentinel;
+	}
+
+	long size() {
+		return size;
+	}
+
+	/**
+	 * @return total weight of the linked entries
+	 */
+	long weight() {
+		return weight;
+	}
+
+	/**
+	 * Unlink all the entries
+	 */
+	void clear() {
+		CacheEntry<K, V> entry = sentinel.nextInPolicy;
+		while (entry != sentinel) {
+			final CacheEntry<K, V> next = entry.nextInPolicy;
+			entry.previousInPolicy = null;
+			entry.nextInPolicy = null;
+			entry = next;
+		}
+		sentinel.previousInPolicy = sentinel;
+		sentinel.nextInPolicy = sentinel;
+		size = 0;
+		weight = 0;
+	}
+
+}
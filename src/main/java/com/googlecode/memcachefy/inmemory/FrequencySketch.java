@@ -0,0 +1,145 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy.inmemory;
+
+/**
+ * Count-min sketch estimating the popularity of keys, with 4-bit counters packed
+ * sixteen to a long and four hash functions. All counters are halved once the number
+ * of increments reaches ten times the cache capacity, so the estimation follows the
+ * recent history of the workload. The table grows with the number of entries of
+ * the cache, which is not known upfront when the cache is bounded by weight.
+ * <p/>
+ * The sketch is not thread-safe, callers must guard it with their own lock.
+ */
+final class FrequencySketch {
+
+	private static final long[] SEED = {
+			0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+	private static final long RESET_MASK = 0x7777777777777777L;
+	private static final long ONE_MASK = 0x1111111111111111L;
+	private static final int MAX_FREQUENCY = 15;
+	private static final int SAMPLE_FACTOR = 10;
+
+	private long[] table;
+	private int tableMask;
+	private int sampleSize;
+	private int size;
+
+	FrequencySketch(long maximumSize) {
+		ensureCapacity(maximumSize);
+	}
+
+	/**
+	 * Grow the table to count the popularity of the given number of entries,
+	 * discarding the recorded history if it is resized
+	 *
+	 * @param maximumSize expected number of entries
+	 */
+	void ensureCapacity(long maximumSize) {
+		final int maximum = (int) Math.min(Math.max(maximumSize, 1L), Integer.MAX_VALUE >>> 1);
+		if (table != null && table.length >= maximum) {
+			return;
+		}
+		table = new long[Math.max(ceilingPowerOfTwo(maximum), 8)];
+		tableMask = table.length - 1;
+		sampleSize = (int) Math.min((long) SAMPLE_FACTOR * maximum, Integer.MAX_VALUE);
+		size = 0;
+	}
+
+	/**
+	 * Estimated number of occurrences of the element, up to 15
+	 *
+	 * @param e
+	 * @return
+	 */
+	int frequency(Object e) {
+		final int hash = spread(e.hashCode());
+		final int start = (hash & 3) << 2;
+		int frequency = MAX_FREQUENCY;
+		for (int i = 0; i < 4; i++) {
+			final int index = indexOf(hash, i);
+			final int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+			frequency = Math.min(frequency, count);
+		}
+		return frequency;
+	}
+
+	/**
+	 * Increment the popularity of the element
+	 *
+	 * @param e
+	 */
+	void increment(Object e) {
+		final int hash = spread(e.hashCode());
+		final int start = (hash & 3) << 2;
+		boolean added = false;
+		for (int i = 0; i < 4; i++) {
+			added |= incrementAt(indexOf(hash, i), start + i);
+		}
+		if (added && ++size >= sampleSize) {
+			reset();
+		}
+	}
+
+	/**
+	 * Forget all the recorded occurrences
+	 */
+	void clear() {
+		for (int i = 0; i < table.length; i++) {
+			table[i] = 0L;
+		}
+		size = 0;
+	}
+
+	private boolean incrementAt(int i, int j) {
+		final int offset = j << 2;
+		final long mask = 0xfL << offset;
+		if ((table[i] & mask) != mask) {
+			table[i] += 1L << offset;
+			return true;
+		}
+		return false;
+	}
+
+	/*
+	 * Halve every counter, aging the recorded history
+	 */
+	private void reset() {
+		int count = 0;
+		for (int i = 0; i < table.length; i++) {
+			count += Long.bitCount(table[i] & ONE_MASK);
+			table[i] = (table[i] >>> 1) & RESET_MASK;
+		}
+		size = (size >>> 1) - (count >>> 2);
+	}
+
+	private int indexOf(int item, int i) {
+		long hash = (item + SEED[i]) * SEED[i];
+		hash += hash >>> 32;
+		return ((int) hash) & tableMask;
+	}
+
+	private static int spread(int x) {
+		x = ((x >>> 16) ^ x) * 0x45d9f3b;
+		x = ((x >>> 16) ^ x) * 0x45d9f3b;
+		return (x >>> 16) ^ x;
+	}
+
+	private static int ceilingPowerOfTwo(int x) {
+		return 1 << -Integer.numberOfLeadingZeros(x - 1);
+	}
+
+}
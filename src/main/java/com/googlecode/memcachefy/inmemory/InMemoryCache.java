@@ -15,144 +15,500 @@
  */
 package com.googlecode.memcachefy.inmemory;
 
-import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
-import com.googlecode.memcachefy.Cache;
+import com.googlecode.memcachefy.AbstractCache;
+import com.googlecode.memcachefy.AsyncCache;
 import com.googlecode.memcachefy.CacheException;
+import com.googlecode.memcachefy.CacheFuture;
+import com.googlecode.memcachefy.CacheLoader;
+import com.googlecode.memcachefy.EvictionPolicy;
+import com.googlecode.memcachefy.Ticker;
+import com.googlecode.memcachefy.Tickers;
+import com.googlecode.memcachefy.VersionedValue;
+import com.googlecode.memcachefy.Weigher;
+import com.googlecode.memcachefy.Weighers;
+import com.googlecode.memcachefy.stats.CacheOperation;
 import com.googlecode.memcachefy.stats.CacheStatistics;
 import com.googlecode.memcachefy.stats.CacheStatisticsImpl;
 import org.apache.log4j.Logger;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * In-memory (on heap) cache implementation
+ * In-memory (on heap) cache implementation, bounded either by its number of
+ * entries or by the total weight of the entries given by a {@link Weigher}.
+ * Its hottest entries can be saved to a snapshot on disk and loaded back after a
+ * restart, so that a new process doesn't start with a cold cache. With a
+ * {@link CacheLoader}, entries older than {@code refreshAfterWrite} are reloaded
+ * in the background while their current value is still served.
  *
  * @author bhlangonijr
  */
-public class InMemoryCache<K, V> implements Cache<K, V> {
+public class InMemoryCache<K, V> extends AbstractCache<K, V> implements AsyncCache<K, V> {
 	private static final Logger log = Logger.getLogger(InMemoryCache.class);
-	private final ConcurrentLinkedHashMap<K, V> map;
-	private final ConcurrentLinkedHashMap<K, EntryInfo> expireMap;
-	private final ExecutorService service = Executors.newSingleThreadExecutor();
-	private final AtomicInteger executions = new AtomicInteger();
-	private static final int PURGE_COUNT_THRESHOLD = 1000;
-	private static final int PURGE_TIME_THRESHOLD = 5000;
+	private final ConcurrentHashMap<K, CacheEntry<K, V>> map;
+	private final Policy<K, V> policy;
+	private final Weigher<? super K, ? super V> weigher;
+	private final Ticker ticker;
+	private final TimerWheel<CacheEntry<K, V>> timerWheel;
+	private final ReentrantLock evictionLock = new ReentrantLock();
+	// writes already serialize on the eviction lock, a shared counter adds no contention
+	private final AtomicLong versions = new AtomicLong();
+	private final ScheduledFuture<?> expirationTask;
+	private static final int EXPIRATION_TICK_INTERVAL = 1000;
 	private static final int DEFAULT_MAX_ENTRIES = 5000;
+	private static final EvictionPolicy DEFAULT_EVICTION_POLICY = EvictionPolicy.LRU;
 	private static final int DEFAULT_TTL = 0;
 	private int ttl = DEFAULT_TTL;
-	private AtomicLong purgetLastTimestamp = new AtomicLong(System.currentTimeMillis());
+	private final Object snapshotLock = new Object();
+	private volatile CacheLoader<? super K, V> cacheLoader;
+	private volatile int refreshAfterWrite;
+	private volatile Executor refreshExecutor = refreshService;
+
+	// used by the caches created outside of a manager
+	private static final ScheduledExecutorService maintenance =
+			Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					final Thread thread = new Thread(r, "memcachefy-maintenance");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	// shared by all the in-memory caches, runs the reloads away from the maintenance threads
+	private static final ExecutorService refreshService =
+			Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				private final AtomicInteger threadNumber = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					final Thread thread = new Thread(r, "memcachefy-inmemory-refresh-" + threadNumber.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
 
 	private final CacheStatisticsImpl cacheStatistics;
 
-	public InMemoryCache(int maxEntries) {
-		map = new ConcurrentLinkedHashMap.Builder().
-				maximumWeightedCapacity(maxEntries).build();
-		expireMap = new ConcurrentLinkedHashMap.Builder().
-				maximumWeightedCapacity(maxEntries).build();
+	/**
+	 * @param maxWeight      maximum total weight of the entries
+	 * @param evictionPolicy policy choosing the entries evicted when the weight is exceeded
+	 * @param weigher        weight of each entry, e.g. its size in bytes
+	 * @param scheduler      scheduler running the maintenance tasks of the cache, usually
+	 *                       shared by all the caches of a {@link InMemoryCacheManager}
+	 * @param ticker         time source of the expiration and refresh of the entries
+	 */
+	public InMemoryCache(long maxWeight, EvictionPolicy evictionPolicy, Weigher<? super K, ? super V> weigher,
+						 ScheduledExecutorService scheduler, Ticker ticker) {
+		map = new ConcurrentHashMap<K, CacheEntry<K, V>>();
+		policy = Policy.create(evictionPolicy, maxWeight);
+		this.weigher = weigher;
+		this.ticker = ticker;
 		cacheStatistics = new CacheStatisticsImpl();
+		timerWheel = new TimerWheel<CacheEntry<K, V>>(ticker.read());
+		expirationTask = scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				expireEntries();
+			}
+		}, EXPIRATION_TICK_INTERVAL, EXPIRATION_TICK_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	public InMemoryCache(long maxWeight, EvictionPolicy evictionPolicy, Weigher<? super K, ? super V> weigher,
+						 ScheduledExecutorService scheduler) {
+		this(maxWeight, evictionPolicy, weigher, scheduler, Tickers.coarse());
+	}
+
+	public InMemoryCache(long maxWeight, EvictionPolicy evictionPolicy, Weigher<? super K, ? super V> weigher) {
+		this(maxWeight, evictionPolicy, weigher, maintenance);
+	}
+
+	public InMemoryCache(int maxEntries, EvictionPolicy evictionPolicy) {
+		this(maxEntries, evictionPolicy, Weighers.singleton());
+	}
+
+	public InMemoryCache(int maxEntries) {
+		this(maxEntries, DEFAULT_EVICTION_POLICY);
 	}
 
 	public InMemoryCache() {
 		this(DEFAULT_MAX_ENTRIES);
 	}
 
-	class EntryInfo {
-		int ttl;
-		long timestamp;
-		K key;
+	@Override
+	public V get(K key) throws CacheException {
+		final long start = cacheStatistics.startTime();
+		final CacheEntry<K, V> entry = getEntry(key);
 
-		public EntryInfo(int ttl, long timestamp, K key) {
-			super();
-			this.ttl = ttl;
-			this.timestamp = timestamp;
-			this.key = key;
+		if (entry == null) {
+			cacheStatistics.cacheMissesInc();
+			cacheStatistics.recordLatency(CacheOperation.GET, start);
+			return null;
 		}
+		cacheStatistics.cacheHitsInc();
+		cacheStatistics.recordLatency(CacheOperation.GET, start);
+		return entry.value;
+	}
 
-		public EntryInfo() {
+	@Override
+	public V getAndTouch(K key, int ttl) throws CacheException {
+		final long start = cacheStatistics.startTime();
+		final CacheEntry<K, V> entry = getEntry(key);
 
+		if (entry == null) {
+			cacheStatistics.cacheMissesInc();
+			cacheStatistics.recordLatency(CacheOperation.GET_AND_TOUCH, start);
+			return null;
+		}
+		if (entry.isExpirable()) {
+			evictionLock.lock();
+			try {
+				if (ttl > 0) {
+					entry.ttl = ttl;
+				}
+				entry.expireAt = CacheEntry.expireAt(entry.accessTime, entry.ttl); // touch
+				if (entry.isScheduled()) {
+					timerWheel.reschedule(entry);
+				}
+			} finally {
+				evictionLock.unlock();
+			}
 		}
+		cacheStatistics.cacheHitsInc();
+		cacheStatistics.recordLatency(CacheOperation.GET_AND_TOUCH, start);
+		return entry.value;
+	}
 
+	@Override
+	public V putAndGet(K key, V value) throws CacheException {
+		return putAndGet(key, value, getTtl());
 	}
 
 	@Override
-	public V get(K key) throws CacheException {
-		if (purgeExpiredEntry(key)) {
-			//expired
-			return null;
+	public V putAndGet(K key, V value, int ttl) throws CacheException {
+		final long start = cacheStatistics.startTime();
+		final CacheEntry<K, V> previous = putEntry(key, value, ttl);
+		cacheStatistics.recordLatency(CacheOperation.PUT, start);
+		return previous == null || previous.isExpired(ticker.read()) ?
+				null : previous.value;
+	}
+
+	@Override
+	public void put(K key, V value) throws CacheException {
+		put(key, value, getTtl());
+	}
+
+	@Override
+	public void put(K key, V value, int ttl) throws CacheException {
+		final long start = cacheStatistics.startTime();
+		putEntry(key, value, ttl);
+		cacheStatistics.recordLatency(CacheOperation.PUT, start);
+	}
+
+	@Override
+	public V remove(K key) throws CacheException {
+		final long start = cacheStatistics.startTime();
+		final CacheEntry<K, V> entry = map.remove(key);
+		if (entry != null) {
+			retire(entry);
 		}
-		final V value = map.get(key);
+		cacheStatistics.recordLatency(CacheOperation.REMOVE, start);
+		return entry == null ? null : entry.value;
+	}
 
-		if (value == null) {
-			cacheStatistics.cacheMissesIncAndGet();
-		} else {
-			cacheStatistics.cacheHitsIncAndGet();
+	/*
+	 * The conditional writes swap the entries with the map atomic operations, an
+	 * expired entry not yet removed by the timer wheel counts as absent
+	 */
+
+	@Override
+	public boolean putIfAbsent(K key, V value, int ttl) throws CacheException {
+		final long start = cacheStatistics.startTime();
+		final long now = ticker.read();
+		final CacheEntry<K, V> entry = newEntry(key, value, ttl, now);
+		try {
+			while (true) {
+				final CacheEntry<K, V> current = map.putIfAbsent(key, entry);
+				if (current == null) {
+					addEntry(entry, null);
+					return true;
+				}
+				if (!current.isExpired(now)) {
+					return false;
+				}
+				if (map.replace(key, current, entry)) {
+					addEntry(entry, current);
+					return true;
+				}
+			}
+		} finally {
+			cacheStatistics.recordLatency(CacheOperation.PUT, start);
 		}
+	}
 
-		return value;
+	@Override
+	public boolean replace(K key, V expected, V value, int ttl) throws CacheException {
+		final long start = cacheStatistics.startTime();
+		final long now = ticker.read();
+		try {
+			while (true) {
+				final CacheEntry<K, V> current = map.get(key);
+				if (current == null || current.isExpired(now) || !current.value.equals(expected)) {
+					return false;
+				}
+				final CacheEntry<K, V> entry = newEntry(key, value, ttl, now);
+				if (map.replace(key, current, entry)) {
+					addEntry(entry, current);
+					return true;
+				}
+			}
+		} finally {
+			cacheStatistics.recordLatency(CacheOperation.PUT, start);
+		}
 	}
 
 	@Override
-	public V getAndTouch(K key, int ttl) throws CacheException {
-		if (purgeExpiredEntry(key)) {
-			//expired
+	public VersionedValue<V> gets(K key) throws CacheException {
+		final long start = cacheStatistics.startTime();
+		final CacheEntry<K, V> entry = getEntry(key);
+
+		if (entry == null) {
+			cacheStatistics.cacheMissesInc();
+			cacheStatistics.recordLatency(CacheOperation.GET, start);
 			return null;
 		}
-		V e = map.get(key);
-		EntryInfo info = expireMap.get(key);
-		if (info != null) {
-			info.timestamp = System.currentTimeMillis(); // touch
+		cacheStatistics.cacheHitsInc();
+		cacheStatistics.recordLatency(CacheOperation.GET, start);
+		return new VersionedValue<V>(entry.value, entry.version);
+	}
+
+	@Override
+	public boolean cas(K key, long version, V value, int ttl) throws CacheException {
+		final long start = cacheStatistics.startTime();
+		final long now = ticker.read();
+		try {
+			final CacheEntry<K, V> current = map.get(key);
+			if (current == null || current.isExpired(now) || current.version != version) {
+				return false;
+			}
+			final CacheEntry<K, V> entry = newEntry(key, value, ttl, now);
+			if (!map.replace(key, current, entry)) {
+				return false;
+			}
+			addEntry(entry, current);
+			return true;
+		} finally {
+			cacheStatistics.recordLatency(CacheOperation.PUT, start);
 		}
+	}
 
-		if (e == null) {
-			cacheStatistics.cacheMissesIncAndGet();
-		} else {
-			cacheStatistics.cacheHitsIncAndGet();
+	@Override
+	public long increment(K key, long delta, long initial, int ttl) throws CacheException {
+		checkCounter(delta, initial);
+		final long start = cacheStatistics.startTime();
+		try {
+			return addToCounter(key, delta, initial, ttl);
+		} finally {
+			cacheStatistics.recordLatency(CacheOperation.INCREMENT, start);
 		}
+	}
 
-		return e;
+	@Override
+	public long decrement(K key, long delta, long initial, int ttl) throws CacheException {
+		checkCounter(delta, initial);
+		final long start = cacheStatistics.startTime();
+		try {
+			return addToCounter(key, -delta, initial, ttl);
+		} finally {
+			cacheStatistics.recordLatency(CacheOperation.DECREMENT, start);
+		}
+	}
+
+	/*
+	 * Counters are Long values replaced with a compare-and-swap of the entry, so that
+	 * reads see a Long and each update bumps the version. The entry keeps its expiration.
+	 */
+	@SuppressWarnings("unchecked")
+	private long addToCounter(K key, long delta, long initial, int ttl) throws CacheException {
+		while (true) {
+			final CacheEntry<K, V> entry = getEntry(key);
+			final long now = ticker.read();
+			if (entry == null) {
+				final CacheEntry<K, V> created = newEntry(key, (V) Long.valueOf(initial), ttl, now);
+				final CacheEntry<K, V> current = map.putIfAbsent(key, created);
+				if (current == null) {
+					addEntry(created, null);
+					return initial;
+				}
+				if (current.isExpired(now) && map.replace(key, current, created)) {
+					addEntry(created, current);
+					return initial;
+				}
+			} else {
+				final long value = Math.max(0, counterValue(key, entry.value) + delta);
+				final CacheEntry<K, V> updated = newEntry(key, (V) Long.valueOf(value), entry.ttl, now);
+				updated.expireAt = entry.expireAt;
+				if (map.replace(key, entry, updated)) {
+					addEntry(updated, entry);
+					return value;
+				}
+			}
+		}
 	}
 
 	@Override
-	public V putAndGet(K key, V value) throws CacheException {
-		return putAndGet(key, value, getTtl());
+	public Map<K, V> getAll(Collection<? extends K> keys) throws CacheException {
+		final long start = cacheStatistics.startTime();
+		final Map<K, V> values = new HashMap<K, V>();
+		for (K key : keys) {
+			final CacheEntry<K, V> entry = getEntry(key);
+			if (entry == null) {
+				cacheStatistics.cacheMissesInc();
+			} else {
+				cacheStatistics.cacheHitsInc();
+				values.put(key, entry.value);
+			}
+		}
+		cacheStatistics.recordLatency(CacheOperation.GET_ALL, start);
+		return values;
 	}
 
 	@Override
-	public V putAndGet(K key, V value, int ttl) throws CacheException {
-		purgeExpired();
-		if (ttl > 0) {
-			expireMap.put(key, new EntryInfo(ttl, System.currentTimeMillis(), key));
+	public void putAll(Map<? extends K, ? extends V> entries, int ttl) throws CacheException {
+		final long start = cacheStatistics.startTime();
+		final long now = ticker.read();
+		final List<CacheEntry<K, V>> added = new ArrayList<CacheEntry<K, V>>(entries.size());
+		final List<CacheEntry<K, V>> previous = new ArrayList<CacheEntry<K, V>>(entries.size());
+		for (Map.Entry<? extends K, ? extends V> e : entries.entrySet()) {
+			final CacheEntry<K, V> entry = newEntry(e.getKey(), e.getValue(), ttl, now);
+			added.add(entry);
+			previous.add(map.put(entry.key, entry));
 		}
-		return map.put(key, value);
+		// a single pass over the policy for the whole batch
+		evictionLock.lock();
+		try {
+			for (int i = 0; i < added.size(); i++) {
+				addEntryLocked(added.get(i), previous.get(i));
+			}
+			evictEntries();
+		} finally {
+			evictionLock.unlock();
+		}
+		cacheStatistics.recordLatency(CacheOperation.PUT_ALL, start);
 	}
 
 	@Override
-	public void put(K key, V value) throws CacheException {
-		purgeExpired();
-		put(key, value, getTtl());
+	public void removeAll(Collection<? extends K> keys) throws CacheException {
+		final long start = cacheStatistics.startTime();
+		final List<CacheEntry<K, V>> removed = new ArrayList<CacheEntry<K, V>>(keys.size());
+		for (K key : keys) {
+			final CacheEntry<K, V> entry = map.remove(key);
+			if (entry != null) {
+				removed.add(entry);
+			}
+		}
+		if (!removed.isEmpty()) {
+			evictionLock.lock();
+			try {
+				for (CacheEntry<K, V> entry : removed) {
+					retireLocked(entry);
+				}
+			} finally {
+				evictionLock.unlock();
+			}
+		}
+		cacheStatistics.recordLatency(CacheOperation.REMOVE_ALL, start);
 	}
 
+	/*
+	 * The asynchronous operations complete right away, the entries being local
+	 */
+
 	@Override
-	public void put(K key, V value, int ttl) throws CacheException {
-		if (ttl > 0) {
-			expireMap.put(key, new EntryInfo(ttl, System.currentTimeMillis(), key));
+	public CacheFuture<V> getAsync(K key) {
+		try {
+			return CacheFuture.completed(get(key));
+		} catch (Throwable t) {
+			return CacheFuture.failed(t);
 		}
-		map.put(key, value);
 	}
 
 	@Override
-	public V remove(K key) throws CacheException {
-		expireMap.remove(key);
-		return map.remove(key);
+	public CacheFuture<V> getAndTouchAsync(K key, int ttl) {
+		try {
+			return CacheFuture.completed(getAndTouch(key, ttl));
+		} catch (Throwable t) {
+			return CacheFuture.failed(t);
+		}
+	}
+
+	@Override
+	public CacheFuture<Map<K, V>> getAllAsync(Collection<? extends K> keys) {
+		try {
+			return CacheFuture.completed(getAll(keys));
+		} catch (Throwable t) {
+			return CacheFuture.failed(t);
+		}
+	}
+
+	@Override
+	public CacheFuture<Boolean> putAsync(K key, V value) {
+		return putAsync(key, value, getTtl());
+	}
+
+	@Override
+	public CacheFuture<Boolean> putAsync(K key, V value, int ttl) {
+		try {
+			put(key, value, ttl);
+			return CacheFuture.completed(Boolean.TRUE);
+		} catch (Throwable t) {
+			return CacheFuture.failed(t);
+		}
+	}
+
+	@Override
+	public CacheFuture<Boolean> removeAsync(K key) {
+		try {
+			return CacheFuture.completed(remove(key) != null);
+		} catch (Throwable t) {
+			return CacheFuture.failed(t);
+		}
 	}
 
 	@Override
 	public void clear() throws CacheException {
-		expireMap.clear();
-		map.clear();
+		evictionLock.lock();
+		try {
+			timerWheel.clear();
+			policy.clear();
+			for (CacheEntry<K, V> entry : map.values()) {
+				entry.retired = true;
+			}
+			map.clear();
+		} finally {
+			evictionLock.unlock();
+		}
 	}
 
 	@Override
@@ -165,47 +521,336 @@ public class InMemoryCache<K, V> implements Cache<K, V> {
 		return cacheStatistics;
 	}
 
-	private void purgeExpired() {
+	/**
+	 * Advance the timer wheel up to the current time, removing the expired entries.
+	 *
+	 * @return number of entries expired in this tick
+	 */
+	int expireEntries() {
+		final long init = ticker.read();
+		final int count;
+		evictionLock.lock();
+		try {
+			count = timerWheel.advance(init, new TimerWheel.Expirer<CacheEntry<K, V>>() {
+				@Override
+				public boolean expire(CacheEntry<K, V> entry) {
+					entry.retired = true;
+					policy.onRemove(entry);
+					return map.remove(entry.key, entry);
+				}
+			});
+		} finally {
+			evictionLock.unlock();
+		}
+		if (count > 0 && log.isDebugEnabled()) {
+			log.debug("Expired " + count + " entries in " +
+					(ticker.read() - init) + " ms.");
+		}
+		return count;
+	}
 
-		if (executions.incrementAndGet() % PURGE_COUNT_THRESHOLD == 0 &&
-				System.currentTimeMillis() - purgetLastTimestamp.get() >= PURGE_TIME_THRESHOLD) {
-			service.execute(new Runnable() {
+	/*
+	 * Single lookup: returns the live entry or null, removing it if it has expired
+	 */
+	private CacheEntry<K, V> getEntry(K key) {
+		final CacheEntry<K, V> entry = map.get(key);
+		if (entry == null) {
+			return null;
+		}
+		// a volatile read with the default coarse ticker, not a system call
+		final long now = ticker.read();
+		if (entry.isExpirable()) {
+			if (entry.isExpired(now)) {
+				if (map.remove(key, entry)) {
+					retire(entry);
+				}
+				return null;
+			}
+			entry.accessTime = now;
+		}
+		recordAccess(entry);
+		final CacheLoader<? super K, V> loader = cacheLoader;
+		if (loader != null && entry.startRefresh(now, refreshAfterWrite)) {
+			refresh(loader, entry);
+		}
+		return entry;
+	}
+
+	/*
+	 * Reload the entry in the background, the current value is served meanwhile
+	 */
+	private void refresh(final CacheLoader<? super K, V> loader, final CacheEntry<K, V> entry) {
+		try {
+			refreshExecutor.execute(new Runnable() {
 				@Override
 				public void run() {
-					long init = System.currentTimeMillis();
-					log.info("Purging entries...");
-					int count = 0;
-					for (EntryInfo entry : expireMap.values()) {
-						if (purgeExpiredEntry(entry.key)) {
-							count++;
+					try {
+						final V value = loader.load(entry.key);
+						if (value == null) {
+							if (map.remove(entry.key, entry)) {
+								retire(entry);
+							}
+							return;
+						}
+						final CacheEntry<K, V> refreshed =
+								newEntry(entry.key, value, entry.ttl, ticker.read());
+						// a value written meanwhile wins over the reloaded one
+						if (map.replace(entry.key, entry, refreshed)) {
+							addEntry(refreshed, entry);
 						}
+					} catch (Exception e) {
+						log.warn("Unable to refresh the entry for key [" + entry.key + "]", e);
+						entry.endRefresh();
 					}
-					purgetLastTimestamp.set(System.currentTimeMillis());
-					log.info("Purged " + count + " expired entries in " +
-							((double) (System.currentTimeMillis() - init) / 1000.0) + " seconds.");
 				}
 			});
+		} catch (RejectedExecutionException e) {
+			entry.endRefresh();
 		}
+	}
+
+	/*
+	 * Reads are recorded only if the policy is not busy, so that they never
+	 * block on writers. Skipping a few reads under contention only makes the
+	 * eviction order slightly less accurate.
+	 */
+	private void recordAccess(CacheEntry<K, V> entry) {
+		if (evictionLock.tryLock()) {
+			try {
+				if (!entry.retired) {
+					policy.onAccess(entry);
+				}
+			} finally {
+				evictionLock.unlock();
+			}
+		}
+	}
 
+	private CacheEntry<K, V> putEntry(K key, V value, int ttl) {
+		final CacheEntry<K, V> entry = newEntry(key, value, ttl, ticker.read());
+		final CacheEntry<K, V> previous = map.put(key, entry);
+		addEntry(entry, previous);
+		return previous;
 	}
 
-	private boolean purgeExpiredEntry(K key) {
-		boolean result = false;
-		EntryInfo entry = expireMap.get(key);
-		if (entry != null &&
-				System.currentTimeMillis() - entry.timestamp >= entry.ttl * 1000) {
-			map.remove(entry.key);
-			expireMap.remove(entry.key);
-			result = true;
+	/*
+	 * Restore an entry read from a snapshot, unless the key was written in the meantime
+	 */
+	private boolean restoreEntry(K key, V value, int ttl, long remaining) {
+		final long now = ticker.read();
+		final CacheEntry<K, V> entry = newEntry(key, value, ttl, now);
+		if (entry.isExpirable()) {
+			entry.expireAt = now + remaining;
 		}
-		return result;
+		if (map.putIfAbsent(key, entry) != null) {
+			return false;
+		}
+		addEntry(entry, null);
+		return true;
+	}
+
+	private CacheEntry<K, V> newEntry(K key, V value, int ttl, long now) {
+		final int weight = weigher.weigh(key, value);
+		if (weight < 0) {
+			throw new IllegalArgumentException("Negative weight " + weight + " for key [" + key + "]");
+		}
+		return new CacheEntry<K, V>(key, value, weight, ttl, now, versions.incrementAndGet());
+	}
+
+	private void addEntry(CacheEntry<K, V> entry, CacheEntry<K, V> previous) {
+		evictionLock.lock();
+		try {
+			if (addEntryLocked(entry, previous)) {
+				evictEntries();
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	private boolean addEntryLocked(CacheEntry<K, V> entry, CacheEntry<K, V> previous) {
+		if (previous != null) {
+			retireLocked(previous);
+		}
+		// a concurrent remove may have already retired the new entry
+		if (entry.retired) {
+			return false;
+		}
+		policy.onAdd(entry);
+		if (entry.isExpirable()) {
+			timerWheel.schedule(entry);
+		}
+		return true;
+	}
+
+	private void evictEntries() {
+		CacheEntry<K, V> victim;
+		while ((victim = policy.evict()) != null) {
+			victim.retired = true;
+			timerWheel.deschedule(victim);
+			map.remove(victim.key, victim);
+		}
+	}
+
+	private void retire(CacheEntry<K, V> entry) {
+		evictionLock.lock();
+		try {
+			retireLocked(entry);
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	private void retireLocked(CacheEntry<K, V> entry) {
+		entry.retired = true;
+		policy.onRemove(entry);
+		timerWheel.deschedule(entry);
 	}
 
 	@Override
 	public void close() {
-		service.shutdownNow();
-		map.clear();
-		expireMap.clear();
+		expirationTask.cancel(false);
+		try {
+			clear();
+		} catch (CacheException e) {
+			log.error("Error while closing the cache: ", e);
+		}
+	}
+
+	/**
+	 * @return total weight of the entries, equal to the number of entries when
+	 *         the cache is not weighted
+	 */
+	public long getWeightedSize() {
+		evictionLock.lock();
+		try {
+			return policy.weightedSize();
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * Write a snapshot of the hottest entries to the directory, replacing the previous
+	 * one. Expirable entries are stored with their remaining time-to-live.
+	 *
+	 * @param directory  snapshot directory
+	 * @param maxEntries maximum number of entries written, or 0 for all of them
+	 * @param shards     number of files the snapshot is split into, to be loaded in parallel
+	 * @return number of entries written
+	 * @throws CacheException if the snapshot could not be written
+	 */
+	public int writeSnapshot(File directory, int maxEntries, int shards) throws CacheException {
+		final List<CacheEntry<K, V>> entries = new ArrayList<CacheEntry<K, V>>();
+		evictionLock.lock();
+		try {
+			policy.hottest(entries, maxEntries > 0 ? maxEntries : Integer.MAX_VALUE);
+		} finally {
+			evictionLock.unlock();
+		}
+		synchronized (snapshotLock) {
+			try {
+				final long init = ticker.read();
+				final int count = CacheSnapshot.write(directory, entries, shards, init);
+				if (log.isDebugEnabled()) {
+					log.debug("Wrote " + count + " entries to snapshot " + directory + " in " +
+							(ticker.read() - init) + " ms.");
+				}
+				return count;
+			} catch (IOException e) {
+				throw new CacheException("Unable to write snapshot " + directory, e);
+			}
+		}
+	}
+
+	/**
+	 * Write a snapshot of all the entries, see {@link #writeSnapshot(java.io.File, int, int)}
+	 */
+	public int writeSnapshot(File directory) throws CacheException {
+		return writeSnapshot(directory, 0, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Load the snapshot stored in the directory, reading its files in parallel. Entries
+	 * already present in the cache are kept and those which expired meanwhile are skipped.
+	 *
+	 * @param directory snapshot directory
+	 * @return number of entries loaded, 0 if there is no snapshot
+	 * @throws CacheException if the snapshot could not be read
+	 */
+	public int loadSnapshot(File directory) throws CacheException {
+		final File[] files = CacheSnapshot.list(directory);
+		if (files.length == 0) {
+			return 0;
+		}
+		final long init = ticker.read();
+		final ExecutorService loader = Executors.newFixedThreadPool(
+				Math.min(files.length, Runtime.getRuntime().availableProcessors()));
+		try {
+			final List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+			for (final File file : files) {
+				results.add(loader.submit(new Callable<Integer>() {
+					@Override
+					@SuppressWarnings("unchecked")
+					public Integer call() throws Exception {
+						int count = 0;
+						for (CacheSnapshot.Record record : CacheSnapshot.read(file, init)) {
+							if (restoreEntry((K) record.key, (V) record.value, record.ttl, record.remaining)) {
+								count++;
+							}
+						}
+						return count;
+					}
+				}));
+			}
+			int count = 0;
+			for (Future<Integer> result : results) {
+				count += result.get();
+			}
+			if (log.isDebugEnabled()) {
+				log.debug("Loaded " + count + " entries from snapshot " + directory + " in " +
+						(ticker.read() - init) + " ms.");
+			}
+			return count;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CacheException("Interrupted while loading snapshot " + directory, e);
+		} catch (ExecutionException e) {
+			throw new CacheException("Unable to load snapshot " + directory, e.getCause());
+		} finally {
+			loader.shutdownNow();
+		}
+	}
+
+	public CacheLoader<? super K, V> getCacheLoader() {
+		return cacheLoader;
+	}
+
+	/**
+	 * @param cacheLoader loader refreshing the entries older than {@code refreshAfterWrite},
+	 *                    or {@code null} to let them expire
+	 */
+	public void setCacheLoader(CacheLoader<? super K, V> cacheLoader) {
+		this.cacheLoader = cacheLoader;
+	}
+
+	public int getRefreshAfterWrite() {
+		return refreshAfterWrite;
+	}
+
+	/**
+	 * @param refreshAfterWrite age in seconds after which a read triggers the reload of the
+	 *                          entry, usually lower than the ttl. 0 disables the refresh.
+	 */
+	public void setRefreshAfterWrite(int refreshAfterWrite) {
+		this.refreshAfterWrite = refreshAfterWrite;
+	}
+
+	/**
+	 * @param refreshExecutor executor running the reloads, defaults to a pool shared by the in-memory caches
+	 */
+	public void setRefreshExecutor(Executor refreshExecutor) {
+		this.refreshExecutor = refreshExecutor;
 	}
 
 	public int getTtl() {
@@ -17,29 +17,239 @@ package com.googlecode.memcachefy.inmemory;
 
 import com.googlecode.memcachefy.Cache;
 import com.googlecode.memcachefy.CacheException;
+import com.googlecode.memcachefy.CacheLoader;
 import com.googlecode.memcachefy.CacheManager;
+import com.googlecode.memcachefy.EvictionPolicy;
+import com.googlecode.memcachefy.LongKeyCache;
+import com.googlecode.memcachefy.Ticker;
+import com.googlecode.memcachefy.Tickers;
+import com.googlecode.memcachefy.Weigher;
+import com.googlecode.memcachefy.Weighers;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * In-memory cache manager
+ * In-memory cache manager. Caches are bounded by {@code maxEntries}, or by
+ * {@code maxBytes} as measured by the {@code weigher} when it is set.
+ * <p/>
+ * Named caches are created once and kept in a registry, and all of them share a
+ * single scheduler of {@code maintenanceThreads} threads for their background
+ * tasks, so the number of threads doesn't grow with the number of caches.
+ * <p/>
+ * When a {@code snapshotDirectory} is set, the caches are warmed up from their last
+ * snapshot and periodically write a new one, see {@link InMemoryCache#writeSnapshot}.
  *
  * @author bhlangonijr
  */
 public class InMemoryCacheManager implements CacheManager {
+	private static final Logger log = Logger.getLogger(InMemoryCacheManager.class);
 	private static final int DEFAULT_TTL = 600;
+	private static final int DEFAULT_MAINTENANCE_THREADS = 1;
+	private static final int DEFAULT_SNAPSHOT_INTERVAL = 300;
+
+	@SuppressWarnings("rawtypes")
+	private final Map<String, InMemoryCache> cacheMap =
+			new ConcurrentHashMap<String, InMemoryCache>();
+	@SuppressWarnings("rawtypes")
+	private final Map<String, LongKeyCache> longKeyCacheMap =
+			new ConcurrentHashMap<String, LongKeyCache>();
+	private final Map<String, ScheduledFuture<?>> snapshotTasks =
+			new ConcurrentHashMap<String, ScheduledFuture<?>>();
+
+	private ScheduledExecutorService scheduler;
+	private int maintenanceThreads = DEFAULT_MAINTENANCE_THREADS;
 	private int maxEntries;
 	private int ttl = DEFAULT_TTL;
+	private EvictionPolicy evictionPolicy = EvictionPolicy.LRU;
+	private String snapshotDirectory;
+	private int snapshotInterval = DEFAULT_SNAPSHOT_INTERVAL;
+	private int snapshotMaxEntries;
+	private int refreshAfterWrite;
+	private long maxBytes;
+	private Weigher<Object, Object> weigher = Weighers.deepSize();
+	private Ticker ticker = Tickers.coarse();
 
 	// no reason for transcoding, inmemory cache is on heap
 	/* (non-Javadoc)
 	 * @see com.googlecode.memcachefy.CacheManager#getCache(java.lang.String, com.googlecode.memcachefy.CacheTranscoder)
 	 */
+	@SuppressWarnings("unchecked")
 	@Override
 	public <K, V> Cache<K, V> getCache(String name) throws CacheException {
-		final InMemoryCache<K, V> cache = new InMemoryCache<K, V>(getMaxEntries());
-		cache.setTtl(getTtl());
+		InMemoryCache<K, V> cache = cacheMap.get(name);
+		if (cache == null) {
+			synchronized (cacheMap) {
+				cache = cacheMap.get(name);
+				if (cache == null) {
+					if (log.isDebugEnabled()) {
+						log.debug("Creating in-memory cache [" + name + "]");
+					}
+					cache = new InMemoryCache<K, V>(
+							getMaxBytes() > 0 ? getMaxBytes() : getMaxEntries(),
+							getEvictionPolicy(),
+							getMaxBytes() > 0 ? getWeigher() : Weighers.singleton(),
+							getScheduler(),
+							getTicker());
+					cache.setTtl(getTtl());
+					cache.setRefreshAfterWrite(getRefreshAfterWrite());
+					if (getSnapshotDirectory() != null) {
+						startSnapshots(name, cache);
+					}
+					cacheMap.put(name, cache);
+				}
+			}
+		}
 		return cache;
 	}
 
+	/**
+	 * Retrieve a cache whose entries are refreshed by the loader once they are older
+	 * than {@code refreshAfterWrite}
+	 *
+	 * @param name   cache name
+	 * @param loader loader computing the values of the cache
+	 * @return the cache registered under the name
+	 */
+	public <K, V> Cache<K, V> getCache(String name, CacheLoader<? super K, V> loader) throws CacheException {
+		final InMemoryCache<K, V> cache = (InMemoryCache<K, V>) this.<K, V>getCache(name);
+		cache.setCacheLoader(loader);
+		return cache;
+	}
+
+	/**
+	 * Retrieve a cache with primitive {@code long} keys, bounded by {@code maxEntries}
+	 *
+	 * @param name cache name
+	 * @param <V>  value type
+	 * @return the long keyed cache registered under the name
+	 */
+	@SuppressWarnings("unchecked")
+	public <V> LongKeyCache<V> getLongKeyCache(String name) {
+		LongKeyCache<V> cache = longKeyCacheMap.get(name);
+		if (cache == null) {
+			synchronized (longKeyCacheMap) {
+				cache = longKeyCacheMap.get(name);
+				if (cache == null) {
+					final LongKeyInMemoryCache<V> longKeyCache = new LongKeyInMemoryCache<V>(getMaxEntries(),
+								LongKeyInMemoryCache.DEFAULT_CONCURRENCY, getTicker());
+					longKeyCache.setTtl(getTtl());
+					longKeyCacheMap.put(name, longKeyCache);
+					cache = longKeyCache;
+				}
+			}
+		}
+		return cache;
+	}
+
+	/*
+	 * Warm the cache up from its last snapshot and write a new one periodically
+	 */
+	private void startSnapshots(final String name, final InMemoryCache<?, ?> cache) {
+		final File directory = snapshotDirectory(name);
+		try {
+			final int count = cache.loadSnapshot(directory);
+			if (count > 0) {
+				log.info("Loaded " + count + " entries into cache [" + name + "] from " + directory);
+			}
+		} catch (CacheException e) {
+			log.error("Unable to load the snapshot of cache [" + name + "]", e);
+		}
+		snapshotTasks.put(name, getScheduler().scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				writeSnapshot(name, cache);
+			}
+		}, getSnapshotInterval(), getSnapshotInterval(), TimeUnit.SECONDS));
+	}
+
+	private void writeSnapshot(String name, InMemoryCache<?, ?> cache) {
+		try {
+			cache.writeSnapshot(snapshotDirectory(name), getSnapshotMaxEntries(),
+					Runtime.getRuntime().availableProcessors());
+		} catch (CacheException e) {
+			log.error("Unable to write the snapshot of cache [" + name + "]", e);
+		}
+	}
+
+	private File snapshotDirectory(String name) {
+		return new File(getSnapshotDirectory(), name.replaceAll("[^\\w.-]", "_"));
+	}
+
+	/**
+	 * Close all the caches and stop the maintenance scheduler. When snapshots are
+	 * enabled, a last snapshot of each cache is written before it is closed.
+	 */
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	public void destroy() {
+		synchronized (cacheMap) {
+			for (Map.Entry<String, InMemoryCache> entry : cacheMap.entrySet()) {
+				final InMemoryCache cache = entry.getValue();
+				final ScheduledFuture<?> snapshotTask = snapshotTasks.remove(entry.getKey());
+				if (snapshotTask != null) {
+					snapshotTask.cancel(false);
+					writeSnapshot(entry.getKey(), cache);
+				}
+				try {
+					cache.close();
+				} catch (Exception e) {
+					log.error("Error while trying to close cache instance: ", e);
+				}
+			}
+			cacheMap.clear();
+		}
+		synchronized (longKeyCacheMap) {
+			for (LongKeyCache cache : longKeyCacheMap.values()) {
+				cache.close();
+			}
+			longKeyCacheMap.clear();
+		}
+		synchronized (this) {
+			if (scheduler != null) {
+				scheduler.shutdownNow();
+				scheduler = null;
+			}
+		}
+	}
+
+	/**
+	 * @return the scheduler shared by the caches of this manager, created on first use
+	 */
+	public synchronized ScheduledExecutorService getScheduler() {
+		if (scheduler == null) {
+			final AtomicInteger threadNumber = new AtomicInteger();
+			scheduler = Executors.newScheduledThreadPool(getMaintenanceThreads(), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					final Thread thread = new Thread(r, "memcachefy-maintenance-" + threadNumber.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return scheduler;
+	}
+
+	public int getMaintenanceThreads() {
+		return maintenanceThreads;
+	}
+
+	/**
+	 * @param maintenanceThreads number of threads shared by all the caches for
+	 *                           expiration and other background tasks
+	 */
+	public void setMaintenanceThreads(int maintenanceThreads) {
+		this.maintenanceThreads = maintenanceThreads;
+	}
+
 	public int getMaxEntries() {
 		return maxEntries;
 	}
@@ -48,6 +258,38 @@ public class InMemoryCacheManager implements CacheManager {
 		this.maxEntries = maxEntries;
 	}
 
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Bound the caches by the total weight of their entries instead of their number of entries
+	 *
+	 * @param maxBytes max total weight, or 0 to use {@code maxEntries}
+	 */
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	public Weigher<Object, Object> getWeigher() {
+		return weigher;
+	}
+
+	public void setWeigher(Weigher<Object, Object> weigher) {
+		this.weigher = weigher;
+	}
+
+	public Ticker getTicker() {
+		return ticker;
+	}
+
+	/**
+	 * @param ticker time source of the caches created afterwards, defaults to {@link Tickers#coarse()}
+	 */
+	public void setTicker(Ticker ticker) {
+		this.ticker = ticker;
+	}
+
 	public int getTtl() {
 		return ttl;
 	}
@@ -55,4 +297,61 @@ public class InMemoryCacheManager implements CacheManager {
 	public void setTtl(int ttl) {
 		this.ttl = ttl;
 	}
+
+	public String getSnapshotDirectory() {
+		return snapshotDirectory;
+	}
+
+	/**
+	 * Enable the snapshots: each cache is loaded at creation from the snapshot stored in
+	 * a subdirectory named after it, and its hottest entries are written back every
+	 * {@code snapshotInterval} seconds and when the manager is destroyed
+	 *
+	 * @param snapshotDirectory base directory of the snapshots, or {@code null} to disable them
+	 */
+	public void setSnapshotDirectory(String snapshotDirectory) {
+		this.snapshotDirectory = snapshotDirectory;
+	}
+
+	public int getSnapshotInterval() {
+		return snapshotInterval;
+	}
+
+	/**
+	 * @param snapshotInterval seconds between two snapshots of a cache
+	 */
+	public void setSnapshotInterval(int snapshotInterval) {
+		this.snapshotInterval = snapshotInterval;
+	}
+
+	public int getSnapshotMaxEntries() {
+		return snapshotMaxEntries;
+	}
+
+	/**
+	 * @param snapshotMaxEntries number of hottest entries written in each snapshot, or 0 for all of them
+	 */
+	public void setSnapshotMaxEntries(int snapshotMaxEntries) {
+		this.snapshotMaxEntries = snapshotMaxEntries;
+	}
+
+	public int getRefreshAfterWrite() {
+		return refreshAfterWrite;
+	}
+
+	/**
+	 * @param refreshAfterWrite age in seconds after which the entries of the caches having a
+	 *                          {@link CacheLoader} are reloaded in the background, 0 to disable it
+	 */
+	public void setRefreshAfterWrite(int refreshAfterWrite) {
+		this.refreshAfterWrite = refreshAfterWrite;
+	}
+
+	public EvictionPolicy getEvictionPolicy() {
+		return evictionPolicy;
+	}
+
+	public void setEvictionPolicy(EvictionPolicy evictionPolicy) {
+		this.evictionPolicy = evictionPolicy;
+	}
 }
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy.inmemory;
+
+import java.util.List;
+
+/**
+ * Least frequently used eviction policy. Entries are kept in one LRU queue per
+ * access frequency (up to {@code MAX_FREQUENCY}) so that the victim is always the
+ * least recently used entry of the lowest frequency. Frequencies are halved once
+ * the number of accesses reaches ten times the number of entries, so that formerly popular
+ * entries do not stay in the cache forever.
+ *
+ * @param <K>
+ * @param <V>
+ */
+final class LfuPolicy<K, V> extends Policy<K, V> {
+
+	private static final int MAX_FREQUENCY = 31;
+	private static final int AGING_FACTOR = 10;
+
+	private final EntryDeque<K, V>[] buckets;
+	private long accesses;
+	private long size;
+	private long weightedSize;
+
+	@SuppressWarnings("unchecked")
+	LfuPolicy(long maximum) {
+		super(maximum);
+		buckets = new EntryDeque[MAX_FREQUENCY + 1];
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] = new EntryDeque<K, V>();
+		}
+	}
+
+	@Override
+	void onAdd(CacheEntry<K, V> entry) {
+		entry.frequency = 1;
+		buckets[1].linkLast(entry);
+		size++;
+		weightedSize += entry.weight;
+	}
+
+	@Override
+	void onAccess(CacheEntry<K, V> entry) {
+		if (!entry.isLinkedInPolicy()) {
+			return;
+		}
+		if (entry.frequency < MAX_FREQUENCY) {
+			buckets[entry.frequency].unlink(entry);
+			entry.frequency++;
+			buckets[entry.frequency].linkLast(entry);
+		} else {
+			buckets[MAX_FREQUENCY].moveToLast(entry);
+		}
+		if (++accesses >= Math.max(size, 1L) * AGING_FACTOR) {
+			age();
+		}
+	}
+
+	@Override
+	void onRemove(CacheEntry<K, V> entry) {
+		if (entry.isLinkedInPolicy()) {
+			buckets[entry.frequency].unlink(entry);
+			size--;
+			weightedSize -= entry.weight;
+		}
+	}
+
+	@Override
+	CacheEntry<K, V> evict() {
+		if (weightedSize <= maximum) {
+			return null;
+		}
+		for (EntryDeque<K, V> bucket : buckets) {
+			final CacheEntry<K, V> victim = bucket.peekFirst();
+			if (victim != null) {
+				bucket.unlink(victim);
+				size--;
+				weightedSize -= victim.weight;
+				return victim;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	void hottest(List<CacheEntry<K, V>> entries, int limit) {
+		for (int i = MAX_FREQUENCY; i > 0 && entries.size() < limit; i--) {
+			buckets[i].collectFromLast(entries, limit);
+		}
+	}
+
+	@Override
+	void clear() {
+		for (EntryDeque<K, V> bucket : buckets) {
+			bucket.clear();
+		}
+		size = 0;
+		weightedSize = 0;
+		accesses = 0;
+	}
+
+	@Override
+	long size() {
+		return size;
+	}
+
+	@Override
+	long weightedSize() {
+		return weightedSize;
+	}
+
+	/*
+	 * Halve all the frequencies, keeping the recency order within each bucket
+	 */
+	private void age() {
+		for (int i = 2; i < buckets.length; i++) {
+			CacheEntry<K, V> entry;
+			while ((entry = buckets[i].peekFirst()) != null) {
+				buckets[i].unlink(entry);
+				entry.frequency = i >>> 1;
+				buckets[entry.frequency].linkLast(entry);
+			}
+		}
+		accesses = 0;
+	}
+
+}
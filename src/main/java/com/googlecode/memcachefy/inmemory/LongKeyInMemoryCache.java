@@ -0,0 +1,386 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy.inmemory;
+
+import com.googlecode.memcachefy.CacheException;
+import com.googlecode.memcachefy.LongKeyCache;
+import com.googlecode.memcachefy.SingleFlight;
+import com.googlecode.memcachefy.Ticker;
+import com.googlecode.memcachefy.Tickers;
+import com.googlecode.memcachefy.stats.CacheStatistics;
+import com.googlecode.memcachefy.stats.CacheStatisticsImpl;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory (on heap) cache with primitive {@code long} keys. Entries are stored in
+ * striped open-addressing tables of parallel arrays, so neither lookups nor hits
+ * allocate. Each stripe is bounded and evicts with the CLOCK algorithm: every hit
+ * sets a reference bit, and the clock hand evicts the first entry without it (or
+ * already expired). Expired entries are removed when they are read or reached by the hand.
+ *
+ * @param <V>
+ */
+public class LongKeyInMemoryCache<V> implements LongKeyCache<V> {
+
+	private static final int DEFAULT_MAX_ENTRIES = 5000;
+	static final int DEFAULT_CONCURRENCY = 16;
+	private static final int DEFAULT_TTL = 0;
+
+	private final Segment[] segments;
+	private final Ticker ticker;
+	private final int segmentMask;
+	private int ttl = DEFAULT_TTL;
+
+	private final CacheStatisticsImpl cacheStatistics;
+	private final SingleFlight<Long, V> loads = new SingleFlight<Long, V>();
+
+	/**
+	 * @param maxEntries  maximum number of entries
+	 * @param concurrency number of independently locked stripes (rounded to a power of two)
+	 * @param ticker      time source of the expiration of the entries
+	 */
+	public LongKeyInMemoryCache(int maxEntries, int concurrency, Ticker ticker) {
+		this.ticker = ticker;
+		int segmentCount = 1;
+		while (segmentCount < concurrency && segmentCount < maxEntries) {
+			segmentCount <<= 1;
+		}
+		final int segmentCapacity = Math.max(1, (maxEntries + segmentCount - 1) / segmentCount);
+		segments = new Segment[segmentCount];
+		segmentMask = segmentCount - 1;
+		for (int i = 0; i < segmentCount; i++) {
+			segments[i] = new Segment(segmentCapacity, ticker);
+		}
+		cacheStatistics = new CacheStatisticsImpl();
+	}
+
+	public LongKeyInMemoryCache(int maxEntries, int concurrency) {
+		this(maxEntries, concurrency, Tickers.coarse());
+	}
+
+	public LongKeyInMemoryCache(int maxEntries) {
+		this(maxEntries, DEFAULT_CONCURRENCY);
+	}
+
+	public LongKeyInMemoryCache() {
+		this(DEFAULT_MAX_ENTRIES);
+	}
+
+	@Override
+	public V get(long key) throws CacheException {
+		return read(key, -1L);
+	}
+
+	@Override
+	public V getAndTouch(long key, int ttl) throws CacheException {
+		return read(key, ttl > 0 ? expireAt(ticker.read(), ttl) : -1L);
+	}
+
+	@Override
+	public V get(long key, Callable<? extends V> loader) throws CacheException {
+		return get(key, loader, getTtl());
+	}
+
+	@Override
+	public V get(final long key, final Callable<? extends V> loader, final int ttl) throws CacheException {
+		final V value = read(key, -1L);
+		if (value != null) {
+			return value;
+		}
+		// only misses box the key
+		return loads.execute(key, new Callable<V>() {
+			@Override
+			public V call() throws Exception {
+				final V value = loader.call();
+				if (value != null) {
+					put(key, value, ttl);
+				}
+				return value;
+			}
+		});
+	}
+
+	@Override
+	public void put(long key, V value) throws CacheException {
+		put(key, value, getTtl());
+	}
+
+	@Override
+	public void put(long key, V value, int ttl) throws CacheException {
+		if (value == null) {
+			throw new IllegalArgumentException("Value argument cannot be null.");
+		}
+		final long hash = hash(key);
+		segmentFor(hash).put(key, hash, value, ttl > 0 ? expireAt(ticker.read(), ttl) : 0L);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public V remove(long key) throws CacheException {
+		final long hash = hash(key);
+		return (V) segmentFor(hash).remove(key, hash);
+	}
+
+	@Override
+	public void clear() throws CacheException {
+		for (Segment segment : segments) {
+			segment.clear();
+		}
+	}
+
+	@Override
+	public int size() throws CacheException {
+		int size = 0;
+		for (Segment segment : segments) {
+			size += segment.size();
+		}
+		return size;
+	}
+
+	@Override
+	public CacheStatistics getCacheStatistics() {
+		return cacheStatistics;
+	}
+
+	@Override
+	public void close() {
+		for (Segment segment : segments) {
+			segment.clear();
+		}
+	}
+
+	public int getTtl() {
+		return ttl;
+	}
+
+	public void setTtl(int ttl) {
+		this.ttl = ttl;
+	}
+
+	@SuppressWarnings("unchecked")
+	private V read(long key, long expireAt) {
+		final long hash = hash(key);
+		final Object value = segmentFor(hash).get(key, hash, expireAt);
+		if (value == null) {
+			cacheStatistics.cacheMissesInc();
+			return null;
+		}
+		cacheStatistics.cacheHitsInc();
+		return (V) value;
+	}
+
+	private Segment segmentFor(long hash) {
+		return segments[(int) (hash >>> 32) & segmentMask];
+	}
+
+	private static long expireAt(long now, int ttl) {
+		return now + ttl * 1000L;
+	}
+
+	/*
+	 * 64-bit finalizer of MurmurHash3, the low bits select the slot and the high bits the stripe
+	 */
+	static long hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return key;
+	}
+
+	/**
+	 * A stripe of the cache: an open-addressing table with linear probing, where a
+	 * {@code null} value marks an empty slot and deletions shift the following
+	 * entries back instead of leaving tombstones.
+	 */
+	private static final class Segment extends ReentrantLock {
+
+		private static final long serialVersionUID = 3946208392813469581L;
+
+		private final Ticker ticker;
+		private final int capacity;
+		private final int mask;
+		private final long[] keys;
+		private final Object[] values;
+		private final long[] expireAts;
+		private final boolean[] referenced;
+		private int count;
+		private int hand;
+
+		Segment(int capacity, Ticker ticker) {
+			this.ticker = ticker;
+			this.capacity = capacity;
+			int tableSize = 8;
+			while (tableSize < capacity + (capacity >>> 1)) {
+				tableSize <<= 1;
+			}
+			mask = tableSize - 1;
+			keys = new long[tableSize];
+			values = new Object[tableSize];
+			expireAts = new long[tableSize];
+			referenced = new boolean[tableSize];
+		}
+
+		/**
+		 * @param expireAt new expiration time to be set if the entry is found, or -1 to keep the current one
+		 */
+		Object get(long key, long hash, long expireAt) {
+			lock();
+			try {
+				final int slot = find(key, hash);
+				if (slot < 0) {
+					return null;
+				}
+				if (isExpired(slot)) {
+					delete(slot);
+					return null;
+				}
+				if (expireAt >= 0) {
+					expireAts[slot] = expireAt;
+				}
+				referenced[slot] = true;
+				return values[slot];
+			} finally {
+				unlock();
+			}
+		}
+
+		void put(long key, long hash, Object value, long expireAt) {
+			lock();
+			try {
+				int slot = find(key, hash);
+				if (slot < 0) {
+					if (count >= capacity) {
+						evict();
+					}
+					slot = (int) hash & mask;
+					while (values[slot] != null) {
+						slot = (slot + 1) & mask;
+					}
+					keys[slot] = key;
+					referenced[slot] = false;
+					count++;
+				}
+				values[slot] = value;
+				expireAts[slot] = expireAt;
+			} finally {
+				unlock();
+			}
+		}
+
+		Object remove(long key, long hash) {
+			lock();
+			try {
+				final int slot = find(key, hash);
+				if (slot < 0) {
+					return null;
+				}
+				final Object value = isExpired(slot) ? null : values[slot];
+				delete(slot);
+				return value;
+			} finally {
+				unlock();
+			}
+		}
+
+		void clear() {
+			lock();
+			try {
+				Arrays.fill(values, null);
+				Arrays.fill(referenced, false);
+				count = 0;
+			} finally {
+				unlock();
+			}
+		}
+
+		int size() {
+			lock();
+			try {
+				return count;
+			} finally {
+				unlock();
+			}
+		}
+
+		private int find(long key, long hash) {
+			int slot = (int) hash & mask;
+			while (values[slot] != null) {
+				if (keys[slot] == key) {
+					return slot;
+				}
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+
+		private boolean isExpired(int slot) {
+			return expireAts[slot] != 0L && ticker.read() - expireAts[slot] >= 0;
+		}
+
+		/*
+		 * CLOCK: sweep the table clearing the reference bits until an entry
+		 * that was not referenced since the last sweep is found
+		 */
+		private void evict() {
+			while (true) {
+				hand = (hand + 1) & mask;
+				if (values[hand] == null) {
+					continue;
+				}
+				if (referenced[hand] && !isExpired(hand)) {
+					referenced[hand] = false;
+				} else {
+					delete(hand);
+					return;
+				}
+			}
+		}
+
+		/*
+		 * Backward shift deletion, keeps the probe sequences free of tombstones
+		 */
+		private void delete(int slot) {
+			int hole = slot;
+			int next = slot;
+			while (true) {
+				next = (next + 1) & mask;
+				if (values[next] == null) {
+					break;
+				}
+				final int ideal = (int) hash(keys[next]) & mask;
+				final boolean movable = hole <= next ?
+						ideal <= hole || ideal > next :
+						ideal <= hole && ideal > next;
+				if (movable) {
+					keys[hole] = keys[next];
+					values[hole] = values[next];
+					expireAts[hole] = expireAts[next];
+					referenced[hole] = referenced[next];
+					hole = next;
+				}
+			}
+			values[hole] = null;
+			referenced[hole] = false;
+			count--;
+		}
+	}
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy.inmemory;
+
+import java.util.List;
+
+/**
+ * Least recently used eviction policy
+ *
+ * @param <K>
+ * @param <V>
+ */
+final class LruPolicy<K, V> extends Policy<K, V> {
+
+	private final EntryDeque<K, V> deque = new EntryDeque<K, V>();
+
+	LruPolicy(long maximum) {
+		super(maximum);
+	}
+
+	@Override
+	void onAdd(CacheEntry<K, V> entry) {
+		deque.linkLast(entry);
+	}
+
+	@Override
+	void onAccess(CacheEntry<K, V> entry) {
+		if (entry.isLinkedInPolicy()) {
+			deque.moveToLast(entry);
+		}
+	}
+
+	@Override
+	void onRemove(CacheEntry<K, V> entry) {
+		if (entry.isLinkedInPolicy()) {
+			deque.unlink(entry);
+		}
+	}
+
+	@Override
+	CacheEntry<K, V> evict() {
+		if (deque.weight() <= maximum) {
+			return null;
+		}
+		final CacheEntry<K, V> victim = deque.peekFirst();
+		deque.unlink(victim);
+		return victim;
+	}
+
+	@Override
+	void hottest(List<CacheEntry<K, V>> entries, int limit) {
+		deque.collectFromLast(entries, limit);
+	}
+
+	@Override
+	void clear() {
+		deque.clear();
+	}
+
+	@Override
+	long size() {
+		return deque.size();
+	}
+
+	@Override
+	long weightedSize() {
+		return deque.weight();
+	}
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy.inmemory;
+
+import com.googlecode.memcachefy.EvictionPolicy;
+
+import java.util.List;
+
+/**
+ * Eviction policy of the bounded in-memory caches. The policy keeps track of the
+ * entries it holds and chooses the victims once the total weight of the entries
+ * exceeds the maximum. When the cache is bounded by number of entries every entry
+ * weighs one.
+ * <p/>
+ * Policies are not thread-safe, callers must guard them with their own lock.
+ *
+ * @param <K>
+ * @param <V>
+ */
+abstract class Policy<K, V> {
+
+	protected final long maximum;
+
+	protected Policy(long maximum) {
+		this.maximum = maximum;
+	}
+
+	/**
+	 * Create the policy implementation
+	 *
+	 * @param evictionPolicy the eviction policy
+	 * @param maximum        maximum total weight of the entries
+	 * @param <K>
+	 * @param <V>
+	 * @return
+	 */
+	static <K, V> Policy<K, V> create(EvictionPolicy evictionPolicy, long maximum) {
+		if (EvictionPolicy.LFU.equals(evictionPolicy)) {
+			return new LfuPolicy<K, V>(maximum);
+		} else if (EvictionPolicy.TINY_LFU.equals(evictionPolicy)) {
+			return new TinyLfuPolicy<K, V>(maximum);
+		}
+		return new LruPolicy<K, V>(maximum);
+	}
+
+	/**
+	 * Record a new entry
+	 *
+	 * @param entry
+	 */
+	abstract void onAdd(CacheEntry<K, V> entry);
+
+	/**
+	 * Record a read of the entry
+	 *
+	 * @param entry
+	 */
+	abstract void onAccess(CacheEntry<K, V> entry);
+
+	/**
+	 * Forget an entry that was removed from the cache
+	 *
+	 * @param entry
+	 */
+	abstract void onRemove(CacheEntry<K, V> entry);
+
+	/**
+	 * Choose and unlink the next victim while the capacity is exceeded
+	 *
+	 * @return the entry to be evicted or {@code null} if the cache is within its capacity
+	 */
+	abstract CacheEntry<K, V> evict();
+
+	/**
+	 * Collect the entries the policy would keep the longest, hottest first
+	 *
+	 * @param entries list receiving the entries
+	 * @param limit   maximum size of the list
+	 */
+	abstract void hottest(List<CacheEntry<K, V>> entries, int limit);
+
+	/**
+	 * Forget all the entries
+	 */
+	abstract void clear();
+
+	/**
+	 * @return number of entries held by the policy
+	 */
+	abstract long size();
+
+	/**
+	 * @return total weight of the entries held by the policy
+	 */
+	abstract long weightedSize();
+
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy.inmemory;
+
+/**
+ * Hierarchical timing wheel used to expire cache entries. Each entry is linked into
+ * the bucket matching its expiration time, so scheduling and descheduling are O(1) and
+ * advancing the wheel only visits the buckets whose time span has elapsed, cascading
+ * the entries of coarser wheels down to finer ones as their deadline approaches.
+ * <p/>
+ * The wheel is not thread-safe, callers must guard it with their own lock.
+ *
+ * @param <N> the node type linked into the wheel
+ */
+final class TimerWheel<N extends TimerWheel.Node> {
+
+	/*
+	 * Buckets per wheel, the last wheel holds the entries beyond the coarser span
+	 */
+	static final int[] BUCKETS = {64, 64, 32, 4, 1};
+
+	/*
+	 * Time span (ms) of one bucket per wheel: ~1s, ~1m, ~1h, ~1.5d, ~6d
+	 */
+	static final long[] SPANS = {
+			1L << 10,
+			1L << 16,
+			1L << 22,
+			1L << 27,
+			1L << 29
+	};
+
+	static final long[] SHIFT = {
+			Long.numberOfTrailingZeros(SPANS[0]),
+			Long.numberOfTrailingZeros(SPANS[1]),
+			Long.numberOfTrailingZeros(SPANS[2]),
+			Long.numberOfTrailingZeros(SPANS[3]),
+			Long.numberOfTrailingZeros(SPANS[4])
+	};
+
+	/**
+	 * An element that can be linked into the wheel
+	 */
+	abstract static class Node {
+		Node previousInWheel;
+		Node nextInWheel;
+		volatile long expireAt;
+
+		/**
+		 * @return whether this node is currently linked into a wheel bucket
+		 */
+		boolean isScheduled() {
+			return nextInWheel != null;
+		}
+	}
+
+	/**
+	 * Callback invoked when a scheduled node reaches its expiration time
+	 *
+	 * @param <N>
+	 */
+	interface Expirer<N> {
+
+		/**
+		 * Expire the node
+		 *
+		 * @param node the expired node
+		 * @return true if the node was really removed from the cache
+		 */
+		boolean expire(N node);
+	}
+
+	private final Sentinel[][] wheel;
+	private long time;
+
+	TimerWheel(long now) {
+		this.time = now;
+		this.wheel = new Sentinel[BUCKETS.length][];
+		for (int i = 0; i < wheel.length; i++) {
+			wheel[i] = new Sentinel[BUCKETS[i]];
+			for (int j = 0; j < wheel[i].length; j++) {
+				wheel[i][j] = new Sentinel();
+			}
+		}
+	}
+
+	/**
+	 * Link the node into the bucket matching its {@code expireAt} time
+	 *
+	 * @param node
+	 */
+	void schedule(N node) {
+		link(findBucket(node.expireAt), node);
+	}
+
+	/**
+	 * Move the node to the bucket matching its (updated) {@code expireAt} time
+	 *
+	 * @param node
+	 */
+	void reschedule(N node) {
+		if (node.isScheduled()) {
+			unlink(node);
+		}
+		schedule(node);
+	}
+
+	/**
+	 * Unlink the node from the wheel, if it was scheduled
+	 *
+	 * @param node
+	 */
+	void deschedule(N node) {
+		if (node.isScheduled()) {
+			unlink(node);
+		}
+	}
+
+	/**
+	 * Advance the wheel up to {@code now}, expiring the nodes whose time has elapsed and
+	 * cascading the others to the finer wheels.
+	 *
+	 * @param now     current time in milliseconds
+	 * @param expirer callback to remove the expired nodes
+	 * @return number of expired nodes
+	 */
+	int advance(long now, Expirer<N> expirer) {
+		final long previous = time;
+		time = now;
+		int expired = 0;
+		for (int i = 0; i < SHIFT.length; i++) {
+			final long previousTicks = previous >>> SHIFT[i];
+			final long currentTicks = now >>> SHIFT[i];
+			if (currentTicks - previousTicks <= 0L) {
+				break;
+			}
+			expired += expire(i, previousTicks, currentTicks - previousTicks, expirer);
+		}
+		return expired;
+	}
+
+	/**
+	 * Unlink all the scheduled nodes
+	 */
+	void clear() {
+		for (Sentinel[] buckets : wheel) {
+			for (Sentinel sentinel : buckets) {
+				Node node = sentinel.nextInWheel;
+				while (node != sentinel) {
+					final Node next = node.nextInWheel;
+					node.previousInWheel = null;
+					node.nextInWheel = null;
+					node = next;
+				}
+				sentinel.previousInWheel = sentinel;
+				sentinel.nextInWheel = sentinel;
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private int expire(int index, long previousTicks, long delta, Expirer<N> expirer) {
+		final Sentinel[] buckets = wheel[index];
+		final int mask = buckets.length - 1;
+		final int steps = (int) Math.min(1L + delta, (long) buckets.length);
+		final int start = (int) (previousTicks & mask);
+		final int end = start + steps;
+
+		int expired = 0;
+		for (int i = start; i < end; i++) {
+			final Sentinel sentinel = buckets[i & mask];
+			Node node = sentinel.nextInWheel;
+			sentinel.previousInWheel = sentinel;
+			sentinel.nextInWheel = sentinel;
+
+			while (node != sentinel) {
+				final Node next = node.nextInWheel;
+				node.previousInWheel = null;
+				node.nextInWheel = null;
+				if (node.expireAt - time > 0L) {
+					schedule((N) node);
+				} else if (expirer.expire((N) node)) {
+					expired++;
+				}
+				node = next;
+			}
+		}
+		return expired;
+	}
+
+	private Sentinel findBucket(long expireAt) {
+		final long duration = expireAt - time;
+		final long ticks = Math.max(expireAt, time);
+		final int last = wheel.length - 1;
+		for (int i = 0; i < last; i++) {
+			if (duration < SPANS[i + 1]) {
+				final int index = (int) ((ticks >>> SHIFT[i]) & (wheel[i].length - 1));
+				return wheel[i][index];
+			}
+		}
+		return wheel[last][0];
+	}
+
+	private static void link(Node sentinel, Node node) {
+		node.previousInWheel = sentinel.previousInWheel;
+		node.nextInWheel = sentinel;
+		sentinel.previousInWheel.nextInWheel = node;
+		sentinel.previousInWheel = node;
+	}
+
+	private static void unlink(Node node) {
+		node.previousInWheel.nextInWheel = node.nextInWheel;
+		node.nextInWheel.previousInWheel = node.previousInWheel;
+		node.previousInWheel = null;
+		node.nextInWheel = null;
+	}
+
+	/*
+	 * Head of the circular list of a bucket
+	 */
+	private static final class Sentinel extends Node {
+		Sentinel() {
+			previousInWheel = this;
+			nextInWheel = this;
+		}
+	}
+
+}
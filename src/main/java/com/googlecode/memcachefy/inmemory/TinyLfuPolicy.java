@@ -0,0 +1,161 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy.inmemory;
+
+import java.util.List;
+
+/**
+ * Window TinyLFU eviction policy. New entries enter a small LRU window (1% of the
+ * maximum weight); entries leaving the window become candidates in the probation segment
+ * of a segmented LRU, whose protected segment (80% of the main space) holds the entries
+ * accessed more than once. When the cache is full the oldest probation entry and the
+ * newest candidate are compared by their estimated frequency, and the less popular one
+ * is evicted. One-hit wonders and scans are therefore kept out of the main space.
+ *
+ * @param <K>
+ * @param <V>
+ */
+final class TinyLfuPolicy<K, V> extends Policy<K, V> {
+
+	private static final int WINDOW = 0;
+	private static final int PROBATION = 1;
+	private static final int PROTECTED = 2;
+
+	private static final int WINDOW_PERCENTAGE = 1;
+	private static final int PROTECTED_PERCENTAGE = 80;
+	private static final long INITIAL_SKETCH_SIZE = 1024;
+
+	private final EntryDeque<K, V> window = new EntryDeque<K, V>();
+	private final EntryDeque<K, V> probation = new EntryDeque<K, V>();
+	private final EntryDeque<K, V> protectedQueue = new EntryDeque<K, V>();
+	private final FrequencySketch sketch;
+	private final long maxWindow;
+	private final long maxProtected;
+
+	TinyLfuPolicy(long maximum) {
+		super(maximum);
+		maxWindow = Math.max(1L, maximum * WINDOW_PERCENTAGE / 100);
+		maxProtected = Math.max(0L, maximum - maxWindow) * PROTECTED_PERCENTAGE / 100;
+		sketch = new FrequencySketch(Math.min(maximum, INITIAL_SKETCH_SIZE));
+	}
+
+	@Override
+	void onAdd(CacheEntry<K, V> entry) {
+		entry.queue = WINDOW;
+		window.linkLast(entry);
+		sketch.ensureCapacity(size());
+		sketch.increment(entry.key);
+
+		// entries overflowing the window become admission candidates
+		while (window.weight() > maxWindow) {
+			final CacheEntry<K, V> candidate = window.peekFirst();
+			window.unlink(candidate);
+			candidate.queue = PROBATION;
+			probation.linkLast(candidate);
+		}
+	}
+
+	@Override
+	void onAccess(CacheEntry<K, V> entry) {
+		sketch.increment(entry.key);
+		if (!entry.isLinkedInPolicy()) {
+			return;
+		}
+		if (entry.queue == WINDOW) {
+			window.moveToLast(entry);
+		} else if (entry.queue == PROBATION) {
+			probation.unlink(entry);
+			entry.queue = PROTECTED;
+			protectedQueue.linkLast(entry);
+			while (protectedQueue.weight() > maxProtected) {
+				final CacheEntry<K, V> demoted = protectedQueue.peekFirst();
+				protectedQueue.unlink(demoted);
+				demoted.queue = PROBATION;
+				probation.linkLast(demoted);
+			}
+		} else {
+			protectedQueue.moveToLast(entry);
+		}
+	}
+
+	@Override
+	void onRemove(CacheEntry<K, V> entry) {
+		if (entry.isLinkedInPolicy()) {
+			queueOf(entry).unlink(entry);
+		}
+	}
+
+	@Override
+	CacheEntry<K, V> evict() {
+		if (weightedSize() <= maximum) {
+			return null;
+		}
+		final CacheEntry<K, V> victim = probation.peekFirst();
+		final CacheEntry<K, V> candidate = probation.peekLast();
+		final CacheEntry<K, V> evicted;
+		if (victim == null) {
+			evicted = protectedQueue.isEmpty() ? window.peekFirst() : protectedQueue.peekFirst();
+		} else if (victim == candidate) {
+			evicted = victim;
+		} else {
+			evicted = admit(candidate, victim) ? victim : candidate;
+		}
+		queueOf(evicted).unlink(evicted);
+		return evicted;
+	}
+
+	@Override
+	void hottest(List<CacheEntry<K, V>> entries, int limit) {
+		protectedQueue.collectFromLast(entries, limit);
+		window.collectFromLast(entries, limit);
+		probation.collectFromLast(entries, limit);
+	}
+
+	@Override
+	void clear() {
+		window.clear();
+		probation.clear();
+		protectedQueue.clear();
+		sketch.clear();
+	}
+
+	@Override
+	long size() {
+		return window.size() + probation.size() + protectedQueue.size();
+	}
+
+	@Override
+	long weightedSize() {
+		return window.weight() + probation.weight() + protectedQueue.weight();
+	}
+
+	/*
+	 * The candidate is admitted only if it is more popular than the victim
+	 */
+	private boolean admit(CacheEntry<K, V> candidate, CacheEntry<K, V> victim) {
+		return sketch.frequency(candidate.key) > sketch.frequency(victim.key);
+	}
+
+	private EntryDeque<K, V> queueOf(CacheEntry<K, V> entry) {
+		if (entry.queue == WINDOW) {
+			return window;
+		} else if (entry.queue == PROBATION) {
+			return probation;
+		}
+		return protectedQueue;
+	}
+
+}
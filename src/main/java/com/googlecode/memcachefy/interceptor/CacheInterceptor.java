@@ -16,17 +16,24 @@
 package com.googlecode.memcachefy.interceptor;
 
 import com.googlecode.memcachefy.Cache;
+import com.googlecode.memcachefy.CacheException;
 import com.googlecode.memcachefy.CacheFactory;
+import com.googlecode.memcachefy.LongKeyCache;
+import com.googlecode.memcachefy.Ticker;
+import com.googlecode.memcachefy.Tickers;
 import com.googlecode.memcachefy.hashkey.HashKeyGenerator;
 import com.googlecode.memcachefy.hashkey.HashKeyGeneratorStrategy;
+import com.googlecode.memcachefy.stats.StripedCounter;
 import org.apache.log4j.Logger;
 
 import java.io.FileNotFoundException;
 import java.io.Serializable;
 import java.lang.reflect.Method;
 import java.util.Arrays;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -35,7 +42,8 @@ import java.util.concurrent.atomic.AtomicInteger;
  *  dynamic proxies (reflection API) or EJB3 interceptors. Once we have a method intercepted
  *  {@code CacheInterceptor} will change its default behaviour by caching objects returned
  *  by it. A hash key based on the parameters of the calling method will be used
- *  as the key of the cache entry.
+ *  as the key of the cache entry. When a {@link LongKeyCache} is set the hash key is kept
+ *  as a primitive {@code long} end to end, so that cache hits don't allocate any key.
  *
  * @author bhlangonijr
  */
@@ -47,17 +55,36 @@ public abstract class CacheInterceptor {
 	private static final int STATS_PRINTING_THRESHOLD = 500;
 
 	private Cache<String, Object> cache;
+	private LongKeyCache<Object> longKeyCache;
 	private CacheStats stats = new CacheStats();
 
 	static class EmptyData implements Serializable {
 		private static final long serialVersionUID = -2932485306129411735L;
 	}
 
-	private AtomicInteger totalCalls = new AtomicInteger(0);
+	private StripedCounter totalCalls = new StripedCounter();
 	private AtomicInteger accumulatedErrors = new AtomicInteger(0);
 	private AtomicInteger cacheDisabledCount = new AtomicInteger(0);
+	private final ThreadLocal<int[]> statsCountdown = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[]{STATS_PRINTING_THRESHOLD};
+		}
+	};
+
+	// shared by all the interceptors, only used to print the statistics
+	private static final ExecutorService statsService =
+			Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					final Thread thread = new Thread(r, "memcachefy-stats");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
 
-	private ExecutorService service = Executors.newSingleThreadExecutor();
+	private ExecutorService service = statsService;
+	private Ticker ticker = Tickers.coarse();
 
 	public CacheInterceptor() {
 		try {
@@ -76,6 +103,10 @@ public abstract class CacheInterceptor {
 		this.cache = cache;
 	}
 
+	public CacheInterceptor(LongKeyCache<Object> longKeyCache) {
+		this.longKeyCache = longKeyCache;
+	}
+
 	/**
 	 *
 	 * @param source Source class
@@ -118,7 +149,7 @@ public abstract class CacheInterceptor {
 				checkStats();
 				if (method.getReturnType().equals(Void.TYPE)) {
 					log.warn("Cannot cache methods with return type VOID!");
-				} else if (getCache() == null || getCacheDisabledCount().get() > 0) {
+				} else if ((getCache() == null && getLongKeyCache() == null) || getCacheDisabledCount().get() > 0) {
 					if (getCacheDisabledCount().getAndIncrement() > RE_ENABLE_CACHE_AFTER_ATTEMPTS) {
 						getCacheDisabledCount().set(0);
 					}
@@ -126,8 +157,8 @@ public abstract class CacheInterceptor {
 				} else if (info.isEnabled()) {
 					boolean skipCache = false;
 					if (info.isEnableMinCacheHitVerification()) {
-						final int cacheHits = getStats().getCacheInfo(method.getName()).getCacheHits().get();
-						final int cacheRequests = getStats().getCacheInfo(method.getName()).getTotalCalls().get();
+						final long cacheHits = getStats().getCacheInfo(method.getName()).getCacheHits().sum();
+						final long cacheRequests = getStats().getCacheInfo(method.getName()).getTotalCalls().sum();
 						if (cacheRequests > info.getMinCacheHitRatioCounting() &&
 								(double) cacheHits / (double) cacheRequests < info.getMinCacheHitRatioRequired()) {
 							skipCache = true;
@@ -135,61 +166,56 @@ public abstract class CacheInterceptor {
 					}
 					if (!skipCache) {
 						getStats().getCacheInfo(method.getName()).
-								setLastTimestamp(System.currentTimeMillis());
+								setLastTimestamp(ticker.read());
 						getStats().getCacheInfo(method.getName()).
-								getTotalCalls().incrementAndGet();
+								getTotalCalls().increment();
 
 						int ttl = info.getTtl();
 
 						HashKeyGeneratorStrategy st = info.getHashKeyGeneratorStrategy();
 
-						int hashCode = (st.equals(HashKeyGeneratorStrategy.REFLECTION) ?
-								HashKeyGenerator.reflectionHashKey(method, parameters) :
-								HashKeyGenerator.defaultHashKey(method, parameters));
-
-						String key = Integer.toString(hashCode);
-
-						Object entry = getCache().get(key);
+						final LongKeyCache<Object> longKeys = getLongKeyCache();
+						Invocation invocation = null;
+						Object entry;
+						if (longKeys != null) {
+							long longKey = (st.equals(HashKeyGeneratorStrategy.REFLECTION) ?
+									HashKeyGenerator.reflectionLongHashKey(method, parameters) :
+									HashKeyGenerator.defaultLongHashKey(method, parameters));
+							// hits don't allocate, the invocation is only needed on a miss
+							entry = longKeys.get(longKey);
+							if (entry == null) {
+								invocation = new Invocation(source, method, parameters, info.isNegativeCache());
+								entry = load(longKeys, longKey, invocation, ttl);
+							}
+						} else {
+							String key = (st.equals(HashKeyGeneratorStrategy.REFLECTION) ?
+									HashKeyGenerator.reflectionFingerprintKey(method, parameters) :
+									HashKeyGenerator.defaultFingerprintKey(method, parameters));
+							invocation = new Invocation(source, method, parameters, info.isNegativeCache());
+							entry = load(getCache(), key, invocation, ttl);
+						}
+						final boolean invoked = invocation != null && invocation.invoked;
 
 						if (log.isDebugEnabled()) {
 							log.debug("Processing method [" + method.getName() + "]=" +
-									parameters);
+									parameters + (invoked ? " - not found in cache" : " - found in cache"));
 						}
 
-						if (entry != null) {
-							getStats().getCacheInfo(method.getName()).getCacheHits().incrementAndGet();
-							if (log.isDebugEnabled()) {
-								log.debug("Found cache entry [" + key + "]=" + entry.toString());
-							}
-							if (entry instanceof EmptyData) {
-								entry = null;
-							}
-							getAccumulatedErrors().set(0);
-						} else {
-							if (log.isDebugEnabled()) {
-								log.debug("Not found cache entry [" + key + "]");
-							}
-
-							entry = proceed(source, method, parameters);
-
-							if (entry != null) {
-								if (log.isDebugEnabled()) {
-									log.debug("Adding cache entry [" + key + "]=" + entry.toString());
-								}
-								getCache().put(key, entry, ttl);
-							} else if (info.isNegativeCache()) {
-								if (log.isDebugEnabled()) {
-									log.debug("Adding negative cache entry [" + key + "]=null");
-								}
-								getCache().put(key, new EmptyData(), ttl);
-							}
-							getAccumulatedErrors().set(0);
-
+						// callers waiting on a concurrent invocation are served without one as well
+						if (!invoked) {
+							getStats().getCacheInfo(method.getName()).getCacheHits().increment();
 						}
+						if (entry instanceof EmptyData) {
+							entry = null;
+						}
+						resetAccumulatedErrors();
 						return entry;
 					}
 				}
 			}
+		} catch (InvocationException e) {
+			// thrown by the intercepted method, not a cache failure
+			throw e.getCause();
 		} catch (Throwable e) {
 			if (getAccumulatedErrors().getAndIncrement() >= DISABLE_CACHE_ACCUMULATED_ERROR_THRESHOLD) {
 				getCacheDisabledCount().incrementAndGet();
@@ -201,6 +227,85 @@ public abstract class CacheInterceptor {
 		return proceed(source, method, parameters);
 	}
 
+	/*
+	 * Get the entry, invoking the method on a miss. Concurrent misses of the same key
+	 * wait for a single invocation, see Cache#get(Object, Callable)
+	 */
+	private static Object load(Cache<String, Object> cache, String key, Invocation invocation, int ttl)
+			throws CacheException {
+		try {
+			return cache.get(key, invocation, ttl);
+		} catch (CacheException e) {
+			throw invocationFailure(e);
+		}
+	}
+
+	private static Object load(LongKeyCache<Object> cache, long key, Invocation invocation, int ttl)
+			throws CacheException {
+		try {
+			return cache.get(key, invocation, ttl);
+		} catch (CacheException e) {
+			throw invocationFailure(e);
+		}
+	}
+
+	private static CacheException invocationFailure(CacheException e) {
+		if (e.getCause() instanceof InvocationException) {
+			throw (InvocationException) e.getCause();
+		}
+		return e;
+	}
+
+	/*
+	 * Invocation of the intercepted method on a cache miss, the result is stored by
+	 * the cache. Null results are stored as EmptyData when negative caching is enabled.
+	 */
+	private final class Invocation implements Callable<Object> {
+		private final Object source;
+		private final Method method;
+		private final Object[] parameters;
+		private final boolean negativeCache;
+		private boolean invoked;
+
+		Invocation(Object source, Method method, Object[] parameters, boolean negativeCache) {
+			this.source = source;
+			this.method = method;
+			this.parameters = parameters;
+			this.negativeCache = negativeCache;
+		}
+
+		@Override
+		public Object call() {
+			invoked = true;
+			final Object result;
+			try {
+				result = proceed(source, method, parameters);
+			} catch (Exception e) {
+				throw new InvocationException(e);
+			}
+			if (result == null && negativeCache) {
+				return new EmptyData();
+			}
+			return result;
+		}
+	}
+
+	/*
+	 * Exception of the intercepted method, carried through the cache to the callers
+	 */
+	private static final class InvocationException extends RuntimeException {
+		private static final long serialVersionUID = 6312085017291958370L;
+
+		InvocationException(Exception cause) {
+			super(cause);
+		}
+
+		@Override
+		public synchronized Exception getCause() {
+			return (Exception) super.getCause();
+		}
+	}
+
 	/**
 	 * Dynamic proxies and EJB3 interceptors proceed/invoke wrapper method
 	 *
@@ -224,6 +329,20 @@ public abstract class CacheInterceptor {
 		this.cache = cache;
 	}
 
+	/**
+	 * @return the long keyed cache, used instead of the cache when set
+	 */
+	public LongKeyCache<Object> getLongKeyCache() {
+		return longKeyCache;
+	}
+
+	/**
+	 * @param longKeyCache the long keyed cache to set
+	 */
+	public void setLongKeyCache(LongKeyCache<Object> longKeyCache) {
+		this.longKeyCache = longKeyCache;
+	}
+
 	/**
 	 * @return the stats
 	 */
@@ -239,16 +358,43 @@ public abstract class CacheInterceptor {
 	}
 
 	/**
-	 * @return the totalCalls
+	 * @return a copy of the totalCalls, updating it doesn't change the count
+	 * @deprecated the calls are counted by a striped counter, use {@link #getTotalCallCount()}
 	 */
+	@Deprecated
 	public AtomicInteger getTotalCalls() {
-		return totalCalls;
+		return new AtomicInteger((int) totalCalls.sum());
 	}
 
 	/**
 	 * @param totalCalls the totalCalls to set
+	 * @deprecated use {@link #setTotalCallCounter(StripedCounter)}
 	 */
+	@Deprecated
 	public void setTotalCalls(AtomicInteger totalCalls) {
+		final StripedCounter counter = new StripedCounter();
+		counter.add(totalCalls.get());
+		this.totalCalls = counter;
+	}
+
+	/**
+	 * @return the number of calls so far
+	 */
+	public long getTotalCallCount() {
+		return totalCalls.sum();
+	}
+
+	/**
+	 * @return the counter of the calls
+	 */
+	public StripedCounter getTotalCallCounter() {
+		return totalCalls;
+	}
+
+	/**
+	 * @param totalCalls the counter of the calls to set
+	 */
+	public void setTotalCallCounter(StripedCounter totalCalls) {
 		this.totalCalls = totalCalls;
 	}
 
@@ -294,16 +440,39 @@ public abstract class CacheInterceptor {
 		this.service = service;
 	}
 
+	public Ticker getTicker() {
+		return ticker;
+	}
+
+	/**
+	 * @param ticker time source of the statistics timestamps, defaults to {@link Tickers#coarse()}
+	 */
+	public void setTicker(Ticker ticker) {
+		this.ticker = ticker;
+	}
+
+	/*
+	 * Only written when errors were accumulated, successful calls just read it
+	 */
+	private void resetAccumulatedErrors() {
+		if (accumulatedErrors.get() != 0) {
+			accumulatedErrors.set(0);
+		}
+	}
+
 	/*
-	 * Check & print cache stats
+	 * Check & print cache stats, every STATS_PRINTING_THRESHOLD calls of each thread
 	 */
 	private void checkStats() {
-		if (totalCalls.getAndIncrement() % STATS_PRINTING_THRESHOLD == 0) {
+		totalCalls.increment();
+		final int[] countdown = statsCountdown.get();
+		if (--countdown[0] <= 0) {
+			countdown[0] = STATS_PRINTING_THRESHOLD;
 			service.execute(new Runnable() {
 				@Override
 				public void run() {
 					log.info("Cache Statistics - Begin ------------------------------");
-					log.info("Total Cache Calls:         " + totalCalls.get());
+					log.info("Total Cache Calls:         " + totalCalls.sum());
 					log.info("Accumulated Cache Erros:   " + accumulatedErrors.get());
 					log.info("Calls with Cache Disabled: " + cacheDisabledCount.get());
 					log.info("Cached objects: " + stats);
@@ -3,10 +3,10 @@
  */
 package com.googlecode.memcachefy.interceptor;
 
+import com.googlecode.memcachefy.stats.StripedCounter;
+
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Cache statistics
@@ -25,45 +25,49 @@ public class CacheStats {
 	 * @author bhlangonijr
 	 */
 	static class CacheStatsInfo {
-		private final AtomicInteger totalCalls = new AtomicInteger(0);
-		private final AtomicInteger cacheHits = new AtomicInteger(0);
-		private AtomicLong firstTimestamp = new AtomicLong();
-		private AtomicLong lastTimestamp = new AtomicLong();
+		private final StripedCounter totalCalls = new StripedCounter();
+		private final StripedCounter cacheHits = new StripedCounter();
+		private volatile long firstTimestamp;
+		private volatile long lastTimestamp;
 
 		public CacheStatsInfo(long firstTimestamp) {
 			super();
-			this.firstTimestamp.set(firstTimestamp);
+			this.firstTimestamp = firstTimestamp;
 		}
 
-		public AtomicInteger getTotalCalls() {
+		public StripedCounter getTotalCalls() {
 			return totalCalls;
 		}
 
-		public AtomicInteger getCacheHits() {
+		public StripedCounter getCacheHits() {
 			return cacheHits;
 		}
 
 		public long getFirstTimestamp() {
-			return firstTimestamp.get();
+			return firstTimestamp;
 		}
 
 		public void setFirstTimestamp(long firstTimestamp) {
-			this.firstTimestamp.set(firstTimestamp);
+			this.firstTimestamp = firstTimestamp;
 		}
 
 		public long getLastTimestamp() {
-			return lastTimestamp.get();
+			return lastTimestamp;
 		}
 
 		public void setLastTimestamp(long lastTimestamp) {
-			this.lastTimestamp.set(lastTimestamp);
+			// skip the write while the coarse clock hasn't moved, so that the threads
+			// calling the same method don't keep invalidating each other's cache line
+			if (this.lastTimestamp != lastTimestamp) {
+				this.lastTimestamp = lastTimestamp;
+			}
 		}
 
 		@Override
 		public String toString() {
-			return "CacheStatsInfo [totalCalls=" + totalCalls.get() + ", cacheHits="
-					+ cacheHits.get() + ", firstTimestamp=" + firstTimestamp.get()
-					+ ", lastTimestamp=" + lastTimestamp.get() + "]\n";
+			return "CacheStatsInfo [totalCalls=" + totalCalls.sum() + ", cacheHits="
+					+ cacheHits.sum() + ", firstTimestamp=" + firstTimestamp
+					+ ", lastTimestamp=" + lastTimestamp + "]\n";
 		}
 
 
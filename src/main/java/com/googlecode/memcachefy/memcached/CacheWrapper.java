@@ -15,6 +15,8 @@ import java.io.Serializable;
 public class CacheWrapper<T> implements Serializable {
 
 	private T object;
+	private long writeTime;
+	private int ttl;
 
 	public CacheWrapper() {
 
@@ -22,6 +24,18 @@ public class CacheWrapper<T> implements Serializable {
 
 	public CacheWrapper(final T object) {
 		this.object = object;
+		this.writeTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * @param object    the cached value
+	 * @param writeTime time in milliseconds when the value was written
+	 * @param ttl       time-to-live in seconds the value was written with
+	 */
+	public CacheWrapper(final T object, final long writeTime, final int ttl) {
+		this.object = object;
+		this.writeTime = writeTime;
+		this.ttl = ttl;
 	}
 
 	public T getObject() {
@@ -32,5 +46,27 @@ public class CacheWrapper<T> implements Serializable {
 		this.object = object;
 	}
 
+	/**
+	 * @return time in milliseconds when the value was written, used to refresh it ahead of its expiration
+	 */
+	public long getWriteTime() {
+		return writeTime;
+	}
+
+	public void setWriteTime(long writeTime) {
+		this.writeTime = writeTime;
+	}
+
+	/**
+	 * @return time-to-live in seconds the value was written with, kept by its refresh
+	 */
+	public int getTtl() {
+		return ttl;
+	}
+
+	public void setTtl(int ttl) {
+		this.ttl = ttl;
+	}
+
 
 }
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy.memcached;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * Passes already encoded data through, so that a value is encoded once before
+ * deciding whether it must be split into chunks
+ */
+public final class CachedDataTranscoder implements Transcoder<CachedData> {
+
+	public static final CachedDataTranscoder INSTANCE = new CachedDataTranscoder();
+
+	private CachedDataTranscoder() {
+
+	}
+
+	@Override
+	public boolean asyncDecode(CachedData data) {
+		return false;
+	}
+
+	@Override
+	public CachedData encode(CachedData data) {
+		return data;
+	}
+
+	@Override
+	public CachedData decode(CachedData data) {
+		return data;
+	}
+
+	@Override
+	public int getMaxSize() {
+		return CachedData.MAX_SIZE;
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy.memcached;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.io.Serializable;
+
+/**
+ * Stored in place of a value too large for a memcached item: the encoded value is
+ * split into chunks stored under their own keys, this manifest tells how to put
+ * them back together
+ */
+@XmlRootElement
+@XmlAccessorType(XmlAccessType.FIELD)
+public class ChunkManifest implements Serializable {
+
+	private static final long serialVersionUID = 4410963157129318257L;
+
+	/**
+	 * Maximum length appended to the key of the entry by {@link #getChunkKey(String, int)}
+	 */
+	public static final int MAX_CHUNK_SUFFIX_LENGTH = 2 + 16 + 10;
+
+	private long id;
+	private int flags;
+	private int length;
+	private int chunks;
+
+	public ChunkManifest() {
+
+	}
+
+	/**
+	 * @param id     unique to the write, so that the chunks of concurrent writes never mix
+	 * @param flags  flags of the encoded value
+	 * @param length length of the encoded value
+	 * @param chunks number of chunks
+	 */
+	public ChunkManifest(long id, int flags, int length, int chunks) {
+		this.id = id;
+		this.flags = flags;
+		this.length = length;
+		this.chunks = chunks;
+	}
+
+	/**
+	 * @param userKey the key of the entry
+	 * @param index   index of the chunk
+	 * @return the key the chunk is stored under
+	 */
+	public String getChunkKey(String userKey, int index) {
+		return userKey + ":" + Long.toHexString(id) + ":" + index;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public void setId(long id) {
+		this.id = id;
+	}
+
+	public int getFlags() {
+		return flags;
+	}
+
+	public void setFlags(int flags) {
+		this.flags = flags;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	public void setLength(int length) {
+		this.length = length;
+	}
+
+	public int getChunks() {
+		return chunks;
+	}
+
+	public void setChunks(int chunks) {
+		this.chunks = chunks;
+	}
+
+	@Override
+	public String toString() {
+		return "ChunkManifest [" + chunks + " chunks, " + length + " bytes]";
+	}
+
+}
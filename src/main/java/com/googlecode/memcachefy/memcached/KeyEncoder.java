@@ -0,0 +1,134 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy.memcached;
+
+import com.googlecode.memcachefy.hashkey.HashKeyGenerator;
+import com.googlecode.memcachefy.hashkey.KeyFingerprint;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Encodes the keys of a cache into memcached keys of the form
+ * <code>name:generation:key</code>, within the memcached key length limit.
+ * <p/>
+ * Short printable ASCII string keys are kept as they are. Other keys, including the
+ * string keys that are too long, are replaced by their 128-bit fingerprint encoded in
+ * base-64 and marked by a leading <code>#</code>, which plain keys never start with.
+ * The prefix is built once per generation.
+ *
+ * @author bhlangonijr
+ */
+final class KeyEncoder {
+
+	/**
+	 * Maximum length of a memcached key in bytes
+	 */
+	static final int MAX_KEY_LENGTH = 250;
+
+	private static final char HASHED = '#';
+
+	private final String name;
+	private final int maxLength;
+	private volatile Prefix prefix;
+
+	/**
+	 * @param name      name of the cache
+	 * @param maxLength maximum length of the encoded keys
+	 */
+	KeyEncoder(String name, int maxLength) {
+		this.name = name;
+		this.maxLength = maxLength;
+		if (prefix(0).bytes + 20 + 1 + KeyFingerprint.ENCODED_LENGTH > maxLength) {
+			throw new IllegalArgumentException("Cache name [" + name + "] is too long for a memcached key");
+		}
+	}
+
+	/**
+	 * @param key        key of the entry
+	 * @param generation current generation of the cache
+	 * @return the memcached key
+	 */
+	String encode(Object key, long generation) {
+		final Prefix current = prefix(generation);
+		final char[] prefix = current.chars;
+		if (key instanceof String) {
+			final String string = (String) key;
+			if (isPlain(string, maxLength - current.bytes)) {
+				final char[] encoded = new char[prefix.length + string.length()];
+				System.arraycopy(prefix, 0, encoded, 0, prefix.length);
+				string.getChars(0, string.length(), encoded, prefix.length);
+				return new String(encoded);
+			}
+		}
+		final KeyFingerprint fingerprint = new KeyFingerprint();
+		HashKeyGenerator.fingerprintKey(fingerprint, key);
+		final long[] hash = fingerprint.hash128();
+		final char[] encoded = new char[prefix.length + 1 + KeyFingerprint.ENCODED_LENGTH];
+		System.arraycopy(prefix, 0, encoded, 0, prefix.length);
+		encoded[prefix.length] = HASHED;
+		KeyFingerprint.encode(hash[0], hash[1], encoded, prefix.length + 1);
+		return new String(encoded);
+	}
+
+	private Prefix prefix(long generation) {
+		Prefix current = prefix;
+		if (current == null || current.generation != generation) {
+			final String value = name + ":" + generation + ":";
+			current = new Prefix(generation, value.toCharArray(), utf8Length(value));
+			prefix = current;
+		}
+		return current;
+	}
+
+	/*
+	 * Printable ASCII characters only, so that the length in chars is the length in bytes
+	 */
+	private static boolean isPlain(String key, int maxLength) {
+		final int length = key.length();
+		if (length > maxLength || (length > 0 && key.charAt(0) == HASHED)) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			final char c = key.charAt(i);
+			if (c <= ' ' || c >= 0x7f) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int utf8Length(String value) {
+		try {
+			return value.getBytes("UTF-8").length;
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static final class Prefix {
+
+		private final long generation;
+		private final char[] chars;
+		private final int bytes;
+
+		private Prefix(long generation, char[] chars, int bytes) {
+			this.generation = generation;
+			this.chars = chars;
+			this.bytes = bytes;
+		}
+	}
+
+}
@@ -24,6 +24,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.zip.CRC32;
 import java.util.zip.CheckedInputStream;
 import java.util.zip.GZIPInputStream;
@@ -41,6 +42,7 @@ public class KryoSerializer<T> {
 	private static final Logger log = Logger.getLogger(KryoSerializer.class);
 
 	private static final int COMPRESSION_TRESHOLD = 1024; // 1 kB
+	private static final int BUFFER_SIZE = 4096;
 
 	private Kryo kryo;
 
@@ -90,13 +92,30 @@ public class KryoSerializer<T> {
 		return null;
 	}
 
+	/**
+	 * Read an object straight from the stream, without copying its bytes into an array first
+	 *
+	 * @param input uncompressed kryo data
+	 * @return the decoded object or {@code null} if it could not be read
+	 */
+	@SuppressWarnings("unchecked")
+	public T decodeStream(InputStream input) {
+		try {
+			if (input != null) {
+				return (T) kryo.readClassAndObject(new Input(input));
+			}
+		} catch (Exception e) {
+			log.error("Failed to read data", e);
+		}
+		return null;
+	}
+
 	public byte[] encodeBytes(T object) {
 		byte[] data = null;
-		ByteArrayOutputStream bos = new ByteArrayOutputStream();
-		Output output = new Output(bos);
+		Output output = new Output(BUFFER_SIZE, -1);
 		try {
 			kryo.writeClassAndObject(output, object);
-			data = output.getBuffer();
+			data = output.toBytes();
 		} catch (Exception e) {
 			log.error("Failed to marshal object", e);
 		}
@@ -15,28 +15,70 @@
  */
 package com.googlecode.memcachefy.memcached;
 
-import com.googlecode.memcachefy.Cache;
+import com.googlecode.memcachefy.AbstractCache;
+import com.googlecode.memcachefy.AsyncCache;
 import com.googlecode.memcachefy.CacheException;
+import com.googlecode.memcachefy.CacheFuture;
+import com.googlecode.memcachefy.CacheFutureListener;
+import com.googlecode.memcachefy.CacheLoader;
 import com.googlecode.memcachefy.CacheTranscoder;
+import com.googlecode.memcachefy.Ticker;
+import com.googlecode.memcachefy.Tickers;
+import com.googlecode.memcachefy.VersionedValue;
+import com.googlecode.memcachefy.stats.CacheOperation;
 import com.googlecode.memcachefy.stats.CacheStatistics;
 import com.googlecode.memcachefy.stats.CacheStatisticsImpl;
-import net.spy.memcached.CASMutation;
-import net.spy.memcached.CASMutator;
+import net.spy.memcached.CASResponse;
+import net.spy.memcached.CASValue;
+import net.spy.memcached.CachedData;
 import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.internal.BulkFuture;
+import net.spy.memcached.internal.BulkGetCompletionListener;
+import net.spy.memcached.internal.BulkGetFuture;
+import net.spy.memcached.internal.GetCompletionListener;
+import net.spy.memcached.internal.GetFuture;
+import net.spy.memcached.internal.OperationCompletionListener;
+import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.transcoders.SerializingTranscoder;
 import net.spy.memcached.transcoders.Transcoder;
 import org.apache.log4j.Logger;
 
 import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Cache {@link com.googlecode.memcachefy.Cache} implementation that wraps an {@link net.spy.memcached.MemcachedClient} instance.
+ * The values are stored with their write time, so that a {@link CacheLoader} can refresh them
+ * in the background once they are older than {@code refreshAfterWrite}.
+ * <p/>
+ * The keys embed the generation of the cache name, a counter stored in memcached: {@link #clear()}
+ * increments it, so that the entries of the previous generation are no longer reachable and are
+ * left to expire, without flushing the other caches sharing the servers.
  *
  * @author bhlangonijr
  */
-public class Memcached<K, V> implements Cache<K, V> {
+public class Memcached<K, V> extends AbstractCache<K, V> implements AsyncCache<K, V> {
 
 	private static final Logger log = Logger.getLogger(Memcached.class);
 
@@ -44,12 +86,56 @@ public class Memcached<K, V> implements Cache<K, V> {
 	 * The wrapped memcached instance.
 	 */
 	private static final int ENTRY_TTL = 10 * 60;
-	private MemcachedClient cache;
+	private static final int MAX_CAS_ATTEMPTS = 16;
+	// the default memcached item size limit is 1 MB, including the key and the item header
+	public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024 - 1024;
+	private static final Random chunkIds = new Random();
+	// the client's transcoder refuses values over its maximum size, before they can be chunked
+	private static final Transcoder<Object> chunkedTranscoder = new SerializingTranscoder(Integer.MAX_VALUE);
+	public static final long DEFAULT_GENERATION_REFRESH_INTERVAL = 1000;
+	private static final String GENERATION_KEY_PREFIX = "memcachefy.generation.";
+	private final MemcachedClientPool clients;
+	private final boolean ownsClients;
 	private final String name;
 	private int ttl;
 	private ThreadLocal<? extends Transcoder<?>> threadLocalTranscoder;
 	private final CacheTranscoder cacheTranscoder;
 	private final CacheStatisticsImpl cacheStatistics;
+	private final ConcurrentMap<String, Boolean> refreshing = new ConcurrentHashMap<String, Boolean>();
+	private volatile CacheLoader<? super K, V> cacheLoader;
+	private volatile int refreshAfterWrite;
+	private volatile Ticker ticker = Tickers.coarse();
+	private volatile Executor refreshExecutor = refreshService;
+	private volatile WriteBehindQueue<V> writeBehind;
+	private volatile int chunkSize = DEFAULT_CHUNK_SIZE;
+	private final String generationKey;
+	private final KeyEncoder keyEncoder;
+	private final Object generationLock = new Object();
+	private final AtomicBoolean readingGeneration = new AtomicBoolean();
+	private volatile boolean generationRead;
+	private final AtomicLong generation = new AtomicLong();
+	private volatile long generationReadAt;
+	private volatile long generationRefreshInterval = DEFAULT_GENERATION_REFRESH_INTERVAL;
+
+	// shared by all the memcached caches, runs the reloads of the entries
+	private static final ExecutorService refreshService =
+			Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				private final AtomicInteger threadNumber = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					final Thread thread = new Thread(r, "memcachefy-refresh-" + threadNumber.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	/*
+	 * The client of the next operation, picked from the pool
+	 */
+	private MemcachedClient client() {
+		return clients.select();
+	}
 
 	@SuppressWarnings("unchecked")
 	private Transcoder<CacheWrapper<V>> getTranscoder() {
@@ -64,14 +150,36 @@ public class Memcached<K, V> implements Cache<K, V> {
 	 * @param ttl
 	 */
 	public Memcached(String name, MemcachedClient cache, int ttl, CacheTranscoder cacheTranscoder) {
-		if (cache == null) {
+		this(name, new MemcachedClientPool(cache), true, ttl, cacheTranscoder);
+	}
+
+	/**
+	 * Constructs a new Memcached instance sending its operations through the clients of the
+	 * pool, which is left open when the instance is closed.
+	 *
+	 * @param name
+	 * @param clients
+	 * @param ttl
+	 */
+	public Memcached(String name, MemcachedClientPool clients, int ttl, CacheTranscoder cacheTranscoder) {
+		this(name, clients, false, ttl, cacheTranscoder);
+	}
+
+	private Memcached(String name, MemcachedClientPool clients, boolean ownsClients, int ttl,
+					  CacheTranscoder cacheTranscoder) {
+		if (clients == null) {
 			throw new IllegalArgumentException("Cache argument cannot be null.");
 		}
 		this.name = name;
-		this.cache = cache;
+		this.clients = clients;
+		this.ownsClients = ownsClients;
 		this.ttl = ttl;
 		this.cacheTranscoder = cacheTranscoder;
 		this.cacheStatistics = new CacheStatisticsImpl();
+		this.generationKey = GENERATION_KEY_PREFIX + name;
+		// leave room for the suffix of the chunk keys
+		this.keyEncoder = new KeyEncoder(name,
+				KeyEncoder.MAX_KEY_LENGTH - ChunkManifest.MAX_CHUNK_SUFFIX_LENGTH);
 	}
 
 	/**
@@ -88,36 +196,49 @@ public class Memcached<K, V> implements Cache<K, V> {
 	 * @see com.googlecode.memcachefy.Cache#get(java.lang.Object)
 	 */
 	@Override
-	@SuppressWarnings("unchecked")
 	public V get(K key) throws CacheException {
+		return await(getAsync(key));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.googlecode.memcachefy.AsyncCache#getAsync(java.lang.Object)
+	 */
+	@Override
+	public CacheFuture<V> getAsync(final K key) {
 
 		String userKey = getCacheKey(key);
 
+		final WriteBehindQueue<V> queue = writeBehind;
+		final CacheWrapper<V> pending = queue == null ? null : queue.pending(userKey);
+		if (pending != null) {
+			cacheStatistics.cacheHitsInc();
+			return CacheFuture.completed(pending.getObject());
+		}
+
+		final long start = cacheStatistics.startTime();
 		try {
 			if (log.isDebugEnabled()) {
 				log.debug("Getting object from cache [" +
-						cache.getAvailableServers() + "] for key [" +
+						client().getAvailableServers() + "] for key [" +
 						userKey + "] using transconding: [" + cacheTranscoder + "]");
 			}
 			boolean transcoding = !CacheTranscoder.NONE.equals(cacheTranscoder);
 
-			Future<?> f = transcoding ?
-					cache.asyncGet(userKey, getTranscoder()) :
-					cache.asyncGet(userKey);
-
-			CacheWrapper<V> entry = (CacheWrapper<V>) f.get(10, TimeUnit.SECONDS);
+			final GetFuture<?> f = transcoding ?
+					client().asyncGet(userKey, getTranscoder()) :
+					client().asyncGet(userKey);
 
-			if (entry == null) {
-				if (log.isDebugEnabled()) {
-					log.debug("Entry for [" + userKey + "] is null.");
+			final CacheFuture<V> future = new CacheFuture<V>(f);
+			f.addListener(new GetCompletionListener() {
+				@Override
+				public void onComplete(GetFuture<?> completed) {
+					completeGet(future, key, completed, CacheOperation.GET, 0, start);
 				}
-				cacheStatistics.cacheMissesIncAndGet();
-				return null;
-			}
-			cacheStatistics.cacheHitsIncAndGet();
-			return entry.getObject();
+			});
+			return future;
 		} catch (Throwable t) {
-			throw new CacheException(t);
+			cacheStatistics.recordLatency(CacheOperation.GET, start);
+			return CacheFuture.failed(t);
 		}
 	}
 
@@ -126,33 +247,47 @@ public class Memcached<K, V> implements Cache<K, V> {
 	 */
 	@Override
 	public V getAndTouch(K key, int ttl) throws CacheException {
+		return await(getAndTouchAsync(key, ttl));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.googlecode.memcachefy.AsyncCache#getAndTouchAsync(java.lang.Object, int)
+	 */
+	@Override
+	public CacheFuture<V> getAndTouchAsync(final K key, final int ttl) {
 
 		String userKey = getCacheKey(key);
 
+		final WriteBehindQueue<V> queue = writeBehind;
+		final CacheWrapper<V> pending = queue == null ? null : queue.pending(userKey);
+		if (pending != null) {
+			cacheStatistics.cacheHitsInc();
+			return CacheFuture.completed(pending.getObject());
+		}
+
+		final long start = cacheStatistics.startTime();
 		try {
 			if (log.isDebugEnabled()) {
 				log.debug("Getting (and touching) object from cache [" +
-						cache.getAvailableServers() + "] for key [" + userKey + "] with ttl [" + ttl + "]");
+						client().getAvailableServers() + "] for key [" + userKey + "] with ttl [" + ttl + "]");
 			}
 			boolean transcoding = !CacheTranscoder.NONE.equals(cacheTranscoder);
 
-			Future<?> f = transcoding ?
-					cache.asyncGetAndTouch(userKey, ttl, getTranscoder()) :
-					cache.asyncGetAndTouch(userKey, ttl);
+			final OperationFuture<?> f = transcoding ?
+					client().asyncGetAndTouch(userKey, ttl, getTranscoder()) :
+					client().asyncGetAndTouch(userKey, ttl);
 
-			CacheWrapper<V> entry = (CacheWrapper<V>) f.get(10, TimeUnit.SECONDS);
-
-			if (entry == null) {
-				if (log.isDebugEnabled()) {
-					log.debug("Entry for [" + userKey + "] is null.");
+			final CacheFuture<V> future = new CacheFuture<V>(f);
+			f.addListener(new OperationCompletionListener() {
+				@Override
+				public void onComplete(OperationFuture<?> completed) {
+					completeGet(future, key, completed, CacheOperation.GET_AND_TOUCH, ttl, start);
 				}
-				cacheStatistics.cacheMissesIncAndGet();
-				return null;
-			}
-			cacheStatistics.cacheHitsIncAndGet();
-			return entry.getObject();
+			});
+			return future;
 		} catch (Throwable t) {
-			throw new CacheException(t);
+			cacheStatistics.recordLatency(CacheOperation.GET_AND_TOUCH, start);
+			return CacheFuture.failed(t);
 		}
 	}
 
@@ -166,34 +301,32 @@ public class Memcached<K, V> implements Cache<K, V> {
 
 		if (log.isDebugEnabled()) {
 			log.debug("Putting object in cache [" +
-					cache.getAvailableServers() + "] for key [" + userKey + "]");
+					client().getAvailableServers() + "] for key [" + userKey + "]");
 		}
 
+		final long start = cacheStatistics.startTime();
 		try {
-			CASMutator<CacheWrapper<V>> mutator;
-			if (CacheTranscoder.NONE.equals(cacheTranscoder)) {
-				mutator = new CASMutator<CacheWrapper<V>>(cache, null);
-			} else {
-				mutator = new CASMutator<CacheWrapper<V>>(cache, getTranscoder());
-			}
-			CacheWrapper<V> r = mutator.cas(userKey, new CacheWrapper<V>(value), getTtl(),
-					new CASMutation<CacheWrapper<V>>() {
-						@Override
-						public CacheWrapper<V> getNewValue(final CacheWrapper<V> current) {
-							return new CacheWrapper<V>(value);
-						}
-					});
-
-			if (r == null) {
-				if (log.isDebugEnabled()) {
-					log.debug("Entry for [" + userKey + "] is null.");
+			flushPending(userKey);
+			for (int attempt = 0; attempt < MAX_CAS_ATTEMPTS; attempt++) {
+				// an absent key takes a single round trip
+				if (addEntry(userKey, ttl, value)) {
+					if (log.isDebugEnabled()) {
+						log.debug("Entry for [" + userKey + "] is null.");
+					}
+					return null;
+				}
+				CASValue<CacheWrapper<V>> current = getsEntry(userKey);
+				if (current != null && casEntry(userKey, current.getCas(), ttl, value) == CASResponse.OK) {
+					return current.getValue().getObject();
 				}
-				return null;
 			}
-			return r.getObject();
 		} catch (Throwable t) {
 			throw new CacheException(t);
+		} finally {
+			cacheStatistics.recordLatency(CacheOperation.PUT, start);
 		}
+		throw new CacheException("Unable to put entry for key [" + userKey + "] after " +
+				MAX_CAS_ATTEMPTS + " concurrent updates.");
 	}
 
 	/* (non-Javadoc)
@@ -218,26 +351,229 @@ public class Memcached<K, V> implements Cache<K, V> {
 	 */
 	@Override
 	public void put(K key, V value, int ttl) throws CacheException {
+		final WriteBehindQueue<V> queue = writeBehind;
+		if (queue != null) {
+			final String userKey = getCacheKey(key);
+			if (queue.offer(userKey, wrap(value, ttl), ttl)) {
+				return;
+			}
+			// the previous entry must not outlive the write
+			log.warn("Write-behind queue full, writing key [" + userKey + "] synchronously");
+			await(putAsync(key, value, ttl));
+			return;
+		}
+		final CacheFuture<Boolean> future = putAsync(key, value, ttl);
+		// the set is not awaited, only the failures to issue it are reported
+		if (future.isDone()) {
+			await(future);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.googlecode.memcachefy.AsyncCache#putAsync(java.lang.Object, java.lang.Object)
+	 */
+	@Override
+	public CacheFuture<Boolean> putAsync(K key, V value) {
+		return putAsync(key, value, getTtl());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.googlecode.memcachefy.AsyncCache#putAsync(java.lang.Object, java.lang.Object, int)
+	 */
+	@Override
+	public CacheFuture<Boolean> putAsync(K key, V value, int ttl) {
 
 		String userKey = getCacheKey(key);
 
 		if (log.isDebugEnabled()) {
-			log.debug("Putting object in cache [" + cache.getAvailableServers() +
+			log.debug("Putting object in cache [" + client().getAvailableServers() +
 					"] for key [" + userKey + "] " + cacheTranscoder);
 		}
+		final long start = cacheStatistics.startTime();
 		try {
-			if (log.isDebugEnabled()) {
-				log.debug("Caching Serializable object");
+			// supersedes the write pending for the key
+			cancelPending(userKey);
+			return complete(setEntry(userKey, ttl, wrap(value, ttl)), CacheOperation.PUT, start);
+		} catch (Throwable t) {
+			cacheStatistics.recordLatency(CacheOperation.PUT, start);
+			return CacheFuture.failed(t);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.googlecode.memcachefy.Cache#putIfAbsent(java.lang.Object, java.lang.Object, int)
+	 */
+	@Override
+	public boolean putIfAbsent(K key, V value, int ttl) throws CacheException {
+
+		String userKey = getCacheKey(key);
+
+		if (log.isDebugEnabled()) {
+			log.debug("Adding object in cache [" +
+					client().getAvailableServers() + "] for key [" + userKey + "]");
+		}
+		final long start = cacheStatistics.startTime();
+		try {
+			flushPending(userKey);
+			return addEntry(userKey, ttl, value);
+		} catch (Throwable t) {
+			throw new CacheException(t);
+		} finally {
+			cacheStatistics.recordLatency(CacheOperation.PUT, start);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.googlecode.memcachefy.Cache#replace(java.lang.Object, java.lang.Object, java.lang.Object, int)
+	 */
+	@Override
+	public boolean replace(K key, V expected, V value, int ttl) throws CacheException {
+
+		if (expected == null) {
+			throw new IllegalArgumentException("Expected value cannot be null.");
+		}
+		String userKey = getCacheKey(key);
+
+		if (log.isDebugEnabled()) {
+			log.debug("Replacing object in cache [" +
+					client().getAvailableServers() + "] for key [" + userKey + "]");
+		}
+		final long start = cacheStatistics.startTime();
+		try {
+			flushPending(userKey);
+			for (int attempt = 0; attempt < MAX_CAS_ATTEMPTS; attempt++) {
+				CASValue<CacheWrapper<V>> current = getsEntry(userKey);
+				if (current == null || !expected.equals(current.getValue().getObject())) {
+					return false;
+				}
+				// retried while the entry is concurrently rewritten, it may still hold the expected value
+				final CASResponse response = casEntry(userKey, current.getCas(), ttl, value);
+				if (response == CASResponse.OK) {
+					return true;
+				}
+				if (response != CASResponse.EXISTS) {
+					// deleted or expired meanwhile, or not stored
+					return false;
+				}
 			}
+			return false;
+		} catch (Throwable t) {
+			throw new CacheException(t);
+		} finally {
+			cacheStatistics.recordLatency(CacheOperation.PUT, start);
+		}
+	}
 
-			if (CacheTranscoder.NONE.equals(cacheTranscoder)) {
-				cache.set(userKey, getTtl(), new CacheWrapper<V>(value));
-			} else {
-				cache.set(userKey, getTtl(), new CacheWrapper<V>(value), getTranscoder());
+	/* (non-Javadoc)
+	 * @see com.googlecode.memcachefy.Cache#gets(java.lang.Object)
+	 */
+	@Override
+	public VersionedValue<V> gets(K key) throws CacheException {
+
+		String userKey = getCacheKey(key);
+
+		final long start = cacheStatistics.startTime();
+		try {
+			flushPending(userKey);
+			CASValue<CacheWrapper<V>> entry = getsEntry(userKey);
+			if (entry == null) {
+				cacheStatistics.cacheMissesInc();
+				return null;
 			}
+			cacheStatistics.cacheHitsInc();
+			refreshIfNeeded(key, entry.getValue());
+			return new VersionedValue<V>(entry.getValue().getObject(), entry.getCas());
+		} catch (Throwable t) {
+			throw new CacheException(t);
+		} finally {
+			cacheStatistics.recordLatency(CacheOperation.GET, start);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.googlecode.memcachefy.Cache#cas(java.lang.Object, long, java.lang.Object, int)
+	 */
+	@Override
+	public boolean cas(K key, long version, V value, int ttl) throws CacheException {
+
+		String userKey = getCacheKey(key);
+
+		if (log.isDebugEnabled()) {
+			log.debug("Compare and set object in cache [" +
+					client().getAvailableServers() + "] for key [" + userKey + "]");
+		}
+		final long start = cacheStatistics.startTime();
+		try {
+			flushPending(userKey);
+			return casEntry(userKey, version, ttl, value) == CASResponse.OK;
+		} catch (Throwable t) {
+			throw new CacheException(t);
+		} finally {
+			cacheStatistics.recordLatency(CacheOperation.PUT, start);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.googlecode.memcachefy.Cache#increment(java.lang.Object, long, long, int)
+	 */
+	@Override
+	public long increment(K key, long delta, long initial, int ttl) throws CacheException {
+
+		String userKey = getCacheKey(key);
+
+		if (log.isDebugEnabled()) {
+			log.debug("Incrementing counter in cache [" +
+					client().getAvailableServers() + "] for key [" + userKey + "]");
+		}
+		checkCounter(delta, initial);
+		final long start = cacheStatistics.startTime();
+		long value;
+		try {
+			flushPending(userKey);
+			value = client().incr(userKey, delta, initial, ttl);
 		} catch (Throwable t) {
 			throw new CacheException(t);
+		} finally {
+			cacheStatistics.recordLatency(CacheOperation.INCREMENT, start);
 		}
+		return counterResult(key, value);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.googlecode.memcachefy.Cache#decrement(java.lang.Object, long, long, int)
+	 */
+	@Override
+	public long decrement(K key, long delta, long initial, int ttl) throws CacheException {
+
+		String userKey = getCacheKey(key);
+
+		if (log.isDebugEnabled()) {
+			log.debug("Decrementing counter in cache [" +
+					client().getAvailableServers() + "] for key [" + userKey + "]");
+		}
+		checkCounter(delta, initial);
+		final long start = cacheStatistics.startTime();
+		long value;
+		try {
+			flushPending(userKey);
+			value = client().decr(userKey, delta, initial, ttl);
+		} catch (Throwable t) {
+			throw new CacheException(t);
+		} finally {
+			cacheStatistics.recordLatency(CacheOperation.DECREMENT, start);
+		}
+		return counterResult(key, value);
+	}
+
+	/*
+	 * The memcached client reports a failed incr or decr, e.g. on a value that is not a
+	 * decimal number, as -1
+	 */
+	private static long counterResult(Object key, long value) throws CacheException {
+		if (value < 0) {
+			throw new CacheException("Entry for key [" + key + "] is not a counter");
+		}
+		return value;
 	}
 
 	/* (non-Javadoc)
@@ -250,14 +586,190 @@ public class Memcached<K, V> implements Cache<K, V> {
 
 		if (log.isDebugEnabled()) {
 			log.debug("Removing object from cache [" +
-					cache.getAvailableServers() + "] for key [" + userKey + "]");
+					client().getAvailableServers() + "] for key [" + userKey + "]");
 		}
+		final long start = cacheStatistics.startTime();
 		try {
 			V previous = get(key);
-			cache.delete(userKey);
+			cancelPending(userKey);
+			client().delete(userKey);
 			return previous;
 		} catch (Throwable t) {
 			throw new CacheException(t);
+		} finally {
+			cacheStatistics.recordLatency(CacheOperation.REMOVE, start);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.googlecode.memcachefy.AsyncCache#removeAsync(java.lang.Object)
+	 */
+	@Override
+	public CacheFuture<Boolean> removeAsync(K key) {
+
+		String userKey = getCacheKey(key);
+
+		if (log.isDebugEnabled()) {
+			log.debug("Removing object from cache [" +
+					client().getAvailableServers() + "] for key [" + userKey + "]");
+		}
+		final long start = cacheStatistics.startTime();
+		try {
+			cancelPending(userKey);
+			return complete(client().delete(userKey), CacheOperation.REMOVE, start);
+		} catch (Throwable t) {
+			cacheStatistics.recordLatency(CacheOperation.REMOVE, start);
+			return CacheFuture.failed(t);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.googlecode.memcachefy.Cache#getAll(java.util.Collection)
+	 */
+	@Override
+	public Map<K, V> getAll(Collection<? extends K> keys) throws CacheException {
+		return await(getAllAsync(keys));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.googlecode.memcachefy.AsyncCache#getAllAsync(java.util.Collection)
+	 */
+	@Override
+	public CacheFuture<Map<K, V>> getAllAsync(Collection<? extends K> keys) {
+
+		final Map<String, K> userKeys = new LinkedHashMap<String, K>();
+		final Map<K, V> pendingValues = new HashMap<K, V>();
+		final WriteBehindQueue<V> queue = writeBehind;
+		for (K key : keys) {
+			String userKey = getCacheKey(key);
+			final CacheWrapper<V> pending = queue == null ? null : queue.pending(userKey);
+			if (pending != null) {
+				cacheStatistics.cacheHitsInc();
+				pendingValues.put(key, pending.getObject());
+			} else {
+				userKeys.put(userKey, key);
+			}
+		}
+		if (userKeys.isEmpty()) {
+			return CacheFuture.completed(pendingValues);
+		}
+
+		final long start = cacheStatistics.startTime();
+		try {
+			if (log.isDebugEnabled()) {
+				log.debug("Getting " + userKeys.size() + " objects from cache [" +
+						client().getAvailableServers() + "] using transconding: [" + cacheTranscoder + "]");
+			}
+			boolean transcoding = !CacheTranscoder.NONE.equals(cacheTranscoder);
+
+			// a single multi-get per server instead of a round trip per key
+			final BulkFuture<? extends Map<String, ?>> f = transcoding ?
+					client().asyncGetBulk(userKeys.keySet(), getTranscoder()) :
+					client().asyncGetBulk(userKeys.keySet());
+
+			final CacheFuture<Map<K, V>> future = new CacheFuture<Map<K, V>>(f);
+			f.addListener(new BulkGetCompletionListener() {
+				@Override
+				@SuppressWarnings("unchecked")
+				public void onComplete(BulkGetFuture<?> completed) {
+					try {
+						final Map<String, ?> entries = f.get();
+						final Map<K, V> values = new HashMap<K, V>(pendingValues);
+						final Map<String, CacheWrapper<V>> chunked = new HashMap<String, CacheWrapper<V>>();
+						for (Map.Entry<String, K> userKey : userKeys.entrySet()) {
+							CacheWrapper<V> entry = (CacheWrapper<V>) entries.get(userKey.getKey());
+							if (isChunked(entry)) {
+								chunked.put(userKey.getKey(), entry);
+							} else {
+								collectEntry(values, userKey.getValue(), entry);
+							}
+						}
+						if (chunked.isEmpty()) {
+							future.set(values);
+							cacheStatistics.recordLatency(CacheOperation.GET_ALL, start);
+							return;
+						}
+						readChunks(chunked).addListener(new CacheFutureListener<Map<String, CacheWrapper<V>>>() {
+							@Override
+							public void onComplete(CacheFuture<Map<String, CacheWrapper<V>>> completed) {
+								try {
+									final Map<String, CacheWrapper<V>> assembled = completed.get();
+									for (String userKey : chunked.keySet()) {
+										collectEntry(values, userKeys.get(userKey), assembled.get(userKey));
+									}
+									future.set(values);
+								} catch (Throwable t) {
+									future.setException(cause(t));
+								} finally {
+									cacheStatistics.recordLatency(CacheOperation.GET_ALL, start);
+								}
+							}
+						});
+					} catch (Throwable t) {
+						future.setException(cause(t));
+						cacheStatistics.recordLatency(CacheOperation.GET_ALL, start);
+					}
+				}
+			});
+			return future;
+		} catch (Throwable t) {
+			cacheStatistics.recordLatency(CacheOperation.GET_ALL, start);
+			return CacheFuture.failed(t);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.googlecode.memcachefy.Cache#putAll(java.util.Map, int)
+	 */
+	@Override
+	public void putAll(Map<? extends K, ? extends V> entries, int ttl) throws CacheException {
+
+		if (log.isDebugEnabled()) {
+			log.debug("Putting " + entries.size() + " objects in cache [" +
+					client().getAvailableServers() + "] " + cacheTranscoder);
+		}
+		final long start = cacheStatistics.startTime();
+		try {
+			// the sets are queued without waiting for each other, so they are
+			// pipelined on the connections to the servers
+			final WriteBehindQueue<V> queue = writeBehind;
+			for (Map.Entry<? extends K, ? extends V> entry : entries.entrySet()) {
+				String userKey = getCacheKey(entry.getKey());
+				if (queue != null) {
+					queue.offer(userKey, wrap(entry.getValue(), ttl), ttl);
+				} else {
+					setEntry(userKey, ttl, wrap(entry.getValue(), ttl));
+				}
+			}
+		} catch (Throwable t) {
+			throw new CacheException(t);
+		} finally {
+			cacheStatistics.recordLatency(CacheOperation.PUT_ALL, start);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.googlecode.memcachefy.Cache#removeAll(java.util.Collection)
+	 */
+	@Override
+	public void removeAll(Collection<? extends K> keys) throws CacheException {
+
+		if (log.isDebugEnabled()) {
+			log.debug("Removing " + keys.size() + " objects from cache [" +
+					client().getAvailableServers() + "]");
+		}
+		final long start = cacheStatistics.startTime();
+		try {
+			// pipelined as well, and unlike remove there is no previous value to fetch
+			for (K key : keys) {
+				String userKey = getCacheKey(key);
+				cancelPending(userKey);
+				client().delete(userKey);
+			}
+		} catch (Throwable t) {
+			throw new CacheException(t);
+		} finally {
+			cacheStatistics.recordLatency(CacheOperation.REMOVE_ALL, start);
 		}
 	}
 
@@ -267,10 +779,20 @@ public class Memcached<K, V> implements Cache<K, V> {
 	@Override
 	public void clear() throws CacheException {
 		if (log.isDebugEnabled()) {
-			log.debug("Clearing all objects from cache [" + cache.getAvailableServers() + "]");
+			log.debug("Clearing all objects of [" + name + "] from cache [" + client().getAvailableServers() + "]");
 		}
 		try {
-			cache.flush();
+			final WriteBehindQueue<V> queue = writeBehind;
+			if (queue != null) {
+				queue.clear();
+			}
+			final long cleared = client().incr(generationKey, 1, initialGeneration(), 0);
+			if (cleared < 0) {
+				throw new IllegalStateException("Unable to increment the generation of cache [" + name + "]");
+			}
+			advanceGeneration(cleared);
+			generationReadAt = System.currentTimeMillis();
+			generationRead = true;
 		} catch (Throwable t) {
 			throw new CacheException(t);
 		}
@@ -283,7 +805,7 @@ public class Memcached<K, V> implements Cache<K, V> {
 	public int size() throws CacheException {
 		try {
 			int size = 0;
-			Map<SocketAddress, Map<String, String>> map = cache.getStats();
+			Map<SocketAddress, Map<String, String>> map = client().getStats();
 
 			for (SocketAddress socketAddress : map.keySet()) {
 
@@ -304,9 +826,413 @@ public class Memcached<K, V> implements Cache<K, V> {
 		return cacheStatistics;
 	}
 
+	/*
+	 * Complete the future with the value of the entry read by a get or get and touch,
+	 * the latter also setting the time-to-live of the chunks
+	 */
+	@SuppressWarnings("unchecked")
+	private void completeGet(final CacheFuture<V> future, final K key, Future<?> f,
+							 final CacheOperation operation, int ttl, final long start) {
+		final CacheWrapper<V> entry;
+		try {
+			Object result = f.get();
+			if (result instanceof CASValue) {
+				result = ((CASValue<?>) result).getValue();
+			}
+			entry = (CacheWrapper<V>) result;
+		} catch (Throwable t) {
+			future.setException(cause(t));
+			cacheStatistics.recordLatency(operation, start);
+			return;
+		}
+		if (!isChunked(entry)) {
+			finishGet(future, key, entry, operation, start);
+			return;
+		}
+		final String userKey = getCacheKey(key);
+		if (operation == CacheOperation.GET_AND_TOUCH) {
+			touchChunks(userKey, (ChunkManifest) entry.getObject(), ttl);
+		}
+		readChunks(Collections.singletonMap(userKey, entry)).addListener(
+				new CacheFutureListener<Map<String, CacheWrapper<V>>>() {
+					@Override
+					public void onComplete(CacheFuture<Map<String, CacheWrapper<V>>> completed) {
+						try {
+							finishGet(future, key, completed.get().get(userKey), operation, start);
+						} catch (Throwable t) {
+							future.setException(cause(t));
+							cacheStatistics.recordLatency(operation, start);
+						}
+					}
+				});
+	}
+
+	private void finishGet(CacheFuture<V> future, K key, CacheWrapper<V> entry, CacheOperation operation,
+						   long start) {
+		try {
+			if (entry == null) {
+				if (log.isDebugEnabled()) {
+					log.debug("Entry for [" + getCacheKey(key) + "] is null.");
+				}
+				cacheStatistics.cacheMissesInc();
+				future.set(null);
+				return;
+			}
+			cacheStatistics.cacheHitsInc();
+			refreshIfNeeded(key, entry);
+			future.set(entry.getObject());
+		} finally {
+			cacheStatistics.recordLatency(operation, start);
+		}
+	}
+
+	private CacheFuture<Boolean> complete(final OperationFuture<Boolean> f, final CacheOperation operation,
+										  final long start) {
+		final CacheFuture<Boolean> future = new CacheFuture<Boolean>(f);
+		f.addListener(new OperationCompletionListener() {
+			@Override
+			public void onComplete(OperationFuture<?> completed) {
+				try {
+					future.set(f.get());
+				} catch (Throwable t) {
+					future.setException(cause(t));
+				} finally {
+					cacheStatistics.recordLatency(operation, start);
+				}
+			}
+		});
+		return future;
+	}
+
+	/*
+	 * memcached set
+	 */
+	OperationFuture<Boolean> setEntry(String userKey, int ttl, CacheWrapper<V> value) {
+		final EncodedEntry encoded = encodeEntry(userKey, value);
+		if (!storeChunks(userKey, ttl, encoded)) {
+			throw new IllegalStateException("Unable to store the chunks of the value for key [" + userKey + "]");
+		}
+		return client().set(userKey, ttl, encoded.data, CachedDataTranscoder.INSTANCE);
+	}
+
+	private CacheWrapper<V> wrap(V value, int ttl) {
+		return new CacheWrapper<V>(value, ticker.read(), ttl);
+	}
+
+	private void cancelPending(String userKey) {
+		final WriteBehindQueue<V> queue = writeBehind;
+		if (queue != null) {
+			queue.cancel(userKey);
+		}
+	}
+
+	/*
+	 * Operations depending on the stored entry first send its pending write
+	 */
+	private void flushPending(String userKey) {
+		final WriteBehindQueue<V> queue = writeBehind;
+		if (queue != null) {
+			queue.flush(userKey);
+		}
+	}
+
+	/*
+	 * memcached add, stores the entry only if the key is absent
+	 */
+	private boolean addEntry(String userKey, int ttl, V value) throws Exception {
+		final EncodedEntry encoded = encodeEntry(userKey, wrap(value, ttl));
+		if (!storeChunks(userKey, ttl, encoded)) {
+			throw new CacheException("Unable to store the chunks of the value for key [" + userKey + "]");
+		}
+		boolean added = false;
+		try {
+			Future<Boolean> f = client().add(userKey, ttl, encoded.data, CachedDataTranscoder.INSTANCE);
+			added = Boolean.TRUE.equals(f.get(10, TimeUnit.SECONDS));
+			return added;
+		} finally {
+			if (!added) {
+				deleteChunks(userKey, encoded);
+			}
+		}
+	}
+
+	/*
+	 * memcached gets, the entry along with its cas unique
+	 */
+	@SuppressWarnings("unchecked")
+	private CASValue<CacheWrapper<V>> getsEntry(String userKey) throws Exception {
+		Future<?> f = CacheTranscoder.NONE.equals(cacheTranscoder) ?
+				client().asyncGets(userKey) :
+				client().asyncGets(userKey, getTranscoder());
+		CASValue<CacheWrapper<V>> entry = (CASValue<CacheWrapper<V>>) f.get(10, TimeUnit.SECONDS);
+		if (entry == null || entry.getValue() == null) {
+			return null;
+		}
+		if (isChunked(entry.getValue())) {
+			// the cas unique of the manifest guards the whole value
+			final CacheWrapper<V> value = readChunks(Collections.singletonMap(userKey, entry.getValue()))
+					.get(10, TimeUnit.SECONDS).get(userKey);
+			return value == null ? null : new CASValue<CacheWrapper<V>>(entry.getCas(), value);
+		}
+		return entry;
+	}
+
+	/*
+	 * Without transcoding, the values are serialized as the client does, but without its
+	 * size limit when they are split into chunks: only the chunks must fit an item
+	 */
+	@SuppressWarnings("unchecked")
+	private Transcoder<Object> transcoder() {
+		if (CacheTranscoder.NONE.equals(cacheTranscoder)) {
+			return chunkSize > 0 ? chunkedTranscoder : client().getTranscoder();
+		}
+		return (Transcoder<Object>) threadLocalTranscoder.get();
+	}
+
+	/*
+	 * Encode the entry once. A value larger than the chunk size is split into chunks
+	 * stored under their own keys, the entry then holds their manifest.
+	 */
+	private EncodedEntry encodeEntry(String userKey, CacheWrapper<V> value) {
+		final Transcoder<Object> transcoder = transcoder();
+		final CachedData data = transcoder.encode(value);
+		if (data == null) {
+			throw new IllegalArgumentException("Unable to encode the value for key [" + userKey + "]");
+		}
+		final byte[] bytes = data.getData();
+		final int size = chunkSize;
+		if (size <= 0 || bytes.length <= size) {
+			return new EncodedEntry(data, null, null);
+		}
+		final ChunkManifest manifest = new ChunkManifest(chunkIds.nextLong(), data.getFlags(),
+				bytes.length, (bytes.length + size - 1) / size);
+		final CacheWrapper<ChunkManifest> wrapper =
+				new CacheWrapper<ChunkManifest>(manifest, value.getWriteTime(), value.getTtl());
+		final CachedData encoded = transcoder.encode(wrapper);
+		if (encoded == null) {
+			log.warn("Unable to encode the chunk manifest, storing the value for key [" +
+					userKey + "] as a single item");
+			return new EncodedEntry(data, null, null);
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Storing the value for key [" + userKey + "] as " + manifest);
+		}
+		final List<CachedData> chunks = new ArrayList<CachedData>(manifest.getChunks());
+		for (int i = 0; i < manifest.getChunks(); i++) {
+			final int from = i * size;
+			final byte[] chunk = Arrays.copyOfRange(bytes, from, Math.min(bytes.length, from + size));
+			chunks.add(new CachedData(0, chunk, chunk.length));
+		}
+		return new EncodedEntry(encoded, manifest, chunks);
+	}
+
+	/*
+	 * Store the chunks of the entry and wait for them, so that the manifest is only
+	 * written once they can all be read. A failed entry has its stored chunks deleted.
+	 */
+	private boolean storeChunks(String userKey, int ttl, EncodedEntry entry) {
+		if (entry.manifest == null) {
+			return true;
+		}
+		final List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(entry.chunks.size());
+		for (int i = 0; i < entry.chunks.size(); i++) {
+			futures.add(client().set(entry.manifest.getChunkKey(userKey, i), ttl, entry.chunks.get(i),
+					CachedDataTranscoder.INSTANCE));
+		}
+		boolean stored = true;
+		final long deadline = System.currentTimeMillis() + 10000;
+		for (Future<Boolean> future : futures) {
+			try {
+				stored &= Boolean.TRUE.equals(future.get(Math.max(deadline - System.currentTimeMillis(), 0L),
+						TimeUnit.MILLISECONDS));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				stored = false;
+			} catch (Exception e) {
+				if (log.isDebugEnabled()) {
+					log.debug("Unable to store a chunk of the value for key [" + userKey + "]", e);
+				}
+				stored = false;
+			}
+		}
+		if (!stored) {
+			deleteChunks(userKey, entry);
+		}
+		return stored;
+	}
+
+	/*
+	 * Delete the chunks of an entry that was not stored, they would be orphaned until they expire
+	 */
+	private void deleteChunks(String userKey, EncodedEntry entry) {
+		if (entry.manifest == null) {
+			return;
+		}
+		for (int i = 0; i < entry.manifest.getChunks(); i++) {
+			client().delete(entry.manifest.getChunkKey(userKey, i));
+		}
+	}
+
+	/*
+	 * Set the time-to-live of the chunks along with the one of their manifest
+	 */
+	private void touchChunks(String userKey, ChunkManifest manifest, int ttl) {
+		for (int i = 0; i < manifest.getChunks(); i++) {
+			client().touch(manifest.getChunkKey(userKey, i), ttl);
+		}
+	}
+
+	private static boolean isChunked(CacheWrapper<?> entry) {
+		return entry != null && entry.getObject() instanceof ChunkManifest;
+	}
+
+	/*
+	 * Fetch the chunks of the entries in a single multi-get and decode their values,
+	 * the entries missing a chunk are left out
+	 */
+	private CacheFuture<Map<String, CacheWrapper<V>>> readChunks(final Map<String, CacheWrapper<V>> entries) {
+		final List<String> chunkKeys = new ArrayList<String>();
+		for (Map.Entry<String, CacheWrapper<V>> entry : entries.entrySet()) {
+			final ChunkManifest manifest = (ChunkManifest) entry.getValue().getObject();
+			for (int i = 0; i < manifest.getChunks(); i++) {
+				chunkKeys.add(manifest.getChunkKey(entry.getKey(), i));
+			}
+		}
+		final BulkFuture<Map<String, CachedData>> f =
+				client().asyncGetBulk(chunkKeys, CachedDataTranscoder.INSTANCE);
+		final CacheFuture<Map<String, CacheWrapper<V>>> future = new CacheFuture<Map<String, CacheWrapper<V>>>(f);
+		f.addListener(new BulkGetCompletionListener() {
+			@Override
+			public void onComplete(BulkGetFuture<?> completed) {
+				try {
+					final Map<String, CachedData> chunks = f.get();
+					final Map<String, CacheWrapper<V>> values = new HashMap<String, CacheWrapper<V>>();
+					for (Map.Entry<String, CacheWrapper<V>> entry : entries.entrySet()) {
+						final CacheWrapper<V> value = assemble(entry.getKey(),
+								(ChunkManifest) entry.getValue().getObject(), chunks);
+						if (value != null) {
+							values.put(entry.getKey(), value);
+						}
+					}
+					future.set(values);
+				} catch (Throwable t) {
+					future.setException(cause(t));
+				}
+			}
+		});
+		return future;
+	}
+
+	@SuppressWarnings("unchecked")
+	private CacheWrapper<V> assemble(String userKey, ChunkManifest manifest, Map<String, CachedData> chunks) {
+		final byte[] bytes = new byte[manifest.getLength()];
+		int offset = 0;
+		for (int i = 0; i < manifest.getChunks(); i++) {
+			final CachedData chunk = chunks.get(manifest.getChunkKey(userKey, i));
+			if (chunk == null || offset + chunk.getData().length > bytes.length) {
+				if (log.isDebugEnabled()) {
+					log.debug("Chunk " + i + " of the entry for [" + userKey + "] is missing.");
+				}
+				return null;
+			}
+			System.arraycopy(chunk.getData(), 0, bytes, offset, chunk.getData().length);
+			offset += chunk.getData().length;
+		}
+		if (offset != bytes.length) {
+			return null;
+		}
+		return (CacheWrapper<V>) transcoder().decode(new CachedData(manifest.getFlags(), bytes, bytes.length));
+	}
+
+	/*
+	 * memcached cas, stores the entry only if its cas unique is unchanged
+	 */
+	private CASResponse casEntry(String userKey, long casId, int ttl, V value) throws Exception {
+		final EncodedEntry encoded = encodeEntry(userKey, wrap(value, ttl));
+		if (!storeChunks(userKey, ttl, encoded)) {
+			throw new CacheException("Unable to store the chunks of the value for key [" + userKey + "]");
+		}
+		CASResponse response = null;
+		try {
+			Future<CASResponse> f = client().asyncCAS(userKey, casId, ttl, encoded.data,
+					CachedDataTranscoder.INSTANCE);
+			response = f.get(10, TimeUnit.SECONDS);
+			return response;
+		} finally {
+			if (response != CASResponse.OK) {
+				deleteChunks(userKey, encoded);
+			}
+		}
+	}
+
+	private void collectEntry(Map<K, V> values, K key, CacheWrapper<V> entry) {
+		if (entry == null) {
+			cacheStatistics.cacheMissesInc();
+			return;
+		}
+		cacheStatistics.cacheHitsInc();
+		refreshIfNeeded(key, entry);
+		values.put(key, entry.getObject());
+	}
+
+	private static Throwable cause(Throwable t) {
+		return t instanceof ExecutionException && t.getCause() != null ? t.getCause() : t;
+	}
+
+	/*
+	 * Block on an asynchronous operation for the synchronous Cache methods
+	 */
+	private static <T> T await(CacheFuture<T> future) throws CacheException {
+		try {
+			return future.get(10, TimeUnit.SECONDS);
+		} catch (ExecutionException e) {
+			throw new CacheException(e.getCause());
+		} catch (Throwable t) {
+			throw new CacheException(t);
+		}
+	}
+
+	/*
+	 * Reload the entry in the background once it is older than refreshAfterWrite, at
+	 * most one reload per key runs at a time in this process
+	 */
+	private void refreshIfNeeded(final K key, final CacheWrapper<V> entry) {
+		final CacheLoader<? super K, V> loader = cacheLoader;
+		if (loader == null || refreshAfterWrite <= 0 ||
+				ticker.read() - entry.getWriteTime() < refreshAfterWrite * 1000L) {
+			return;
+		}
+		final String userKey = getCacheKey(key);
+		if (refreshing.putIfAbsent(userKey, Boolean.TRUE) != null) {
+			return;
+		}
+		try {
+			refreshExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						final V value = loader.load(key);
+						if (value == null) {
+							remove(key);
+						} else {
+							// the reload keeps the time-to-live the entry was written with
+							put(key, value, entry.getTtl());
+						}
+					} catch (Exception e) {
+						log.warn("Unable to refresh the entry for key [" + userKey + "]", e);
+					} finally {
+						refreshing.remove(userKey);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			refreshing.remove(userKey);
+		}
+	}
+
 	private String readMemcachedProperty(String name, SocketAddress socketAddress) {
 		String value = null;
-		Map<String, String> map = cache.getStats().get(socketAddress);
+		Map<String, String> map = client().getStats().get(socketAddress);
 
 		value = map.get(name);
 
@@ -314,7 +1240,73 @@ public class Memcached<K, V> implements Cache<K, V> {
 	}
 
 	private String getCacheKey(K key) {
-		return name + (key instanceof String ? (String) key : Integer.toString(key.hashCode()));
+		return keyEncoder.encode(key, generation());
+	}
+
+	/*
+	 * The first caller reads the generation, then it is read again in background at most
+	 * every refresh interval while the current one keeps being used
+	 */
+	private long generation() {
+		if (!generationRead) {
+			synchronized (generationLock) {
+				if (!generationRead) {
+					readGeneration();
+					generationRead = true;
+				}
+			}
+		} else if (System.currentTimeMillis() - generationReadAt >= generationRefreshInterval &&
+				readingGeneration.compareAndSet(false, true)) {
+			try {
+				refreshExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							readGeneration();
+						} finally {
+							readingGeneration.set(false);
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				readingGeneration.set(false);
+			}
+		}
+		return generation.get();
+	}
+
+	private void readGeneration() {
+		try {
+			// an incr by zero reads the counter in a single round trip, creating it if missing
+			final long value = client().incr(generationKey, 0, initialGeneration(), 0);
+			if (value >= 0) {
+				advanceGeneration(value);
+			}
+		} catch (RuntimeException e) {
+			log.warn("Unable to read the generation of cache [" + name + "]", e);
+		}
+		generationReadAt = System.currentTimeMillis();
+	}
+
+	/*
+	 * The generation only moves forward: a read that was issued before a clear and completes
+	 * after it must not bring back the previous generation
+	 */
+	private void advanceGeneration(long value) {
+		while (true) {
+			final long current = generation.get();
+			if (value <= current || generation.compareAndSet(current, value)) {
+				return;
+			}
+		}
+	}
+
+	/*
+	 * Should the counter be evicted, it starts again from the current time in seconds, above
+	 * the generations it went through unless the cache was cleared more than once a second
+	 */
+	private static long initialGeneration() {
+		return System.currentTimeMillis() / 1000;
 	}
 
 	public String getName() {
@@ -335,7 +1327,7 @@ public class Memcached<K, V> implements Cache<K, V> {
 	 * @return &quot;Memcached [&quot; + cache.getName() + &quot;]&quot;
 	 */
 	public String toString() {
-		return "Memcached [" + cache.getAvailableServers() + "]";
+		return "Memcached [" + client().getAvailableServers() + "]";
 	}
 
 	public ThreadLocal<? extends Transcoder<?>> getThreadLocalTranscoder() {
@@ -346,14 +1338,131 @@ public class Memcached<K, V> implements Cache<K, V> {
 		this.threadLocalTranscoder = threadLocalTranscoder;
 	}
 
+	public CacheLoader<? super K, V> getCacheLoader() {
+		return cacheLoader;
+	}
+
+	/**
+	 * @param cacheLoader loader refreshing the entries older than {@code refreshAfterWrite},
+	 *                    or {@code null} to let them expire
+	 */
+	public void setCacheLoader(CacheLoader<? super K, V> cacheLoader) {
+		this.cacheLoader = cacheLoader;
+	}
+
+	public int getRefreshAfterWrite() {
+		return refreshAfterWrite;
+	}
+
+	/**
+	 * @param refreshAfterWrite age in seconds after which a read triggers the reload of the
+	 *                          entry, usually lower than the ttl. 0 disables the refresh.
+	 */
+	public void setRefreshAfterWrite(int refreshAfterWrite) {
+		this.refreshAfterWrite = refreshAfterWrite;
+	}
+
+	public Ticker getTicker() {
+		return ticker;
+	}
+
+	/**
+	 * @param ticker time source of the write times of the entries, compared with
+	 *               {@code refreshAfterWrite}, defaults to {@link Tickers#coarse()}
+	 */
+	public void setTicker(Ticker ticker) {
+		this.ticker = ticker;
+	}
+
+	/**
+	 * @param refreshExecutor executor running the reloads, defaults to a pool shared by the memcached caches
+	 */
+	public void setRefreshExecutor(Executor refreshExecutor) {
+		this.refreshExecutor = refreshExecutor;
+	}
+
+	public MemcachedClientPool getClients() {
+		return clients;
+	}
+
 	public CacheTranscoder getCacheTranscoder() {
 		return cacheTranscoder;
 	}
 
+	/**
+	 * Queue the puts and send them in background, see {@link WriteBehindQueue}
+	 *
+	 * @param capacity      maximum number of keys with a pending write, further writes are sent synchronously
+	 * @param batchSize     number of writes sent in a batch
+	 * @param flushInterval maximum time in milliseconds a write stays pending
+	 */
+	public synchronized void enableWriteBehind(int capacity, int batchSize, long flushInterval) {
+		if (writeBehind != null) {
+			writeBehind.close();
+		}
+		writeBehind = new WriteBehindQueue<V>(this, capacity, batchSize, flushInterval);
+	}
+
+	public long getGenerationRefreshInterval() {
+		return generationRefreshInterval;
+	}
+
+	/**
+	 * @param generationRefreshInterval time in milliseconds the generation of the cache name is used
+	 *                                  before being read again, i.e. how long a {@link #clear()} from
+	 *                                  another client may take to be seen
+	 */
+	public void setGenerationRefreshInterval(long generationRefreshInterval) {
+		this.generationRefreshInterval = generationRefreshInterval;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Encoded values larger than the chunk size are split into chunks stored under their own
+	 * keys, and reassembled with a single multi-get. The chunks are written before their
+	 * manifest and share its time-to-live, a get and touch also touches them. They are left
+	 * to expire when the entry is removed or overwritten.
+	 *
+	 * @param chunkSize maximum size in bytes of a memcached item, 0 stores the values as a single item
+	 */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * @return the write-behind queue and its metrics, or {@code null} if puts are sent right away
+	 */
+	public WriteBehindQueue<V> getWriteBehind() {
+		return writeBehind;
+	}
+
 	@Override
 	public void close() {
-		cache.shutdown();
+		final WriteBehindQueue<V> queue = writeBehind;
+		if (queue != null) {
+			queue.close();
+		}
+		if (ownsClients) {
+			clients.shutdown();
+		}
 	}
 
+	/*
+	 * An encoded entry, along with its chunks when it is stored as a manifest
+	 */
+	private static final class EncodedEntry {
+		final CachedData data;
+		final ChunkManifest manifest;
+		final List<CachedData> chunks;
+
+		EncodedEntry(CachedData data, ChunkManifest manifest, List<CachedData> chunks) {
+			this.data = data;
+			this.manifest = manifest;
+			this.chunks = chunks;
+		}
+	}
 
 }
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy.memcached;
+
+import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.OperationQueueFactory;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.spring.MemcachedClientFactoryBean;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed set of memcached clients shared by the caches of a {@link MemcachedManager}, each
+ * with its own IO thread and connections. An operation is sent through the client picked by
+ * the {@link Selection} of the pool.
+ * <p/>
+ * Consecutive operations may go through different clients, i.e. different connections, so
+ * a read right after a put that was not awaited may not see it. A pool of a single client
+ * keeps the operations in order.
+ */
+public class MemcachedClientPool {
+
+	private static final Logger log = Logger.getLogger(MemcachedClientPool.class);
+	// default length of the operation queues of the memcached client
+	private static final int OP_QUEUE_LENGTH = 16384;
+
+	/**
+	 * How the client of an operation is picked
+	 */
+	public enum Selection {
+
+		/**
+		 * Each client in turn
+		 */
+		ROUND_ROBIN,
+
+		/**
+		 * The client with the fewest operations queued or waiting for a reply
+		 */
+		LEAST_OUTSTANDING
+
+	}
+
+	private final MemcachedClient[] clients;
+	// operation queues of the nodes of each client
+	private final List<List<BlockingQueue<Operation>>> queues;
+	private final Selection selection;
+	private final AtomicInteger next = new AtomicInteger();
+
+	/**
+	 * Creates the clients from the factory
+	 *
+	 * @param factory   factory configured with the servers and connection settings
+	 * @param size      number of clients
+	 * @param selection how the client of an operation is picked
+	 * @throws Exception if a client cannot be created
+	 */
+	public MemcachedClientPool(MemcachedClientFactoryBean factory, int size, Selection selection) throws Exception {
+		if (size <= 0) {
+			throw new IllegalArgumentException("Invalid pool size " + size);
+		}
+		this.clients = new MemcachedClient[size];
+		this.queues = new ArrayList<List<BlockingQueue<Operation>>>(size);
+		this.selection = selection;
+		for (int i = 0; i < size; i++) {
+			final List<BlockingQueue<Operation>> clientQueues = new CopyOnWriteArrayList<BlockingQueue<Operation>>();
+			final OperationQueueFactory queueFactory = new OperationQueueFactory() {
+				@Override
+				public BlockingQueue<Operation> create() {
+					final BlockingQueue<Operation> queue = new LinkedBlockingQueue<Operation>(OP_QUEUE_LENGTH);
+					clientQueues.add(queue);
+					return queue;
+				}
+			};
+			// the queues are created along with the client, a node reconnecting keeps them
+			synchronized (factory) {
+				factory.setOpQueueFactory(queueFactory);
+				factory.setReadOpQueueFactory(queueFactory);
+				factory.setWriteOpQueueFactory(queueFactory);
+				clients[i] = (MemcachedClient) factory.getObject();
+			}
+			queues.add(clientQueues);
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Created a pool of " + size + " memcached clients with " + selection + " selection");
+		}
+	}
+
+	/**
+	 * Wraps a single client, e.g. one created by the application
+	 *
+	 * @param client the memcached client
+	 */
+	public MemcachedClientPool(MemcachedClient client) {
+		if (client == null) {
+			throw new IllegalArgumentException("Client cannot be null.");
+		}
+		this.clients = new MemcachedClient[]{client};
+		this.queues = new ArrayList<List<BlockingQueue<Operation>>>();
+		this.selection = Selection.ROUND_ROBIN;
+	}
+
+	/**
+	 * @return the client to send an operation through
+	 */
+	public MemcachedClient select() {
+		if (clients.length == 1) {
+			return clients[0];
+		}
+		if (selection == Selection.LEAST_OUTSTANDING) {
+			// starting from the next client in turn, so that ties are spread
+			final int first = (next.getAndIncrement() & Integer.MAX_VALUE) % clients.length;
+			int selected = first;
+			int fewest = Integer.MAX_VALUE;
+			for (int i = 0; i < clients.length; i++) {
+				final int index = (first + i) % clients.length;
+				final int outstanding = getOutstanding(index);
+				if (outstanding < fewest) {
+					fewest = outstanding;
+					selected = index;
+				}
+			}
+			return clients[selected];
+		}
+		return clients[(next.getAndIncrement() & Integer.MAX_VALUE) % clients.length];
+	}
+
+	/**
+	 * @param index index of the client in the pool
+	 * @return number of operations of the client queued or waiting for a reply, 0 if unknown
+	 */
+	public int getOutstanding(int index) {
+		if (index >= queues.size()) {
+			return 0;
+		}
+		int outstanding = 0;
+		// the size of a linked queue is a single counter read
+		for (BlockingQueue<Operation> queue : queues.get(index)) {
+			outstanding += queue.size();
+		}
+		return outstanding;
+	}
+
+	public int size() {
+		return clients.length;
+	}
+
+	public Selection getSelection() {
+		return selection;
+	}
+
+	public void shutdown() {
+		for (MemcachedClient client : clients) {
+			try {
+				client.shutdown();
+			} catch (Exception e) {
+				log.error("Error while trying to shutdown memcached client: ", e);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "MemcachedClientPool [" + clients.length + " clients, " + selection + "]";
+	}
+
+}
@@ -18,12 +18,14 @@ package com.googlecode.memcachefy.memcached;
 import com.esotericsoftware.kryo.Kryo;
 import com.googlecode.memcachefy.Cache;
 import com.googlecode.memcachefy.CacheException;
+import com.googlecode.memcachefy.CacheLoader;
 import com.googlecode.memcachefy.CacheManager;
 import com.googlecode.memcachefy.CacheTranscoder;
+import com.googlecode.memcachefy.Ticker;
+import com.googlecode.memcachefy.Tickers;
 import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
 import net.spy.memcached.DefaultHashAlgorithm;
 import net.spy.memcached.FailureMode;
-import net.spy.memcached.MemcachedClient;
 import net.spy.memcached.spring.MemcachedClientFactoryBean;
 import org.apache.log4j.Logger;
 
@@ -38,17 +40,30 @@ import java.util.concurrent.ConcurrentHashMap;
 public class MemcachedManager implements CacheManager {
 
 	private static final Logger log = Logger.getLogger(MemcachedManager.class);
+	private static final int DEFAULT_WRITE_BEHIND_BATCH_SIZE = 100;
+	private static final long DEFAULT_WRITE_BEHIND_INTERVAL = 100;
+	private static final int DEFAULT_POOL_SIZE = 1;
 	@SuppressWarnings("rawtypes")
 	private final Map<String, Cache> cacheMap =
 			new ConcurrentHashMap<String, Cache>();
 
 	private MemcachedClientFactoryBean factory;
+	private MemcachedClientPool clients;
+	private int poolSize = DEFAULT_POOL_SIZE;
+	private MemcachedClientPool.Selection poolSelection = MemcachedClientPool.Selection.ROUND_ROBIN;
 
 	private String hosts;
 	private JAXBContext context;
 	private Kryo kryo;
 	private int defaultTtl;
 	private CacheTranscoder cacheTranscoder;
+	private int refreshAfterWrite;
+	private int writeBehindCapacity;
+	private int writeBehindBatchSize = DEFAULT_WRITE_BEHIND_BATCH_SIZE;
+	private long writeBehindInterval = DEFAULT_WRITE_BEHIND_INTERVAL;
+	private int chunkSize = Memcached.DEFAULT_CHUNK_SIZE;
+	private long generationRefreshInterval = Memcached.DEFAULT_GENERATION_REFRESH_INTERVAL;
+	private Ticker ticker = Tickers.coarse();
 
 	/**
 	 * Default no argument constructor
@@ -74,8 +89,15 @@ public class MemcachedManager implements CacheManager {
 
 		try {
 
-			final MemcachedClient client = (MemcachedClient) factory.getObject();
-			Cache<K, V> cache = new Memcached<K, V>(name, client, getDefaultTtl(), getCacheTranscoder());
+			Cache<K, V> cache = new Memcached<K, V>(name, getClients(), getDefaultTtl(), getCacheTranscoder());
+			((Memcached<K, V>) cache).setRefreshAfterWrite(getRefreshAfterWrite());
+			((Memcached<K, V>) cache).setChunkSize(getChunkSize());
+			((Memcached<K, V>) cache).setGenerationRefreshInterval(getGenerationRefreshInterval());
+			((Memcached<K, V>) cache).setTicker(getTicker());
+			if (getWriteBehindCapacity() > 0) {
+				((Memcached<K, V>) cache).enableWriteBehind(getWriteBehindCapacity(),
+						getWriteBehindBatchSize(), getWriteBehindInterval());
+			}
 			if (CacheTranscoder.JAXB.equals(getCacheTranscoder())) {
 				final JAXBTLTranscoder<CacheWrapper<V>> transcoder =
 						new JAXBTLTranscoder<CacheWrapper<V>>(getContext());
@@ -94,10 +116,35 @@ public class MemcachedManager implements CacheManager {
 		}
 	}
 
+	/**
+	 * Retrieve a cache whose entries are refreshed by the loader once they are older
+	 * than {@code refreshAfterWrite}
+	 *
+	 * @param name   cache name
+	 * @param loader loader computing the values of the cache
+	 * @return the cache registered under the name
+	 */
+	public <K, V> Cache<K, V> getCache(String name, CacheLoader<? super K, V> loader) throws CacheException {
+		final Memcached<K, V> cache = (Memcached<K, V>) this.<K, V>getCache(name);
+		cache.setCacheLoader(loader);
+		return cache;
+	}
+
 	public final void init() throws CacheException {
 
 	}
 
+	/**
+	 * @return the clients shared by all the caches, created along with the first cache
+	 * @throws Exception if a client cannot be created
+	 */
+	public synchronized MemcachedClientPool getClients() throws Exception {
+		if (clients == null) {
+			clients = new MemcachedClientPool(factory, getPoolSize(), getPoolSelection());
+		}
+		return clients;
+	}
+
 	@SuppressWarnings("rawtypes")
 	public void destroy() {
 		for (Cache cache : cacheMap.values()) {
@@ -107,6 +154,12 @@ public class MemcachedManager implements CacheManager {
 				log.error("Error while trying to close cache instance: ", e);
 			}
 		}
+		synchronized (this) {
+			if (clients != null) {
+				clients.shutdown();
+				clients = null;
+			}
+		}
 	}
 
 	public String getHosts() {
@@ -143,6 +196,111 @@ public class MemcachedManager implements CacheManager {
 		this.cacheTranscoder = cacheTranscoder;
 	}
 
+	public int getRefreshAfterWrite() {
+		return refreshAfterWrite;
+	}
+
+	/**
+	 * @param refreshAfterWrite age in seconds after which the entries of the caches having a
+	 *                          {@link CacheLoader} are reloaded in the background, 0 to disable it
+	 */
+	public void setRefreshAfterWrite(int refreshAfterWrite) {
+		this.refreshAfterWrite = refreshAfterWrite;
+	}
+
+	public int getWriteBehindCapacity() {
+		return writeBehindCapacity;
+	}
+
+	/**
+	 * @param writeBehindCapacity maximum number of keys with a pending write in the write-behind
+	 *                            queue of each cache, 0 sends the puts right away
+	 */
+	public void setWriteBehindCapacity(int writeBehindCapacity) {
+		this.writeBehindCapacity = writeBehindCapacity;
+	}
+
+	public int getWriteBehindBatchSize() {
+		return writeBehindBatchSize;
+	}
+
+	/**
+	 * @param writeBehindBatchSize number of queued writes sent in a batch
+	 */
+	public void setWriteBehindBatchSize(int writeBehindBatchSize) {
+		this.writeBehindBatchSize = writeBehindBatchSize;
+	}
+
+	public long getWriteBehindInterval() {
+		return writeBehindInterval;
+	}
+
+	/**
+	 * @param writeBehindInterval maximum time in milliseconds a queued write stays pending
+	 */
+	public void setWriteBehindInterval(long writeBehindInterval) {
+		this.writeBehindInterval = writeBehindInterval;
+	}
+
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	/**
+	 * @param poolSize number of memcached clients shared by all the caches, each with its own
+	 *                 IO thread and connections. See {@link MemcachedClientPool} about the
+	 *                 ordering of the operations with more than one client.
+	 */
+	public void setPoolSize(int poolSize) {
+		this.poolSize = poolSize;
+	}
+
+	public MemcachedClientPool.Selection getPoolSelection() {
+		return poolSelection;
+	}
+
+	/**
+	 * @param poolSelection how the client of an operation is picked from the pool
+	 */
+	public void setPoolSelection(MemcachedClientPool.Selection poolSelection) {
+		this.poolSelection = poolSelection;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * @param chunkSize encoded values larger than this size in bytes are stored as chunks,
+	 *                  0 stores them as a single item
+	 */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	public long getGenerationRefreshInterval() {
+		return generationRefreshInterval;
+	}
+
+	/**
+	 * @param generationRefreshInterval time in milliseconds each cache uses the generation of its
+	 *                                  name before reading it again, see {@link Memcached#clear()}
+	 */
+	public void setGenerationRefreshInterval(long generationRefreshInterval) {
+		this.generationRefreshInterval = generationRefreshInterval;
+	}
+
+	public Ticker getTicker() {
+		return ticker;
+	}
+
+	/**
+	 * @param ticker time source of the caches created afterwards, defaults to {@link Tickers#coarse()}
+	 */
+	public void setTicker(Ticker ticker) {
+		this.ticker = ticker;
+	}
+
 	public Kryo getKryo() {
 		return kryo;
 	}
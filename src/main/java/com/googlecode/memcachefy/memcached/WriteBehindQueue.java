@@ -0,0 +1,323 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy.memcached;
+
+import com.googlecode.memcachefy.stats.StripedCounter;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind queue of a {@link Memcached} cache. Puts return as soon as they are
+ * queued and a background thread sends them in pipelined batches, either once
+ * {@code batchSize} writes are pending or every {@code flushInterval}, waiting for a
+ * batch to complete before sending the next one so that bursts don't flood the
+ * connections.
+ * <p/>
+ * Repeated writes of a key still pending are coalesced into the latest one. The queue
+ * is bounded: when {@code capacity} keys are pending, new keys are refused and the
+ * cache sends them synchronously instead.
+ *
+ * @param <V>
+ */
+public final class WriteBehindQueue<V> {
+
+	private static final Logger log = Logger.getLogger(WriteBehindQueue.class);
+	private static final long FLUSH_TIMEOUT = 10000;
+
+	// shared by all the queues, the batches are sent without blocking on each set
+	private static final ScheduledExecutorService flusher =
+			Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					final Thread thread = new Thread(r, "memcachefy-write-behind");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	/**
+	 * Pending write
+	 */
+	static final class Write<V> {
+		final CacheWrapper<V> value;
+		final int ttl;
+
+		Write(CacheWrapper<V> value, int ttl) {
+			this.value = value;
+			this.ttl = ttl;
+		}
+	}
+
+	private final Memcached<?, V> cache;
+	private final int capacity;
+	private final int batchSize;
+	private final ConcurrentHashMap<String, Write<V>> writes = new ConcurrentHashMap<String, Write<V>>();
+	private final ConcurrentLinkedQueue<String> order = new ConcurrentLinkedQueue<String>();
+	private final AtomicInteger depth = new AtomicInteger();
+	private final StripedCounter coalesced = new StripedCounter();
+	private final StripedCounter dropped = new StripedCounter();
+	private final AtomicLong flushed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	// held while sets are issued, so that a delete or conditional write of a key is
+	// issued after the set of its pending write rather than overtaken by it
+	private final ReentrantLock issueLock = new ReentrantLock();
+	private final ReentrantLock flushLock = new ReentrantLock();
+	private final AtomicBoolean flushRequested = new AtomicBoolean();
+	private final Runnable flushTask = new Runnable() {
+		@Override
+		public void run() {
+			flushRequested.set(false);
+			flush();
+		}
+	};
+	private final ScheduledFuture<?> scheduledFlush;
+
+	/**
+	 * @param cache         the cache the writes are sent to
+	 * @param capacity      maximum number of pending keys
+	 * @param batchSize     number of writes sent in a batch
+	 * @param flushInterval maximum time in milliseconds a write stays pending
+	 */
+	WriteBehindQueue(Memcached<?, V> cache, int capacity, int batchSize, long flushInterval) {
+		if (capacity <= 0 || batchSize <= 0 || flushInterval <= 0) {
+			throw new IllegalArgumentException("Write-behind capacity, batch size and flush interval must be positive.");
+		}
+		this.cache = cache;
+		this.capacity = capacity;
+		this.batchSize = batchSize;
+		this.scheduledFlush = flusher.scheduleWithFixedDelay(flushTask, flushInterval, flushInterval,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Queue a write, replacing the one pending for the same key
+	 *
+	 * @return {@code false} if the write was refused because the queue is full
+	 */
+	boolean offer(String key, CacheWrapper<V> value, int ttl) {
+		final Write<V> write = new Write<V>(value, ttl);
+		while (true) {
+			final Write<V> pending = writes.get(key);
+			if (pending != null) {
+				if (writes.replace(key, pending, write)) {
+					coalesced.increment();
+					return true;
+				}
+				continue;
+			}
+			if (depth.get() >= capacity) {
+				dropped.increment();
+				return false;
+			}
+			if (writes.putIfAbsent(key, write) == null) {
+				order.offer(key);
+				if (depth.incrementAndGet() >= batchSize && flushRequested.compareAndSet(false, true)) {
+					try {
+						flusher.execute(flushTask);
+					} catch (RejectedExecutionException e) {
+						flushRequested.set(false);
+					}
+				}
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * @return the value of the write pending for the key, or {@code null}
+	 */
+	CacheWrapper<V> pending(String key) {
+		final Write<V> write = writes.get(key);
+		return write == null ? null : write.value;
+	}
+
+	/**
+	 * Discard the write pending for the key, superseded by a later operation
+	 */
+	void cancel(String key) {
+		issueLock.lock();
+		try {
+			if (writes.remove(key) != null) {
+				depth.decrementAndGet();
+				order.remove(key);
+			}
+		} finally {
+			issueLock.unlock();
+		}
+	}
+
+	/**
+	 * Send the write pending for the key and wait for it, before an operation that
+	 * depends on the stored entry
+	 */
+	void flush(String key) {
+		final Future<Boolean> future;
+		issueLock.lock();
+		try {
+			final Write<V> write = writes.remove(key);
+			if (write == null) {
+				return;
+			}
+			depth.decrementAndGet();
+			order.remove(key);
+			future = cache.setEntry(key, write.ttl, write.value);
+		} finally {
+			issueLock.unlock();
+		}
+		complete(future, FLUSH_TIMEOUT);
+	}
+
+	/**
+	 * Discard all the pending writes
+	 */
+	void clear() {
+		issueLock.lock();
+		try {
+			for (String key : writes.keySet()) {
+				if (writes.remove(key) != null) {
+					depth.decrementAndGet();
+				}
+			}
+			// keys queued again meanwhile keep their place
+			order.retainAll(writes.keySet());
+		} finally {
+			issueLock.unlock();
+		}
+	}
+
+	/**
+	 * Send the pending writes, batch by batch
+	 */
+	public void flush() {
+		flushLock.lock();
+		try {
+			final List<Future<Boolean>> batch = new ArrayList<Future<Boolean>>(batchSize);
+			do {
+				batch.clear();
+				issueLock.lock();
+				try {
+					String key;
+					while (batch.size() < batchSize && (key = order.poll()) != null) {
+						final Write<V> write = writes.remove(key);
+						if (write != null) {
+							depth.decrementAndGet();
+							try {
+								batch.add(cache.setEntry(key, write.ttl, write.value));
+							} catch (RuntimeException e) {
+								flushed.incrementAndGet();
+								failed.incrementAndGet();
+								log.warn("Write-behind set failed on " + cache + " for key [" + key + "]", e);
+							}
+						}
+					}
+				} finally {
+					issueLock.unlock();
+				}
+				final long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT;
+				for (Future<Boolean> future : batch) {
+					complete(future, deadline - System.currentTimeMillis());
+				}
+			} while (!batch.isEmpty());
+		} catch (Exception e) {
+			log.error("Error flushing the write-behind queue of " + cache, e);
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	/**
+	 * Stop the periodic flush and send the pending writes
+	 */
+	void close() {
+		scheduledFlush.cancel(false);
+		flush();
+	}
+
+	/**
+	 * @return number of keys with a pending write
+	 */
+	public int getQueueDepth() {
+		return depth.get();
+	}
+
+	/**
+	 * @return number of writes refused because the queue was full, and sent synchronously
+	 */
+	public long getDroppedWrites() {
+		return dropped.sum();
+	}
+
+	/**
+	 * @return number of writes replaced by a later one of the same key before being sent
+	 */
+	public long getCoalescedWrites() {
+		return coalesced.sum();
+	}
+
+	/**
+	 * @return number of writes sent to memcached
+	 */
+	public long getFlushedWrites() {
+		return flushed.get();
+	}
+
+	/**
+	 * @return number of writes sent to memcached that failed or timed out
+	 */
+	public long getFailedWrites() {
+		return failed.get();
+	}
+
+	@Override
+	public String toString() {
+		return "WriteBehindQueue{depth=" + getQueueDepth() + ", dropped=" + getDroppedWrites() +
+				", coalesced=" + getCoalescedWrites() + ", flushed=" + getFlushedWrites() +
+				", failed=" + getFailedWrites() + "}";
+	}
+
+	private void complete(Future<Boolean> future, long timeout) {
+		flushed.incrementAndGet();
+		try {
+			if (!Boolean.TRUE.equals(future.get(Math.max(timeout, 0L), TimeUnit.MILLISECONDS))) {
+				failed.incrementAndGet();
+			}
+		} catch (InterruptedException e) {
+			failed.incrementAndGet();
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			failed.incrementAndGet();
+			if (log.isDebugEnabled()) {
+				log.debug("Write-behind set failed on " + cache, e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,423 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy.near;
+
+import com.googlecode.memcachefy.AbstractCache;
+import com.googlecode.memcachefy.CacheException;
+import com.googlecode.memcachefy.VersionedValue;
+import com.googlecode.memcachefy.inmemory.InMemoryCache;
+import com.googlecode.memcachefy.stats.CacheOperation;
+import com.googlecode.memcachefy.stats.CacheStatistics;
+import com.googlecode.memcachefy.stats.CacheStatisticsImpl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Two-level cache: a bounded {@link InMemoryCache} in front of a remote cache, usually a
+ * {@link com.googlecode.memcachefy.memcached.Memcached}. The values read from the remote cache
+ * are kept locally for a short time-to-live, so that the hottest keys are served without a
+ * round trip nor decoding.
+ * <p/>
+ * Writes and removes go to the remote cache and invalidate the local entry, the next read
+ * fetching the stored value. Writes from other clients are seen once the local entry expires,
+ * or right away if they are reported through {@link #invalidate(Object)}. A value read from
+ * the remote cache is not kept locally if its key was invalidated during the read, as the
+ * value may predate the write.
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class NearCache<K, V> extends AbstractCache<K, V> {
+
+	// invalidations of the keys, striped by hash, and of all the keys
+	private static final int STAMP_STRIPES = 1024;
+
+	private final InMemoryCache<K, V> local;
+	private final AtomicLongArray invalidations = new AtomicLongArray(STAMP_STRIPES);
+	private final AtomicLong invalidatedAll = new AtomicLong();
+	private final AbstractCache<K, V> remote;
+	private final CacheStatisticsImpl cacheStatistics = new CacheStatisticsImpl();
+	private volatile int localTtl;
+
+	/**
+	 * @param local    the local cache, bounding the number of entries kept in memory
+	 * @param remote   the remote cache
+	 * @param localTtl time-to-live in seconds of the local entries
+	 */
+	public NearCache(InMemoryCache<K, V> local, AbstractCache<K, V> remote, int localTtl) {
+		if (local == null || remote == null) {
+			throw new IllegalArgumentException("Local and remote caches cannot be null.");
+		}
+		this.local = local;
+		this.remote = remote;
+		this.localTtl = localTtl;
+	}
+
+	/**
+	 * @param remote     the remote cache
+	 * @param maxEntries maximum number of entries kept in memory
+	 * @param localTtl   time-to-live in seconds of the local entries
+	 */
+	public NearCache(AbstractCache<K, V> remote, int maxEntries, int localTtl) {
+		this(new InMemoryCache<K, V>(maxEntries), remote, localTtl);
+	}
+
+	@Override
+	public V get(K key) throws CacheException {
+		final long start = cacheStatistics.startTime();
+		try {
+			V value = local.get(key);
+			if (value == null) {
+				final long stamp = stamp(key);
+				value = remote.get(key);
+				if (value != null) {
+					populate(key, value, stamp);
+				}
+			}
+			recordHit(value);
+			return value;
+		} finally {
+			cacheStatistics.recordLatency(CacheOperation.GET, start);
+		}
+	}
+
+	@Override
+	public V getAndTouch(K key, int ttl) throws CacheException {
+		final long start = cacheStatistics.startTime();
+		try {
+			// the remote entry must be touched anyway
+			final long stamp = stamp(key);
+			final V value = remote.getAndTouch(key, ttl);
+			if (value != null) {
+				populate(key, value, stamp);
+			}
+			recordHit(value);
+			return value;
+		} finally {
+			cacheStatistics.recordLatency(CacheOperation.GET_AND_TOUCH, start);
+		}
+	}
+
+	@Override
+	public V putAndGet(K key, V value) throws CacheException {
+		return putAndGet(key, value, getTtl());
+	}
+
+	@Override
+	public V putAndGet(K key, V value, int ttl) throws CacheException {
+		final long start = cacheStatistics.startTime();
+		try {
+			return remote.putAndGet(key, value, ttl);
+		} finally {
+			invalidate(key);
+			cacheStatistics.recordLatency(CacheOperation.PUT, start);
+		}
+	}
+
+	@Override
+	public void put(K key, V value) throws CacheException {
+		put(key, value, getTtl());
+	}
+
+	@Override
+	public void put(K key, V value, int ttl) throws CacheException {
+		final long start = cacheStatistics.startTime();
+		try {
+			remote.put(key, value, ttl);
+		} finally {
+			invalidate(key);
+			cacheStatistics.recordLatency(CacheOperation.PUT, start);
+		}
+	}
+
+	@Override
+	public boolean putIfAbsent(K key, V value, int ttl) throws CacheException {
+		final long start = cacheStatistics.startTime();
+		try {
+			return remote.putIfAbsent(key, value, ttl);
+		} finally {
+			invalidate(key);
+			cacheStatistics.recordLatency(CacheOperation.PUT, start);
+		}
+	}
+
+	@Override
+	public boolean replace(K key, V expected, V value, int ttl) throws CacheException {
+		final long start = cacheStatistics.startTime();
+		try {
+			return remote.replace(key, expected, value, ttl);
+		} finally {
+			invalidate(key);
+			cacheStatistics.recordLatency(CacheOperation.PUT, start);
+		}
+	}
+
+	@Override
+	public VersionedValue<V> gets(K key) throws CacheException {
+		// the versions belong to the remote cache
+		return remote.gets(key);
+	}
+
+	@Override
+	public boolean cas(K key, long version, V value, int ttl) throws CacheException {
+		final long start = cacheStatistics.startTime();
+		try {
+			return remote.cas(key, version, value, ttl);
+		} finally {
+			invalidate(key);
+			cacheStatistics.recordLatency(CacheOperation.PUT, start);
+		}
+	}
+
+	@Override
+	public long increment(K key, long delta, long initial, int ttl) throws CacheException {
+		final long start = cacheStatistics.startTime();
+		try {
+			return remote.increment(key, delta, initial, ttl);
+		} finally {
+			invalidate(key);
+			cacheStatistics.recordLatency(CacheOperation.INCREMENT, start);
+		}
+	}
+
+	@Override
+	public long decrement(K key, long delta, long initial, int ttl) throws CacheException {
+		final long start = cacheStatistics.startTime();
+		try {
+			return remote.decrement(key, delta, initial, ttl);
+		} finally {
+			invalidate(key);
+			cacheStatistics.recordLatency(CacheOperation.DECREMENT, start);
+		}
+	}
+
+	@Override
+	public V remove(K key) throws CacheException {
+		final long start = cacheStatistics.startTime();
+		try {
+			return remote.remove(key);
+		} finally {
+			invalidate(key);
+			cacheStatistics.recordLatency(CacheOperation.REMOVE, start);
+		}
+	}
+
+	@Override
+	public Map<K, V> getAll(Collection<? extends K> keys) throws CacheException {
+		final long start = cacheStatistics.startTime();
+		try {
+			final Map<K, V> values = local.getAll(keys);
+			final List<K> missing = new ArrayList<K>(keys.size() - values.size());
+			for (K key : keys) {
+				if (!values.containsKey(key)) {
+					missing.add(key);
+				}
+			}
+			if (!missing.isEmpty()) {
+				final long[] stamps = new long[missing.size()];
+				for (int i = 0; i < stamps.length; i++) {
+					stamps[i] = stamp(missing.get(i));
+				}
+				final Map<K, V> fetched = remote.getAll(missing);
+				for (int i = 0; i < stamps.length; i++) {
+					final K key = missing.get(i);
+					final V value = fetched.get(key);
+					if (value != null) {
+						populate(key, value, stamps[i]);
+					}
+				}
+				values.putAll(fetched);
+			}
+			for (K key : keys) {
+				recordHit(values.get(key));
+			}
+			return values;
+		} finally {
+			cacheStatistics.recordLatency(CacheOperation.GET_ALL, start);
+		}
+	}
+
+	@Override
+	public void putAll(Map<? extends K, ? extends V> entries, int ttl) throws CacheException {
+		final long start = cacheStatistics.startTime();
+		try {
+			remote.putAll(entries, ttl);
+		} finally {
+			invalidateKeys(entries.keySet());
+			cacheStatistics.recordLatency(CacheOperation.PUT_ALL, start);
+		}
+	}
+
+	@Override
+	public void removeAll(Collection<? extends K> keys) throws CacheException {
+		final long start = cacheStatistics.startTime();
+		try {
+			remote.removeAll(keys);
+		} finally {
+			invalidateKeys(keys);
+			cacheStatistics.recordLatency(CacheOperation.REMOVE_ALL, start);
+		}
+	}
+
+	@Override
+	public void clear() throws CacheException {
+		try {
+			remote.clear();
+		} finally {
+			invalidateAll();
+		}
+	}
+
+	@Override
+	public int size() throws CacheException {
+		return remote.size();
+	}
+
+	/**
+	 * Drop the local entry of the key, e.g. when notified that another client wrote it
+	 *
+	 * @param key the key of the entry
+	 * @throws CacheException
+	 */
+	public void invalidate(K key) throws CacheException {
+		invalidations.incrementAndGet(stripe(key));
+		local.remove(key);
+	}
+
+	/**
+	 * Drop all the local entries, the remote ones are kept
+	 *
+	 * @throws CacheException
+	 */
+	public void invalidateAll() throws CacheException {
+		invalidatedAll.incrementAndGet();
+		local.clear();
+	}
+
+	private void invalidateKeys(Collection<? extends K> keys) throws CacheException {
+		for (K key : keys) {
+			invalidations.incrementAndGet(stripe(key));
+		}
+		local.removeAll(keys);
+	}
+
+	/*
+	 * Keep a value read from the remote cache unless its key was invalidated since the
+	 * stamp was taken, before the read. Checked again once stored, as an invalidation
+	 * between the check and the put would leave the value in memory.
+	 */
+	private void populate(K key, V value, long stamp) throws CacheException {
+		if (stamp(key) != stamp) {
+			return;
+		}
+		local.put(key, value, localTtl());
+		if (stamp(key) != stamp) {
+			local.remove(key);
+		}
+	}
+
+	/*
+	 * Changes whenever the key is invalidated, or a key sharing its stripe
+	 */
+	private long stamp(K key) {
+		return invalidatedAll.get() + invalidations.get(stripe(key));
+	}
+
+	private static int stripe(Object key) {
+		final int h = key.hashCode();
+		return (h ^ (h >>> 16)) & (STAMP_STRIPES - 1);
+	}
+
+	private void recordHit(V value) {
+		if (value == null) {
+			cacheStatistics.cacheMissesInc();
+		} else {
+			cacheStatistics.cacheHitsInc();
+		}
+	}
+
+	/*
+	 * A local entry never outlives the default time-to-live of the remote ones
+	 */
+	private int localTtl() {
+		final int ttl = getTtl();
+		return ttl > 0 && ttl < localTtl ? ttl : localTtl;
+	}
+
+	/**
+	 * Statistics of both levels, a hit being a value found in either of them
+	 */
+	@Override
+	public CacheStatistics getCacheStatistics() {
+		return cacheStatistics;
+	}
+
+	/**
+	 * @return statistics of the local cache, its hits being the ones served from memory
+	 */
+	public CacheStatistics getLocalStatistics() {
+		return local.getCacheStatistics();
+	}
+
+	/**
+	 * @return statistics of the remote cache, its hits being the local misses found remotely
+	 */
+	public CacheStatistics getRemoteStatistics() {
+		return remote.getCacheStatistics();
+	}
+
+	@Override
+	public int getTtl() {
+		return remote.getTtl();
+	}
+
+	public int getLocalTtl() {
+		return localTtl;
+	}
+
+	/**
+	 * @param localTtl time-to-live in seconds of the local entries, i.e. how long a write from
+	 *                 another client may take to be seen
+	 */
+	public void setLocalTtl(int localTtl) {
+		this.localTtl = localTtl;
+	}
+
+	public InMemoryCache<K, V> getLocal() {
+		return local;
+	}
+
+	public AbstractCache<K, V> getRemote() {
+		return remote;
+	}
+
+	@Override
+	public void close() {
+		local.close();
+		remote.close();
+	}
+
+	@Override
+	public String toString() {
+		return "NearCache [" + remote + "]";
+	}
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy.near;
+
+import com.googlecode.memcachefy.AbstractCache;
+import com.googlecode.memcachefy.Cache;
+import com.googlecode.memcachefy.CacheException;
+import com.googlecode.memcachefy.CacheManager;
+import com.googlecode.memcachefy.memcached.MemcachedManager;
+import org.apache.log4j.Logger;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Near cache manager. Each named cache keeps its hottest entries in memory in front of
+ * the cache of the same name provided by the remote manager.
+ */
+public class NearCacheManager implements CacheManager {
+
+	private static final Logger log = Logger.getLogger(NearCacheManager.class);
+	private static final int DEFAULT_MAX_ENTRIES = 1000;
+	private static final int DEFAULT_LOCAL_TTL = 5;
+
+	@SuppressWarnings("rawtypes")
+	private final Map<String, NearCache> cacheMap =
+			new ConcurrentHashMap<String, NearCache>();
+
+	private final CacheManager remoteManager;
+	private int maxEntries = DEFAULT_MAX_ENTRIES;
+	private int localTtl = DEFAULT_LOCAL_TTL;
+
+	/**
+	 * @param remoteManager manager of the remote caches, usually a
+	 *                      {@link com.googlecode.memcachefy.memcached.MemcachedManager}
+	 */
+	public NearCacheManager(CacheManager remoteManager) {
+		if (remoteManager == null) {
+			throw new IllegalArgumentException("Remote cache manager cannot be null.");
+		}
+		this.remoteManager = remoteManager;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <K, V> Cache<K, V> getCache(String name) throws CacheException {
+		NearCache<K, V> cache = cacheMap.get(name);
+		if (cache == null) {
+			synchronized (cacheMap) {
+				cache = cacheMap.get(name);
+				if (cache == null) {
+					if (log.isDebugEnabled()) {
+						log.debug("Creating near cache [" + name + "] with " + getMaxEntries() + " local entries");
+					}
+					final Cache<K, V> remote = remoteManager.getCache(name);
+					if (!(remote instanceof AbstractCache)) {
+						throw new CacheException("Unsupported remote cache " + remote);
+					}
+					cache = new NearCache<K, V>((AbstractCache<K, V>) remote, getMaxEntries(), getLocalTtl());
+					cacheMap.put(name, cache);
+				}
+			}
+		}
+		return cache;
+	}
+
+	/**
+	 * Close the caches, then destroy the remote manager, which owns the connections of the
+	 * remote caches
+	 */
+	@SuppressWarnings("rawtypes")
+	public void destroy() {
+		for (NearCache cache : cacheMap.values()) {
+			try {
+				cache.close();
+			} catch (Exception e) {
+				log.error("Error while trying to close cache instance: ", e);
+			}
+		}
+		cacheMap.clear();
+		if (remoteManager instanceof MemcachedManager) {
+			((MemcachedManager) remoteManager).destroy();
+		}
+	}
+
+	public CacheManager getRemoteManager() {
+		return remoteManager;
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * @param maxEntries maximum number of entries each cache keeps in memory
+	 */
+	public void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	public int getLocalTtl() {
+		return localTtl;
+	}
+
+	/**
+	 * @param localTtl time-to-live in seconds of the entries kept in memory
+	 */
+	public void setLocalTtl(int localTtl) {
+		this.localTtl = localTtl;
+	}
+}
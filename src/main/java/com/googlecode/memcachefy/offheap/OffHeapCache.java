@@ -0,0 +1,385 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy.offheap;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.googlecode.memcachefy.AbstractCache;
+import com.googlecode.memcachefy.CacheException;
+import com.googlecode.memcachefy.Ticker;
+import com.googlecode.memcachefy.Tickers;
+import com.googlecode.memcachefy.VersionedValue;
+import com.googlecode.memcachefy.memcached.KryoSerializer;
+import com.googlecode.memcachefy.stats.CacheStatistics;
+import com.googlecode.memcachefy.stats.CacheStatisticsImpl;
+import org.apache.log4j.Logger;
+
+/**
+ * Off-heap cache implementation. Keys and values are serialized with {@link KryoSerializer}
+ * and stored outside the java heap in direct memory slabs, so that large caches don't
+ * increase the garbage collection pauses. The records never take more than the byte
+ * budget: once it is full the oldest slab of a segment is recycled, evicting its entries.
+ * The off-heap index adds 16 bytes per slot on top of it.
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class OffHeapCache<K, V> extends AbstractCache<K, V> {
+
+	private static final Logger log = Logger.getLogger(OffHeapCache.class);
+
+	private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+	private static final int DEFAULT_SLAB_SIZE = 1024 * 1024;
+	private static final int MIN_SLABS_PER_SEGMENT = 2;
+	private static final int DEFAULT_TTL = 0;
+
+	private final OffHeapSegment[] segments;
+	private final int segmentMask;
+	private final int slabSize;
+	private final long maxBytes;
+	private int ttl = DEFAULT_TTL;
+	private volatile Ticker ticker = Tickers.coarse();
+
+	private final CacheStatisticsImpl cacheStatistics;
+
+	private static final ThreadLocal<KryoSerializer<Object>> serializer =
+			new ThreadLocal<KryoSerializer<Object>>() {
+				@Override
+				protected KryoSerializer<Object> initialValue() {
+					return new KryoSerializer<Object>(new Kryo());
+				}
+			};
+
+	/**
+	 * @param maxBytes    off-heap memory budget for the serialized keys and values
+	 * @param slabSize    size of each memory slab, also the maximum size of a serialized entry
+	 * @param concurrency number of independently locked segments (rounded to a power of two)
+	 */
+	public OffHeapCache(long maxBytes, int slabSize, int concurrency) {
+		int segmentCount = 1;
+		while (segmentCount < concurrency) {
+			segmentCount <<= 1;
+		}
+		// fewer segments rather than rounding the slabs of each one over the budget
+		while (segmentCount > 1 && maxBytes / segmentCount / slabSize < MIN_SLABS_PER_SEGMENT) {
+			segmentCount >>= 1;
+		}
+		if (maxBytes / slabSize < MIN_SLABS_PER_SEGMENT) {
+			slabSize = (int) Math.max(1, maxBytes / MIN_SLABS_PER_SEGMENT);
+		}
+		final int slabs = (int) (maxBytes / segmentCount / slabSize);
+
+		this.maxBytes = maxBytes;
+		this.slabSize = slabSize;
+		this.segments = new OffHeapSegment[segmentCount];
+		this.segmentMask = segmentCount - 1;
+		for (int i = 0; i < segmentCount; i++) {
+			segments[i] = new OffHeapSegment(slabSize, slabs);
+		}
+		this.cacheStatistics = new CacheStatisticsImpl();
+	}
+
+	public OffHeapCache(long maxBytes) {
+		this(maxBytes, (int) Math.min(DEFAULT_SLAB_SIZE, Math.max(maxBytes / 64, 4096)),
+				Runtime.getRuntime().availableProcessors() * 2);
+	}
+
+	public OffHeapCache() {
+		this(DEFAULT_MAX_BYTES);
+	}
+
+	@Override
+	public V get(K key) throws CacheException {
+		return read(key, -1L);
+	}
+
+	@Override
+	public V getAndTouch(K key, int ttl) throws CacheException {
+		return read(key, ttl > 0 ? expireAt(ticker.read(), ttl) : -1L);
+	}
+
+	@Override
+	public V putAndGet(K key, V value) throws CacheException {
+		return putAndGet(key, value, getTtl());
+	}
+
+	@Override
+	public V putAndGet(K key, V value, int ttl) throws CacheException {
+		return write(key, value, ttl, true);
+	}
+
+	@Override
+	public void put(K key, V value) throws CacheException {
+		put(key, value, getTtl());
+	}
+
+	@Override
+	public void put(K key, V value, int ttl) throws CacheException {
+		write(key, value, ttl, false);
+	}
+
+	@Override
+	public boolean putIfAbsent(K key, V value, int ttl) throws CacheException {
+		final byte[] keyBytes = encodeKey(key);
+		final long hash = hash(keyBytes);
+		final OffHeapSegment segment = segmentFor(hash);
+		segment.lock().lock();
+		try {
+			if (segment.version(hash, keyBytes, ticker.read()) != 0L) {
+				return false;
+			}
+			write(key, keyBytes, value, ttl, false);
+			return true;
+		} finally {
+			segment.lock().unlock();
+		}
+	}
+
+	@Override
+	public boolean replace(K key, V expected, V value, int ttl) throws CacheException {
+		final byte[] keyBytes = encodeKey(key);
+		final long hash = hash(keyBytes);
+		final OffHeapSegment segment = segmentFor(hash);
+		segment.lock().lock();
+		try {
+			final V current = decode(segment.get(hash, keyBytes, ticker.read(), -1L));
+			if (current == null || !current.equals(expected)) {
+				return false;
+			}
+			write(key, keyBytes, value, ttl, false);
+			return true;
+		} finally {
+			segment.lock().unlock();
+		}
+	}
+
+	@Override
+	public VersionedValue<V> gets(K key) throws CacheException {
+		final byte[] keyBytes = encodeKey(key);
+		final long hash = hash(keyBytes);
+		final OffHeapSegment segment = segmentFor(hash);
+		final long now = ticker.read();
+		final byte[] data;
+		final long version;
+		segment.lock().lock();
+		try {
+			data = segment.get(hash, keyBytes, now, -1L);
+			version = segment.version(hash, keyBytes, now);
+		} finally {
+			segment.lock().unlock();
+		}
+		if (data == null) {
+			cacheStatistics.cacheMissesInc();
+			return null;
+		}
+		cacheStatistics.cacheHitsInc();
+		return new VersionedValue<V>(decode(data), version);
+	}
+
+	@Override
+	public boolean cas(K key, long version, V value, int ttl) throws CacheException {
+		final byte[] keyBytes = encodeKey(key);
+		final long hash = hash(keyBytes);
+		final OffHeapSegment segment = segmentFor(hash);
+		segment.lock().lock();
+		try {
+			final long current = segment.version(hash, keyBytes, ticker.read());
+			if (current == 0L || current != version) {
+				return false;
+			}
+			write(key, keyBytes, value, ttl, false);
+			return true;
+		} finally {
+			segment.lock().unlock();
+		}
+	}
+
+	@Override
+	protected boolean casCounter(K key, long version, V value) throws CacheException {
+		final byte[] keyBytes = encodeKey(key);
+		final long hash = hash(keyBytes);
+		final OffHeapSegment segment = segmentFor(hash);
+		segment.lock().lock();
+		try {
+			final long now = ticker.read();
+			final long current = segment.version(hash, keyBytes, now);
+			if (current == 0L || current != version) {
+				return false;
+			}
+			writeUntil(key, keyBytes, value, segment.expireAt(hash, keyBytes, now), false);
+			return true;
+		} finally {
+			segment.lock().unlock();
+		}
+	}
+
+	@Override
+	public V remove(K key) throws CacheException {
+		final byte[] keyBytes = encodeKey(key);
+		final long hash = hash(keyBytes);
+		return decode(segmentFor(hash).remove(hash, keyBytes, ticker.read(), true));
+	}
+
+	@Override
+	public void clear() throws CacheException {
+		for (OffHeapSegment segment : segments) {
+			segment.clear();
+		}
+	}
+
+	@Override
+	public int size() throws CacheException {
+		int size = 0;
+		for (OffHeapSegment segment : segments) {
+			size += segment.size();
+		}
+		return size;
+	}
+
+	@Override
+	public CacheStatistics getCacheStatistics() {
+		return cacheStatistics;
+	}
+
+	@Override
+	public void close() {
+		for (OffHeapSegment segment : segments) {
+			segment.close();
+		}
+	}
+
+	/**
+	 * @return bytes allocated off heap for the records, never more than {@link #getMaxBytes()}
+	 */
+	public long getAllocatedBytes() {
+		long bytes = 0;
+		for (OffHeapSegment segment : segments) {
+			bytes += segment.allocatedBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return bytes allocated off heap for the hash index, on top of the records
+	 */
+	public long getIndexBytes() {
+		long bytes = 0;
+		for (OffHeapSegment segment : segments) {
+			bytes += segment.indexBytes();
+		}
+		return bytes;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public int getTtl() {
+		return ttl;
+	}
+
+	public void setTtl(int ttl) {
+		this.ttl = ttl;
+	}
+
+	public Ticker getTicker() {
+		return ticker;
+	}
+
+	/**
+	 * @param ticker time source of the expiration of the entries, defaults to {@link Tickers#coarse()}
+	 */
+	public void setTicker(Ticker ticker) {
+		this.ticker = ticker;
+	}
+
+	private V read(K key, long expireAt) throws CacheException {
+		final byte[] keyBytes = encodeKey(key);
+		final long hash = hash(keyBytes);
+		final byte[] data = segmentFor(hash).get(hash, keyBytes, ticker.read(), expireAt);
+		if (data == null) {
+			cacheStatistics.cacheMissesInc();
+			return null;
+		}
+		cacheStatistics.cacheHitsInc();
+		return decode(data);
+	}
+
+	private V write(K key, V value, int ttl, boolean returnPrevious) throws CacheException {
+		return write(key, encodeKey(key), value, ttl, returnPrevious);
+	}
+
+	private V write(K key, byte[] keyBytes, V value, int ttl, boolean returnPrevious) throws CacheException {
+		return writeUntil(key, keyBytes, value, expireAt(ticker.read(), ttl), returnPrevious);
+	}
+
+	private V writeUntil(K key, byte[] keyBytes, V value, long expireAt, boolean returnPrevious)
+			throws CacheException {
+		final byte[] valueBytes = serializer.get().encodeObject(value);
+		if (valueBytes == null) {
+			throw new CacheException("Failed to serialize value for key [" + key + "]");
+		}
+		final long hash = hash(keyBytes);
+		final OffHeapSegment segment = segmentFor(hash);
+		final long now = ticker.read();
+		if (OffHeapSegment.RECORD_HEADER + keyBytes.length + valueBytes.length > slabSize) {
+			log.warn("Entry for key [" + key + "] is larger than the slab size (" + slabSize +
+					" bytes) and won't be cached.");
+			return decode(segment.remove(hash, keyBytes, now, returnPrevious));
+		}
+		return decode(segment.put(hash, keyBytes, valueBytes, expireAt, now, returnPrevious));
+	}
+
+	private byte[] encodeKey(K key) throws CacheException {
+		if (key == null) {
+			throw new IllegalArgumentException("Key argument cannot be null.");
+		}
+		final byte[] bytes = serializer.get().encodeBytes(key);
+		if (bytes == null) {
+			throw new CacheException("Failed to serialize key [" + key + "]");
+		}
+		return bytes;
+	}
+
+	@SuppressWarnings("unchecked")
+	private V decode(byte[] data) {
+		return data == null ? null : (V) serializer.get().decodeObject(data);
+	}
+
+	private OffHeapSegment segmentFor(long hash) {
+		return segments[(int) (hash >>> 32) & segmentMask];
+	}
+
+	private static long expireAt(long now, int ttl) {
+		return ttl > 0 ? now + ttl * 1000L : 0L;
+	}
+
+	/*
+	 * 64-bit FNV-1a with a final avalanche, the low bits select the index slot
+	 * and the high bits the segment
+	 */
+	private static long hash(byte[] data) {
+		long hash = 0xcbf29ce484222325L;
+		for (byte b : data) {
+			hash ^= b & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+}
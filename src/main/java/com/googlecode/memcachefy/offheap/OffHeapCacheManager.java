@@ -0,0 +1,89 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy.offheap;
+
+import com.googlecode.memcachefy.Cache;
+import com.googlecode.memcachefy.CacheException;
+import com.googlecode.memcachefy.CacheManager;
+import org.apache.log4j.Logger;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Off-heap cache manager. Each named cache gets its own memory budget of {@code maxBytes}.
+ */
+public class OffHeapCacheManager implements CacheManager {
+
+	private static final Logger log = Logger.getLogger(OffHeapCacheManager.class);
+	private static final int DEFAULT_TTL = 600;
+	private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+	@SuppressWarnings("rawtypes")
+	private final Map<String, OffHeapCache> cacheMap =
+			new ConcurrentHashMap<String, OffHeapCache>();
+
+	private long maxBytes = DEFAULT_MAX_BYTES;
+	private int ttl = DEFAULT_TTL;
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <K, V> Cache<K, V> getCache(String name) throws CacheException {
+		OffHeapCache<K, V> cache = cacheMap.get(name);
+		if (cache == null) {
+			synchronized (cacheMap) {
+				cache = cacheMap.get(name);
+				if (cache == null) {
+					if (log.isDebugEnabled()) {
+						log.debug("Allocating off-heap cache [" + name + "] with " + getMaxBytes() + " bytes");
+					}
+					cache = new OffHeapCache<K, V>(getMaxBytes());
+					cache.setTtl(getTtl());
+					cacheMap.put(name, cache);
+				}
+			}
+		}
+		return cache;
+	}
+
+	@SuppressWarnings("rawtypes")
+	public void destroy() {
+		for (OffHeapCache cache : cacheMap.values()) {
+			try {
+				cache.close();
+			} catch (Exception e) {
+				log.error("Error while trying to close cache instance: ", e);
+			}
+		}
+		cacheMap.clear();
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	public int getTtl() {
+		return ttl;
+	}
+
+	public void setTtl(int ttl) {
+		this.ttl = ttl;
+	}
+}
@@ -0,0 +1,448 @@
+/*
+ * Copyright 2012 neppo.com.br. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.memcachefy.offheap;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A segment of the off-heap cache. Records are appended to a ring of direct
+ * {@link ByteBuffer} slabs and located through an open-addressing hash index that
+ * also lives off heap. When the ring is full the oldest slab is recycled, which
+ * evicts all the records it holds, so memory never exceeds the segment budget.
+ * <p/>
+ * Record layout: {@code [int length][long hash][long expireAt][int keyLength][int valueLength][key][value]}
+ * <br/>
+ * Index slot layout: {@code [long hash][long address]} where address is
+ * {@code (slab << 32 | offset) + 1} and zero marks an empty slot.
+ */
+final class OffHeapSegment {
+
+	static final int RECORD_HEADER = 28;
+
+	private static final int INDEX_SLOT = 16;
+	private static final int INITIAL_INDEX_CAPACITY = 1024;
+	private static final float INDEX_LOAD_FACTOR = 0.75f;
+
+	private static final int LENGTH_OFFSET = 0;
+	private static final int HASH_OFFSET = 4;
+	private static final int EXPIRE_OFFSET = 12;
+	private static final int KEY_LENGTH_OFFSET = 20;
+	private static final int VALUE_LENGTH_OFFSET = 24;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final int slabSize;
+	private final ByteBuffer[] slabs;
+	private final int[] slabPositions;
+	private int currentSlab;
+
+	private ByteBuffer index;
+	private int indexMask;
+	private int count;
+
+	OffHeapSegment(int slabSize, int slabCount) {
+		this.slabSize = slabSize;
+		this.slabs = new ByteBuffer[slabCount];
+		this.slabPositions = new int[slabCount];
+		initIndex(INITIAL_INDEX_CAPACITY);
+	}
+
+	/**
+	 * Read the value bytes stored under the key
+	 *
+	 * @param hash     key hash
+	 * @param key      serialized key
+	 * @param now      current time in milliseconds
+	 * @param expireAt new expiration time to be set if the entry is found, or -1 to keep the current one
+	 * @return the value bytes, or {@code null} if there is no live entry for the key
+	 */
+	byte[] get(long hash, byte[] key, long now, long expireAt) {
+		lock.lock();
+		try {
+			final int slot = find(hash, key);
+			if (slot < 0) {
+				return null;
+			}
+			final long address = addressAt(slot);
+			if (isExpired(address, now)) {
+				delete(slot);
+				return null;
+			}
+			if (expireAt >= 0) {
+				slab(address).putLong(offset(address) + EXPIRE_OFFSET, expireAt);
+			}
+			return readValue(address);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Version of the entry stored under the key, derived from the address of its record:
+	 * every write appends a new record, so the version changes unless the slab ring
+	 * wrapped around to the very same offset in between.
+	 *
+	 * @param hash key hash
+	 * @param key  serialized key
+	 * @param now  current time in milliseconds
+	 * @return the version, or 0 if there is no live entry for the key
+	 */
+	long version(long hash, byte[] key, long now) {
+		lock.lock();
+		try {
+			final int slot = find(hash, key);
+			if (slot < 0) {
+				return 0L;
+			}
+			final long address = addressAt(slot);
+			return isExpired(address, now) ? 0L : address + 1;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Expiration time of the entry stored under the key
+	 *
+	 * @param hash key hash
+	 * @param key  serialized key
+	 * @param now  current time in milliseconds
+	 * @return the expiration time, 0 if the entry never expires or -1 if there is no live entry for the key
+	 */
+	long expireAt(long hash, byte[] key, long now) {
+		lock.lock();
+		try {
+			final int slot = find(hash, key);
+			if (slot < 0) {
+				return -1L;
+			}
+			final long address = addressAt(slot);
+			return isExpired(address, now) ? -1L : slab(address).getLong(offset(address) + EXPIRE_OFFSET);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the lock of the segment, reentrant so that several operations can be
+	 *         made atomic by holding it around them
+	 */
+	ReentrantLock lock() {
+		return lock;
+	}
+
+	/**
+	 * Store the record, replacing any previous entry for the same key
+	 *
+	 * @param hash           key hash
+	 * @param key            serialized key
+	 * @param value          serialized value
+	 * @param expireAt       expiration time, 0 for entries that never expire
+	 * @param now            current time in milliseconds
+	 * @param returnPrevious whether the bytes of the previous value should be returned
+	 * @return the previous value bytes when requested, {@code null} otherwise
+	 */
+	byte[] put(long hash, byte[] key, byte[] value, long expireAt, long now, boolean returnPrevious) {
+		final int length = RECORD_HEADER + key.length + value.length;
+		lock.lock();
+		try {
+			byte[] previous = null;
+			int slot = find(hash, key);
+			if (slot >= 0) {
+				final long previousAddress = addressAt(slot);
+				if (returnPrevious && !isExpired(previousAddress, now)) {
+					previous = readValue(previousAddress);
+				}
+				delete(slot);
+			}
+			final long address = allocate(length);
+			final ByteBuffer slab = slab(address);
+			final int offset = offset(address);
+			slab.putInt(offset + LENGTH_OFFSET, length);
+			slab.putLong(offset + HASH_OFFSET, hash);
+			slab.putLong(offset + EXPIRE_OFFSET, expireAt);
+			slab.putInt(offset + KEY_LENGTH_OFFSET, key.length);
+			slab.putInt(offset + VALUE_LENGTH_OFFSET, value.length);
+			final ByteBuffer view = slab.duplicate();
+			view.position(offset + RECORD_HEADER);
+			view.put(key);
+			view.put(value);
+			insert(hash, address);
+			return previous;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Remove the entry stored under the key
+	 *
+	 * @param hash           key hash
+	 * @param key            serialized key
+	 * @param now            current time in milliseconds
+	 * @param returnPrevious whether the bytes of the previous value should be returned
+	 * @return the previous value bytes when requested, {@code null} otherwise
+	 */
+	byte[] remove(long hash, byte[] key, long now, boolean returnPrevious) {
+		lock.lock();
+		try {
+			final int slot = find(hash, key);
+			if (slot < 0) {
+				return null;
+			}
+			final long address = addressAt(slot);
+			final byte[] previous = returnPrevious && !isExpired(address, now) ? readValue(address) : null;
+			delete(slot);
+			return previous;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void clear() {
+		lock.lock();
+		try {
+			for (int i = 0; i < slabPositions.length; i++) {
+				slabPositions[i] = 0;
+			}
+			currentSlab = 0;
+			initIndex(INITIAL_INDEX_CAPACITY);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Release the off-heap memory
+	 */
+	void close() {
+		lock.lock();
+		try {
+			clear();
+			for (int i = 0; i < slabs.length; i++) {
+				slabs[i] = null;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	int size() {
+		lock.lock();
+		try {
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of bytes currently allocated off heap by the slabs of this segment
+	 */
+	long allocatedBytes() {
+		lock.lock();
+		try {
+			long bytes = 0;
+			for (ByteBuffer slab : slabs) {
+				if (slab != null) {
+					bytes += slab.capacity();
+				}
+			}
+			return bytes;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of bytes currently allocated off heap by the index of this segment
+	 */
+	long indexBytes() {
+		lock.lock();
+		try {
+			return index.capacity();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * Reserve room for a record, recycling the oldest slab when the current one is full
+	 */
+	private long allocate(int length) {
+		if (slabPositions[currentSlab] + length > slabSize) {
+			currentSlab = (currentSlab + 1) % slabs.length;
+			evictSlab(currentSlab);
+		}
+		if (slabs[currentSlab] == null) {
+			slabs[currentSlab] = ByteBuffer.allocateDirect(slabSize);
+		}
+		final int offset = slabPositions[currentSlab];
+		slabPositions[currentSlab] += length;
+		return ((long) currentSlab << 32) | offset;
+	}
+
+	/*
+	 * Drop the index entries of the live records stored in the slab and reset it
+	 */
+	private void evictSlab(int slabIndex) {
+		final ByteBuffer slab = slabs[slabIndex];
+		final int limit = slabPositions[slabIndex];
+		int offset = 0;
+		while (offset < limit) {
+			final long address = ((long) slabIndex << 32) | offset;
+			final int slot = findAddress(slab.getLong(offset + HASH_OFFSET), address);
+			if (slot >= 0) {
+				delete(slot);
+			}
+			offset += slab.getInt(offset + LENGTH_OFFSET);
+		}
+		slabPositions[slabIndex] = 0;
+	}
+
+	private boolean isExpired(long address, long now) {
+		final long expireAt = slab(address).getLong(offset(address) + EXPIRE_OFFSET);
+		return expireAt > 0 && now - expireAt >= 0;
+	}
+
+	private byte[] readValue(long address) {
+		final ByteBuffer slab = slab(address);
+		final int offset = offset(address);
+		final int keyLength = slab.getInt(offset + KEY_LENGTH_OFFSET);
+		final byte[] value = new byte[slab.getInt(offset + VALUE_LENGTH_OFFSET)];
+		final ByteBuffer view = slab.duplicate();
+		view.position(offset + RECORD_HEADER + keyLength);
+		view.get(value);
+		return value;
+	}
+
+	private boolean keyEquals(long address, byte[] key) {
+		final ByteBuffer slab = slab(address);
+		final int offset = offset(address);
+		if (slab.getInt(offset + KEY_LENGTH_OFFSET) != key.length) {
+			return false;
+		}
+		final int start = offset + RECORD_HEADER;
+		for (int i = 0; i < key.length; i++) {
+			if (slab.get(start + i) != key[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private ByteBuffer slab(long address) {
+		return slabs[(int) (address >>> 32)];
+	}
+
+	private static int offset(long address) {
+		return (int) address;
+	}
+
+	// ---- off-heap open-addressing index
+
+	private void initIndex(int capacity) {
+		index = ByteBuffer.allocateDirect(capacity * INDEX_SLOT);
+		indexMask = capacity - 1;
+		count = 0;
+	}
+
+	private int find(long hash, byte[] key) {
+		int slot = (int) hash & indexMask;
+		while (true) {
+			final long stored = index.getLong(slot * INDEX_SLOT + 8);
+			if (stored == 0L) {
+				return -1;
+			}
+			if (index.getLong(slot * INDEX_SLOT) == hash && keyEquals(stored - 1, key)) {
+				return slot;
+			}
+			slot = (slot + 1) & indexMask;
+		}
+	}
+
+	private int findAddress(long hash, long address) {
+		int slot = (int) hash & indexMask;
+		while (true) {
+			final long stored = index.getLong(slot * INDEX_SLOT + 8);
+			if (stored == 0L) {
+				return -1;
+			}
+			if (stored - 1 == address) {
+				return slot;
+			}
+			slot = (slot + 1) & indexMask;
+		}
+	}
+
+	private long addressAt(int slot) {
+		return index.getLong(slot * INDEX_SLOT + 8) - 1;
+	}
+
+	private void insert(long hash, long address) {
+		if (count + 1 > (indexMask + 1) * INDEX_LOAD_FACTOR) {
+			resizeIndex();
+		}
+		int slot = (int) hash & indexMask;
+		while (index.getLong(slot * INDEX_SLOT + 8) != 0L) {
+			slot = (slot + 1) & indexMask;
+		}
+		index.putLong(slot * INDEX_SLOT, hash);
+		index.putLong(slot * INDEX_SLOT + 8, address + 1);
+		count++;
+	}
+
+	/*
+	 * Backward shift deletion, keeps the probe sequences free of tombstones
+	 */
+	private void delete(int slot) {
+		int hole = slot;
+		int next = slot;
+		while (true) {
+			next = (next + 1) & indexMask;
+			final long stored = index.getLong(next * INDEX_SLOT + 8);
+			if (stored == 0L) {
+				break;
+			}
+			final long hash = index.getLong(next * INDEX_SLOT);
+			final int ideal = (int) hash & indexMask;
+			final boolean movable = hole <= next ?
+					ideal <= hole || ideal > next :
+					ideal <= hole && ideal > next;
+			if (movable) {
+				index.putLong(hole * INDEX_SLOT, hash);
+				index.putLong(hole * INDEX_SLOT + 8, stored);
+				hole = next;
+			}
+		}
+		index.putLong(hole * INDEX_SLOT, 0L);
+		index.putLong(hole * INDEX_SLOT + 8, 0L);
+		count--;
+	}
+
+	private void resizeIndex() {
+		final ByteBuffer old = index;
+		final int oldCapacity = indexMask + 1;
+		initIndex(oldCapacity << 1);
+		for (int i = 0; i < oldCapacity; i++) {
+			final long stored = old.getLong(i * INDEX_SLOT + 8);
+			if (stored != 0L) {
+				insert(old.getLong(i * INDEX_SLOT), stored - 1);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,8 @@
+package com.googlecode.memcachefy.stats;
+
+/**
+ * Cache operations whose latency is recorded in the {@link CacheStatistics}
+ */
+public enum CacheOperation {
+	GET, GET_AND_TOUCH, PUT, REMOVE, GET_ALL, PUT_ALL, REMOVE_ALL, INCREMENT, DECREMENT
+}
@@ -20,4 +20,11 @@ public interface CacheStatistics {
 	 */
 	public long getCacheMisses();
 
+	/**
+	 * Latencies of an operation since the cache creation
+	 * @param operation the cache operation
+	 * @return latency percentiles of the operation
+	 */
+	public LatencySnapshot getLatency(CacheOperation operation);
+
 }
@@ -1,32 +1,127 @@
 package com.googlecode.memcachefy.stats;
 
-import java.util.concurrent.atomic.AtomicLong;
-
 /**
- * Cache statisticss default implementation
+ * Cache statisticss default implementation. The counters are striped, so that
+ * the threads recording hits and misses don't contend on a single value.
+ * The latency of each {@link CacheOperation} is recorded in a {@link LatencyHistogram}:
+ * <pre>
+ * final long start = statistics.startTime();
+ * ...
+ * statistics.recordLatency(CacheOperation.GET, start);
+ * </pre>
  *
  * @author bhlangonijr
  */
 public class CacheStatisticsImpl implements  CacheStatistics {
 
-	private final AtomicLong cacheHits = new AtomicLong(0);
-	private final AtomicLong cacheMisses = new AtomicLong(0);
+	private final StripedCounter cacheHits = new StripedCounter();
+	private final StripedCounter cacheMisses = new StripedCounter();
+	private final LatencyHistogram[] latencies = new LatencyHistogram[CacheOperation.values().length];
+	private volatile boolean recordingLatency = true;
+
+	public CacheStatisticsImpl() {
+		for (int i = 0; i < latencies.length; i++) {
+			latencies[i] = new LatencyHistogram();
+		}
+	}
+
+	public void cacheHitsInc() {
+		cacheHits.increment();
+	}
+
+	public void cacheMissesInc() {
+		cacheMisses.increment();
+	}
 
+	/**
+	 * @deprecated summing the counter is costly, use {@link #cacheHitsInc()}
+	 */
+	@Deprecated
 	public long cacheHitsIncAndGet() {
-		return cacheHits.incrementAndGet();
+		cacheHits.increment();
+		return cacheHits.sum();
 	}
 
+	/**
+	 * @deprecated summing the counter is costly, use {@link #cacheMissesInc()}
+	 */
+	@Deprecated
 	public long cacheMissesIncAndGet() {
-		return cacheMisses.incrementAndGet();
+		cacheMisses.increment();
+		return cacheMisses.sum();
 	}
 
 	@Override
 	public long getCacheHits() {
-		return cacheHits.get();
+		return cacheHits.sum();
 	}
 
 	@Override
 	public long getCacheMisses() {
-		return cacheMisses.get();
+		return cacheMisses.sum();
+	}
+
+	/**
+	 * @return start time in nanoseconds of an operation, or 0 if latencies are not recorded
+	 */
+	public long startTime() {
+		return recordingLatency ? System.nanoTime() : 0L;
+	}
+
+	/**
+	 * Record the latency of an operation
+	 *
+	 * @param operation the cache operation
+	 * @param startTime value returned by {@link #startTime()} when the operation started
+	 */
+	public void recordLatency(CacheOperation operation, long startTime) {
+		if (startTime != 0L) {
+			latencies[operation.ordinal()].record(System.nanoTime() - startTime);
+		}
+	}
+
+	/**
+	 * @param operation the cache operation
+	 * @return the histogram of the operation, see {@link LatencyHistogram#snapshotAndReset()}
+	 *         to monitor the latencies over time intervals
+	 */
+	public LatencyHistogram getLatencyHistogram(CacheOperation operation) {
+		return latencies[operation.ordinal()];
+	}
+
+	@Override
+	public LatencySnapshot getLatency(CacheOperation operation) {
+		return latencies[operation.ordinal()].snapshot();
+	}
+
+	public boolean isRecordingLatency() {
+		return recordingLatency;
+	}
+
+	/**
+	 * @param recordingLatency whether latencies are recorded, which costs two clock reads per operation
+	 */
+	public void setRecordingLatency(boolean recordingLatency) {
+		this.recordingLatency = recordingLatency;
+	}
+
+	/**
+	 * Consistent copy of the statistics, the counters are summed once when it is taken
+	 * @return an immutable snapshot of the current statistics
+	 */
+	public CacheStatisticsSnapshot snapshot() {
+		final LatencySnapshot[] snapshots = new LatencySnapshot[latencies.length];
+		for (int i = 0; i < latencies.length; i++) {
+			snapshots[i] = latencies[i].snapshot();
+		}
+		return new CacheStatisticsSnapshot(getCacheHits(), getCacheMisses(), snapshots);
+	}
+
+	/**
+	 * Reset the counters to zero
+	 */
+	public void reset() {
+		cacheHits.reset();
+		cacheMisses.reset();
 	}
 }
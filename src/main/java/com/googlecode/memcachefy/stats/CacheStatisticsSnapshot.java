@@ -0,0 +1,89 @@
+package com.googlecode.memcachefy.stats;
+
+/**
+ * Immutable snapshot of {@link CacheStatistics}
+ */
+public final class CacheStatisticsSnapshot implements CacheStatistics {
+
+	private final long cacheHits;
+	private final long cacheMisses;
+	private final LatencySnapshot[] latencies;
+
+	/**
+	 * @param cacheHits   number of hits
+	 * @param cacheMisses number of misses
+	 * @param latencies   latencies indexed by {@link CacheOperation} ordinal
+	 */
+	public CacheStatisticsSnapshot(long cacheHits, long cacheMisses, LatencySnapshot[] latencies) {
+		this.cacheHits = cacheHits;
+		this.cacheMisses = cacheMisses;
+		this.latencies = latencies.clone();
+	}
+
+	public CacheStatisticsSnapshot(long cacheHits, long cacheMisses) {
+		this(cacheHits, cacheMisses, new LatencySnapshot[0]);
+	}
+
+	@Override
+	public long getCacheHits() {
+		return cacheHits;
+	}
+
+	@Override
+	public long getCacheMisses() {
+		return cacheMisses;
+	}
+
+	/**
+	 * @return number of queries to the cache
+	 */
+	public long getRequestCount() {
+		return cacheHits + cacheMisses;
+	}
+
+	/**
+	 * @return ratio of the queries that were hits, 1 if there was no query
+	 */
+	public double getHitRatio() {
+		final long requests = getRequestCount();
+		return requests == 0 ? 1.0 : (double) cacheHits / requests;
+	}
+
+	@Override
+	public LatencySnapshot getLatency(CacheOperation operation) {
+		return operation.ordinal() < latencies.length ? latencies[operation.ordinal()] : LatencySnapshot.EMPTY;
+	}
+
+	/**
+	 * @param statistics statistics of a cache
+	 * @return an immutable snapshot of the statistics, taken once for the striped ones
+	 */
+	public static CacheStatisticsSnapshot of(CacheStatistics statistics) {
+		if (statistics instanceof CacheStatisticsSnapshot) {
+			return (CacheStatisticsSnapshot) statistics;
+		}
+		if (statistics instanceof CacheStatisticsImpl) {
+			return ((CacheStatisticsImpl) statistics).snapshot();
+		}
+		final CacheOperation[] operations = CacheOperation.values();
+		final LatencySnapshot[] latencies = new LatencySnapshot[operations.length];
+		for (CacheOperation operation : operations) {
+			latencies[operation.ordinal()] = statistics.getLatency(operation);
+		}
+		return new CacheStatisticsSnapshot(statistics.getCacheHits(), statistics.getCacheMisses(), latencies);
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder builder = new StringBuilder("CacheStatistics [cacheHits=").append(cacheHits)
+				.append(", cacheMisses=").append(cacheMisses);
+		for (CacheOperation operation : CacheOperation.values()) {
+			final LatencySnapshot latency = getLatency(operation);
+			if (latency.getCount() > 0) {
+				builder.append(", ").append(operation).append('=').append(latency);
+			}
+		}
+		return builder.append(']').toString();
+	}
+
+}
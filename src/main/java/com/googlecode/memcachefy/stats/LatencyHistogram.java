@@ -0,0 +1,157 @@
+package com.googlecode.memcachefy.stats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size log-linear histogram of latencies in nanoseconds. Each power of two is split
+ * in 16 linear buckets, so a recorded value is known within 1/16 (6%) of itself, from one
+ * nanosecond up to centuries, in 960 counters. Recording is a single atomic update and
+ * doesn't allocate: once two threads collide on a counter, the histogram is striped like
+ * {@link StripedCounter}, each thread mostly recording into its own copy of the counters.
+ * <p/>
+ * {@link #snapshotAndReset()} gives the latencies recorded since its previous call, to
+ * monitor a time interval without losing the values recorded concurrently.
+ */
+public final class LatencyHistogram {
+
+	static final int SUB_BUCKET_BITS = 4;
+	static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	// the counts of a stripe are followed by its max and its interval max
+	private static final int MAX = BUCKETS;
+	private static final int INTERVAL_MAX = BUCKETS + 1;
+	private static final int STRIPE_LENGTH = BUCKETS + 2;
+
+	private final AtomicLongArray base = new AtomicLongArray(STRIPE_LENGTH);
+	private volatile AtomicLongArray[] stripes;
+
+	// guarded by this, cumulative counts at the previous interval snapshot
+	private final long[] intervalStart = new long[BUCKETS];
+
+	/**
+	 * @param nanos latency in nanoseconds, negative values are recorded as zero
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		final int bucket = bucket(nanos);
+		AtomicLongArray[] ss = stripes;
+		if (ss == null) {
+			final long count = base.get(bucket);
+			if (base.compareAndSet(bucket, count, count + 1)) {
+				updateMax(base, nanos);
+				return;
+			}
+			ss = initStripes();
+		}
+		final int[] probe = StripedCounter.threadProbe();
+		final AtomicLongArray stripe = ss[probe[0] & (ss.length - 1)];
+		final long count = stripe.get(bucket);
+		if (!stripe.compareAndSet(bucket, count, count + 1)) {
+			// collided with another thread, move to another stripe next time
+			probe[0] = StripedCounter.rehash(probe[0]);
+			stripe.incrementAndGet(bucket);
+		}
+		updateMax(stripe, nanos);
+	}
+
+	/**
+	 * @return the latencies recorded since the creation of the histogram
+	 */
+	public LatencySnapshot snapshot() {
+		final long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = count(i);
+		}
+		long max = base.get(MAX);
+		final AtomicLongArray[] ss = stripes;
+		if (ss != null) {
+			for (AtomicLongArray stripe : ss) {
+				max = Math.max(max, stripe.get(MAX));
+			}
+		}
+		return new LatencySnapshot(snapshot, max);
+	}
+
+	/**
+	 * @return the latencies recorded since the previous call, or since the creation of
+	 *         the histogram for the first call
+	 */
+	public synchronized LatencySnapshot snapshotAndReset() {
+		final long[] interval = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			final long count = count(i);
+			interval[i] = count - intervalStart[i];
+			intervalStart[i] = count;
+		}
+		long intervalMax = base.getAndSet(INTERVAL_MAX, 0L);
+		final AtomicLongArray[] ss = stripes;
+		if (ss != null) {
+			for (AtomicLongArray stripe : ss) {
+				intervalMax = Math.max(intervalMax, stripe.getAndSet(INTERVAL_MAX, 0L));
+			}
+		}
+		return new LatencySnapshot(interval, intervalMax);
+	}
+
+	private long count(int bucket) {
+		long count = base.get(bucket);
+		final AtomicLongArray[] ss = stripes;
+		if (ss != null) {
+			for (AtomicLongArray stripe : ss) {
+				count += stripe.get(bucket);
+			}
+		}
+		return count;
+	}
+
+	private synchronized AtomicLongArray[] initStripes() {
+		if (stripes == null) {
+			final AtomicLongArray[] ss = new AtomicLongArray[StripedCounter.CELLS];
+			for (int i = 0; i < ss.length; i++) {
+				ss[i] = new AtomicLongArray(STRIPE_LENGTH);
+			}
+			stripes = ss;
+		}
+		return stripes;
+	}
+
+	/*
+	 * The maxima only grow, once they are reached the updates are plain reads
+	 */
+	private static void updateMax(AtomicLongArray stripe, long value) {
+		updateMax(stripe, MAX, value);
+		updateMax(stripe, INTERVAL_MAX, value);
+	}
+
+	private static void updateMax(AtomicLongArray stripe, int index, long value) {
+		long current = stripe.get(index);
+		while (value > current && !stripe.compareAndSet(index, current, value)) {
+			current = stripe.get(index);
+		}
+	}
+
+	static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		final int shift = exponent - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+	}
+
+	/**
+	 * @return the highest value falling in the bucket
+	 */
+	static long highestValue(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		final int shift = bucket / SUB_BUCKETS - 1;
+		final long subBucket = bucket % SUB_BUCKETS + SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+}
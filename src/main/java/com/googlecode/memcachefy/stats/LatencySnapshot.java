@@ -0,0 +1,82 @@
+package com.googlecode.memcachefy.stats;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable copy of a {@link LatencyHistogram}. Percentiles are reported as the highest
+ * value of the bucket they fall in, so they may exceed the real value by 6%.
+ */
+public final class LatencySnapshot {
+
+	static final LatencySnapshot EMPTY = new LatencySnapshot(new long[LatencyHistogram.BUCKETS], 0L);
+
+	private final long[] counts;
+	private final long count;
+	private final long max;
+
+	LatencySnapshot(long[] counts, long max) {
+		this.counts = counts;
+		long count = 0;
+		for (long bucketCount : counts) {
+			count += bucketCount;
+		}
+		this.count = count;
+		this.max = max;
+	}
+
+	/**
+	 * @return number of recorded latencies
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return latency in nanoseconds below which the given percentage of the values fall
+	 */
+	public long getPercentile(double percentile) {
+		if (count == 0) {
+			return 0L;
+		}
+		final long rank = Math.max(1L, (long) Math.ceil(count * Math.min(100.0, percentile) / 100.0));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(LatencyHistogram.highestValue(i), max);
+			}
+		}
+		return max;
+	}
+
+	public long getP50() {
+		return getPercentile(50.0);
+	}
+
+	public long getP99() {
+		return getPercentile(99.0);
+	}
+
+	public long getP999() {
+		return getPercentile(99.9);
+	}
+
+	/**
+	 * @return highest recorded latency in nanoseconds
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	@Override
+	public String toString() {
+		return "Latency [count=" + count + ", p50=" + micros(getP50()) + "us, p99=" + micros(getP99()) +
+				"us, p999=" + micros(getP999()) + "us, max=" + micros(max) + "us]";
+	}
+
+	private static long micros(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+
+}
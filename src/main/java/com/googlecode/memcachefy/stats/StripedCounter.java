@@ -0,0 +1,118 @@
+package com.googlecode.memcachefy.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter for statistics updated by many threads, in the style of {@code LongAdder}.
+ * It starts as a single atomic value and, once two threads collide on it, spreads the
+ * updates over padded cells so that each thread mostly updates its own cache line.
+ * The cells are only summed when the value is read, so reads are slower and not an
+ * atomic snapshot of concurrent updates.
+ */
+public final class StripedCounter {
+
+	// 16 longs: each cell sits alone on its cache line, even with adjacent line prefetching
+	private static final int PADDING = 16;
+	static final int CELLS;
+
+	static {
+		int cells = 1;
+		while (cells < Runtime.getRuntime().availableProcessors()) {
+			cells <<= 1;
+		}
+		CELLS = cells;
+	}
+
+	private static final ThreadLocal<int[]> probe = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			// seeded with the thread id, spread by the golden ratio, the xorshift needs a non-zero seed
+			final int seed = (int) Thread.currentThread().getId() * 0x9e3779b9;
+			return new int[]{seed == 0 ? 1 : seed};
+		}
+	};
+
+	private final AtomicLong base = new AtomicLong();
+	private volatile AtomicLongArray cells;
+
+	public void increment() {
+		add(1L);
+	}
+
+	public void add(long x) {
+		AtomicLongArray cs = cells;
+		if (cs == null) {
+			final long value = base.get();
+			if (base.compareAndSet(value, value + x)) {
+				return;
+			}
+			cs = initCells();
+		}
+		final int[] threadProbe = probe.get();
+		final int index = (threadProbe[0] & (CELLS - 1)) * PADDING;
+		final long value = cs.get(index);
+		if (!cs.compareAndSet(index, value, value + x)) {
+			// collided with another thread, move to another cell next time
+			threadProbe[0] = rehash(threadProbe[0]);
+			cs.addAndGet(index, x);
+		}
+	}
+
+	/**
+	 * @return the probe of the current thread, its low bits pick the cell the thread updates
+	 */
+	static int[] threadProbe() {
+		return probe.get();
+	}
+
+	/**
+	 * @return the next probe of a thread that collided with another one
+	 */
+	static int rehash(int h) {
+		h ^= h << 13;
+		h ^= h >>> 17;
+		h ^= h << 5;
+		return h;
+	}
+
+	/**
+	 * @return the current sum of the counter
+	 */
+	public long sum() {
+		long sum = base.get();
+		final AtomicLongArray cs = cells;
+		if (cs != null) {
+			for (int i = 0; i < CELLS; i++) {
+				sum += cs.get(i * PADDING);
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Reset the counter to zero. Updates made concurrently may be lost.
+	 */
+	public void reset() {
+		base.set(0L);
+		final AtomicLongArray cs = cells;
+		if (cs != null) {
+			for (int i = 0; i < CELLS; i++) {
+				cs.set(i * PADDING, 0L);
+			}
+		}
+	}
+
+	private synchronized AtomicLongArray initCells() {
+		if (cells == null) {
+			cells = new AtomicLongArray(CELLS * PADDING);
+		}
+		return cells;
+	}
+
+	@Override
+	public String toString() {
+		return Long.toString(sum());
+	}
+
+}
@@ -0,0 +1,119 @@
+package com.googlecode.memcachefy;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Behaviour shared by every cache engine
+ */
+final class CacheAssertions {
+
+	private CacheAssertions() {
+	}
+
+	/**
+	 * putIfAbsent, replace and cas against an empty cache
+	 */
+	static void assertConditionalWrites(Cache<String, String> cache) throws CacheException {
+
+		assertTrue(cache.putIfAbsent("key", "a"));
+		assertFalse(cache.putIfAbsent("key", "b"));
+		assertEquals("a", cache.get("key"));
+
+		assertFalse(cache.replace("key", "b", "c"));
+		assertTrue(cache.replace("key", "a", "c"));
+		assertEquals("c", cache.get("key"));
+
+		VersionedValue<String> versioned = cache.gets("key");
+		assertEquals("c", versioned.getValue());
+		assertTrue(cache.cas("key", versioned.getVersion(), "d"));
+		// the entry was written since it was read
+		assertFalse(cache.cas("key", versioned.getVersion(), "e"));
+		assertEquals("d", cache.get("key"));
+
+		cache.remove("key");
+		assertNull(cache.gets("key"));
+		assertFalse(cache.replace("key", "d", "f"));
+		assertTrue(cache.putIfAbsent("key", "f"));
+	}
+
+	/**
+	 * increment and decrement against an empty cache
+	 */
+	static void assertCounters(Cache<String, Long> cache) throws Exception {
+
+		// a new counter starts at the initial value
+		assertEquals(10, cache.increment("hits", 1, 10));
+		assertEquals(15, cache.increment("hits", 5, 10));
+		assertEquals(12, cache.decrement("hits", 3, 10));
+		// never below zero
+		assertEquals(0, cache.decrement("hits", 100, 10));
+		assertEquals(0, cache.increment("hits", 0, 10));
+
+		cache.put("other", 1L);
+		cache.remove("other");
+		assertEquals(3, cache.decrement("other", 1, 3));
+
+		// the updates keep the expiration of the counter, read with a delta of zero
+		assertEquals(1, cache.increment("shortLived", 1, 1, 1));
+		assertEquals(2, cache.increment("shortLived", 1, 1, 60));
+		Thread.sleep(1500);
+		assertEquals(7, cache.increment("shortLived", 0, 7));
+	}
+
+	/**
+	 * the local engines keep a counter as a plain value of the cache
+	 */
+	static void assertPlainValueCounters(Cache<String, Long> cache) throws CacheException {
+
+		cache.put("written", 5L);
+		assertEquals(6, cache.increment("written", 1, 0));
+		// written again on each update
+		assertEquals(Long.valueOf(6), cache.get("written"));
+		final long version = cache.gets("written").getVersion();
+		assertEquals(7, cache.increment("written", 1, 0));
+		assertTrue(version != cache.gets("written").getVersion());
+	}
+
+	/**
+	 * increments of a single counter from several threads are not lost
+	 */
+	static void assertConcurrentIncrements(final Cache<String, Long> cache) throws Exception {
+
+		final int threads = 8;
+		final int increments = 1000;
+		cache.put("concurrent", 0L);
+
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		for (int t = 0; t < threads; t++) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int i = 0; i < increments; i++) {
+							cache.increment("concurrent", 1, 0);
+						}
+					} catch (Throwable e) {
+						failure.compareAndSet(null, e);
+					} finally {
+						done.countDown();
+					}
+				}
+			}).start();
+		}
+		start.countDown();
+		assertTrue(done.await(30, TimeUnit.SECONDS));
+		assertNull(failure.get());
+		assertEquals(Long.valueOf(threads * increments), cache.get("concurrent"));
+	}
+
+}
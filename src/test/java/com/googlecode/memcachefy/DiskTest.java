@@ -0,0 +1,125 @@
+package com.googlecode.memcachefy;
+
+import com.googlecode.memcachefy.disk.DiskCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Memory-mapped disk cache
+ */
+public class DiskTest {
+
+	private File directory;
+
+	@Before
+	public void setUp() {
+		directory = new File(System.getProperty("java.io.tmpdir"), "memcachefy-test-" + System.nanoTime());
+	}
+
+	@After
+	public void tearDown() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void test() throws CacheException {
+
+		DiskCache<String, String> cache = new DiskCache<String, String>(directory);
+
+		cache.put("aa", "bb");
+		assertEquals("bb", cache.get("aa"));
+		assertEquals("bb", cache.putAndGet("aa", "cc"));
+		assertEquals("cc", cache.remove("aa"));
+		assertNull(cache.get("aa"));
+
+		StringBuilder large = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			large.append("value").append(i);
+		}
+		cache.put("large", large.toString());
+		assertEquals(large.toString(), cache.get("large"));
+
+		cache.close();
+	}
+
+	@Test
+	public void testConditionalWrites() throws CacheException {
+
+		DiskCache<String, String> cache = new DiskCache<String, String>(directory);
+
+		CacheAssertions.assertConditionalWrites(cache);
+
+		cache.close();
+	}
+
+	@Test
+	public void testCounters() throws Exception {
+
+		DiskCache<String, Long> cache = new DiskCache<String, Long>(directory);
+
+		CacheAssertions.assertCounters(cache);
+		CacheAssertions.assertPlainValueCounters(cache);
+		CacheAssertions.assertConcurrentIncrements(cache);
+
+		cache.close();
+	}
+
+	@Test
+	public void testRestart() throws CacheException {
+
+		DiskCache<String, String> cache = new DiskCache<String, String>(directory);
+		for (int i = 0; i < 1000; i++) {
+			cache.put("key" + i, "value" + i);
+		}
+		cache.put("key0", "updated");
+		cache.remove("key1");
+		cache.close();
+
+		// the entries are recovered from the log files
+		cache = new DiskCache<String, String>(directory);
+		assertEquals(999, cache.size());
+		assertEquals("updated", cache.get("key0"));
+		assertNull(cache.get("key1"));
+		assertEquals("value999", cache.get("key999"));
+		cache.close();
+	}
+
+	@Test
+	public void testCompaction() throws CacheException {
+
+		DiskCache<Integer, String> cache = new DiskCache<Integer, String>(directory, 1024 * 1024, 64 * 1024);
+		for (int round = 0; round < 20; round++) {
+			for (int i = 0; i < 1000; i++) {
+				cache.put(i, "value" + round + "-" + i);
+			}
+		}
+		cache.remove(0);
+		long before = cache.getDiskBytes();
+		cache.compact();
+
+		assertTrue(cache.getDiskBytes() < before);
+		assertEquals(999, cache.size());
+		assertEquals("value19-999", cache.get(999));
+		cache.close();
+
+		cache = new DiskCache<Integer, String>(directory, 1024 * 1024, 64 * 1024);
+		assertEquals(999, cache.size());
+		assertNull(cache.get(0));
+		assertEquals("value19-1", cache.get(1));
+		cache.close();
+	}
+
+}
@@ -0,0 +1,908 @@
+package com.googlecode.memcachefy;
+
+import com.googlecode.memcachefy.inmemory.InMemoryCache;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-JVM memcached server speaking the binary protocol, backed by an {@link InMemoryCache},
+ * so that the memcached caches can be tested and benchmarked without a memcached on the
+ * network, e.g.
+ * <pre>
+ * EmbeddedMemcached server = new EmbeddedMemcached().start();
+ * cacheManager.setHosts(server.getHosts());
+ * </pre>
+ * A single thread serves all the connections. Latency, error responses and lost responses
+ * can be injected to load-test the remote path.
+ */
+public class EmbeddedMemcached {
+
+	static final byte MAGIC_REQUEST = (byte) 0x80;
+	static final byte MAGIC_RESPONSE = (byte) 0x81;
+	static final int HEADER_LENGTH = 24;
+
+	static final byte GET = 0x00;
+	static final byte SET = 0x01;
+	static final byte ADD = 0x02;
+	static final byte REPLACE = 0x03;
+	static final byte DELETE = 0x04;
+	static final byte INCREMENT = 0x05;
+	static final byte DECREMENT = 0x06;
+	static final byte QUIT = 0x07;
+	static final byte FLUSH = 0x08;
+	static final byte GETQ = 0x09;
+	static final byte NOOP = 0x0a;
+	static final byte VERSION = 0x0b;
+	static final byte GETK = 0x0c;
+	static final byte GETKQ = 0x0d;
+	static final byte APPEND = 0x0e;
+	static final byte PREPEND = 0x0f;
+	static final byte STAT = 0x10;
+	static final byte SETQ = 0x11;
+	static final byte ADDQ = 0x12;
+	static final byte REPLACEQ = 0x13;
+	static final byte DELETEQ = 0x14;
+	static final byte INCREMENTQ = 0x15;
+	static final byte DECREMENTQ = 0x16;
+	static final byte QUITQ = 0x17;
+	static final byte FLUSHQ = 0x18;
+	static final byte APPENDQ = 0x19;
+	static final byte PREPENDQ = 0x1a;
+	static final byte TOUCH = 0x1c;
+	static final byte GAT = 0x1d;
+	static final byte GATQ = 0x1e;
+
+	static final short NO_ERROR = 0x0000;
+	static final short KEY_NOT_FOUND = 0x0001;
+	static final short KEY_EXISTS = 0x0002;
+	static final short VALUE_TOO_LARGE = 0x0003;
+	static final short INVALID_ARGUMENTS = 0x0004;
+	static final short NOT_STORED = 0x0005;
+	static final short NON_NUMERIC = 0x0006;
+	static final short UNKNOWN_COMMAND = 0x0081;
+	static final short INTERNAL_ERROR = 0x0084;
+	static final short TEMPORARY_FAILURE = 0x0086;
+
+	/**
+	 * Largest value accepted, the default item size limit of memcached
+	 */
+	public static final int MAX_VALUE_LENGTH = 1024 * 1024;
+
+	private static final String SERVER_VERSION = "1.4.embedded";
+	// expiration times over 30 days are unix times
+	private static final int MAX_RELATIVE_EXPIRATION = 60 * 60 * 24 * 30;
+	private static final Logger log = Logger.getLogger(EmbeddedMemcached.class);
+
+	private final int port;
+	private final InMemoryCache<String, Item> storage;
+	private final Random random = new Random();
+	private final Queue<Runnable> commands = new ConcurrentLinkedQueue<Runnable>();
+	private final List<Connection> connections = new ArrayList<Connection>();
+	private final AtomicLong getHits = new AtomicLong();
+	private final AtomicLong getMisses = new AtomicLong();
+	private final AtomicLong sets = new AtomicLong();
+	private final AtomicLong requests = new AtomicLong();
+	private long casCounter;
+	private long startedAt;
+	private volatile long latency;
+	private volatile double failureRate;
+	private volatile double timeoutRate;
+	private volatile boolean running;
+	private Selector selector;
+	private ServerSocketChannel server;
+	private Thread thread;
+
+	/**
+	 * Server on an ephemeral port storing up to 100000 items
+	 */
+	public EmbeddedMemcached() {
+		this(0, 100000);
+	}
+
+	/**
+	 * @param port       port to listen on, 0 for an ephemeral one
+	 * @param maxEntries maximum number of items stored
+	 */
+	public EmbeddedMemcached(int port, int maxEntries) {
+		this.port = port;
+		this.storage = new InMemoryCache<String, Item>(maxEntries);
+		this.storage.setTtl(0);
+	}
+
+	/**
+	 * Bind the server and start serving the connections
+	 *
+	 * @return this server
+	 * @throws IOException
+	 */
+	public synchronized EmbeddedMemcached start() throws IOException {
+		if (running) {
+			return this;
+		}
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		server.configureBlocking(false);
+		server.socket().setReuseAddress(true);
+		server.socket().bind(new InetSocketAddress("127.0.0.1", port));
+		server.register(selector, SelectionKey.OP_ACCEPT);
+		startedAt = System.currentTimeMillis();
+		running = true;
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				serve();
+			}
+		}, "memcachefy-embedded-memcached-" + getPort());
+		thread.setDaemon(true);
+		thread.start();
+		return this;
+	}
+
+	/**
+	 * Close the connections and the server socket
+	 */
+	public synchronized void stop() {
+		if (!running) {
+			return;
+		}
+		running = false;
+		selector.wakeup();
+		try {
+			thread.join(5000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		storage.close();
+	}
+
+	/**
+	 * Drop every open connection, as a restarting server would
+	 */
+	public void disconnectAll() {
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				for (Connection connection : new ArrayList<Connection>(connections)) {
+					close(connection);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Remove all the items
+	 */
+	public void flush() throws CacheException {
+		storage.clear();
+	}
+
+	/**
+	 * @return the port the server listens on
+	 */
+	public int getPort() {
+		return server.socket().getLocalPort();
+	}
+
+	/**
+	 * @return the address of the server, in the format of the memcached hosts list
+	 */
+	public String getHosts() {
+		return "127.0.0.1:" + getPort();
+	}
+
+	/**
+	 * @return the number of items stored
+	 */
+	public int size() throws CacheException {
+		return storage.size();
+	}
+
+	/**
+	 * @return the number of requests received
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	public long getLatency() {
+		return latency;
+	}
+
+	/**
+	 * @param latency delay in milliseconds added before every response, keeping the order of
+	 *                the responses of a connection
+	 */
+	public void setLatency(long latency) {
+		this.latency = latency;
+	}
+
+	public double getFailureRate() {
+		return failureRate;
+	}
+
+	/**
+	 * @param failureRate fraction of the requests answered with a temporary failure
+	 */
+	public void setFailureRate(double failureRate) {
+		this.failureRate = failureRate;
+	}
+
+	public double getTimeoutRate() {
+		return timeoutRate;
+	}
+
+	/**
+	 * @param timeoutRate fraction of the requests never answered, the client sees them time out
+	 */
+	public void setTimeoutRate(double timeoutRate) {
+		this.timeoutRate = timeoutRate;
+	}
+
+	private void execute(Runnable command) {
+		commands.add(command);
+		if (running) {
+			selector.wakeup();
+		}
+	}
+
+	private void serve() {
+		try {
+			while (running) {
+				final long due = nextDue();
+				final long wait = due - System.currentTimeMillis();
+				if (due == Long.MAX_VALUE) {
+					selector.select();
+				} else if (wait > 0) {
+					selector.select(wait);
+				} else {
+					selector.selectNow();
+				}
+				Runnable command;
+				while ((command = commands.poll()) != null) {
+					command.run();
+				}
+				final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					final SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+					} else {
+						final Connection connection = (Connection) key.attachment();
+						if (key.isReadable()) {
+							read(connection);
+						}
+						if (key.isValid() && key.isWritable()) {
+							write(connection);
+						}
+					}
+				}
+				final long now = System.currentTimeMillis();
+				for (Connection connection : new ArrayList<Connection>(connections)) {
+					if (connection.release(now)) {
+						write(connection);
+					}
+				}
+			}
+		} catch (IOException e) {
+			log.error("Embedded memcached stopped", e);
+		} finally {
+			for (Connection connection : new ArrayList<Connection>(connections)) {
+				close(connection);
+			}
+			try {
+				server.close();
+				selector.close();
+			} catch (IOException e) {
+				log.warn("Error closing the embedded memcached", e);
+			}
+		}
+	}
+
+	private long nextDue() {
+		long due = Long.MAX_VALUE;
+		for (Connection connection : connections) {
+			due = Math.min(due, connection.nextDue());
+		}
+		return due;
+	}
+
+	private void accept() throws IOException {
+		final SocketChannel channel = server.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		final Connection connection = new Connection(channel);
+		connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+		connections.add(connection);
+	}
+
+	private void read(Connection connection) {
+		try {
+			connection.ensureReadable();
+			if (connection.channel.read(connection.in) < 0) {
+				close(connection);
+				return;
+			}
+		} catch (IOException e) {
+			close(connection);
+			return;
+		}
+		final ByteBuffer in = connection.in;
+		in.flip();
+		while (connection.channel.isOpen() && in.remaining() >= HEADER_LENGTH) {
+			final int bodyLength = in.getInt(in.position() + 8);
+			if (in.remaining() < HEADER_LENGTH + bodyLength) {
+				break;
+			}
+			if (in.get(in.position()) != MAGIC_REQUEST) {
+				close(connection);
+				return;
+			}
+			final Request request = new Request(in);
+			requests.incrementAndGet();
+			process(connection, request);
+		}
+		in.compact();
+	}
+
+	private void write(Connection connection) {
+		try {
+			while (!connection.out.isEmpty()) {
+				final ByteBuffer buffer = connection.out.peek();
+				connection.channel.write(buffer);
+				if (buffer.hasRemaining()) {
+					break;
+				}
+				connection.out.poll();
+			}
+		} catch (IOException e) {
+			close(connection);
+			return;
+		}
+		if (connection.out.isEmpty() && connection.closing && !connection.hasDelayed()) {
+			close(connection);
+		} else if (connection.key.isValid()) {
+			connection.key.interestOps(connection.out.isEmpty() ?
+					SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		}
+	}
+
+	private void close(Connection connection) {
+		connections.remove(connection);
+		if (connection.key != null) {
+			connection.key.cancel();
+		}
+		try {
+			connection.channel.close();
+		} catch (IOException e) {
+			log.debug("Error closing a connection", e);
+		}
+	}
+
+	private void process(Connection connection, Request request) {
+		final double failure = failureRate;
+		final double timeout = timeoutRate;
+		final boolean dataCommand = request.opcode != NOOP && request.opcode != QUIT &&
+				request.opcode != QUITQ && request.opcode != VERSION;
+		if (dataCommand && timeout > 0 && random.nextDouble() < timeout) {
+			return;
+		}
+		if (dataCommand && failure > 0 && random.nextDouble() < failure) {
+			respond(connection, request, TEMPORARY_FAILURE, 0, null, null, null);
+			return;
+		}
+		try {
+			dispatch(connection, request);
+		} catch (CacheException e) {
+			log.error("Error executing the command " + request.opcode, e);
+			respond(connection, request, INTERNAL_ERROR, 0, null, null, bytes("Internal error"));
+		}
+	}
+
+	private void dispatch(Connection connection, Request request) throws CacheException {
+		switch (request.opcode) {
+			case GET:
+			case GETQ:
+			case GETK:
+			case GETKQ:
+			case GAT:
+			case GATQ:
+				get(connection, request);
+				break;
+			case SET:
+			case SETQ:
+			case ADD:
+			case ADDQ:
+			case REPLACE:
+			case REPLACEQ:
+				store(connection, request);
+				break;
+			case APPEND:
+			case APPENDQ:
+			case PREPEND:
+			case PREPENDQ:
+				concatenate(connection, request);
+				break;
+			case DELETE:
+			case DELETEQ:
+				delete(connection, request);
+				break;
+			case INCREMENT:
+			case INCREMENTQ:
+			case DECREMENT:
+			case DECREMENTQ:
+				count(connection, request);
+				break;
+			case TOUCH:
+				touch(connection, request);
+				break;
+			case FLUSH:
+			case FLUSHQ:
+				storage.clear();
+				respond(connection, request, NO_ERROR, 0, null, null, null);
+				break;
+			case NOOP:
+				respond(connection, request, NO_ERROR, 0, null, null, null);
+				break;
+			case VERSION:
+				respond(connection, request, NO_ERROR, 0, null, null, bytes(SERVER_VERSION));
+				break;
+			case STAT:
+				stat(connection, request);
+				break;
+			case QUIT:
+			case QUITQ:
+				respond(connection, request, NO_ERROR, 0, null, null, null);
+				connection.closing = true;
+				if (connection.out.isEmpty() && !connection.hasDelayed()) {
+					close(connection);
+				}
+				break;
+			default:
+				respond(connection, request, UNKNOWN_COMMAND, 0, null, null, bytes("Unknown command"));
+		}
+	}
+
+	private void get(Connection connection, Request request) throws CacheException {
+		Item item = lookup(request.key);
+		if (item != null && (request.opcode == GAT || request.opcode == GATQ)) {
+			item = item.touch(request.extras.getInt(0));
+			save(request.key, item);
+		}
+		if (item == null) {
+			getMisses.incrementAndGet();
+			respond(connection, request, KEY_NOT_FOUND, 0, null, null, bytes("Not found"));
+			return;
+		}
+		getHits.incrementAndGet();
+		final ByteBuffer extras = ByteBuffer.allocate(4).putInt(0, item.flags);
+		final boolean withKey = request.opcode == GETK || request.opcode == GETKQ;
+		respond(connection, request, NO_ERROR, item.cas, extras.array(),
+				withKey ? request.keyBytes : null, item.value);
+	}
+
+	private void store(Connection connection, Request request) throws CacheException {
+		if (request.extras.capacity() != 8) {
+			respond(connection, request, INVALID_ARGUMENTS, 0, null, null, bytes("Invalid arguments"));
+			return;
+		}
+		if (request.value.length > MAX_VALUE_LENGTH) {
+			respond(connection, request, VALUE_TOO_LARGE, 0, null, null, bytes("Too large"));
+			return;
+		}
+		final Item current = lookup(request.key);
+		final byte opcode = request.opcode;
+		if ((opcode == ADD || opcode == ADDQ) && current != null) {
+			respond(connection, request, KEY_EXISTS, 0, null, null, bytes("Data exists for key"));
+			return;
+		}
+		if ((opcode == REPLACE || opcode == REPLACEQ || request.cas != 0) && current == null) {
+			respond(connection, request, KEY_NOT_FOUND, 0, null, null, bytes("Not found"));
+			return;
+		}
+		if (request.cas != 0 && current.cas != request.cas) {
+			respond(connection, request, KEY_EXISTS, 0, null, null, bytes("Data exists for key"));
+			return;
+		}
+		final Item item = new Item(request.value, request.extras.getInt(0),
+				expireAt(request.extras.getInt(4)), ++casCounter);
+		save(request.key, item);
+		sets.incrementAndGet();
+		respond(connection, request, NO_ERROR, item.cas, null, null, null);
+	}
+
+	private void concatenate(Connection connection, Request request) throws CacheException {
+		final Item current = lookup(request.key);
+		if (current == null) {
+			respond(connection, request, NOT_STORED, 0, null, null, bytes("Not stored"));
+			return;
+		}
+		if (request.cas != 0 && current.cas != request.cas) {
+			respond(connection, request, KEY_EXISTS, 0, null, null, bytes("Data exists for key"));
+			return;
+		}
+		final boolean append = request.opcode == APPEND || request.opcode == APPENDQ;
+		final byte[] first = append ? current.value : request.value;
+		final byte[] second = append ? request.value : current.value;
+		final byte[] value = new byte[first.length + second.length];
+		System.arraycopy(first, 0, value, 0, first.length);
+		System.arraycopy(second, 0, value, first.length, second.length);
+		final Item item = new Item(value, current.flags, current.expireAt, ++casCounter);
+		save(request.key, item);
+		respond(connection, request, NO_ERROR, item.cas, null, null, null);
+	}
+
+	private void delete(Connection connection, Request request) throws CacheException {
+		final Item current = lookup(request.key);
+		if (current == null) {
+			respond(connection, request, KEY_NOT_FOUND, 0, null, null, bytes("Not found"));
+			return;
+		}
+		if (request.cas != 0 && current.cas != request.cas) {
+			respond(connection, request, KEY_EXISTS, 0, null, null, bytes("Data exists for key"));
+			return;
+		}
+		storage.remove(request.key);
+		respond(connection, request, NO_ERROR, 0, null, null, null);
+	}
+
+	private void count(Connection connection, Request request) throws CacheException {
+		if (request.extras.capacity() != 20) {
+			respond(connection, request, INVALID_ARGUMENTS, 0, null, null, bytes("Invalid arguments"));
+			return;
+		}
+		final long delta = request.extras.getLong(0);
+		final long initial = request.extras.getLong(8);
+		final int expiration = request.extras.getInt(16);
+		final Item current = lookup(request.key);
+		final long value;
+		final Item item;
+		if (current == null) {
+			// an expiration of all ones means the counter must exist
+			if (expiration == -1) {
+				respond(connection, request, KEY_NOT_FOUND, 0, null, null, bytes("Not found"));
+				return;
+			}
+			value = initial;
+			item = new Item(bytes(unsigned(value)), 0, expireAt(expiration), ++casCounter);
+		} else {
+			if (request.cas != 0 && current.cas != request.cas) {
+				respond(connection, request, KEY_EXISTS, 0, null, null, bytes("Data exists for key"));
+				return;
+			}
+			final Long number = parseUnsigned(current.value);
+			if (number == null) {
+				respond(connection, request, NON_NUMERIC, 0, null, null,
+						bytes("Non-numeric server-side value for incr or decr"));
+				return;
+			}
+			if (request.opcode == INCREMENT || request.opcode == INCREMENTQ) {
+				value = number + delta;
+			} else {
+				// decrements stop at zero, comparing as unsigned
+				value = number + Long.MIN_VALUE < delta + Long.MIN_VALUE ? 0 : number - delta;
+			}
+			item = new Item(bytes(unsigned(value)), current.flags, current.expireAt, ++casCounter);
+		}
+		save(request.key, item);
+		respond(connection, request, NO_ERROR, item.cas, null, null,
+				ByteBuffer.allocate(8).putLong(0, value).array());
+	}
+
+	private void touch(Connection connection, Request request) throws CacheException {
+		final Item current = lookup(request.key);
+		if (current == null) {
+			respond(connection, request, KEY_NOT_FOUND, 0, null, null, bytes("Not found"));
+			return;
+		}
+		save(request.key, current.touch(request.extras.getInt(0)));
+		respond(connection, request, NO_ERROR, current.cas, null, null, null);
+	}
+
+	private void stat(Connection connection, Request request) throws CacheException {
+		final Map<String, String> stats = new LinkedHashMap<String, String>();
+		final long now = System.currentTimeMillis();
+		stats.put("pid", "0");
+		stats.put("uptime", Long.toString((now - startedAt) / 1000));
+		stats.put("time", Long.toString(now / 1000));
+		stats.put("version", SERVER_VERSION);
+		stats.put("curr_connections", Integer.toString(connections.size()));
+		stats.put("curr_items", Integer.toString(storage.size()));
+		stats.put("cmd_get", Long.toString(getHits.get() + getMisses.get()));
+		stats.put("cmd_set", Long.toString(sets.get()));
+		stats.put("get_hits", Long.toString(getHits.get()));
+		stats.put("get_misses", Long.toString(getMisses.get()));
+		stats.put("limit_maxbytes", Long.toString(64L * 1024 * 1024));
+		for (Map.Entry<String, String> stat : stats.entrySet()) {
+			if (request.key.length() == 0 || request.key.equals(stat.getKey())) {
+				respond(connection, request, NO_ERROR, 0, null, bytes(stat.getKey()), bytes(stat.getValue()));
+			}
+		}
+		respond(connection, request, NO_ERROR, 0, null, null, null);
+	}
+
+	private Item lookup(String key) throws CacheException {
+		final Item item = storage.get(key);
+		if (item != null && item.isExpired(System.currentTimeMillis())) {
+			storage.remove(key);
+			return null;
+		}
+		return item;
+	}
+
+	private void save(String key, Item item) throws CacheException {
+		if (item.expireAt == 0) {
+			storage.put(key, item, 0);
+			return;
+		}
+		final long remaining = item.expireAt - System.currentTimeMillis();
+		if (remaining <= 0) {
+			storage.remove(key);
+		} else {
+			storage.put(key, item, (int) ((remaining + 999) / 1000));
+		}
+	}
+
+	/*
+	 * Quiet commands only answer their failures, and gets their hits
+	 */
+	private void respond(Connection connection, Request request, short status, long cas,
+						 byte[] extras, byte[] key, byte[] value) {
+		if (status == NO_ERROR ? isQuiet(request.opcode) && !isQuietGet(request.opcode) :
+				status == KEY_NOT_FOUND && isQuietGet(request.opcode)) {
+			return;
+		}
+		final int extrasLength = extras == null ? 0 : extras.length;
+		final int keyLength = key == null ? 0 : key.length;
+		final int valueLength = value == null ? 0 : value.length;
+		final ByteBuffer response = ByteBuffer.allocate(HEADER_LENGTH + extrasLength + keyLength + valueLength);
+		response.put(MAGIC_RESPONSE);
+		response.put(request.opcode);
+		response.putShort((short) keyLength);
+		response.put((byte) extrasLength);
+		response.put((byte) 0);
+		response.putShort(status);
+		response.putInt(extrasLength + keyLength + valueLength);
+		response.putInt(request.opaque);
+		response.putLong(cas);
+		if (extras != null) {
+			response.put(extras);
+		}
+		if (key != null) {
+			response.put(key);
+		}
+		if (value != null) {
+			response.put(value);
+		}
+		response.flip();
+		connection.send(response, latency);
+		if (latency <= 0) {
+			write(connection);
+		}
+	}
+
+	private static boolean isQuiet(byte opcode) {
+		switch (opcode) {
+			case GETQ:
+			case GETKQ:
+			case GATQ:
+			case SETQ:
+			case ADDQ:
+			case REPLACEQ:
+			case DELETEQ:
+			case INCREMENTQ:
+			case DECREMENTQ:
+			case QUITQ:
+			case FLUSHQ:
+			case APPENDQ:
+			case PREPENDQ:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	private static boolean isQuietGet(byte opcode) {
+		return opcode == GETQ || opcode == GETKQ || opcode == GATQ;
+	}
+
+	/*
+	 * Absolute time in milliseconds of a memcached expiration, 0 for never
+	 */
+	private static long expireAt(int expiration) {
+		if (expiration == 0) {
+			return 0;
+		}
+		if (expiration > MAX_RELATIVE_EXPIRATION) {
+			// already in the past when it isn't after now
+			return Math.max(1, expiration * 1000L);
+		}
+		return System.currentTimeMillis() + expiration * 1000L;
+	}
+
+	private static String unsigned(long value) {
+		if (value >= 0) {
+			return Long.toString(value);
+		}
+		final long quotient = (value >>> 1) / 5;
+		return Long.toString(quotient) + (value - quotient * 10);
+	}
+
+	private static Long parseUnsigned(byte[] value) {
+		if (value.length == 0 || value.length > 20) {
+			return null;
+		}
+		long number = 0;
+		for (byte b : value) {
+			if (b < '0' || b > '9') {
+				return null;
+			}
+			number = number * 10 + (b - '0');
+		}
+		return number;
+	}
+
+	private static byte[] bytes(String value) {
+		final byte[] bytes = new byte[value.length()];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) value.charAt(i);
+		}
+		return bytes;
+	}
+
+	/**
+	 * A stored item
+	 */
+	static final class Item {
+
+		private final byte[] value;
+		private final int flags;
+		private final long expireAt;
+		private final long cas;
+
+		Item(byte[] value, int flags, long expireAt, long cas) {
+			this.value = value;
+			this.flags = flags;
+			this.expireAt = expireAt;
+			this.cas = cas;
+		}
+
+		boolean isExpired(long now) {
+			return expireAt != 0 && expireAt <= now;
+		}
+
+		Item touch(int expiration) {
+			return new Item(value, flags, expireAt(expiration), cas);
+		}
+	}
+
+	/*
+	 * A request read from a connection, the key bytes are kept as ISO-8859-1 characters
+	 */
+	private static final class Request {
+
+		private final byte opcode;
+		private final int opaque;
+		private final long cas;
+		private final ByteBuffer extras;
+		private final byte[] keyBytes;
+		private final String key;
+		private final byte[] value;
+
+		private Request(ByteBuffer in) {
+			in.get();
+			opcode = in.get();
+			final int keyLength = in.getShort() & 0xffff;
+			final int extrasLength = in.get() & 0xff;
+			in.get();
+			in.getShort();
+			final int bodyLength = in.getInt();
+			opaque = in.getInt();
+			cas = in.getLong();
+			final byte[] extrasBytes = new byte[extrasLength];
+			in.get(extrasBytes);
+			extras = ByteBuffer.wrap(extrasBytes);
+			keyBytes = new byte[keyLength];
+			in.get(keyBytes);
+			final char[] chars = new char[keyLength];
+			for (int i = 0; i < keyLength; i++) {
+				chars[i] = (char) (keyBytes[i] & 0xff);
+			}
+			key = new String(chars);
+			value = new byte[bodyLength - extrasLength - keyLength];
+			in.get(value);
+		}
+	}
+
+	/*
+	 * A client connection, its responses are released in order once their latency is over
+	 */
+	private static final class Connection {
+
+		private final SocketChannel channel;
+		private final Queue<ByteBuffer> out = new ArrayDeque<ByteBuffer>();
+		private final Queue<Delayed> delayed = new ArrayDeque<Delayed>();
+		private ByteBuffer in = ByteBuffer.allocate(16 * 1024);
+		private SelectionKey key;
+		private long lastDue;
+		private boolean closing;
+
+		private Connection(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		private void ensureReadable() {
+			if (!in.hasRemaining()) {
+				final ByteBuffer grown = ByteBuffer.allocate(in.capacity() << 1);
+				in.flip();
+				grown.put(in);
+				in = grown;
+			}
+		}
+
+		private void send(ByteBuffer response, long latency) {
+			if (latency <= 0 && delayed.isEmpty()) {
+				out.add(response);
+				return;
+			}
+			lastDue = Math.max(lastDue, System.currentTimeMillis() + Math.max(0, latency));
+			delayed.add(new Delayed(lastDue, response));
+		}
+
+		private boolean hasDelayed() {
+			return !delayed.isEmpty();
+		}
+
+		private long nextDue() {
+			final Delayed next = delayed.peek();
+			return next == null ? Long.MAX_VALUE : next.due;
+		}
+
+		/*
+		 * Move the responses due by now to the output, true when there was any
+		 */
+		private boolean release(long now) {
+			boolean released = false;
+			while (!delayed.isEmpty() && delayed.peek().due <= now) {
+				out.add(delayed.poll().response);
+				released = true;
+			}
+			return released;
+		}
+	}
+
+	private static final class Delayed {
+
+		private final long due;
+		private final ByteBuffer response;
+
+		private Delayed(long due, ByteBuffer response) {
+			this.due = due;
+			this.response = response;
+		}
+	}
+
+}
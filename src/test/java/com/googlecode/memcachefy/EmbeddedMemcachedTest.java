@@ -0,0 +1,244 @@
+package com.googlecode.memcachefy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Binary protocol of the embedded memcached server
+ */
+public class EmbeddedMemcachedTest {
+
+	private EmbeddedMemcached server;
+	private Client client;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new EmbeddedMemcached().start();
+		client = new Client(server.getPort());
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		client.close();
+		server.stop();
+	}
+
+	@Test
+	public void testStorage() throws IOException, CacheException {
+
+		Response set = client.call(EmbeddedMemcached.SET, storeExtras(7, 0), "key", "value", 0);
+		assertEquals(EmbeddedMemcached.NO_ERROR, set.status);
+
+		Response get = client.call(EmbeddedMemcached.GET, null, "key", null, 0);
+		assertEquals(EmbeddedMemcached.NO_ERROR, get.status);
+		assertEquals("value", new String(get.value, "UTF-8"));
+		assertEquals(7, ByteBuffer.wrap(get.extras).getInt());
+		assertEquals(set.cas, get.cas);
+
+		assertEquals(EmbeddedMemcached.KEY_EXISTS,
+				client.call(EmbeddedMemcached.ADD, storeExtras(0, 0), "key", "other", 0).status);
+		assertEquals(EmbeddedMemcached.KEY_NOT_FOUND,
+				client.call(EmbeddedMemcached.REPLACE, storeExtras(0, 0), "missing", "other", 0).status);
+
+		// the cas must match the stored one
+		assertEquals(EmbeddedMemcached.KEY_EXISTS,
+				client.call(EmbeddedMemcached.SET, storeExtras(0, 0), "key", "other", set.cas + 1).status);
+		assertEquals(EmbeddedMemcached.NO_ERROR,
+				client.call(EmbeddedMemcached.SET, storeExtras(0, 0), "key", "other", set.cas).status);
+
+		assertEquals(EmbeddedMemcached.NO_ERROR,
+				client.call(EmbeddedMemcached.DELETE, null, "key", null, 0).status);
+		assertEquals(EmbeddedMemcached.KEY_NOT_FOUND,
+				client.call(EmbeddedMemcached.GET, null, "key", null, 0).status);
+
+		client.call(EmbeddedMemcached.SET, storeExtras(0, 0), "key", "value", 0);
+		client.call(EmbeddedMemcached.FLUSH, null, "", null, 0);
+		assertEquals(0, server.size());
+	}
+
+	@Test
+	public void testQuietGets() throws IOException {
+
+		client.call(EmbeddedMemcached.SET, storeExtras(0, 0), "a", "1", 0);
+
+		// only the hits and the noop are answered
+		client.send(EmbeddedMemcached.GETQ, null, "missing", null, 0, 1);
+		client.send(EmbeddedMemcached.GETKQ, null, "a", null, 0, 2);
+		client.send(EmbeddedMemcached.NOOP, null, "", null, 0, 3);
+
+		Response hit = client.receive();
+		assertEquals(2, hit.opaque);
+		assertEquals("a", new String(hit.key, "UTF-8"));
+		assertEquals("1", new String(hit.value, "UTF-8"));
+		assertEquals(EmbeddedMemcached.NOOP, client.receive().opcode);
+	}
+
+	@Test
+	public void testCounters() throws IOException {
+
+		assertEquals(10, ByteBuffer.wrap(client.call(EmbeddedMemcached.INCREMENT,
+				counterExtras(5, 10, 0), "counter", null, 0).value).getLong());
+		assertEquals(15, ByteBuffer.wrap(client.call(EmbeddedMemcached.INCREMENT,
+				counterExtras(5, 10, 0), "counter", null, 0).value).getLong());
+		assertEquals(0, ByteBuffer.wrap(client.call(EmbeddedMemcached.DECREMENT,
+				counterExtras(20, 10, 0), "counter", null, 0).value).getLong());
+
+		// an expiration of all ones doesn't create the counter
+		assertEquals(EmbeddedMemcached.KEY_NOT_FOUND, client.call(EmbeddedMemcached.INCREMENT,
+				counterExtras(1, 0, -1), "missing", null, 0).status);
+
+		client.call(EmbeddedMemcached.SET, storeExtras(0, 0), "text", "abc", 0);
+		assertEquals(EmbeddedMemcached.NON_NUMERIC, client.call(EmbeddedMemcached.INCREMENT,
+				counterExtras(1, 0, 0), "text", null, 0).status);
+	}
+
+	@Test
+	public void testExpiration() throws Exception {
+
+		client.call(EmbeddedMemcached.SET, storeExtras(0, 1), "key", "value", 0);
+		client.call(EmbeddedMemcached.SET, storeExtras(0, 1), "touched", "value", 0);
+		assertEquals(EmbeddedMemcached.NO_ERROR,
+				client.call(EmbeddedMemcached.TOUCH, ByteBuffer.allocate(4).putInt(0, 60).array(),
+						"touched", null, 0).status);
+
+		Thread.sleep(1100);
+		assertEquals(EmbeddedMemcached.KEY_NOT_FOUND,
+				client.call(EmbeddedMemcached.GET, null, "key", null, 0).status);
+		assertEquals(EmbeddedMemcached.NO_ERROR,
+				client.call(EmbeddedMemcached.GAT, ByteBuffer.allocate(4).putInt(0, 60).array(),
+						"touched", null, 0).status);
+	}
+
+	@Test
+	public void testStats() throws IOException {
+
+		client.send(EmbeddedMemcached.STAT, null, "", null, 0, 0);
+		int stats = 0;
+		Response response;
+		while ((response = client.receive()).key.length > 0) {
+			stats++;
+		}
+		assertEquals(EmbeddedMemcached.NO_ERROR, response.status);
+		assertTrue(stats > 0);
+	}
+
+	@Test
+	public void testInjectedFaults() throws IOException {
+
+		client.call(EmbeddedMemcached.SET, storeExtras(0, 0), "key", "value", 0);
+
+		server.setLatency(100);
+		long start = System.currentTimeMillis();
+		assertEquals(EmbeddedMemcached.NO_ERROR,
+				client.call(EmbeddedMemcached.GET, null, "key", null, 0).status);
+		assertTrue(System.currentTimeMillis() - start >= 100);
+
+		server.setLatency(0);
+		server.setFailureRate(1);
+		assertEquals(EmbeddedMemcached.TEMPORARY_FAILURE,
+				client.call(EmbeddedMemcached.GET, null, "key", null, 0).status);
+
+		// lost responses, the noop is always answered
+		server.setFailureRate(0);
+		server.setTimeoutRate(1);
+		client.send(EmbeddedMemcached.GET, null, "key", null, 0, 1);
+		client.send(EmbeddedMemcached.NOOP, null, "", null, 0, 2);
+		assertEquals(2, client.receive().opaque);
+	}
+
+	private static byte[] storeExtras(int flags, int expiration) {
+		return ByteBuffer.allocate(8).putInt(flags).putInt(expiration).array();
+	}
+
+	private static byte[] counterExtras(long delta, long initial, int expiration) {
+		return ByteBuffer.allocate(20).putLong(delta).putLong(initial).putInt(expiration).array();
+	}
+
+	static class Response {
+		byte opcode;
+		short status;
+		int opaque;
+		long cas;
+		byte[] extras;
+		byte[] key;
+		byte[] value;
+	}
+
+	/**
+	 * Blocking binary protocol client
+	 */
+	static class Client {
+
+		private final Socket socket;
+		private final DataInputStream in;
+		private final DataOutputStream out;
+
+		Client(int port) throws IOException {
+			socket = new Socket("127.0.0.1", port);
+			in = new DataInputStream(socket.getInputStream());
+			out = new DataOutputStream(socket.getOutputStream());
+		}
+
+		Response call(byte opcode, byte[] extras, String key, String value, long cas) throws IOException {
+			send(opcode, extras, key, value, cas, 0);
+			return receive();
+		}
+
+		void send(byte opcode, byte[] extras, String key, String value, long cas, int opaque)
+				throws IOException {
+			final byte[] keyBytes = key.getBytes("UTF-8");
+			final byte[] valueBytes = value == null ? new byte[0] : value.getBytes("UTF-8");
+			final int extrasLength = extras == null ? 0 : extras.length;
+			out.writeByte(EmbeddedMemcached.MAGIC_REQUEST);
+			out.writeByte(opcode);
+			out.writeShort(keyBytes.length);
+			out.writeByte(extrasLength);
+			out.writeByte(0);
+			out.writeShort(0);
+			out.writeInt(extrasLength + keyBytes.length + valueBytes.length);
+			out.writeInt(opaque);
+			out.writeLong(cas);
+			if (extras != null) {
+				out.write(extras);
+			}
+			out.write(keyBytes);
+			out.write(valueBytes);
+			out.flush();
+		}
+
+		Response receive() throws IOException {
+			final Response response = new Response();
+			assertEquals(EmbeddedMemcached.MAGIC_RESPONSE, in.readByte());
+			response.opcode = in.readByte();
+			final int keyLength = in.readShort();
+			final int extrasLength = in.readByte();
+			in.readByte();
+			response.status = in.readShort();
+			final int bodyLength = in.readInt();
+			response.opaque = in.readInt();
+			response.cas = in.readLong();
+			response.extras = new byte[extrasLength];
+			in.readFully(response.extras);
+			response.key = new byte[keyLength];
+			in.readFully(response.key);
+			response.value = new byte[bodyLength - extrasLength - keyLength];
+			in.readFully(response.value);
+			return response;
+		}
+
+		void close() throws IOException {
+			socket.close();
+		}
+	}
+
+}
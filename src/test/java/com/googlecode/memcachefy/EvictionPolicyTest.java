@@ -0,0 +1,122 @@
+package com.googlecode.memcachefy;
+
+import com.googlecode.memcachefy.inmemory.InMemoryCache;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Hit ratio of the eviction policies on a skewed workload interleaved with scans
+ */
+public class EvictionPolicyTest {
+
+	private static final int MAX_ENTRIES = 500;
+	private static final int ITEMS = 20000;
+	private static final int OPERATIONS = 200000;
+
+	@Test
+	public void testCapacityIsBounded() throws CacheException {
+		for (EvictionPolicy policy : EvictionPolicy.values()) {
+			InMemoryCache<Integer, Integer> cache = new InMemoryCache<Integer, Integer>(100, policy);
+			for (int i = 0; i < 1000; i++) {
+				cache.put(i, i);
+				cache.get(i % 10);
+			}
+			assertEquals(policy.name(), 100, cache.size());
+			cache.remove(999);
+			assertNull(cache.get(999));
+			cache.close();
+		}
+	}
+
+	@Test
+	public void testWeightIsBounded() throws CacheException {
+		Weigher<Integer, String> weigher = new Weigher<Integer, String>() {
+			@Override
+			public int weigh(Integer key, String value) {
+				return value.length();
+			}
+		};
+		for (EvictionPolicy policy : EvictionPolicy.values()) {
+			InMemoryCache<Integer, String> cache = new InMemoryCache<Integer, String>(10000, policy, weigher);
+			for (int i = 0; i < 1000; i++) {
+				cache.put(i, new String(new char[i % 100 + 1]));
+			}
+			assertTrue(policy.name(), cache.getWeightedSize() <= 10000);
+			assertTrue(policy.name(), cache.size() > 100);
+			cache.close();
+		}
+
+		// the deep size accounts for the referenced objects
+		List<String> list = new ArrayList<String>();
+		for (int i = 0; i < 100; i++) {
+			list.add("value" + i);
+		}
+		assertTrue(Weighers.deepSize().weigh("key", list) > Weighers.shallowSize().weigh("key", list));
+		assertTrue(Weighers.serializedSize().weigh("key", list) > 600);
+	}
+
+	@Test
+	public void testHitRatio() throws CacheException {
+		double lru = hitRatio(EvictionPolicy.LRU);
+		double lfu = hitRatio(EvictionPolicy.LFU);
+		double tinyLfu = hitRatio(EvictionPolicy.TINY_LFU);
+
+		// the frequency sketch keeps the popular entries through the scans
+		assertTrue("TINY_LFU " + tinyLfu + " LRU " + lru, tinyLfu >= lru);
+		assertTrue("LFU " + lfu + " LRU " + lru, lfu >= lru);
+	}
+
+	private double hitRatio(EvictionPolicy policy) throws CacheException {
+		InMemoryCache<Integer, Integer> cache = new InMemoryCache<Integer, Integer>(MAX_ENTRIES, policy);
+		Random random = new Random(42);
+		double[] zipf = zipfDistribution(ITEMS, 0.9);
+		int scanKey = ITEMS;
+
+		for (int i = 0; i < OPERATIONS; i++) {
+			// a batch job sweeps through cold keys from time to time
+			if (i % 10000 == 0) {
+				for (int j = 0; j < MAX_ENTRIES * 2; j++, scanKey++) {
+					if (cache.get(scanKey) == null) {
+						cache.put(scanKey, scanKey);
+					}
+				}
+			}
+			int key = sample(zipf, random);
+			if (cache.get(key) == null) {
+				cache.put(key, key);
+			}
+		}
+
+		double hits = cache.getCacheStatistics().getCacheHits();
+		double misses = cache.getCacheStatistics().getCacheMisses();
+		cache.close();
+		return hits / (hits + misses);
+	}
+
+	private static double[] zipfDistribution(int items, double skew) {
+		double[] cdf = new double[items];
+		double sum = 0;
+		for (int i = 0; i < items; i++) {
+			sum += 1.0 / Math.pow(i + 1, skew);
+			cdf[i] = sum;
+		}
+		for (int i = 0; i < items; i++) {
+			cdf[i] /= sum;
+		}
+		return cdf;
+	}
+
+	private static int sample(double[] cdf, Random random) {
+		int index = Arrays.binarySearch(cdf, random.nextDouble());
+		return index < 0 ? -index - 1 : index;
+	}
+
+}
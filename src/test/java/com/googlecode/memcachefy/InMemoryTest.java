@@ -1,8 +1,30 @@
 package com.googlecode.memcachefy;
 
 import com.googlecode.memcachefy.inmemory.InMemoryCache;
+import com.googlecode.memcachefy.inmemory.InMemoryCacheManager;
+import com.googlecode.memcachefy.stats.CacheOperation;
+import com.googlecode.memcachefy.stats.CacheStatisticsSnapshot;
+import com.googlecode.memcachefy.stats.LatencyHistogram;
+import com.googlecode.memcachefy.stats.LatencySnapshot;
 import org.junit.Test;
 
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
 /**
  * Created with IntelliJ IDEA.
  * User: bhlangonijr
@@ -27,5 +49,394 @@ public class InMemoryTest {
 
 	}
 
+	@Test
+	public void testManagerRegistry() throws CacheException {
+
+		InMemoryCacheManager manager = new InMemoryCacheManager();
+		manager.setMaxEntries(100);
+
+		Cache<String, String> cache = manager.getCache("region");
+		cache.put("aa", "bb");
+		assertSame(cache, manager.getCache("region"));
+		assertEquals("bb", manager.<String, String>getCache("region").get("aa"));
+
+		for (int i = 0; i < 50; i++) {
+			manager.getCache("region" + i);
+		}
+		// all the regions schedule their expiration on the threads of the manager
+		ScheduledThreadPoolExecutor scheduler = (ScheduledThreadPoolExecutor) manager.getScheduler();
+		assertTrue(scheduler.getQueue().size() >= 51);
+		assertTrue(scheduler.getLargestPoolSize() <= manager.getMaintenanceThreads());
+
+		manager.destroy();
+	}
+
+	@Test
+	public void testSnapshot() throws Exception {
+
+		File directory = new File(System.getProperty("java.io.tmpdir"), "memcachefy-snapshot-test");
+		InMemoryCacheManager manager = new InMemoryCacheManager();
+		manager.setMaxEntries(1000);
+		manager.setSnapshotDirectory(directory.getPath());
+		manager.setSnapshotMaxEntries(500);
+
+		Cache<String, String> cache = manager.getCache("region");
+		cache.clear();
+		for (int i = 0; i < 1000; i++) {
+			cache.put("key" + i, "value" + i, 0);
+		}
+		cache.get("key0");
+		cache.put("shortLived", "value", 2);
+		manager.destroy();
+
+		// a restarted manager is warmed up with the hottest entries and their remaining ttl
+		manager = new InMemoryCacheManager();
+		manager.setMaxEntries(1000);
+		manager.setSnapshotDirectory(directory.getPath());
+		cache = manager.getCache("region");
+		assertEquals(500, cache.size());
+		assertEquals("value0", cache.get("key0"));
+		assertEquals("value999", cache.get("key999"));
+		assertNull(cache.get("key1"));
+		assertEquals("value", cache.get("shortLived"));
+
+		Thread.sleep(2500);
+		assertNull(cache.get("shortLived"));
+		cache.clear();
+		manager.destroy();
+	}
+
+	@Test
+	public void testRefreshAfterWrite() throws Exception {
+
+		final AtomicInteger loads = new AtomicInteger();
+		InMemoryCacheManager manager = new InMemoryCacheManager();
+		manager.setMaxEntries(100);
+		manager.setRefreshAfterWrite(1);
+		Cache<String, String> cache = manager.getCache("refreshed", new CacheLoader<String, String>() {
+			@Override
+			public String load(String key) throws Exception {
+				return key + loads.incrementAndGet();
+			}
+		});
+
+		cache.put("key", "initial");
+		assertEquals("initial", cache.get("key"));
+		Thread.sleep(1100);
+
+		// the stale value is served while a single reload runs in the background
+		assertEquals("initial", cache.get("key"));
+		for (int i = 0; i < 50 && !"key1".equals(cache.get("key")); i++) {
+			Thread.sleep(20);
+		}
+		assertEquals("key1", cache.get("key"));
+		assertEquals(1, loads.get());
+
+		manager.destroy();
+	}
+
+	@Test
+	public void testSlowLoaderDoesntStallExpiration() throws Exception {
+
+		final CountDownLatch release = new CountDownLatch(1);
+		InMemoryCacheManager manager = new InMemoryCacheManager();
+		manager.setMaxEntries(100);
+		manager.setMaintenanceThreads(1);
+		manager.setRefreshAfterWrite(1);
+		Cache<String, String> cache = manager.getCache("slow", new CacheLoader<String, String>() {
+			@Override
+			public String load(String key) throws Exception {
+				release.await();
+				return key;
+			}
+		});
+
+		try {
+			cache.put("key", "initial");
+			cache.put("shortLived", "value", 1);
+			Thread.sleep(1100);
+			// starts a reload that blocks until the end of the test
+			assertEquals("initial", cache.get("key"));
+
+			for (int i = 0; i < 100 && cache.size() > 1; i++) {
+				Thread.sleep(50);
+			}
+			assertEquals(1, cache.size());
+		} finally {
+			release.countDown();
+			manager.destroy();
+		}
+	}
+
+	@Test
+	public void testTicker() throws Exception {
+
+		final AtomicLong time = new AtomicLong(1000000L);
+		InMemoryCacheManager manager = new InMemoryCacheManager();
+		manager.setMaxEntries(100);
+		manager.setTicker(new Ticker() {
+			@Override
+			public long read() {
+				return time.get();
+			}
+		});
+		Cache<String, String> cache = manager.getCache("ticker");
+
+		cache.put("key", "value", 10);
+		time.addAndGet(9999);
+		assertEquals("value", cache.get("key"));
+		time.addAndGet(1);
+		assertNull(cache.get("key"));
+
+		cache.put("touched", "value", 10);
+		time.addAndGet(5000);
+		cache.getAndTouch("touched", 10);
+		time.addAndGet(9000);
+		assertEquals("value", cache.get("touched"));
+
+		manager.destroy();
+	}
+
+	@Test
+	public void testStatistics() throws Exception {
+
+		final InMemoryCache<Integer, Integer> cache = new InMemoryCache<Integer, Integer>(100);
+		for (int i = 0; i < 50; i++) {
+			cache.put(i, i);
+		}
+		// concurrent updates of the striped counters are all accounted
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < 10000; i++) {
+							cache.get(i % 100);
+						}
+					} catch (CacheException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		CacheStatisticsSnapshot snapshot = CacheStatisticsSnapshot.of(cache.getCacheStatistics());
+		assertEquals(40000, snapshot.getCacheHits());
+		assertEquals(40000, snapshot.getCacheMisses());
+		assertEquals(0.5, snapshot.getHitRatio(), 0.0);
+		LatencySnapshot latency = snapshot.getLatency(CacheOperation.GET);
+		assertEquals(80000, latency.getCount());
+		assertTrue(latency.getP50() <= latency.getP99() && latency.getP99() <= latency.getMax());
+
+		// percentiles are within the 6% precision of the histogram buckets
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 10000; i++) {
+			histogram.record(i * 1000L);
+		}
+		assertEquals(5000000, histogram.snapshotAndReset().getP50(), 5000000 * 0.07);
+		histogram.record(42);
+		assertEquals(1, histogram.snapshotAndReset().getCount());
+		assertEquals(10001, histogram.snapshot().getCount());
+		assertEquals(10000000, histogram.snapshot().getMax());
+
+		// concurrent recordings are spread over stripes, and all counted
+		final LatencyHistogram striped = new LatencyHistogram();
+		Thread[] recorders = new Thread[4];
+		for (int t = 0; t < recorders.length; t++) {
+			final long offset = t;
+			recorders[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 10000; i++) {
+						striped.record(i * 4 + offset);
+					}
+				}
+			});
+			recorders[t].start();
+		}
+		for (Thread recorder : recorders) {
+			recorder.join();
+		}
+		assertEquals(40000, striped.snapshot().getCount());
+		assertEquals(39999, striped.snapshotAndReset().getMax());
+
+		cache.close();
+	}
+
+	@Test
+	public void testBulk() throws Exception {
+
+		InMemoryCache<String, Integer> cache = new InMemoryCache<String, Integer>(100);
+
+		Map<String, Integer> entries = new HashMap<String, Integer>();
+		for (int i = 0; i < 150; i++) {
+			entries.put("key" + i, i);
+		}
+		cache.putAll(entries);
+		assertEquals(100, cache.size());
+
+		Map<String, Integer> values = cache.getAll(entries.keySet());
+		assertEquals(100, values.size());
+		for (Map.Entry<String, Integer> value : values.entrySet()) {
+			assertEquals(entries.get(value.getKey()), value.getValue());
+		}
+		assertEquals(100, CacheStatisticsSnapshot.of(cache.getCacheStatistics()).getCacheHits());
+		assertEquals(50, CacheStatisticsSnapshot.of(cache.getCacheStatistics()).getCacheMisses());
+
+		cache.removeAll(values.keySet());
+		assertEquals(0, cache.size());
+		assertTrue(cache.getAll(entries.keySet()).isEmpty());
+
+		cache.close();
+	}
+
+	@Test
+	public void testAsync() throws Exception {
+
+		InMemoryCache<String, String> cache = new InMemoryCache<String, String>(100);
+		AsyncCache<String, String> async = cache;
+
+		assertTrue(async.putAsync("key", "value").get());
+		final AtomicReference<String> notified = new AtomicReference<String>();
+		CacheFuture<String> future = async.getAsync("key").addListener(new CacheFutureListener<String>() {
+			@Override
+			public void onComplete(CacheFuture<String> future) {
+				try {
+					notified.set(future.get());
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+		assertTrue(future.isDone());
+		assertEquals("value", notified.get());
+
+		// listeners added before completion are called by the completing thread
+		final CacheFuture<String> pending = new CacheFuture<String>();
+		final AtomicInteger calls = new AtomicInteger();
+		pending.addListener(new CacheFutureListener<String>() {
+			@Override
+			public void onComplete(CacheFuture<String> future) {
+				calls.incrementAndGet();
+			}
+		});
+		assertEquals(0, calls.get());
+		assertTrue(pending.set("done"));
+		assertFalse(pending.setException(new CacheException("late")));
+		assertEquals(1, calls.get());
+		assertEquals("done", pending.get());
+
+		assertTrue(async.removeAsync("key").get());
+		assertNull(async.getAsync("key").get());
+
+		cache.close();
+	}
+
+	@Test
+	public void testSingleFlight() throws Exception {
+
+		final InMemoryCache<String, String> cache = new InMemoryCache<String, String>(100);
+		final AtomicInteger loads = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		final Callable<String> loader = new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				loads.incrementAndGet();
+				Thread.sleep(200);
+				return "value";
+			}
+		};
+
+		// concurrent misses of the same key run the loader once
+		final AtomicInteger loaded = new AtomicInteger();
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						if ("value".equals(cache.get("key", loader))) {
+							loaded.incrementAndGet();
+						}
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(1, loads.get());
+		assertEquals(threads.length, loaded.get());
+		assertEquals("value", cache.get("key"));
+
+		try {
+			cache.get("failure", new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					throw new IllegalStateException("loader failure");
+				}
+			});
+			fail();
+		} catch (CacheException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		assertNull(cache.get("failure"));
+
+		cache.close();
+	}
+
+	@Test
+	public void testConditionalWrites() throws CacheException {
+
+		InMemoryCache<String, String> cache = new InMemoryCache<String, String>(100);
+
+		CacheAssertions.assertConditionalWrites(cache);
+
+		cache.close();
+	}
+
+	@Test
+	public void testCounters() throws Exception {
+
+		InMemoryCache<String, Long> cache = new InMemoryCache<String, Long>(100);
+
+		CacheAssertions.assertCounters(cache);
+		CacheAssertions.assertPlainValueCounters(cache);
+		CacheAssertions.assertConcurrentIncrements(cache);
+
+		cache.close();
+	}
+
+	@Test
+	public void testExpiration() throws Exception {
+
+		InMemoryCache<String, String> cache = new InMemoryCache<String, String>(5000);
+
+		for (int i = 0; i < 1000; i++) {
+			cache.put("key" + i, "value" + i, 1);
+		}
+		cache.put("longLived", "value", 60);
+
+		assertEquals(1001, cache.size());
+
+		Thread.sleep(3500);
+
+		// expired entries are removed by the timer wheel without being read
+		assertEquals(1, cache.size());
+		assertEquals("value", cache.get("longLived"));
+
+		cache.close();
+	}
+
 
 }
@@ -0,0 +1,143 @@
+package com.googlecode.memcachefy;
+
+import com.googlecode.memcachefy.hashkey.HashKeyGenerator;
+import com.googlecode.memcachefy.hashkey.KeyFingerprint;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 64 and 128-bit key fingerprints
+ */
+public class KeyFingerprintTest {
+
+	@Test
+	public void testFingerprint() {
+
+		KeyFingerprint fingerprint = new KeyFingerprint(1);
+		KeyFingerprint same = new KeyFingerprint();
+		for (int i = 0; i < 100; i++) {
+			fingerprint.putString("grow past the initial capacity").putLong(i);
+			same.putString("grow past the initial capacity").putLong(i);
+		}
+		String encoded = fingerprint.toBase64();
+		assertEquals(KeyFingerprint.ENCODED_LENGTH, encoded.length());
+		assertTrue(encoded.matches("[A-Za-z0-9_-]+"));
+		assertEquals(fingerprint.hash128()[0], fingerprint.hash64());
+		assertEquals(encoded, same.toBase64());
+		assertFalse(encoded.equals(same.reset().toBase64()));
+
+		// strings sharing their 32-bit hash code, and strings split differently
+		assertEquals("Aa".hashCode(), "BB".hashCode());
+		assertFalse(new KeyFingerprint().putString("Aa").toBase64().equals(
+				new KeyFingerprint().putString("BB").toBase64()));
+		assertFalse(new KeyFingerprint().putString("ab").putString("c").toBase64().equals(
+				new KeyFingerprint().putString("a").putString("bc").toBase64()));
+	}
+
+	@Test
+	public void testFingerprintKey() throws Exception {
+
+		Method square = LongKeyCacheTest.Square.class.getMethod("square", Integer.class);
+		Method other = LongKeyCacheTest.SquareImpl.class.getMethod("square", Integer.class);
+
+		assertEquals(HashKeyGenerator.reflectionFingerprintKey(square, new Object[]{2}),
+				HashKeyGenerator.reflectionFingerprintKey(square, new Object[]{2}));
+		assertFalse(HashKeyGenerator.reflectionFingerprintKey(square, new Object[]{2}).equals(
+				HashKeyGenerator.reflectionFingerprintKey(square, new Object[]{3})));
+		// the method of another class never shares the keys
+		assertFalse(HashKeyGenerator.defaultFingerprintKey(square, new Object[]{2}).equals(
+				HashKeyGenerator.defaultFingerprintKey(other, new Object[]{2})));
+	}
+
+	@Test
+	public void testFingerprintKeyByValue() {
+
+		// non-String keys sharing their hash code
+		assertEquals(Long.valueOf(0L).hashCode(), Long.valueOf(0x100000001L).hashCode());
+		assertFalse(fingerprint(0L).equals(fingerprint(0x100000001L)));
+		assertEquals(Arrays.asList("Aa").hashCode(), Arrays.asList("BB").hashCode());
+		assertFalse(fingerprint(Arrays.asList("Aa")).equals(fingerprint(Arrays.asList("BB"))));
+		assertFalse(fingerprint(new int[]{1}).equals(fingerprint(new int[]{2})));
+
+		// the state of dates and sets is held in transient fields
+		assertEquals(fingerprint(new Date(1000)), fingerprint(new Date(1000)));
+		assertFalse(fingerprint(new Date(1000)).equals(fingerprint(new Date(2000))));
+		assertFalse(fingerprint(new HashSet<String>(Arrays.asList("a", "b"))).equals(
+				fingerprint(new HashSet<String>(Arrays.asList("a", "c")))));
+
+		// equal sets and maps, whatever their iteration order
+		Set<Integer> ascending = new LinkedHashSet<Integer>(Arrays.asList(1, 2, 3));
+		Set<Integer> descending = new LinkedHashSet<Integer>(Arrays.asList(3, 2, 1));
+		assertEquals(fingerprint(ascending), fingerprint(descending));
+		Map<String, Integer> map = new HashMap<String, Integer>();
+		map.put("a", 1);
+		map.put("b", 2);
+		String before = fingerprint(map);
+		assertEquals(before, fingerprint(new TreeMap<String, Integer>(map)));
+		map.put("b", 3);
+		assertFalse(before.equals(fingerprint(map)));
+	}
+
+	@Test
+	public void testFingerprintKeyByFields() throws Exception {
+
+		Method find = Finder.class.getMethod("find", Query.class);
+		Object[] first = {new Query("name", 10, Arrays.asList("a", "b"))};
+		Object[] second = {new Query("name", 10, Arrays.asList("a", "b"))};
+		Object[] other = {new Query("name", 20, Arrays.asList("a", "b"))};
+
+		// distinct objects without equals share the key when their fields are equal
+		assertEquals(HashKeyGenerator.reflectionFingerprintKey(find, first),
+				HashKeyGenerator.reflectionFingerprintKey(find, second));
+		assertFalse(HashKeyGenerator.reflectionFingerprintKey(find, first).equals(
+				HashKeyGenerator.reflectionFingerprintKey(find, other)));
+		// the default strategy relies on their own hashCode and toString
+		assertFalse(HashKeyGenerator.defaultFingerprintKey(find, first).equals(
+				HashKeyGenerator.defaultFingerprintKey(find, second)));
+
+		// a cycle ends the walk
+		Query cyclic = new Query("name", 10, null);
+		cyclic.parent = cyclic;
+		Query copy = new Query("name", 10, null);
+		copy.parent = copy;
+		assertEquals(fingerprint(cyclic), fingerprint(copy));
+		assertFalse(fingerprint(cyclic).equals(fingerprint(first[0])));
+	}
+
+	public interface Finder {
+		Object find(Query query);
+	}
+
+	public static class Query {
+		private final String name;
+		private final int limit;
+		private final Object values;
+		private transient long created = System.nanoTime();
+		private Query parent;
+
+		public Query(String name, int limit, Object values) {
+			this.name = name;
+			this.limit = limit;
+			this.values = values;
+		}
+	}
+
+	private static String fingerprint(Object key) {
+		KeyFingerprint fingerprint = new KeyFingerprint();
+		HashKeyGenerator.fingerprintKey(fingerprint, key);
+		return fingerprint.toBase64();
+	}
+}
@@ -0,0 +1,141 @@
+package com.googlecode.memcachefy;
+
+import com.googlecode.memcachefy.hashkey.HashKeyGenerator;
+import com.googlecode.memcachefy.interceptor.CacheInfo;
+import com.googlecode.memcachefy.inmemory.LongKeyInMemoryCache;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Cache with primitive long keys
+ */
+public class LongKeyCacheTest {
+
+	@Test
+	public void test() throws CacheException {
+
+		LongKeyInMemoryCache<String> cache = new LongKeyInMemoryCache<String>(1000);
+
+		cache.put(1L, "aa");
+		cache.put(Long.MIN_VALUE, "bb");
+		assertEquals("aa", cache.get(1L));
+		assertEquals("bb", cache.get(Long.MIN_VALUE));
+		assertEquals("aa", cache.remove(1L));
+		assertNull(cache.get(1L));
+		assertEquals(1, cache.size());
+
+		cache.close();
+	}
+
+	@Test
+	public void testCapacityIsBounded() throws CacheException {
+
+		LongKeyInMemoryCache<Long> cache = new LongKeyInMemoryCache<Long>(1000, 4);
+
+		for (long i = 0; i < 10000; i++) {
+			cache.put(i, i);
+			// the hot key is referenced on every round and survives the clock
+			assertEquals(Long.valueOf(0), cache.get(0L));
+		}
+		assertTrue(cache.size() <= 1000);
+		assertEquals(Long.valueOf(9999), cache.get(9999L));
+
+		cache.close();
+	}
+
+	@Test
+	public void testProxy() throws Exception {
+
+		Map<String, CacheInfo> infoMap = new HashMap<String, CacheInfo>();
+		infoMap.put("square", new CacheInfo(60));
+
+		LongKeyInMemoryCache<Object> cache = new LongKeyInMemoryCache<Object>(1000);
+		SquareImpl impl = new SquareImpl();
+		Square square = (Square) CacheProxy.newInstance(impl, infoMap, cache);
+
+		for (int i = 0; i < 10; i++) {
+			assertEquals(Integer.valueOf(49), square.square(7));
+		}
+		assertEquals(1, impl.calls.get());
+		assertEquals(9, cache.getCacheStatistics().getCacheHits());
+	}
+
+	@Test
+	public void testOverloads() throws Exception {
+
+		Map<String, CacheInfo> infoMap = new HashMap<String, CacheInfo>();
+		infoMap.put("find", new CacheInfo(60));
+
+		LongKeyInMemoryCache<Object> cache = new LongKeyInMemoryCache<Object>(1000);
+		Finder finder = (Finder) CacheProxy.newInstance(new FinderImpl(), infoMap, cache);
+
+		// 1 and 1L share their hash code, the overloads must not share the key
+		assertEquals(Integer.valueOf(1), finder.find(1));
+		assertEquals(Long.valueOf(1), finder.find(1L));
+		assertEquals(Integer.valueOf(1), finder.find(1));
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void testKeysSharingHashCode() throws Exception {
+
+		Map<String, CacheInfo> infoMap = new HashMap<String, CacheInfo>();
+		infoMap.put("find", new CacheInfo(60));
+
+		LongKeyInMemoryCache<Object> cache = new LongKeyInMemoryCache<Object>(1000);
+		Finder finder = (Finder) CacheProxy.newInstance(new FinderImpl(), infoMap, cache);
+
+		// the long key cache keeps no parameters, the keys must differ by value
+		assertEquals(Long.valueOf(0L).hashCode(), Long.valueOf(0x100000001L).hashCode());
+		assertEquals(Long.valueOf(0L), finder.find(0L));
+		assertEquals(Long.valueOf(0x100000001L), finder.find(0x100000001L));
+		assertEquals(2, cache.size());
+
+		Method find = Finder.class.getMethod("find", Long.class);
+		assertTrue(HashKeyGenerator.defaultLongHashKey(find, new Object[]{0L}) !=
+				HashKeyGenerator.defaultLongHashKey(find, new Object[]{0x100000001L}));
+		assertTrue(HashKeyGenerator.reflectionLongHashKey(find, new Object[]{0L}) !=
+				HashKeyGenerator.reflectionLongHashKey(find, new Object[]{0x100000001L}));
+	}
+
+	static interface Finder {
+		Integer find(Integer id);
+
+		Long find(Long id);
+	}
+
+	static class FinderImpl implements Finder {
+		@Override
+		public Integer find(Integer id) {
+			return id;
+		}
+
+		@Override
+		public Long find(Long id) {
+			return id;
+		}
+	}
+
+	static interface Square {
+		Integer square(Integer value);
+	}
+
+	static class SquareImpl implements Square {
+		final AtomicInteger calls = new AtomicInteger();
+
+		@Override
+		public Integer square(Integer value) {
+			calls.incrementAndGet();
+			return value * value;
+		}
+	}
+
+}
@@ -10,6 +10,7 @@ import org.junit.Test;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.annotation.XmlRootElement;
+import java.io.IOException;
 import java.io.Serializable;
 
 import static org.junit.Assert.assertNotNull;
@@ -17,6 +18,7 @@ import static org.junit.Assert.assertNotNull;
 public class MemcachedManagerJAXBTest {
 
 	private MemcachedManager cacheManager;
+	private EmbeddedMemcached server;
 	@SuppressWarnings("rawtypes")
 	Class[] jaxbClasses = new Class[]{CacheWrapper.class,
 			DummyNonSerializable.class, Dummy.class};
@@ -24,11 +26,12 @@ public class MemcachedManagerJAXBTest {
 
 
 	@Before
-	public void setUp() throws JAXBException {
+	public void setUp() throws JAXBException, IOException {
 		//	BasicConfigurator.configure();
 		cacheManager = new MemcachedManager();
 		cacheManager.setDefaultTtl(60); // default time to live
-		cacheManager.setHosts("localhost:11211"); // list of memcached hosts
+		server = new EmbeddedMemcached().start();
+		cacheManager.setHosts(server.getHosts()); // list of memcached hosts
 		context = JAXBContext.newInstance(
 				jaxbClasses);
 		cacheManager.setContext(context);
@@ -37,7 +40,9 @@ public class MemcachedManagerJAXBTest {
 
 	@After
 	public void tearDown() {
-
+		// the clients are shut down before their server goes away
+		cacheManager.destroy();
+		server.stop();
 	}
 
 	@Test
@@ -1,32 +1,60 @@
 package com.googlecode.memcachefy;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.googlecode.memcachefy.memcached.Memcached;
+import com.googlecode.memcachefy.memcached.MemcachedClientPool;
 import com.googlecode.memcachefy.memcached.MemcachedManager;
+import com.googlecode.memcachefy.memcached.WriteBehindQueue;
+import com.googlecode.memcachefy.near.NearCache;
+import com.googlecode.memcachefy.near.NearCacheManager;
+import net.spy.memcached.CachedData;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import javax.xml.bind.JAXBException;
+import java.io.IOException;
 import java.io.Serializable;
-
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class MemcachedManagerKryoTest {
 
 	private MemcachedManager cacheManager;
+	private EmbeddedMemcached server;
 
 	@Before
-	public void setUp() throws JAXBException {
+	public void setUp() throws JAXBException, IOException {
 		cacheManager = new MemcachedManager();
 		cacheManager.setDefaultTtl(60); // default time to live
-		cacheManager.setHosts("localhost:11211"); // list of memcached hosts
+		server = new EmbeddedMemcached().start();
+		cacheManager.setHosts(server.getHosts()); // list of memcached hosts
 		cacheManager.setCacheTranscoder(CacheTranscoder.KRYO);
 		cacheManager.setKryo(new Kryo());
 	}
 
 	@After
 	public void tearDown() {
-
+		// the clients are shut down before their server goes away
+		cacheManager.destroy();
+		server.stop();
 	}
 
 	@Test
@@ -73,6 +101,292 @@ public class MemcachedManagerKryoTest {
 		cache.clear(); // flush the cache
 	}
 
+	@Test
+	public void testWriteBehind() throws CacheException {
+
+		cacheManager.setWriteBehindCapacity(100);
+		// nothing is sent before the explicit flush
+		cacheManager.setWriteBehindBatchSize(1000);
+		cacheManager.setWriteBehindInterval(60000);
+		Memcached<String, String> cache = (Memcached<String, String>) cacheManager.<String, String>getCache("test3");
+
+		for (int round = 0; round < 3; round++) {
+			for (int i = 0; i < 50; i++) {
+				cache.put("key" + i, "value" + round);
+			}
+		}
+		// pending writes are read back before being sent
+		assertEquals("value2", cache.get("key0"));
+		WriteBehindQueue<String> queue = cache.getWriteBehind();
+		assertEquals(100, queue.getCoalescedWrites());
+
+		// once full, the puts are sent synchronously
+		for (int i = 50; i < 200; i++) {
+			cache.put("key" + i, "value");
+		}
+		assertEquals(100, queue.getQueueDepth());
+		assertEquals(100, queue.getDroppedWrites());
+		assertEquals("value", cache.get("key199"));
+
+		cache.remove("key0");
+		assertEquals(99, queue.getQueueDepth());
+		queue.flush();
+		assertEquals(0, queue.getQueueDepth());
+		assertEquals(99, queue.getFlushedWrites());
+		assertEquals("value2", cache.get("key49"));
+		assertNull(cache.get("key0"));
+
+		cache.clear();
+	}
+
+	@Test
+	public void testLargeValue() throws CacheException {
+
+		Cache<String, byte[]> cache = cacheManager.getCache("test4");
+
+		// larger than a memcached item once compressed
+		byte[] value = new byte[3 * 1024 * 1024];
+		new Random(42).nextBytes(value);
+		cache.put("report", value);
+
+		assertArrayEquals(value, cache.get("report"));
+		assertArrayEquals(value, cache.getAll(Arrays.asList("report")).get("report"));
+		assertArrayEquals(value, cache.getAndTouch("report", 120));
+
+		// the chunks of a failed conditional write are deleted
+		VersionedValue<byte[]> versioned = cache.gets("report");
+		cache.put("report", value);
+		int items = server.size();
+		assertFalse(cache.putIfAbsent("report", value));
+		assertFalse(cache.cas("report", versioned.getVersion(), value));
+		assertArrayEquals(value, cache.get("report"));
+		assertEquals(items, server.size());
+
+		cache.clear();
+	}
+
+	@Test
+	public void testValueOverClientLimit() throws CacheException {
+
+		// larger than the client's own transcoder accepts, with and without transcoding
+		byte[] value = new byte[CachedData.MAX_SIZE + 1];
+		new Random(42).nextBytes(value);
+
+		Cache<String, byte[]> kryo = cacheManager.getCache("test13");
+		kryo.put("report", value);
+		assertArrayEquals(value, kryo.get("report"));
+		kryo.clear();
+
+		cacheManager.setCacheTranscoder(CacheTranscoder.NONE);
+		Cache<String, byte[]> serialized = cacheManager.getCache("test14");
+		serialized.put("report", value);
+		assertArrayEquals(value, serialized.get("report"));
+		assertArrayEquals(value, serialized.getAll(Arrays.asList("report")).get("report"));
+		serialized.clear();
+	}
+
+	@Test
+	public void testClear() throws CacheException {
+
+		Cache<String, String> cleared = cacheManager.getCache("test5");
+		Cache<String, String> other = cacheManager.getCache("test6");
+
+		cleared.put("key", "value");
+		other.put("key", "value");
+		cleared.clear();
+
+		// only the entries of the cleared cache name are gone
+		assertNull(cleared.get("key"));
+		assertEquals("value", other.get("key"));
+
+		cleared.put("key", "again");
+		assertEquals("again", cleared.get("key"));
+	}
+
+	@Test
+	public void testClientPool() throws Exception {
+
+		cacheManager.setPoolSize(2);
+		cacheManager.setPoolSelection(MemcachedClientPool.Selection.LEAST_OUTSTANDING);
+		Memcached<String, String> first = (Memcached<String, String>) cacheManager.<String, String>getCache("test7");
+		Memcached<String, String> second = (Memcached<String, String>) cacheManager.<String, String>getCache("test8");
+
+		// the regions share the clients
+		assertSame(first.getClients(), second.getClients());
+		assertEquals(2, first.getClients().size());
+
+		// awaited, the next operation may go through the other client
+		assertTrue(first.putAsync("key", "value").get());
+		assertEquals("value", first.get("key"));
+
+		cacheManager.destroy();
+	}
+
+	@Test
+	public void testNearCache() throws Exception {
+
+		cacheManager.setPoolSize(2);
+		cacheManager.setChunkSize(64 * 1024);
+		NearCacheManager nearManager = new NearCacheManager(cacheManager);
+		NearCache<String, byte[]> cache = (NearCache<String, byte[]>) nearManager.<String, byte[]>getCache("test12");
+		MemcachedClientPool clients = ((Memcached<String, byte[]>) cache.getRemote()).getClients();
+
+		// the chunks may go through the other client than the manifest
+		byte[] value = new byte[256 * 1024];
+		new Random(42).nextBytes(value);
+		cache.put("report", value);
+		cache.invalidate("report");
+		assertArrayEquals(value, cache.get("report"));
+
+		// the remote manager is destroyed along with the near one
+		nearManager.destroy();
+		Memcached<String, String> remote = (Memcached<String, String>) cacheManager.<String, String>getCache("test12");
+		assertNotSame(clients, remote.getClients());
+	}
+
+	@Test
+	public void testKeyEncoding() throws CacheException {
+
+		Cache<Object, String> cache = cacheManager.getCache("test9");
+
+		// non-String keys sharing their hash code
+		cache.put(0L, "first");
+		cache.put(0x100000001L, "second");
+		assertEquals("first", cache.get(0L));
+		assertEquals("second", cache.get(0x100000001L));
+
+		// keys holding their state in transient fields
+		cache.put(new Date(1000), "earlier");
+		cache.put(new Date(2000), "later");
+		assertEquals("earlier", cache.get(new Date(1000)));
+		assertEquals("later", cache.get(new Date(2000)));
+		cache.put(new HashSet<String>(Arrays.asList("a", "b")), "ab");
+		cache.put(new HashSet<String>(Arrays.asList("a", "c")), "ac");
+		assertEquals("ab", cache.get(new HashSet<String>(Arrays.asList("b", "a"))));
+		assertEquals("ac", cache.get(new HashSet<String>(Arrays.asList("a", "c"))));
+
+		// over the memcached key length limit, and with spaces
+		StringBuilder longKey = new StringBuilder();
+		for (int i = 0; i < 300; i++) {
+			longKey.append('k');
+		}
+		cache.put(longKey.toString(), "long");
+		cache.put("key with spaces", "spaces");
+		assertEquals("long", cache.get(longKey.toString()));
+		assertEquals("spaces", cache.get("key with spaces"));
+
+		cache.put(42L, "number");
+		assertEquals("number", cache.get(42L));
+	}
+
+	@Test
+	public void testAsync() throws Exception {
+
+		Memcached<String, String> cache = (Memcached<String, String>) cacheManager.<String, String>getCache("test10");
+		assertTrue(cache.putAsync("a", "1").get());
+		assertTrue(cache.putAsync("b", "2").get());
+
+		// delayed responses, the listeners are registered before the futures complete
+		server.setLatency(50);
+		final CountDownLatch done = new CountDownLatch(2);
+		final AtomicReference<String> value = new AtomicReference<String>();
+		final AtomicReference<Map<String, String>> values = new AtomicReference<Map<String, String>>();
+		cache.getAsync("a").addListener(new CacheFutureListener<String>() {
+			@Override
+			public void onComplete(CacheFuture<String> future) {
+				try {
+					value.set(future.get());
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				} finally {
+					done.countDown();
+				}
+			}
+		});
+		cache.getAllAsync(Arrays.asList("a", "b", "missing")).addListener(new CacheFutureListener<Map<String, String>>() {
+			@Override
+			public void onComplete(CacheFuture<Map<String, String>> future) {
+				try {
+					values.set(future.get());
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				} finally {
+					done.countDown();
+				}
+			}
+		});
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals("1", value.get());
+		assertEquals(2, values.get().size());
+		assertEquals("2", values.get().get("b"));
+
+		server.setLatency(0);
+		assertNull(cache.getAsync("missing").get());
+		assertTrue(cache.removeAsync("a").get());
+		assertNull(cache.getAsync("a").get());
+	}
+
+	@Test
+	public void testConditionalWrites() throws CacheException {
+
+		Cache<String, String> cache = cacheManager.getCache("test11");
+
+		CacheAssertions.assertConditionalWrites(cache);
+
+		try {
+			cache.replace("key", null, "value");
+			fail();
+		} catch (IllegalArgumentException e) {
+			// a null expected value is refused before reaching memcached
+		}
+	}
+
+	@Test
+	public void testRefreshAfterWrite() throws Exception {
+
+		final AtomicLong time = new AtomicLong(System.currentTimeMillis());
+		cacheManager.setRefreshAfterWrite(1);
+		cacheManager.setTicker(new Ticker() {
+			@Override
+			public long read() {
+				return time.get();
+			}
+		});
+		Memcached<String, String> cache = (Memcached<String, String>) cacheManager.<String, String>getCache("test16");
+		cache.setCacheLoader(new CacheLoader<String, String>() {
+			@Override
+			public String load(String key) throws Exception {
+				return "gone".equals(key) ? null : "reloaded";
+			}
+		});
+
+		cache.put("key", "initial", 2);
+		cache.put("gone", "initial");
+		time.addAndGet(1000);
+
+		// the stale values are served while they are reloaded in the background
+		assertEquals("initial", cache.get("key"));
+		assertEquals("initial", cache.get("gone"));
+		for (int i = 0; i < 50 && (!"reloaded".equals(cache.get("key")) || cache.get("gone") != null); i++) {
+			Thread.sleep(20);
+		}
+		assertEquals("reloaded", cache.get("key"));
+		assertNull(cache.get("gone"));
+
+		// the reload kept the time-to-live of the entry
+		Thread.sleep(2100);
+		assertNull(cache.get("key"));
+	}
+
+	@Test
+	public void testCounters() throws Exception {
+
+		Cache<String, Long> cache = cacheManager.getCache("test15");
+
+		CacheAssertions.assertCounters(cache);
+		CacheAssertions.assertConcurrentIncrements(cache);
+	}
+
 	static class DummyNonSerializable {
 
 		protected String a;
@@ -0,0 +1,150 @@
+package com.googlecode.memcachefy;
+
+import com.googlecode.memcachefy.inmemory.InMemoryCache;
+import com.googlecode.memcachefy.near.NearCache;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Near cache engine, with an in-memory cache standing in for memcached
+ */
+public class NearCacheTest {
+
+	@Test
+	public void test() throws CacheException {
+
+		InMemoryCache<String, String> remote = new InMemoryCache<String, String>(100);
+		NearCache<String, String> cache = new NearCache<String, String>(remote, 10, 5);
+
+		cache.put("aa", "bb");
+		assertEquals("bb", cache.get("aa"));
+		// served from memory
+		assertEquals("bb", cache.get("aa"));
+		assertEquals(1, cache.getLocalStatistics().getCacheHits());
+		assertEquals(1, cache.getRemoteStatistics().getCacheHits());
+		assertEquals(2, cache.getCacheStatistics().getCacheHits());
+
+		// local writes invalidate the local entry
+		assertEquals("bb", cache.putAndGet("aa", "cc"));
+		assertEquals("cc", cache.get("aa"));
+		assertEquals("cc", cache.remove("aa"));
+		assertNull(cache.get("aa"));
+
+		// writes from other clients are seen once invalidated
+		cache.put("aa", "bb");
+		assertEquals("bb", cache.get("aa"));
+		remote.put("aa", "dd");
+		assertEquals("bb", cache.get("aa"));
+		cache.invalidate("aa");
+		assertEquals("dd", cache.get("aa"));
+
+		cache.put("ee", "ff");
+		Map<String, String> values = cache.getAll(Arrays.asList("aa", "ee", "gg"));
+		assertEquals(2, values.size());
+		assertEquals("ff", values.get("ee"));
+
+		cache.close();
+	}
+
+	@Test
+	public void testWriteDuringRead() throws Exception {
+
+		final PausedCache remote = new PausedCache();
+		final NearCache<String, String> cache = new NearCache<String, String>(remote, 10, 60);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+
+		cache.put("aa", "bb");
+		remote.pause();
+		Future<String> read = executor.submit(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return cache.get("aa");
+			}
+		});
+		// the read got the previous value, the write lands before it returns
+		assertTrue(remote.read.await(5, TimeUnit.SECONDS));
+		cache.put("aa", "cc");
+		remote.release.countDown();
+		assertEquals("bb", read.get(5, TimeUnit.SECONDS));
+		assertEquals("cc", cache.get("aa"));
+
+		cache.invalidate("aa");
+		remote.pause();
+		Future<Map<String, String>> readAll = executor.submit(new Callable<Map<String, String>>() {
+			@Override
+			public Map<String, String> call() throws Exception {
+				return cache.getAll(Collections.singletonList("aa"));
+			}
+		});
+		assertTrue(remote.read.await(5, TimeUnit.SECONDS));
+		cache.remove("aa");
+		remote.release.countDown();
+		assertEquals("cc", readAll.get(5, TimeUnit.SECONDS).get("aa"));
+		assertNull(cache.get("aa"));
+
+		executor.shutdown();
+		cache.close();
+	}
+
+	/**
+	 * Remote cache whose next read is held once the value is read, until released
+	 */
+	static class PausedCache extends InMemoryCache<String, String> {
+
+		volatile CountDownLatch read = new CountDownLatch(0);
+		volatile CountDownLatch release = new CountDownLatch(0);
+		private volatile boolean paused;
+
+		PausedCache() {
+			super(100);
+		}
+
+		void pause() {
+			read = new CountDownLatch(1);
+			release = new CountDownLatch(1);
+			paused = true;
+		}
+
+		@Override
+		public String get(String key) throws CacheException {
+			final String value = super.get(key);
+			hold();
+			return value;
+		}
+
+		@Override
+		public Map<String, String> getAll(Collection<? extends String> keys) throws CacheException {
+			final Map<String, String> values = super.getAll(keys);
+			hold();
+			return values;
+		}
+
+		private void hold() throws CacheException {
+			if (!paused) {
+				return;
+			}
+			paused = false;
+			read.countDown();
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				throw new CacheException(e);
+			}
+		}
+	}
+
+}
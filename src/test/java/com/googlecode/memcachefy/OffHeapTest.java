@@ -0,0 +1,97 @@
+package com.googlecode.memcachefy;
+
+import com.googlecode.memcachefy.offheap.OffHeapCache;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Off-heap cache engine
+ */
+public class OffHeapTest {
+
+	@Test
+	public void test() throws CacheException {
+
+		OffHeapCache<String, String> cache = new OffHeapCache<String, String>(1024 * 1024);
+
+		cache.put("aa", "bb");
+		assertEquals("bb", cache.get("aa"));
+		assertEquals("bb", cache.putAndGet("aa", "cc"));
+		assertEquals("cc", cache.get("aa"));
+		assertEquals("cc", cache.remove("aa"));
+		assertNull(cache.get("aa"));
+
+		cache.close();
+	}
+
+	@Test
+	public void testConditionalWrites() throws CacheException {
+
+		OffHeapCache<String, String> cache = new OffHeapCache<String, String>(1024 * 1024);
+
+		CacheAssertions.assertConditionalWrites(cache);
+
+		cache.close();
+	}
+
+	@Test
+	public void testCounters() throws Exception {
+
+		OffHeapCache<String, Long> cache = new OffHeapCache<String, Long>(1024 * 1024);
+
+		CacheAssertions.assertCounters(cache);
+		CacheAssertions.assertPlainValueCounters(cache);
+		CacheAssertions.assertConcurrentIncrements(cache);
+
+		cache.close();
+	}
+
+	@Test
+	public void testExpiration() throws Exception {
+
+		OffHeapCache<String, String> cache = new OffHeapCache<String, String>(1024 * 1024);
+
+		cache.put("shortLived", "value", 1);
+		cache.put("longLived", "value", 60);
+
+		Thread.sleep(1500);
+
+		assertNull(cache.get("shortLived"));
+		assertEquals("value", cache.get("longLived"));
+
+		cache.close();
+	}
+
+	@Test
+	public void testMemoryIsBounded() throws CacheException {
+
+		long maxBytes = 1024 * 1024;
+		OffHeapCache<Integer, String> cache = new OffHeapCache<Integer, String>(maxBytes, 16 * 1024, 4);
+
+		for (int i = 0; i < 100000; i++) {
+			cache.put(i, "value" + i);
+		}
+
+		// the oldest entries were evicted with their slabs, the newest ones are still there
+		assertTrue(cache.size() < 100000);
+		assertEquals("value99999", cache.get(99999));
+		assertNull(cache.get(0));
+		assertTrue(cache.getAllocatedBytes() <= maxBytes);
+
+		cache.close();
+
+		// a budget too small for two slabs in each of the segments
+		cache = new OffHeapCache<Integer, String>(100 * 1024, 16 * 1024, 8);
+		for (int i = 0; i < 100000; i++) {
+			cache.put(i, "value" + i);
+		}
+		assertTrue(cache.getAllocatedBytes() <= 100 * 1024);
+		assertEquals("value99999", cache.get(99999));
+
+		cache.close();
+	}
+
+}